@@ -23,25 +23,36 @@ import com.google.devtools.build.lib.buildeventstream.GenericBuildEvent;
 import com.google.devtools.build.lib.buildeventstream.PathConverter;
 import com.google.devtools.build.lib.causes.ActionFailed;
 import com.google.devtools.build.lib.causes.Cause;
+import com.google.devtools.build.lib.shell.ResourceUsage;
 import com.google.devtools.build.lib.vfs.Path;
 import java.util.Collection;
+import javax.annotation.Nullable;
 
 /**
  * This event is fired during the build, when an action is executed. It contains information about
- * the action: the Action itself, and the output file names its stdout and stderr are recorded in.
+ * the action: the Action itself, the output file names its stdout and stderr are recorded in, and
+ * the resources its local processes used, if known.
  */
 public class ActionExecutedEvent implements BuildEvent {
   private final Action action;
   private final ActionExecutionException exception;
   private final Path stdout;
   private final Path stderr;
+  private final ResourceUsage resourceUsage;
 
   public ActionExecutedEvent(Action action,
       ActionExecutionException exception, Path stdout, Path stderr) {
+    this(action, exception, stdout, stderr, null);
+  }
+
+  public ActionExecutedEvent(Action action,
+      ActionExecutionException exception, Path stdout, Path stderr,
+      @Nullable ResourceUsage resourceUsage) {
     this.action = action;
     this.exception = exception;
     this.stdout = stdout;
     this.stderr = stderr;
+    this.resourceUsage = resourceUsage;
   }
 
   public Action getAction() {
@@ -67,6 +78,12 @@ public class ActionExecutedEvent implements BuildEvent {
     return stderr.toString();
   }
 
+  /** Returns the resources that the local processes of the action used, or null if not known. */
+  @Nullable
+  public ResourceUsage getResourceUsage() {
+    return resourceUsage;
+  }
+
   @Override
   public BuildEventId getEventId() {
     if (getException() != null) {
@@ -108,6 +125,16 @@ public class ActionExecutedEvent implements BuildEvent {
     if (action.getOwner() != null && action.getOwner().getLabel() != null) {
       actionBuilder.setLabel(action.getOwner().getLabel().toString());
     }
+    if (resourceUsage != null) {
+      actionBuilder.setResourceUsage(
+          BuildEventStreamProtos.ActionExecuted.ResourceUsage.newBuilder()
+              .setUserTimeMillis(resourceUsage.getUserTimeMicros() / 1000)
+              .setSystemTimeMillis(resourceUsage.getSystemTimeMicros() / 1000)
+              .setMaxResidentSetKb(resourceUsage.getMaxResidentSetKb())
+              .setBlockInputOps(resourceUsage.getBlockInputOps())
+              .setBlockOutputOps(resourceUsage.getBlockOutputOps())
+              .build());
+    }
     if (exception == null) {
       actionBuilder.setPrimaryOutput(
           BuildEventStreamProtos.File.newBuilder()
@@ -0,0 +1,240 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.actions;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.shell.ResourceUsage;
+import com.google.devtools.build.lib.util.PersistentMap;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import javax.annotation.Nullable;
+
+/**
+ * Remembers the resources that the local processes of actions used in earlier builds, so that
+ * {@link ResourceManager} can schedule actions by what they actually need instead of by the static
+ * estimates of their {@link ResourceSet}.
+ *
+ * <p>Usage is kept per mnemonic, and per mnemonic and target, as moving averages that favor the
+ * most recent processes. It is written to disk when the build ends.
+ */
+@ThreadSafe
+public final class ActionResourceHistory {
+  // How much the most recent process counts towards the averages.
+  private static final double RECENT_WEIGHT = 0.3;
+  // Mnemonics cover many different targets, so their averages are only used once they settled.
+  private static final int MIN_MNEMONIC_SAMPLES = 3;
+  // Even the most I/O-bound action occupies some CPU.
+  private static final double MIN_CPU_USAGE = 0.1;
+
+  /** What the processes of a mnemonic or a target used on average. Instances are immutable. */
+  public static final class Entry {
+    private final int samples;
+    private final double wallMillis;
+    private final double cpuMillis;
+    private final double memoryMb;
+    private final double blockOps;
+
+    private Entry(
+        int samples, double wallMillis, double cpuMillis, double memoryMb, double blockOps) {
+      this.samples = samples;
+      this.wallMillis = wallMillis;
+      this.cpuMillis = cpuMillis;
+      this.memoryMb = memoryMb;
+      this.blockOps = blockOps;
+    }
+
+    private static Entry of(long wallMillis, ResourceUsage usage) {
+      return new Entry(
+          1,
+          wallMillis,
+          (usage.getUserTimeMicros() + usage.getSystemTimeMicros()) / 1000.0,
+          usage.getMaxResidentSetKb() / 1024.0,
+          usage.getBlockInputOps() + usage.getBlockOutputOps());
+    }
+
+    private Entry add(Entry recent) {
+      return new Entry(
+          samples + 1,
+          average(wallMillis, recent.wallMillis),
+          average(cpuMillis, recent.cpuMillis),
+          average(memoryMb, recent.memoryMb),
+          average(blockOps, recent.blockOps));
+    }
+
+    private static double average(double previous, double recent) {
+      return previous * (1 - RECENT_WEIGHT) + recent * RECENT_WEIGHT;
+    }
+
+    /** Returns the number of processes that this entry is based on. */
+    public int getSamples() {
+      return samples;
+    }
+
+    /** Returns the maximum resident set size, in MB. */
+    public double getMemoryMb() {
+      return memoryMb;
+    }
+
+    /** Returns the number of CPUs that the processes kept busy while they ran. */
+    public double getCpuUsage() {
+      return wallMillis > 0 ? cpuMillis / wallMillis : 0;
+    }
+
+    /** Returns the number of block reads and writes. */
+    public double getBlockOps() {
+      return blockOps;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%d processes, %.2f CPUs, %.0f MB, %.0f block operations",
+          samples, getCpuUsage(), memoryMb, blockOps);
+    }
+  }
+
+  // Entry has to be qualified in here, as it would otherwise refer to Map.Entry.
+  private static final class HistoryMap extends PersistentMap<String, ActionResourceHistory.Entry> {
+    private static final int VERSION = 0x01;
+
+    HistoryMap(Path mapFile, Path journalFile) throws IOException {
+      super(VERSION, new HashMap<String, ActionResourceHistory.Entry>(), mapFile, journalFile);
+      load();
+    }
+
+    @Override
+    protected boolean updateJournal() {
+      // The whole map is saved at the end of the build; losing a build's worth of samples when
+      // the server dies is not worth writing a journal for.
+      return false;
+    }
+
+    @Override
+    protected String readKey(DataInputStream in) throws IOException {
+      int length = in.readInt();
+      if (length < 0) {
+        throw new IOException("corrupt key length: " + length);
+      }
+      byte[] content = new byte[length];
+      in.readFully(content);
+      return new String(content, UTF_8);
+    }
+
+    @Override
+    protected ActionResourceHistory.Entry readValue(DataInputStream in) throws IOException {
+      return new ActionResourceHistory.Entry(
+          in.readInt(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+    }
+
+    @Override
+    protected void writeKey(String key, DataOutputStream out) throws IOException {
+      byte[] content = key.getBytes(UTF_8);
+      out.writeInt(content.length);
+      out.write(content);
+    }
+
+    @Override
+    protected void writeValue(ActionResourceHistory.Entry value, DataOutputStream out)
+        throws IOException {
+      out.writeInt(value.samples);
+      out.writeDouble(value.wallMillis);
+      out.writeDouble(value.cpuMillis);
+      out.writeDouble(value.memoryMb);
+      out.writeDouble(value.blockOps);
+    }
+  }
+
+  private final HistoryMap map;
+
+  /** Loads the history from the given file, if it exists. */
+  public ActionResourceHistory(Path file) throws IOException {
+    this.map = new HistoryMap(file, FileSystemUtils.replaceExtension(file, ".journal"));
+  }
+
+  private static String getMnemonicKey(ActionExecutionMetadata action) {
+    return action.getMnemonic();
+  }
+
+  @Nullable
+  private static String getTargetKey(ActionExecutionMetadata action) {
+    ActionOwner owner = action.getOwner();
+    if (owner == null || owner.getLabel() == null) {
+      return null;
+    }
+    return action.getMnemonic() + " " + owner.getLabel();
+  }
+
+  /** Records what a process of the given action used. */
+  public synchronized void record(
+      ActionExecutionMetadata action, long wallMillis, ResourceUsage usage) {
+    Entry recent = Entry.of(wallMillis, usage);
+    add(getMnemonicKey(action), recent);
+    String targetKey = getTargetKey(action);
+    if (targetKey != null) {
+      add(targetKey, recent);
+    }
+  }
+
+  private void add(String key, Entry recent) {
+    Entry previous = map.get(key);
+    map.put(key, previous == null ? recent : previous.add(recent));
+  }
+
+  /**
+   * Returns what the processes of the given action used on average, from the processes of its
+   * target if there are any, and from those of its mnemonic otherwise. Returns null if too little
+   * is known.
+   */
+  @Nullable
+  public synchronized Entry get(ActionExecutionMetadata action) {
+    String targetKey = getTargetKey(action);
+    Entry entry = targetKey != null ? map.get(targetKey) : null;
+    if (entry == null) {
+      entry = map.get(getMnemonicKey(action));
+      if (entry != null && entry.samples < MIN_MNEMONIC_SAMPLES) {
+        entry = null;
+      }
+    }
+    return entry;
+  }
+
+  /**
+   * Returns the resources that the given action is expected to use, or {@code declared} if too
+   * little is known. Only the memory and CPU estimates are replaced, as the block operations of a
+   * process don't translate into the I/O capacity of {@link ResourceSet}.
+   */
+  public ResourceSet estimate(ActionExecutionMetadata action, ResourceSet declared) {
+    Entry entry = get(action);
+    if (entry == null) {
+      return declared;
+    }
+    return ResourceSet.create(
+        entry.getMemoryMb(),
+        Math.max(entry.getCpuUsage(), MIN_CPU_USAGE),
+        declared.getIoUsage(),
+        declared.getLocalTestCount());
+  }
+
+  /** Writes the history to disk and returns its size in bytes. */
+  public synchronized long save() throws IOException {
+    return map.save();
+  }
+}
@@ -144,6 +144,12 @@ public class ExecutionRequirements {
   /** If an action supports running in persistent worker mode. */
   public static final String SUPPORTS_WORKERS = "supports-workers";
 
+  /**
+   * If an action's persistent worker can handle several concurrent work requests in one process.
+   * Only meaningful together with {@link #SUPPORTS_WORKERS}.
+   */
+  public static final String SUPPORTS_MULTIPLEX_WORKERS = "supports-multiplex-workers";
+
   public static final ImmutableMap<String, String> WORKER_MODE_ENABLED =
       ImmutableMap.of(SUPPORTS_WORKERS, "1");
 }
@@ -19,13 +19,20 @@ import static com.google.devtools.build.lib.profiler.AutoProfiler.profiled;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.profiler.AutoProfiler;
+import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.shell.ResourceUsage;
+import com.google.devtools.build.lib.util.BlazeClock;
 import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.util.Preconditions;
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
+import javax.annotation.Nullable;
 
 /**
  * Used to keep track of resources consumed by the Blaze action execution threads and throttle them
@@ -49,6 +56,17 @@ import java.util.concurrent.CountDownLatch;
  *     LocalHostCapacity#getLocalHostCapacity} method.
  * </ol>
  *
+ * <p>If an {@link ActionResourceHistory} is set, the resource manager records what the local
+ * processes of actions used, and can schedule actions by what they used in earlier builds instead
+ * of by their declared resources.
+ *
+ * <p>If {@link SpawnCgroups} are set, local spawns run with limits derived from the resources they
+ * acquired. Spawns that use much more memory than they acquired are then throttled or killed
+ * instead of endangering everything else. By default admission doesn't change, since the estimates
+ * of the spawns that run at the same time still have to fit the host. If overcommitting is enabled
+ * as well, the estimates may overlap more as long as the memory that the running spawns actually
+ * use leaves room for the next one.
+ *
  * <p>The resource manager also allows a slight overallocation of the resources to account for the
  * fact that requested resources are usually estimated using a pessimistic approximation. It also
  * guarantees that at least one thread will always be able to acquire any amount of requested
@@ -74,6 +92,11 @@ public class ResourceManager {
       this.resourceSet = resources;
     }
 
+    /** Returns the resources that were acquired. */
+    public ResourceSet getResources() {
+      return resourceSet;
+    }
+
     /**
      * Closing the ResourceHandle releases the resources associated with it.
      */
@@ -114,6 +137,11 @@ public class ResourceManager {
   private static final double MIN_NECESSARY_CPU_RATIO = 0.6;
   private static final double MIN_NECESSARY_RAM_RATIO = 1.0;
   private static final double MIN_NECESSARY_IO_RATIO = 1.0;
+  // When the cgroups of spawns enforce their resources and the spawns leave memory unused, a spawn
+  // that needs more than it acquired mostly harms itself, so the pessimistic estimates may be
+  // packed more tightly.
+  private static final double MIN_NECESSARY_CPU_RATIO_WITH_LIMITS = 0.4;
+  private static final double MIN_NECESSARY_RAM_RATIO_WITH_LIMITS = 0.8;
 
   // List of blocked threads. Associated CountDownLatch object will always
   // be initialized to 1 during creation in the acquire() method.
@@ -135,6 +163,10 @@ public class ResourceManager {
   // definition in the ResourceSet class.
   private double usedRam;
 
+  // Amount of RAM in MB used by long-lived processes that don't belong to any action, e.g. idle
+  // persistent workers. It reduces the RAM available to actions, but doesn't count as "in use".
+  private double externalRam;
+
   // Used amount of I/O resources. Corresponds to the I/O resource
   // definition in the ResourceSet class.
   private double usedIo;
@@ -142,6 +174,20 @@ public class ResourceManager {
   // Used local test count. Corresponds to the local test count definition in the ResourceSet class.
   private int usedLocalTestCount;
 
+  // What the processes of earlier actions used, or null if that isn't recorded.
+  private volatile ActionResourceHistory resourceHistory;
+  // Whether resources are estimated from resourceHistory instead of requested as declared.
+  private volatile boolean estimateFromHistory;
+
+  // The cgroups that enforce the resources of local spawns, or null if they aren't enforced.
+  private volatile SpawnCgroups spawnCgroups;
+  // Whether spawns may be packed more tightly while their cgroups show unused memory.
+  private volatile boolean overcommitWithinLimits;
+
+  // What the processes of actions that ran in this build used, until it is reported.
+  private final ConcurrentMap<ActionExecutionMetadata, ResourceUsage> resourceUsageByAction =
+      new ConcurrentHashMap<>();
+
   // Specifies how much of the RAM in staticResources we should allow to be used.
   public static final int DEFAULT_RAM_UTILIZATION_PERCENTAGE = 67;
   private int ramUtilizationPercentage = DEFAULT_RAM_UTILIZATION_PERCENTAGE;
@@ -168,6 +214,89 @@ public class ResourceManager {
       request.second.countDown();
     }
     requestList.clear();
+    resourceUsageByAction.clear();
+  }
+
+  /**
+   * Sets where to record the resources that the processes of actions use.
+   *
+   * @param history the history to record into, or null to not record anything
+   * @param estimateFromHistory whether to acquire the resources that actions used in earlier
+   *     builds instead of their declared ones
+   */
+  public void setResourceHistory(
+      @Nullable ActionResourceHistory history, boolean estimateFromHistory) {
+    this.resourceHistory = history;
+    this.estimateFromHistory = history != null && estimateFromHistory;
+  }
+
+  @Nullable
+  public ActionResourceHistory getResourceHistory() {
+    return resourceHistory;
+  }
+
+  /**
+   * Returns whether {@link #recordResourceUsage} records anything, i.e. whether it's worth finding
+   * out what a spawn used.
+   */
+  public boolean isRecordingResourceUsage() {
+    return resourceHistory != null;
+  }
+
+  /**
+   * Sets the cgroups in which local spawns run with limits derived from the resources they
+   * acquired.
+   *
+   * @param spawnCgroups the cgroups, or null if spawns run without limits
+   * @param overcommit whether to admit more spawns than the estimates allow while the memory that
+   *     the spawns in the cgroups use leaves room for them
+   */
+  public synchronized void setSpawnCgroups(
+      @Nullable SpawnCgroups spawnCgroups, boolean overcommit) {
+    this.spawnCgroups = spawnCgroups;
+    this.overcommitWithinLimits = spawnCgroups != null && overcommit;
+    if (availableResources != null) {
+      processWaitingThreads();
+    }
+  }
+
+  @Nullable
+  public SpawnCgroups getSpawnCgroups() {
+    return spawnCgroups;
+  }
+
+  /**
+   * Records the resources that a process of the given action used, if they are known. The
+   * process is also logged in the profile.
+   *
+   * @param startNanos when the process was started, according to {@link BlazeClock}
+   * @param usage the resources used by the process, or null if not known
+   */
+  public void recordResourceUsage(
+      ActionExecutionMetadata owner, long startNanos, @Nullable ResourceUsage usage) {
+    ActionResourceHistory history = resourceHistory;
+    if (usage == null || history == null) {
+      return;
+    }
+    long wallMillis = (BlazeClock.nanoTime() - startNanos) / 1000000;
+    Profiler.instance().logSpawn(startNanos, owner.getMnemonic() + ": " + usage);
+    history.record(owner, wallMillis, usage);
+    while (true) {
+      ResourceUsage previous = resourceUsageByAction.putIfAbsent(owner, usage);
+      if (previous == null
+          || resourceUsageByAction.replace(owner, previous, previous.combine(usage))) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Returns the resources that the processes of the given action used, or null if none were
+   * recorded, and forgets them.
+   */
+  @Nullable
+  public ResourceUsage takeResourceUsage(ActionExecutionMetadata action) {
+    return resourceUsageByAction.remove(action);
   }
 
   /**
@@ -192,6 +321,20 @@ public class ResourceManager {
     ramUtilizationPercentage = percentage;
   }
 
+  /**
+   * Sets the amount of RAM in MB that long-lived helper processes, like idle persistent workers,
+   * currently use outside of any action. Actions are only started if their RAM fits into what is
+   * left.
+   */
+  public synchronized void setExternalRamUsage(double ramMb) {
+    Preconditions.checkArgument(ramMb >= 0, "ramMb must not be negative");
+    boolean decreased = ramMb < externalRam;
+    externalRam = ramMb;
+    if (decreased && availableResources != null) {
+      processWaitingThreads();
+    }
+  }
+
   /**
    * Acquires requested resource set. Will block if resource is not available.
    * NB! This method must be thread-safe!
@@ -203,6 +346,11 @@ public class ResourceManager {
     Preconditions.checkState(
         !threadHasResources(), "acquireResources with existing resource lock during %s", owner);
 
+    ActionResourceHistory history = resourceHistory;
+    if (estimateFromHistory && history != null && owner != null && resources != ResourceSet.ZERO) {
+      resources = history.estimate(owner, resources);
+    }
+
     AutoProfiler p = profiled(owner, ProfilerTask.ACTION_LOCK);
     CountDownLatch latch = null;
     try {
@@ -280,6 +428,15 @@ public class ResourceManager {
   }
 
 
+  /**
+   * Returns whether the given resources could be acquired right now without waiting. The answer
+   * may be outdated as soon as it is returned, so it is only good for opportunistic decisions such
+   * as whether to run something locally that could also run elsewhere.
+   */
+  public synchronized boolean isIdleFor(ResourceSet resources) {
+    return requestList.isEmpty() && areResourcesAvailable(resources);
+  }
+
   /**
    * Return true iff this thread has a lock on non-zero resources.
    */
@@ -377,13 +534,26 @@ public class ResourceManager {
     if (usedCpu == 0.0 && usedRam == 0.0 && usedIo == 0.0 && usedLocalTestCount == 0) {
       return true;
     }
+    if (fits(resources, MIN_NECESSARY_CPU_RATIO, MIN_NECESSARY_RAM_RATIO)) {
+      return true;
+    }
+    SpawnCgroups cgroups = spawnCgroups;
+    return overcommitWithinLimits
+        && cgroups != null
+        && fits(resources, MIN_NECESSARY_CPU_RATIO_WITH_LIMITS, MIN_NECESSARY_RAM_RATIO_WITH_LIMITS)
+        && hasMemoryHeadroom(cgroups, resources.getMemoryMb());
+  }
+
+  // Method will return true if the requested resources fit next to the used ones, when only the
+  // given ratios of the requested CPU and RAM are counted.
+  private boolean fits(ResourceSet resources, double cpuRatio, double ramRatio) {
     // Use only MIN_NECESSARY_???_RATIO of the resource value to check for
     // allocation. This is necessary to account for the fact that most of the
     // requested resource sets use pessimistic estimations. Note that this
     // ratio is used only during comparison - for tracking we will actually
     // mark whole requested amount as used.
-    double cpu = resources.getCpuUsage() * MIN_NECESSARY_CPU_RATIO;
-    double ram = resources.getMemoryMb() * MIN_NECESSARY_RAM_RATIO;
+    double cpu = resources.getCpuUsage() * cpuRatio;
+    double ram = resources.getMemoryMb() * ramRatio;
     double io = resources.getIoUsage() * MIN_NECESSARY_IO_RATIO;
     int localTestCount = resources.getLocalTestCount();
 
@@ -400,13 +570,25 @@ public class ResourceManager {
     // resources even if it requests more than available.
     // 3) If used resource amount is less than total available resource amount.
     boolean cpuIsAvailable = cpu == 0.0 || usedCpu == 0.0 || usedCpu + cpu <= availableCpu;
-    boolean ramIsAvailable = ram == 0.0 || usedRam == 0.0 || usedRam + ram <= availableRam;
+    boolean ramIsAvailable =
+        ram == 0.0 || usedRam == 0.0 || usedRam + externalRam + ram <= availableRam;
     boolean ioIsAvailable = io == 0.0 || usedIo == 0.0 || usedIo + io <= availableIo;
     boolean localTestCountIsAvailable = localTestCount == 0 || usedLocalTestCount == 0
         || usedLocalTestCount + localTestCount <= availableLocalTestCount;
     return cpuIsAvailable && ramIsAvailable && ioIsAvailable && localTestCountIsAvailable;
   }
 
+  // Method will return true if the memory that the spawns in the cgroups actually use leaves room
+  // for the whole requested amount. Reading the cgroup can fail, e.g. when it was removed
+  // underneath us, in which case there is no headroom.
+  private boolean hasMemoryHeadroom(SpawnCgroups cgroups, double ramMb) {
+    try {
+      return cgroups.getMemoryInUseMb() + externalRam + ramMb <= availableResources.getMemoryMb();
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
   @VisibleForTesting
   synchronized int getWaitCount() {
     return requestList.size();
@@ -0,0 +1,252 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.actions;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.Preconditions;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * A cgroup v2 directory in which each local spawn gets a cgroup of its own, with memory limits and
+ * a CPU weight derived from the {@link ResourceSet} it was scheduled with. This keeps a spawn that
+ * uses far more memory than estimated from pushing the kernel into killing other processes, such
+ * as the Blaze server.
+ *
+ * <p>CPU is shared by weight rather than capped by a quota: a spawn may use idle CPUs beyond its
+ * estimate, and only when spawns compete for CPU do they get it in proportion to their estimates.
+ *
+ * <p>The directory has to be delegated to the user that Blaze runs as, must not contain any
+ * processes itself and must have the memory and cpu controllers available. The sandbox tools
+ * move themselves into the cgroup of a spawn before they start it.
+ */
+@ThreadSafe
+public final class SpawnCgroups {
+  private static final Splitter LINE_SPLITTER = Splitter.on('\n').omitEmptyStrings();
+  private static final Splitter FIELD_SPLITTER = Splitter.on(' ').omitEmptyStrings();
+  private static final String SPAWN_PREFIX = "spawn-";
+  // The weight of a spawn that was scheduled with one CPU. It is also the kernel's default weight.
+  private static final long CPU_WEIGHT_PER_CPU = 100;
+  private static final long MIN_CPU_WEIGHT = 1;
+  private static final long MAX_CPU_WEIGHT = 10000;
+
+  private final Path root;
+  private final double memoryLimitFactor;
+  private final AtomicLong nextId = new AtomicLong();
+
+  private SpawnCgroups(Path root, double memoryLimitFactor) {
+    this.root = root;
+    this.memoryLimitFactor = memoryLimitFactor;
+  }
+
+  /**
+   * Prepares the given cgroup directory for spawn cgroups, removing those left over by an earlier
+   * server.
+   *
+   * @param memoryLimitFactor how many times its estimated memory a spawn may use before it is
+   *     killed. Above the estimate itself, it is only throttled.
+   * @throws IOException if the directory can't be used, e.g. because the controllers aren't
+   *     available or because cgroups are not delegated to the user
+   */
+  public static SpawnCgroups create(Path root, double memoryLimitFactor) throws IOException {
+    Preconditions.checkArgument(memoryLimitFactor >= 1, "memoryLimitFactor must be at least 1");
+    FileSystemUtils.createDirectoryAndParents(root);
+    List<String> controllers =
+        FIELD_SPLITTER.splitToList(readFile(root.getRelative("cgroup.controllers")));
+    if (!controllers.contains("memory") || !controllers.contains("cpu")) {
+      throw new IOException(
+          "the memory and cpu controllers are not available in " + root + ", only " + controllers);
+    }
+    for (Path leftover : root.getDirectoryEntries()) {
+      if (leftover.getBaseName().startsWith(SPAWN_PREFIX)) {
+        new Cgroup(leftover, 0, 0).delete();
+      }
+    }
+    writeFile(root.getRelative("cgroup.subtree_control"), "+memory +cpu");
+    return new SpawnCgroups(root, memoryLimitFactor);
+  }
+
+  /** Creates the cgroup for a spawn that was scheduled with the given resources. */
+  public Cgroup createCgroup(ResourceSet resources) throws IOException {
+    Path path = root.getRelative(SPAWN_PREFIX + nextId.incrementAndGet());
+    path.createDirectory();
+    long memoryHighMb = (long) Math.ceil(resources.getMemoryMb());
+    long memoryMaxMb = (long) Math.ceil(resources.getMemoryMb() * memoryLimitFactor);
+    double cpus = resources.getCpuUsage();
+    Cgroup cgroup = new Cgroup(path, memoryHighMb, memoryMaxMb);
+    try {
+      if (memoryHighMb > 0) {
+        writeFile(path.getRelative("memory.high"), Long.toString(memoryHighMb << 20));
+        writeFile(path.getRelative("memory.max"), Long.toString(memoryMaxMb << 20));
+      }
+      if (cpus > 0) {
+        long weight = Math.round(cpus * CPU_WEIGHT_PER_CPU);
+        weight = Math.max(MIN_CPU_WEIGHT, Math.min(MAX_CPU_WEIGHT, weight));
+        writeFile(path.getRelative("cpu.weight"), Long.toString(weight));
+      }
+    } catch (IOException e) {
+      cgroup.delete();
+      throw e;
+    }
+    return cgroup;
+  }
+
+  /** Returns how much memory the processes in all spawn cgroups currently use, in MB. */
+  public double getMemoryInUseMb() throws IOException {
+    Path current = root.getRelative("memory.current");
+    String bytes = readFile(current);
+    try {
+      return Long.parseLong(bytes) / (double) (1 << 20);
+    } catch (NumberFormatException e) {
+      throw new IOException("unexpected content of " + current + ": " + bytes);
+    }
+  }
+
+  private static String readFile(Path path) throws IOException {
+    return new String(FileSystemUtils.readContent(path), US_ASCII).trim();
+  }
+
+  private static void writeFile(Path path, String content) throws IOException {
+    FileSystemUtils.writeContent(path, US_ASCII, content);
+  }
+
+  /** Parses the "key value" lines of a cgroup statistics file. */
+  private static ImmutableMap<String, Long> readKeyedFile(Path path) throws IOException {
+    ImmutableMap.Builder<String, Long> result = ImmutableMap.builder();
+    for (String line : LINE_SPLITTER.split(readFile(path))) {
+      List<String> fields = FIELD_SPLITTER.splitToList(line);
+      if (fields.size() == 2) {
+        try {
+          result.put(fields.get(0), Long.parseLong(fields.get(1)));
+        } catch (NumberFormatException e) {
+          throw new IOException("unexpected line in " + path + ": " + line);
+        }
+      }
+    }
+    return result.build();
+  }
+
+  private static long get(ImmutableMap<String, Long> values, String key) {
+    Long value = values.get(key);
+    return value == null ? 0 : value;
+  }
+
+  /** The cgroup of a single spawn. */
+  public static final class Cgroup {
+    private final Path path;
+    // Zero if the respective resource isn't limited.
+    private final long memoryHighMb;
+    private final long memoryMaxMb;
+
+    private Cgroup(Path path, long memoryHighMb, long memoryMaxMb) {
+      this.path = path;
+      this.memoryHighMb = memoryHighMb;
+      this.memoryMaxMb = memoryMaxMb;
+    }
+
+    /** Returns the directory of the cgroup, for the sandbox tools to move into. */
+    public Path getPath() {
+      return path;
+    }
+
+    /** Reads how often the limits of the cgroup kicked in so far. */
+    public LimitEvents readEvents() throws IOException {
+      ImmutableMap<String, Long> memoryEvents = readKeyedFile(path.getRelative("memory.events"));
+      return new LimitEvents(get(memoryEvents, "oom_kill"), get(memoryEvents, "high"));
+    }
+
+    /**
+     * Returns a message that explains how the limits of this cgroup contributed to the failure of
+     * its spawn, or null if they didn't kick in or the cgroup can't be read.
+     */
+    @Nullable
+    public String explainFailure() {
+      try {
+        return explainFailure(readEvents());
+      } catch (IOException e) {
+        return null;
+      }
+    }
+
+    @Nullable
+    String explainFailure(LimitEvents events) {
+      if (events.getOomKills() > 0) {
+        return String.format(
+            "killed by the kernel for exceeding its memory limit of %d MB (estimated: %d MB)",
+            memoryMaxMb, memoryHighMb);
+      }
+      if (events.wasThrottled()) {
+        return String.format(
+            "throttled to its estimated %d MB of memory (%s)", memoryHighMb, events);
+      }
+      return null;
+    }
+
+    /**
+     * Kills whatever processes of the spawn are left and removes the cgroup. Failures are
+     * ignored, the cgroup is then removed when the next server starts.
+     */
+    public void delete() {
+      try {
+        Path kill = path.getRelative("cgroup.kill");
+        if (kill.exists()) {
+          writeFile(kill, "1");
+        }
+        path.delete();
+      } catch (IOException e) {
+        // Retried by SpawnCgroups#create.
+      }
+    }
+  }
+
+  /** How often the limits of a spawn's cgroup were enforced. Instances are immutable. */
+  public static final class LimitEvents {
+    private final long oomKills;
+    private final long memoryThrottles;
+
+    LimitEvents(long oomKills, long memoryThrottles) {
+      this.oomKills = oomKills;
+      this.memoryThrottles = memoryThrottles;
+    }
+
+    /** Returns how many processes the kernel killed for exceeding the memory limit. */
+    public long getOomKills() {
+      return oomKills;
+    }
+
+    /** Returns how often the processes were throttled for using more memory than estimated. */
+    public long getMemoryThrottles() {
+      return memoryThrottles;
+    }
+
+    /** Returns whether the processes were slowed down by the limits. */
+    public boolean wasThrottled() {
+      return memoryThrottles > 0;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d OOM kills, throttled %d times", oomKills, memoryThrottles);
+    }
+  }
+}
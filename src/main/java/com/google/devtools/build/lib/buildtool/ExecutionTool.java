@@ -34,6 +34,7 @@ import com.google.devtools.build.lib.actions.ActionCacheChecker;
 import com.google.devtools.build.lib.actions.ActionContextMarker;
 import com.google.devtools.build.lib.actions.ActionGraph;
 import com.google.devtools.build.lib.actions.ActionInputFileCache;
+import com.google.devtools.build.lib.actions.ActionResourceHistory;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.ArtifactFactory;
 import com.google.devtools.build.lib.actions.BuildFailedException;
@@ -46,6 +47,7 @@ import com.google.devtools.build.lib.actions.LocalHostCapacity;
 import com.google.devtools.build.lib.actions.ResourceManager;
 import com.google.devtools.build.lib.actions.ResourceSet;
 import com.google.devtools.build.lib.actions.SpawnActionContext;
+import com.google.devtools.build.lib.actions.SpawnCgroups;
 import com.google.devtools.build.lib.actions.TestExecException;
 import com.google.devtools.build.lib.actions.cache.ActionCache;
 import com.google.devtools.build.lib.analysis.BuildView.AnalysisResult;
@@ -89,6 +91,7 @@ import com.google.devtools.build.lib.skyframe.SkyframeExecutor;
 import com.google.devtools.build.lib.util.AbruptExitException;
 import com.google.devtools.build.lib.util.ExitCode;
 import com.google.devtools.build.lib.util.LoggingUtil;
+import com.google.devtools.build.lib.util.OS;
 import com.google.devtools.build.lib.util.Preconditions;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.ModifiedFileSet;
@@ -702,6 +705,35 @@ public class ExecutionTool {
         request.getExecutionOptions().usingLocalTestJobs()
             ? request.getExecutionOptions().localTestJobs : Integer.MAX_VALUE
     ));
+
+    ActionResourceHistory history = null;
+    if (options.recordLocalResourceUsage || options.localResourcesFromHistory) {
+      history = resourceMgr.getResourceHistory();
+      if (history == null) {
+        try {
+          history = new ActionResourceHistory(env.getOutputBase().getRelative("resource_history"));
+        } catch (IOException e) {
+          getReporter().handle(Event.warn(
+              "Could not load the resource usage of earlier builds: " + e.getMessage()));
+        }
+      }
+    }
+    resourceMgr.setResourceHistory(history, options.localResourcesFromHistory);
+
+    SpawnCgroups cgroups = null;
+    if (options.localCgroupRoot != null && OS.getCurrent() == OS.LINUX) {
+      try {
+        cgroups =
+            SpawnCgroups.create(
+                env.getOutputBase().getFileSystem().getPath(options.localCgroupRoot),
+                options.localMemoryLimitFactor);
+      } catch (IOException | IllegalArgumentException e) {
+        getReporter().handle(Event.warn(
+            "Local spawns run without resource limits, the cgroup root is unusable: "
+                + e.getMessage()));
+      }
+    }
+    resourceMgr.setSpawnCgroups(cgroups, options.localCgroupOvercommit);
   }
 
   /**
@@ -723,6 +755,16 @@ public class ExecutionTool {
     }
     env.getEventBus().post(new CachesSavedEvent(
         actionCacheSaveTimeInMs, actionCacheSizeInBytes));
+
+    ActionResourceHistory history = ResourceManager.instance().getResourceHistory();
+    if (history != null) {
+      try {
+        history.save();
+      } catch (IOException e) {
+        getReporter().handle(
+            Event.warn("Could not save the resource usage of this build: " + e.getMessage()));
+      }
+    }
   }
 
   private Reporter getReporter() {
@@ -220,6 +220,75 @@ public class ExecutionOptions extends OptionsBase {
   )
   public ResourceSet availableResources;
 
+  @Option(
+    name = "experimental_process_launcher",
+    defaultValue = "false",
+    category = "strategy",
+    help =
+        "If enabled, processes are started by a small helper process instead of by the server "
+            + "itself, which saves forking the server for every action. Has no effect on Windows."
+  )
+  public boolean useProcessLauncher;
+
+  @Option(
+    name = "experimental_record_local_resource_usage",
+    defaultValue = "false",
+    category = "strategy",
+    help =
+        "If enabled, the CPU time, memory and block I/O that the processes of local actions use "
+            + "are recorded in the output base, logged to the profile and reported with each "
+            + "action in the build event protocol. Standalone spawns and those in the "
+            + "processwrapper-sandbox report it on Linux and macOS; spawns in the other sandboxes "
+            + "only with --experimental_process_launcher. Workers and remote spawns never do."
+  )
+  public boolean recordLocalResourceUsage;
+
+  @Option(
+    name = "experimental_local_resources_from_history",
+    defaultValue = "false",
+    category = "strategy",
+    help =
+        "If enabled, local actions are scheduled by the CPU and memory that their processes used "
+            + "in earlier builds instead of by their static estimates. Implies "
+            + "--experimental_record_local_resource_usage."
+  )
+  public boolean localResourcesFromHistory;
+
+  @Option(
+    name = "experimental_local_cgroup_root",
+    defaultValue = "null",
+    category = "strategy",
+    help =
+        "If set, each local spawn runs in a cgroup of its own below this cgroup v2 directory, "
+            + "limited to the memory it was scheduled with and weighted by its CPU estimate. The "
+            + "directory must be delegated to the user running Blaze and have the cpu and memory "
+            + "controllers. Only supported on Linux."
+  )
+  public String localCgroupRoot;
+
+  @Option(
+    name = "experimental_local_memory_limit_factor",
+    defaultValue = "2.0",
+    category = "strategy",
+    help =
+        "With --experimental_local_cgroup_root, how many times its estimated memory a local "
+            + "spawn may use before the kernel kills it. Above the estimate itself, it is only "
+            + "throttled."
+  )
+  public double localMemoryLimitFactor;
+
+  @Option(
+    name = "experimental_local_cgroup_overcommit",
+    defaultValue = "false",
+    category = "strategy",
+    help =
+        "With --experimental_local_cgroup_root, admit more local spawns than their estimates "
+            + "allow while the memory that the running spawns actually use leaves room for the "
+            + "next spawn's whole estimate. Spawns that then need more than estimated are "
+            + "throttled or killed by their cgroup limits."
+  )
+  public boolean localCgroupOvercommit;
+
   @Option(
     name = "local_test_jobs",
     defaultValue = "0",
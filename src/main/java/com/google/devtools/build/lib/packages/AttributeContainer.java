@@ -15,7 +15,11 @@ package com.google.devtools.build.lib.packages;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import com.google.devtools.build.lib.concurrent.BlazeInterners;
 import com.google.devtools.build.lib.events.Location;
+import com.google.devtools.build.lib.syntax.GlobList;
 import java.util.Arrays;
 import javax.annotation.Nullable;
 
@@ -31,13 +35,29 @@ import javax.annotation.Nullable;
  * <p>This class provides the lowest-level access to attribute information. It is *not*
  * intended to be a robust public interface, but rather just an input to {@link AttributeMap}
  * instances. Use those instances for all domain-level attribute access.
+ *
+ * <p>Since packages are retained for the lifetime of the server, the values are stored compactly:
+ * values that are the (non-computed) default of their attribute are not stored at all, and
+ * identical lists (e.g. common {@code deps}, {@code visibility} or {@code copts}) are shared
+ * between all rules.
  */
 public class AttributeContainer {
 
+  /**
+   * Shares equal list values between rules. Only {@link ImmutableList}s are shared, so lists with
+   * additional state (such as {@link GlobList}s) are never replaced by a plain list.
+   */
+  private static final Interner<ImmutableList<?>> LIST_INTERNER =
+      BlazeInterners.newWeakInterner();
+
   private final RuleClass ruleClass;
 
-  // Attribute values, keyed by attribute index:
-  private final Object[] attributeValues;
+  // The indices of the attributes whose values are stored, in ascending order. Each index is
+  // stored plus one; the zero bytes at the end are unused. The value of the attribute
+  // (0xff & valueIndices[i]) - 1 is values[i]. All other attributes have their default value.
+  private byte[] valueIndices;
+  private Object[] values;
+  private int valueCount;
 
   // Holds two lists of attribute indices.
   // The first byte gives the length of the first list.
@@ -67,13 +87,16 @@ public class AttributeContainer {
       throw new AssertionError("can't pack " + n + " rule indices into bytes");
     }
     this.ruleClass = ruleClass;
-    this.attributeValues = new Object[n];
+    this.valueIndices = EMPTY_VALUE_INDICES;
+    this.values = EMPTY_VALUES;
     this.state = EMPTY_STATE;
     this.attributeLocations = locations;
   }
 
   private static final byte[] EMPTY_STATE = {0};
   private static final Location[] EMPTY_LOCATIONS = {};
+  private static final byte[] EMPTY_VALUE_INDICES = {};
+  private static final Object[] EMPTY_VALUES = {};
 
   /**
    * Returns an attribute value by name, or null on no match.
@@ -81,7 +104,7 @@ public class AttributeContainer {
   @Nullable
   public Object getAttr(String attrName) {
     Integer idx = ruleClass.getAttributeIndex(attrName);
-    return idx != null ? attributeValues[idx] : null;
+    return idx != null ? getAttributeValue(idx) : null;
   }
 
   /**
@@ -183,7 +206,55 @@ public class AttributeContainer {
   }
 
   Object getAttributeValue(int index) {
-    return attributeValues[index];
+    int valueIndex = findValue(index);
+    if (valueIndex >= 0) {
+      return values[valueIndex];
+    }
+    Attribute attribute = ruleClass.getAttribute(index);
+    return attribute.hasComputedDefault() ? null : attribute.getDefaultValue(null);
+  }
+
+  /**
+   * Returns whether the given container is for the same rule class and holds equal values, set
+   * explicitly for the same attributes. Where in the BUILD file they were set is not compared, as
+   * for {@link Rule#hasSameContentAs}.
+   */
+  boolean hasSameContentAs(AttributeContainer other) {
+    if (ruleClass != other.ruleClass || valueCount != other.valueCount) {
+      return false;
+    }
+    for (int i = 0; i < valueCount; i++) {
+      if (valueIndices[i] != other.valueIndices[i] || !sameValue(values[i], other.values[i])) {
+        return false;
+      }
+    }
+    // The explicit attributes are compared by attribute, since they are recorded in the order in
+    // which the attributes were set.
+    int explicitCount = explicitCount();
+    if (explicitCount != other.explicitCount()) {
+      return false;
+    }
+    for (int i = 1; i <= explicitCount; i++) {
+      if (!other.getExplicit((0xff & state[i]) - 1)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean sameValue(Object value, Object other) {
+    if (value == other) {
+      return true;
+    }
+    if (value instanceof GlobList || other instanceof GlobList) {
+      // Glob lists are equal to plain lists with the same elements, but they also remember the
+      // globs they came from.
+      return value instanceof GlobList
+          && other instanceof GlobList
+          && value.equals(other)
+          && ((GlobList<?>) value).getCriteria().equals(((GlobList<?>) other).getCriteria());
+    }
+    return value != null && value.equals(other);
   }
 
   void setAttributeValue(Attribute attribute, Object value, boolean explicit) {
@@ -192,12 +263,72 @@ public class AttributeContainer {
     if (!explicit && getExplicit(index)) {
       throw new IllegalArgumentException("attribute " + name + " already explicitly set");
     }
-    attributeValues[index] = value;
+    int valueIndex = findValue(index);
+    if (!explicit
+        && !attribute.hasComputedDefault()
+        && value == attribute.getDefaultValue(null)) {
+      // Returned by getAttributeValue without being stored.
+      if (valueIndex >= 0) {
+        removeValue(valueIndex);
+      }
+    } else {
+      if (value instanceof ImmutableList<?>) {
+        value = LIST_INTERNER.intern((ImmutableList<?>) value);
+      }
+      if (valueIndex < 0) {
+        valueIndex = insertValue(-valueIndex - 1, index);
+      }
+      values[valueIndex] = value;
+    }
     if (explicit) {
       setExplicit(index);
     }
   }
 
+  /**
+   * Returns the position of the value of the given attribute in {@link #values}, or if it is not
+   * stored, {@code -p - 1} where p is the position at which it would be inserted.
+   */
+  private int findValue(int index) {
+    int low = 0;
+    int high = valueCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int midIndex = (0xff & valueIndices[mid]) - 1;
+      if (midIndex < index) {
+        low = mid + 1;
+      } else if (midIndex > index) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -low - 1;
+  }
+
+  private int insertValue(int valueIndex, int index) {
+    if (valueCount == values.length) {
+      // Grow by four references (and bytes), as the objects are aligned to eight bytes anyway.
+      values = Arrays.copyOf(values, valueCount + 4);
+      valueIndices = Arrays.copyOf(valueIndices, valueCount + 4);
+    }
+    int tail = valueCount - valueIndex;
+    System.arraycopy(values, valueIndex, values, valueIndex + 1, tail);
+    System.arraycopy(valueIndices, valueIndex, valueIndices, valueIndex + 1, tail);
+    valueIndices[valueIndex] = (byte) (index + 1);
+    valueCount++;
+    return valueIndex;
+  }
+
+  private void removeValue(int valueIndex) {
+    valueCount--;
+    int tail = valueCount - valueIndex;
+    System.arraycopy(values, valueIndex + 1, values, valueIndex, tail);
+    System.arraycopy(valueIndices, valueIndex + 1, valueIndices, valueIndex, tail);
+    values[valueCount] = null;
+    valueIndices[valueCount] = 0;
+  }
+
   // This sets the attribute "explicitly" as if it came from the BUILD file.
   // At present, the sole use of this is for the test_suite.$implicit_tests
   // attribute, which is synthesized during package loading.  We do want to
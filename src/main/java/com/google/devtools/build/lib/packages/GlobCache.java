@@ -29,12 +29,12 @@ import com.google.devtools.build.lib.vfs.UnixGlob;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -43,9 +43,12 @@ import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Caches the results of glob expansion for a package.
+ *
+ * <p>The calls of a BUILD file may be evaluated concurrently, so several threads may glob at the
+ * same time. Each glob is still started only once.
  */
   // Used outside of Bazel!
-@ThreadSafety.ThreadCompatible
+@ThreadSafety.ThreadSafe
 public class GlobCache {
   /**
    * A mapping from glob expressions (e.g. "*.java") to the list of files it
@@ -55,7 +58,8 @@ public class GlobCache {
    * We don't use a Multimap because it provides no way to distinguish "key not
    * present" from (key -> {}).
    */
-  private final Map<Pair<String, Boolean>, Future<List<Path>>> globCache = new HashMap<>();
+  private final Map<Pair<String, Boolean>, Future<List<Path>>> globCache =
+      new ConcurrentHashMap<>();
 
   /**
    * The directory in which our package's BUILD file resides.
@@ -133,7 +137,8 @@ public class GlobCache {
    * @throws BadGlobException if the glob was syntactically invalid, or
    *  contained uplevel references.
    */
-  Future<List<Path>> getGlobUnsortedAsync(String pattern, boolean excludeDirs)
+  // Synchronized so that a glob is started only once. Starting one doesn't block.
+  synchronized Future<List<Path>> getGlobUnsortedAsync(String pattern, boolean excludeDirs)
       throws BadGlobException {
     Future<List<Path>> cached = globCache.get(Pair.of(pattern, excludeDirs));
     if (cached == null) {
@@ -163,7 +168,7 @@ public class GlobCache {
     if (!(futureResult instanceof SettableFuture<?>)) {
       SettableFuture<List<Path>> completedFuture = SettableFuture.create();
       completedFuture.set(globPaths);
-      globCache.put(Pair.of(pattern, excludeDirs), completedFuture);
+      globCache.replace(Pair.of(pattern, excludeDirs), futureResult, completedFuture);
     }
 
     List<String> result = Lists.newArrayListWithCapacity(globPaths.size());
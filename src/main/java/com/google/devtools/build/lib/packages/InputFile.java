@@ -21,6 +21,7 @@ import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.util.Preconditions;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import java.util.Objects;
 
 /**
  * A file that is an input to the build system.
@@ -76,6 +77,19 @@ public final class InputFile extends FileTarget {
     return false;
   }
 
+  /**
+   * Returns whether the given input file, typically the same file of another version of its
+   * package, is declared the same way as this one, as for {@link Rule#hasSameContentAs}.
+   */
+  public boolean hasSameContentAs(InputFile other) {
+    return this == other
+        || (label.equals(other.label)
+            && Rule.sameFile(location, other.location)
+            && Rule.sameVisibility(visibility, other.visibility)
+            && Objects.equals(license, other.license)
+            && pkg.hasSamePackageLevelStateAs(other.pkg));
+  }
+
   public boolean isLicenseSpecified() {
     return license != null && license != License.NO_LICENSE;
   }
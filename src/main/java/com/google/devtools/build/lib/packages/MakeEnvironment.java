@@ -105,6 +105,29 @@ public class MakeEnvironment {
     return env;
   }
 
+  /** Returns whether the given environment binds the same variables to the same values. */
+  boolean hasSameBindingsAs(MakeEnvironment other) {
+    if (!env.keySet().equals(other.env.keySet())) {
+      return false;
+    }
+    for (Map.Entry<String, ImmutableList<Binding>> entry : env.entrySet()) {
+      List<Binding> bindings = entry.getValue();
+      List<Binding> otherBindings = other.env.get(entry.getKey());
+      if (bindings.size() != otherBindings.size()) {
+        return false;
+      }
+      for (int i = 0; i < bindings.size(); i++) {
+        Binding binding = bindings.get(i);
+        Binding otherBinding = otherBindings.get(i);
+        if (!binding.value.equals(otherBinding.value)
+            || !binding.platformSetRegexp.equals(otherBinding.platformSetRegexp)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
   /**
    * Interface for creating a MakeEnvironment, settings its environment values,
    * and exposing it in immutable state.
@@ -50,6 +50,14 @@ public final class OutputFile extends FileTarget {
     return generatingRule;
   }
 
+  /**
+   * Returns whether the given output file, typically the same file of another version of its
+   * package, is generated by a rule with the same content, as for {@link Rule#hasSameContentAs}.
+   */
+  public boolean hasSameContentAs(OutputFile other) {
+    return label.equals(other.label) && generatingRule.hasSameContentAs(other.generatingRule);
+  }
+
   @Override
   public String getTargetKind() {
     return targetKind();
@@ -46,6 +46,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import javax.annotation.Nullable;
 
@@ -192,6 +193,12 @@ public class Package {
 
   private ImmutableList<Event> events;
 
+  /**
+   * Whether this package has environment groups, which the environments of the package read
+   * through their package instead of their attributes.
+   */
+  private boolean containsEnvironmentGroups;
+
   /**
    * Package initialization, part 1 of 3: instantiates a new package with the
    * given name.
@@ -315,6 +322,8 @@ public class Package {
     this.defaultDistributionSet = builder.defaultDistributionSet;
     this.features = ImmutableSortedSet.copyOf(builder.features);
     this.events = ImmutableList.copyOf(builder.events);
+    this.containsEnvironmentGroups =
+        !Iterables.isEmpty(builder.getTargets(EnvironmentGroup.class));
   }
 
   /**
@@ -644,6 +653,38 @@ public class Package {
     return defaultRestrictedTo;
   }
 
+  /**
+   * Returns whether the given version of this package has the same state as this one, except for
+   * its targets, so that a rule of one version behaves exactly like a rule with the same content
+   * of the other version.
+   */
+  boolean hasSamePackageLevelStateAs(Package other) {
+    if (this == other) {
+      return true;
+    }
+    return packageIdentifier.equals(other.packageIdentifier)
+        && filename.equals(other.filename)
+        && Objects.equals(sourceRoot, other.sourceRoot)
+        && Objects.equals(workspaceName, other.workspaceName)
+        && makeEnv.hasSameBindingsAs(other.makeEnv)
+        && Rule.sameVisibility(defaultVisibility, other.defaultVisibility)
+        && defaultVisibilitySet == other.defaultVisibilitySet
+        && defaultTestOnly == other.defaultTestOnly
+        && Objects.equals(defaultDeprecation, other.defaultDeprecation)
+        && Objects.equals(defaultHdrsCheck, other.defaultHdrsCheck)
+        && defaultCopts.equals(other.defaultCopts)
+        && containsErrors == other.containsErrors
+        && subincludes.equals(other.subincludes)
+        && Objects.equals(skylarkFileDependencies, other.skylarkFileDependencies)
+        && Objects.equals(defaultLicense, other.defaultLicense)
+        && Objects.equals(defaultDistributionSet, other.defaultDistributionSet)
+        && defaultCompatibleWith.equals(other.defaultCompatibleWith)
+        && defaultRestrictedTo.equals(other.defaultRestrictedTo)
+        && features.equals(other.features)
+        && !containsEnvironmentGroups
+        && !other.containsEnvironmentGroups;
+  }
+
   @Override
   public String toString() {
     return "Package(" + name + ")="
@@ -1256,6 +1297,39 @@ public class Package {
       addRuleUnchecked(rule);
     }
 
+    /**
+     * Adds the given rules in order, like {@link #addRule}. If one of them conflicts, the rules
+     * that were already added are removed again, so that the package is left unchanged.
+     */
+    void addRules(List<Rule> rules) throws NameConflictException, InterruptedException {
+      boolean hadErrors = containsErrors;
+      int added = 0;
+      try {
+        for (Rule rule : rules) {
+          addRule(rule);
+          added++;
+        }
+      } catch (NameConflictException e) {
+        // The conflicting rule may have registered some of its output file prefixes already.
+        for (Rule rule : rules.subList(0, added + 1)) {
+          removeRule(rule);
+        }
+        containsErrors = hadErrors;
+        throw e;
+      }
+    }
+
+    private void removeRule(Rule rule) {
+      targets.remove(rule.getName(), rule);
+      for (OutputFile outputFile : rule.getOutputFiles()) {
+        targets.remove(outputFile.getName(), outputFile);
+        PathFragment outputFileFragment = PathFragment.create(outputFile.getName());
+        for (int i = 1; i < outputFileFragment.segmentCount(); i++) {
+          outputFilePrefixes.remove(outputFileFragment.subFragment(0, i).toString(), outputFile);
+        }
+      }
+    }
+
     private Builder beforeBuild(boolean discoverAssumedInputFiles) throws InterruptedException {
       Preconditions.checkNotNull(pkg);
       Preconditions.checkNotNull(filename);
@@ -337,6 +337,9 @@ public final class PackageFactory {
   private AtomicReference<? extends UnixGlob.FilesystemCalls> syscalls;
 
   private final ThreadPoolExecutor threadPool;
+  // Evaluates the top-level statements of BUILD files concurrently, unless it has no threads.
+  private final ThreadPoolExecutor buildFileEvaluationThreadPool;
+  private int buildFileEvaluationThreads;
   private Map<String, String> platformSetRegexps;
 
   private int maxDirectoriesToEagerlyVisitInGlobbing;
@@ -408,6 +411,10 @@ public final class PackageFactory {
         new ThreadFactoryBuilder().setNameFormat("Legacy globber %d").build());
     // Do not consume threads when not in use.
     threadPool.allowCoreThreadTimeOut(true);
+    buildFileEvaluationThreadPool = new ThreadPoolExecutor(1, 1, 15L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactoryBuilder().setNameFormat("BUILD file evaluation %d").build());
+    buildFileEvaluationThreadPool.allowCoreThreadTimeOut(true);
     this.environmentExtensions = ImmutableList.copyOf(environmentExtensions);
     this.packageArguments = createPackageArguments();
     this.nativeModule = newNativeModule();
@@ -430,6 +437,18 @@ public final class PackageFactory {
     threadPool.setMaximumPoolSize(globbingThreads);
   }
 
+  /**
+   * Sets the number of threads to use for evaluating independent top-level statements of a BUILD
+   * file concurrently. If zero, the statements of a BUILD file are evaluated one after the other.
+   */
+  public void setBuildFileEvaluationThreads(int buildFileEvaluationThreads) {
+    this.buildFileEvaluationThreads = buildFileEvaluationThreads;
+    if (buildFileEvaluationThreads > 0) {
+      buildFileEvaluationThreadPool.setCorePoolSize(buildFileEvaluationThreads);
+      buildFileEvaluationThreadPool.setMaximumPoolSize(buildFileEvaluationThreads);
+    }
+  }
+
   public void setMaxDirectoriesToEagerlyVisitInGlobbing(
       int maxDirectoriesToEagerlyVisitInGlobbing) {
     this.maxDirectoriesToEagerlyVisitInGlobbing = maxDirectoriesToEagerlyVisitInGlobbing;
@@ -560,7 +579,7 @@ public final class PackageFactory {
     PackageContext context;
     if (originalContext == null) {
       Preconditions.checkArgument(!async);
-      context = getContext(env, ast);
+      context = getContextForRulesAndGlobs(env, ast);
     } else {
       context = originalContext;
     }
@@ -602,7 +621,7 @@ public final class PackageFactory {
     } catch (IOException expected) {
       context.eventHandler.handle(Event.error(ast.getLocation(),
               "error globbing [" + Joiner.on(", ").join(includes) + "]: " + expected.getMessage()));
-      context.pkgBuilder.setContainsErrors();
+      context.setContainsErrors();
       return GlobList.captureResults(includes, excludes, ImmutableList.<String>of());
     } catch (BadGlobException e) {
       throw new EvalException(ast.getLocation(), e.getMessage());
@@ -1271,6 +1290,17 @@ public final class PackageFactory {
    */
   public static PackageContext getContext(Environment env, FuncallExpression ast)
       throws EvalException {
+    PackageContext value = getContextForRulesAndGlobs(env, ast);
+    value.checkSequential(ast.getLocation());
+    return value;
+  }
+
+  /**
+   * Like {@link #getContext}, but for functions that only create rules or glob, which can also be
+   * called while top-level statements are evaluated concurrently.
+   */
+  private static PackageContext getContextForRulesAndGlobs(
+      Environment env, FuncallExpression ast) throws EvalException {
     PackageContext value = (PackageContext) env.lookup(PKG_CONTEXT);
     if (value == null) {
       // if PKG_CONTEXT is missing, we're not called from a BUILD file. This happens if someone
@@ -1286,22 +1316,33 @@ public final class PackageFactory {
    * Returns a function-value implementing the build rule "ruleClass" (e.g. cc_library) in the
    * specified package context.
    */
-  private static BuiltinFunction newRuleFunction(
-      final RuleFactory ruleFactory, final String ruleClass) {
-    return new BuiltinFunction(ruleClass, FunctionSignature.KWARGS, BuiltinFunction.USE_AST_ENV) {
-      @SuppressWarnings({"unchecked", "unused"})
-      public Runtime.NoneType invoke(Map<String, Object> kwargs,
-          FuncallExpression ast, Environment env)
-          throws EvalException, InterruptedException {
-        env.checkLoadingOrWorkspacePhase(ruleClass, ast.getLocation());
-        try {
-          addRule(ruleFactory, ruleClass, getContext(env, ast), kwargs, ast, env);
-        } catch (RuleFactory.InvalidRuleException | Package.NameConflictException e) {
-          throw new EvalException(ast.getLocation(), e.getMessage());
-        }
-        return Runtime.NONE;
+  private static BuiltinFunction newRuleFunction(RuleFactory ruleFactory, String ruleClass) {
+    return new RuleFunction(ruleFactory, ruleClass);
+  }
+
+  /** A function-value implementing a native build rule. */
+  static final class RuleFunction extends BuiltinFunction {
+    private final RuleFactory ruleFactory;
+    private final String ruleClass;
+
+    private RuleFunction(RuleFactory ruleFactory, String ruleClass) {
+      super(ruleClass, FunctionSignature.KWARGS, BuiltinFunction.USE_AST_ENV);
+      this.ruleFactory = ruleFactory;
+      this.ruleClass = ruleClass;
+    }
+
+    @SuppressWarnings({"unchecked", "unused"})
+    public Runtime.NoneType invoke(Map<String, Object> kwargs,
+        FuncallExpression ast, Environment env)
+        throws EvalException, InterruptedException {
+      env.checkLoadingOrWorkspacePhase(ruleClass, ast.getLocation());
+      try {
+        addRule(ruleFactory, ruleClass, getContextForRulesAndGlobs(env, ast), kwargs, ast, env);
+      } catch (RuleFactory.InvalidRuleException | Package.NameConflictException e) {
+        throw new EvalException(ast.getLocation(), e.getMessage());
       }
-    };
+      return Runtime.NONE;
+    }
   }
 
   /**
@@ -1373,22 +1414,53 @@ public final class PackageFactory {
       RuleVisibility defaultVisibility,
       SkylarkSemanticsOptions skylarkSemantics,
       Globber globber) throws InterruptedException {
-    MakeEnvironment.Builder makeEnv = new MakeEnvironment.Builder();
-    if (platformSetRegexps != null) {
-      makeEnv.setPlatformSetRegexps(platformSetRegexps);
-    }
+    return createPackageFromPreprocessingAst(
+        workspaceName,
+        packageId,
+        buildFile,
+        astAfterPreprocessing,
+        imports,
+        skylarkFileDependencies,
+        defaultVisibility,
+        skylarkSemantics,
+        globber,
+        /*prefetchGlobs=*/ true);
+  }
+
+  /**
+   * Like {@link #createPackageFromPreprocessingAst(String, PackageIdentifier, Path,
+   * Preprocessor.AstAfterPreprocessing, Map, ImmutableList, RuleVisibility,
+   * SkylarkSemanticsOptions, Globber)}, but only starts the globs of the BUILD file before
+   * evaluating it if {@code prefetchGlobs} is true. Callers that already started them with
+   * {@link #prefetchGlobsFromPreprocessingAst} pass false, so that the BUILD file is evaluated
+   * only once more.
+   */
+  public Package.Builder createPackageFromPreprocessingAst(
+      String workspaceName,
+      PackageIdentifier packageId,
+      Path buildFile,
+      Preprocessor.AstAfterPreprocessing astAfterPreprocessing,
+      Map<String, Extension> imports,
+      ImmutableList<Label> skylarkFileDependencies,
+      RuleVisibility defaultVisibility,
+      SkylarkSemanticsOptions skylarkSemantics,
+      Globber globber,
+      boolean prefetchGlobs) throws InterruptedException {
+    MakeEnvironment.Builder makeEnv = newMakeEnvironmentBuilder();
     try {
       // At this point the package is guaranteed to exist.  It may have parse or
       // evaluation errors, resulting in a diminished number of rules.
-      prefetchGlobs(
-          packageId,
-          astAfterPreprocessing.ast,
-          buildFile,
-          globber,
-          defaultVisibility,
-          skylarkSemantics,
-          makeEnv,
-          imports);
+      if (prefetchGlobs) {
+        prefetchGlobs(
+            packageId,
+            astAfterPreprocessing.ast,
+            buildFile,
+            globber,
+            defaultVisibility,
+            skylarkSemantics,
+            makeEnv,
+            imports);
+      }
       return evaluateBuildFile(
           workspaceName,
           packageId,
@@ -1410,6 +1482,42 @@ public final class PackageFactory {
     }
   }
 
+  /**
+   * Evaluates the BUILD file of a package only to start all the globs it makes with {@link
+   * Globber#runAsync}, without fetching their results. Nothing else of the evaluation is kept.
+   */
+  public void prefetchGlobsFromPreprocessingAst(
+      PackageIdentifier packageId,
+      Path buildFile,
+      Preprocessor.AstAfterPreprocessing astAfterPreprocessing,
+      Map<String, Extension> imports,
+      RuleVisibility defaultVisibility,
+      SkylarkSemanticsOptions skylarkSemantics,
+      Globber globber) throws InterruptedException {
+    try {
+      prefetchGlobs(
+          packageId,
+          astAfterPreprocessing.ast,
+          buildFile,
+          globber,
+          defaultVisibility,
+          skylarkSemantics,
+          newMakeEnvironmentBuilder(),
+          imports);
+    } catch (InterruptedException e) {
+      globber.onInterrupt();
+      throw e;
+    }
+  }
+
+  private MakeEnvironment.Builder newMakeEnvironmentBuilder() {
+    MakeEnvironment.Builder makeEnv = new MakeEnvironment.Builder();
+    if (platformSetRegexps != null) {
+      makeEnv.setPlatformSetRegexps(platformSetRegexps);
+    }
+    return makeEnv;
+  }
+
   @VisibleForTesting
   public Package.Builder newExternalPackageBuilder(Path workspacePath, String runfilesPrefix) {
     return Package.newExternalPackageBuilder(packageBuilderHelper, workspacePath, runfilesPrefix);
@@ -1580,6 +1688,25 @@ public final class PackageFactory {
     public Function<RuleClass, AttributeContainer> getAttributeContainerFactory() {
       return attributeContainerFactory;
     }
+
+    /** Adds a rule that was created in this context to the package. */
+    void addRule(Rule rule) throws Package.NameConflictException, InterruptedException {
+      pkgBuilder.addRule(rule);
+    }
+
+    /** Declares that errors were encountered while loading the package. */
+    void setContainsErrors() {
+      pkgBuilder.setContainsErrors();
+    }
+
+    /**
+     * Checks that the package may be read and updated in any way from this context, not only by
+     * creating rules and globbing.
+     *
+     * @throws EvalException if the BUILD file statement being evaluated has to be evaluated again
+     *     after the statements preceding it, see {@link ParallelBuildFileEvaluator}
+     */
+    void checkSequential(@SuppressWarnings("unused") Location location) throws EvalException {}
   }
 
   private final ClassObject nativeModule;
@@ -1659,6 +1786,12 @@ public final class PackageFactory {
       extension.update(pkgEnv);
     }
 
+    setupDynamicPkgEnv(pkgEnv, context, packageId);
+  }
+
+  /** Binds the dynamic variables of an environment that evaluates the given package. */
+  static void setupDynamicPkgEnv(
+      Environment pkgEnv, PackageContext context, PackageIdentifier packageId) {
     pkgEnv.setupDynamic(PKG_CONTEXT, context);
     pkgEnv.setupDynamic(Runtime.PKG_NAME, packageId.getPackageFragment().getPathString());
     pkgEnv.setupDynamic(Runtime.REPOSITORY_NAME, packageId.getRepository().toString());
@@ -1757,7 +1890,19 @@ public final class PackageFactory {
       // as containing errors" is strewn all over this class.  Refactor to use an
       // event sensor--and see if we can simplify the calling code in
       // createPackage().
-      if (!buildFileAST.exec(pkgEnv, eventHandler)) {
+      boolean ok;
+      if (buildFileEvaluationThreads > 0) {
+        ok =
+            new ParallelBuildFileEvaluator(
+                    buildFileEvaluationThreadPool,
+                    packageId,
+                    imports,
+                    ruleClassProvider.getToolsRepository())
+                .exec(buildFileAST, pkgEnv, context, eventHandler);
+      } else {
+        ok = buildFileAST.exec(pkgEnv, eventHandler);
+      }
+      if (!ok) {
         pkgBuilder.setContainsErrors();
       }
     }
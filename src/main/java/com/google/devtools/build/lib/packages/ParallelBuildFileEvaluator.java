@@ -0,0 +1,389 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.packages;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Sets;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.events.EventHandler;
+import com.google.devtools.build.lib.events.Location;
+import com.google.devtools.build.lib.events.StoredEventHandler;
+import com.google.devtools.build.lib.packages.Package.NameConflictException;
+import com.google.devtools.build.lib.packages.PackageFactory.PackageContext;
+import com.google.devtools.build.lib.packages.PackageFactory.RuleFunction;
+import com.google.devtools.build.lib.syntax.BaseFunction;
+import com.google.devtools.build.lib.syntax.BuildFileAST;
+import com.google.devtools.build.lib.syntax.DotExpression;
+import com.google.devtools.build.lib.syntax.Environment;
+import com.google.devtools.build.lib.syntax.Environment.Extension;
+import com.google.devtools.build.lib.syntax.Environment.Frame;
+import com.google.devtools.build.lib.syntax.Environment.Phase;
+import com.google.devtools.build.lib.syntax.EvalException;
+import com.google.devtools.build.lib.syntax.EvalUtils;
+import com.google.devtools.build.lib.syntax.Expression;
+import com.google.devtools.build.lib.syntax.ExpressionStatement;
+import com.google.devtools.build.lib.syntax.FuncallExpression;
+import com.google.devtools.build.lib.syntax.Identifier;
+import com.google.devtools.build.lib.syntax.Mutability;
+import com.google.devtools.build.lib.syntax.SkylarkSemanticsOptions;
+import com.google.devtools.build.lib.syntax.SkylarkUtils;
+import com.google.devtools.build.lib.syntax.Statement;
+import com.google.devtools.build.lib.syntax.SyntaxTreeVisitor;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+
+/**
+ * Executes the top-level statements of a BUILD file, evaluating independent calls of macros and
+ * rules concurrently.
+ *
+ * <p>A run of top-level statements that each call a macro loaded from a .bzl file or a native rule,
+ * with arguments that only refer to immutable values, is evaluated speculatively: each call is
+ * evaluated by a thread of the executor, in an {@link Environment} with a {@link Mutability} of its
+ * own, whose globals are a frozen copy of the globals of the BUILD file. So none of these calls can
+ * mutate a value that another one sees. The rules that a call creates and the events it reports
+ * are kept in a {@link PackageContext} of its own, and are added to the package in the order of the
+ * statements, so that the package doesn't depend on the order in which the calls finish.
+ *
+ * <p>A call that does more to the package than creating rules and globbing, e.g. calls {@code
+ * native.existing_rules()}, depends on the statements before it. Its speculative evaluation is
+ * discarded, and the statement is executed again in the environment of the BUILD file once the
+ * statements before it were added to the package. The same happens to a call whose rules conflict
+ * with the targets of the package. Either way, the evaluation of the statements after it starts
+ * over. Thus the package, including its errors, is the same as if the statements were executed one
+ * after the other.
+ */
+final class ParallelBuildFileEvaluator {
+
+  // Shorter runs of calls are executed sequentially.
+  private static final int MIN_STATEMENTS_TO_EVALUATE_CONCURRENTLY = 2;
+
+  private final ExecutorService executor;
+  private final PackageIdentifier packageId;
+  private final String toolsRepository;
+
+  // The values that the BUILD file loaded. Functions that were defined in .bzl files can be called
+  // concurrently, unlike the functions that close over the context of the package.
+  private final Set<Object> loadedValues = Sets.newIdentityHashSet();
+
+  // The functions that had to be executed sequentially once, which aren't evaluated speculatively
+  // again, to not waste work on the statements that follow their calls.
+  private final Set<Object> sequentialFunctions = Sets.newIdentityHashSet();
+
+  private boolean ok = true;
+
+  ParallelBuildFileEvaluator(
+      ExecutorService executor,
+      PackageIdentifier packageId,
+      Map<String, Extension> imports,
+      String toolsRepository) {
+    this.executor = executor;
+    this.packageId = packageId;
+    this.toolsRepository = toolsRepository;
+    for (Extension extension : imports.values()) {
+      loadedValues.addAll(extension.getBindings().values());
+    }
+  }
+
+  /**
+   * Executes the statements of the BUILD file like {@link BuildFileAST#exec}.
+   *
+   * @return true if no error occurred during execution
+   */
+  boolean exec(
+      BuildFileAST buildFileAST,
+      Environment pkgEnv,
+      PackageContext context,
+      EventHandler eventHandler)
+      throws InterruptedException {
+    List<Statement> statements = buildFileAST.getStatements();
+    int i = 0;
+    while (i < statements.size()) {
+      int end = i;
+      while (end < statements.size() && canEvaluateConcurrently(statements.get(end), pkgEnv)) {
+        end++;
+      }
+      if (end - i >= MIN_STATEMENTS_TO_EVALUATE_CONCURRENTLY) {
+        i += execConcurrently(
+            buildFileAST, statements.subList(i, end), pkgEnv, context, eventHandler);
+      } else {
+        if (!buildFileAST.execTopLevelStatement(statements.get(i), pkgEnv, eventHandler)) {
+          ok = false;
+        }
+        i++;
+      }
+    }
+    return ok;
+  }
+
+  /**
+   * Returns whether the statement is a call that can be evaluated concurrently with others: the
+   * called function and every variable in the arguments must be bound to values that calls in other
+   * threads may use.
+   */
+  private boolean canEvaluateConcurrently(Statement statement, final Environment pkgEnv) {
+    if (!(statement instanceof ExpressionStatement)) {
+      return false;
+    }
+    Expression expression = ((ExpressionStatement) statement).getExpression();
+    if (!(expression instanceof FuncallExpression)) {
+      return false;
+    }
+    FuncallExpression call = (FuncallExpression) expression;
+    if (call.getObject() != null) {
+      return false;
+    }
+    Object function = pkgEnv.lookup(call.getFunction().getName());
+    if (!(function instanceof RuleFunction
+        || (function instanceof BaseFunction && loadedValues.contains(function)))
+        || sequentialFunctions.contains(function)) {
+      return false;
+    }
+
+    final Map<String, Object> bindings = pkgEnv.getGlobals().getBindings();
+    final AtomicBoolean shared = new AtomicBoolean(true);
+    new SyntaxTreeVisitor() {
+      @Override
+      public void visit(Identifier node) {
+        Object value = pkgEnv.lookup(node.getName());
+        if (value == null || !EvalUtils.isImmutable(value)) {
+          // Either mutable, or not a global variable of the BUILD file.
+          shared.set(false);
+        } else if (value instanceof BaseFunction
+            && !(value instanceof RuleFunction)
+            && !loadedValues.contains(value)
+            && bindings.get(node.getName()) == value) {
+          // A function that the package factory set up, which may close over the package context.
+          shared.set(false);
+        }
+      }
+
+      @Override
+      public void visit(FuncallExpression node) {
+        if (node.getObject() == null) {
+          visit(node.getFunction());
+        } else {
+          // The function is a method of the object, not a variable.
+          visit(node.getObject());
+        }
+        visitAll(node.getArguments());
+      }
+
+      @Override
+      public void visit(DotExpression node) {
+        visit(node.getObj());
+      }
+    }.visitAll(call.getArguments());
+    return shared.get();
+  }
+
+  /**
+   * Evaluates the given calls concurrently, and adds their rules to the package in order, up to the
+   * first call that has to be executed again, which is then executed in the environment of the
+   * BUILD file.
+   *
+   * @return the number of statements that were executed
+   */
+  private int execConcurrently(
+      final BuildFileAST buildFileAST,
+      List<Statement> statements,
+      Environment pkgEnv,
+      final PackageContext context,
+      EventHandler eventHandler)
+      throws InterruptedException {
+    final Frame globals;
+    try (Mutability mutability = Mutability.create("globals of package %s", packageId)) {
+      Frame pkgGlobals = pkgEnv.getGlobals();
+      globals =
+          new Frame(
+              mutability, pkgGlobals.getParent(), pkgGlobals.getLabel(), pkgGlobals.getBindings());
+    }
+    final SkylarkSemanticsOptions semantics = pkgEnv.getSemantics();
+    final Globber globber = new SynchronizedGlobber(context.globber);
+    final AtomicBoolean discarded = new AtomicBoolean(false);
+    List<Future<SpeculativeContext>> futures = new ArrayList<>(statements.size());
+    try {
+      for (final Statement statement : statements) {
+        futures.add(
+            executor.submit(
+                new Callable<SpeculativeContext>() {
+                  @Override
+                  public SpeculativeContext call() throws InterruptedException {
+                    if (discarded.get()) {
+                      return null;
+                    }
+                    return evaluate(
+                        buildFileAST, statement, globals, semantics, context, globber);
+                  }
+                }));
+      }
+
+      for (int i = 0; i < statements.size(); i++) {
+        SpeculativeContext speculation = getResult(futures.get(i));
+        if (!speculation.requiresSequentialExecution) {
+          try {
+            context.pkgBuilder.addRules(speculation.rules);
+            Event.replayEventsOn(eventHandler, speculation.events.getEvents());
+            if (speculation.containsErrors) {
+              context.setContainsErrors();
+            }
+            if (!speculation.ok) {
+              ok = false;
+            }
+            continue;
+          } catch (NameConflictException e) {
+            // Executing the statement reports the conflict as usual.
+          }
+        } else {
+          FuncallExpression call =
+              (FuncallExpression) ((ExpressionStatement) statements.get(i)).getExpression();
+          sequentialFunctions.add(pkgEnv.lookup(call.getFunction().getName()));
+        }
+
+        // The evaluations of the following statements are discarded. Wait for them to finish, so
+        // that none of them reads the package while it changes.
+        discarded.set(true);
+        for (Future<SpeculativeContext> future : futures.subList(i + 1, futures.size())) {
+          getResult(future);
+        }
+        if (!buildFileAST.execTopLevelStatement(statements.get(i), pkgEnv, eventHandler)) {
+          ok = false;
+        }
+        return i + 1;
+      }
+      return statements.size();
+    } finally {
+      for (Future<SpeculativeContext> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  private SpeculativeContext evaluate(
+      BuildFileAST buildFileAST,
+      Statement statement,
+      Frame globals,
+      SkylarkSemanticsOptions semantics,
+      PackageContext context,
+      Globber globber)
+      throws InterruptedException {
+    StoredEventHandler eventHandler = new StoredEventHandler();
+    SpeculativeContext speculation = new SpeculativeContext(context, globber, eventHandler);
+    try (Mutability mutability =
+        Mutability.create("package %s, statement at %s", packageId, statement.getLocation())) {
+      Environment env =
+          Environment.builder(mutability)
+              .setGlobals(globals)
+              .setSemantics(semantics)
+              .setEventHandler(eventHandler)
+              .setPhase(Phase.LOADING)
+              .build();
+      SkylarkUtils.setToolsRepository(env, toolsRepository);
+      PackageFactory.setupDynamicPkgEnv(env, speculation, packageId);
+      speculation.ok = buildFileAST.execTopLevelStatement(statement, env, eventHandler);
+    }
+    return speculation;
+  }
+
+  @Nullable
+  private static SpeculativeContext getResult(Future<SpeculativeContext> future)
+      throws InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), InterruptedException.class);
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * The context of a call that is evaluated speculatively. It keeps the rules that the call created
+   * instead of adding them to the package, and only allows functions that create rules or glob to
+   * use the package.
+   */
+  private static final class SpeculativeContext extends PackageContext {
+    final StoredEventHandler events;
+    final List<Rule> rules = new ArrayList<>();
+    boolean containsErrors;
+    boolean requiresSequentialExecution;
+    boolean ok;
+
+    SpeculativeContext(
+        PackageContext context, Globber globber, StoredEventHandler eventHandler) {
+      super(context.pkgBuilder, globber, eventHandler, context.getAttributeContainerFactory());
+      this.events = eventHandler;
+    }
+
+    @Override
+    void addRule(Rule rule) {
+      rules.add(rule);
+    }
+
+    @Override
+    void setContainsErrors() {
+      containsErrors = true;
+    }
+
+    @Override
+    void checkSequential(Location location) throws EvalException {
+      requiresSequentialExecution = true;
+      throw new EvalException(location, "this call has to be evaluated sequentially");
+    }
+  }
+
+  /**
+   * Lets the threads that evaluate calls share the globber of the package. Globs are started one
+   * at a time, since that may request Skyframe values. Their results are fetched concurrently,
+   * which only waits for the thread-safe {@link GlobCache}, so that a call waiting for a slow glob
+   * doesn't hold up the globs of other calls.
+   */
+  private static final class SynchronizedGlobber implements Globber {
+    private final Globber delegate;
+
+    SynchronizedGlobber(Globber delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public synchronized Token runAsync(
+        List<String> includes, List<String> excludes, boolean excludeDirs)
+        throws BadGlobException, InterruptedException {
+      return delegate.runAsync(includes, excludes, excludeDirs);
+    }
+
+    @Override
+    public List<String> fetch(Token token) throws IOException, InterruptedException {
+      return delegate.fetch(token);
+    }
+
+    @Override
+    public void onInterrupt() {
+      delegate.onInterrupt();
+    }
+
+    @Override
+    public void onCompletion() {
+      delegate.onCompletion();
+    }
+  }
+}
@@ -41,7 +41,9 @@ import com.google.devtools.build.lib.util.Preconditions;
 import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
+import javax.annotation.Nullable;
 
 /**
  * An instance of a build rule in the build language.  A rule has a name, a
@@ -294,6 +296,63 @@ public final class Rule implements Target, DependencyFilter.AttributeInfoProvide
     return attributes;
   }
 
+  /**
+   * Returns whether the given rule, typically the same rule of another version of its package,
+   * has the same content as this one: the same class, attribute values and outputs, declared in
+   * the same file, in a package with the same package-level state. Such rules can be used
+   * interchangeably by everything but the package itself.
+   *
+   * <p>Positions in the BUILD file are not compared, so that adding or removing lines doesn't
+   * change every rule after them. A rule kept in place of an equal one therefore reports the
+   * location it had in the earlier version of the file.
+   *
+   * <p>Attribute values are compared with {@link Object#equals}, so rules with values that don't
+   * implement it, such as configurable attributes, are only the same if they are the same object.
+   */
+  public boolean hasSameContentAs(Rule other) {
+    if (this == other) {
+      return true;
+    }
+    if (!label.equals(other.label)
+        || ruleClass != other.ruleClass
+        || implicitOutputsFunction != other.implicitOutputsFunction
+        || containsErrors != other.containsErrors
+        || !sameFile(location, other.location)
+        || !sameVisibility(visibility, other.visibility)
+        || outputFiles.size() != other.outputFiles.size()
+        || !attributes.hasSameContentAs(other.attributes)
+        || !pkg.hasSamePackageLevelStateAs(other.pkg)) {
+      return false;
+    }
+    for (int i = 0; i < outputFiles.size(); i++) {
+      if (!outputFiles.get(i).getLabel().equals(other.outputFiles.get(i).getLabel())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns whether the given locations are in the same file. Unlike {@link Location#equals}, this
+   * doesn't depend on the position in the file, which changes with edits of the lines above it.
+   */
+  static boolean sameFile(@Nullable Location location, @Nullable Location other) {
+    if (location == null || other == null) {
+      return location == other;
+    }
+    return Objects.equals(location.getPath(), other.getPath());
+  }
+
+  /** Returns whether the given visibilities were declared with the same labels. */
+  static boolean sameVisibility(
+      @Nullable RuleVisibility visibility, @Nullable RuleVisibility other) {
+    if (visibility == null || other == null) {
+      return visibility == other;
+    }
+    return visibility.getClass() == other.getClass()
+        && visibility.getDeclaredLabels().equals(other.getDeclaredLabels());
+  }
+
   /********************************************************************
    * Attribute accessor functions.
    *
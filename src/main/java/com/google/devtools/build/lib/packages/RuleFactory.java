@@ -213,15 +213,18 @@ public class RuleFactory {
       @Nullable Environment env,
       AttributeContainer attributeContainer)
       throws InvalidRuleException, NameConflictException, InterruptedException {
-    return createAndAddRule(
-        context.pkgBuilder,
-        ruleClass,
-        attributeValues,
-        context.eventHandler,
-        ast,
-        ast.getLocation(),
-        env,
-        attributeContainer);
+    Rule rule =
+        createRule(
+            context.pkgBuilder,
+            ruleClass,
+            attributeValues,
+            context.eventHandler,
+            ast,
+            ast.getLocation(),
+            env,
+            attributeContainer);
+    context.addRule(rule);
+    return rule;
   }
 
   /**
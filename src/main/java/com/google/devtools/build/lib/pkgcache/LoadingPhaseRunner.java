@@ -27,7 +27,9 @@ import com.google.devtools.build.lib.syntax.Type;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import javax.annotation.Nullable;
 
 /**
@@ -62,12 +64,13 @@ public abstract class LoadingPhaseRunner {
    */
   public static ImmutableMap<PackageIdentifier, Path> collectPackageRoots(
       Collection<Package> packages) {
-    // Make a map of the package names to their root paths.
-    ImmutableMap.Builder<PackageIdentifier, Path> packageRoots = ImmutableMap.builder();
+    // Make a map of the package names to their root paths. A package may occur more than once if
+    // targets of different versions of it are still in use, but all versions have the same root.
+    Map<PackageIdentifier, Path> packageRoots = new LinkedHashMap<>();
     for (Package pkg : packages) {
       packageRoots.put(pkg.getPackageIdentifier(), pkg.getSourceRoot());
     }
-    return packageRoots.build();
+    return ImmutableMap.copyOf(packageRoots);
   }
 
   /**
@@ -125,6 +125,27 @@ public class PackageCacheOptions extends OptionsBase {
   )
   public int globbingThreads;
 
+  @Option(
+    name = "experimental_build_file_evaluation_threads",
+    defaultValue = "0",
+    optionUsageRestrictions = OptionUsageRestrictions.UNDOCUMENTED,
+    help =
+        "If positive, the number of threads to use for evaluating independent top-level calls of "
+            + "macros and rules in a BUILD file concurrently. The package is the same as when "
+            + "the statements of the BUILD file are evaluated one after the other."
+  )
+  public int buildFileEvaluationThreads;
+
+  @Option(
+    name = "experimental_persistent_ast_cache",
+    defaultValue = "false",
+    optionUsageRestrictions = OptionUsageRestrictions.UNDOCUMENTED,
+    help =
+        "If true, the parsed BUILD files and Skylark extensions are stored in the output base, so "
+            + "that unchanged files don't have to be parsed again after the server restarts."
+  )
+  public boolean persistentAstCache;
+
   @Option(
     name = "experimental_max_directories_to_eagerly_visit_in_globbing",
     defaultValue = "-1",
@@ -136,6 +157,31 @@ public class PackageCacheOptions extends OptionsBase {
   )
   public int maxDirectoriesToEagerlyVisitInGlobbing;
 
+  @Option(
+    name = "experimental_skyframe_only_globbing",
+    defaultValue = "false",
+    optionUsageRestrictions = OptionUsageRestrictions.UNDOCUMENTED,
+    help =
+        "If true, globs in BUILD files are only evaluated by Skyframe, from the directory "
+            + "listings it shares between all globs and packages, instead of also by the legacy "
+            + "globbing threads. A BUILD file whose globs were not evaluated yet is evaluated "
+            + "again once they are."
+  )
+  public boolean skyframeOnlyGlobbing;
+
+  @Option(
+    name = "experimental_rule_level_change_pruning",
+    defaultValue = "false",
+    optionUsageRestrictions = OptionUsageRestrictions.UNDOCUMENTED,
+    help =
+        "If true, configured targets and the transitive traversal of targets only depend on their "
+            + "own target instead of its whole package, so that they are not evaluated again when "
+            + "only other targets of the package change. Unchanged targets of the previous "
+            + "version of a package are kept, which may keep that version in memory. Rules that "
+            + "only moved within their BUILD file are kept too, so they report their old location."
+  )
+  public boolean ruleLevelChangePruning;
+
   @Option(
     name = "fetch",
     defaultValue = "true",
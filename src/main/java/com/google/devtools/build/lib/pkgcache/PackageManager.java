@@ -48,12 +48,32 @@ public interface PackageManager extends PackageProvider, CachingPackageLocator {
         @Override public int getPackagesLoaded() {
           return 0;
         }
+
+        @Override public int getASTsReadFromPersistentCache() {
+          return 0;
+        }
+
+        @Override public long getParseTimeSavedInMs() {
+          return 0;
+        }
     };
 
     /**
      * Returns the number of packages loaded since the last sync.
      */
     int getPackagesLoaded();
+
+    /**
+     * Returns the number of BUILD files and Skylark extensions that were read from the persistent
+     * AST cache instead of being parsed since the last sync.
+     */
+    int getASTsReadFromPersistentCache();
+
+    /**
+     * Returns the parse time saved by the persistent AST cache since the last sync, net of the time
+     * spent reading from it.
+     */
+    long getParseTimeSavedInMs();
   }
 
   /**
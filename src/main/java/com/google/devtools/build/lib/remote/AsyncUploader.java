@@ -0,0 +1,199 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.remote;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Uploads the results of locally executed actions to the remote cache in the background, so that
+ * actions don't have to hold on to their thread and local resources until the upload is done.
+ *
+ * <p>The number of pending uploads is bounded. Once the bound is reached, {@link #submit} blocks
+ * until an upload finishes, which throttles local execution to the upload throughput rather than
+ * letting the backlog grow without limit.
+ */
+@ThreadSafe
+final class AsyncUploader {
+  private static final Logger LOG = Logger.getLogger(AsyncUploader.class.getName());
+
+  /** A single upload to the remote cache. */
+  interface Upload {
+    /** Performs the upload and returns the number of bytes uploaded. */
+    long upload() throws IOException, InterruptedException;
+  }
+
+  /** Statistics about the uploads done since the last call to {@link #drain}. */
+  static final class Stats {
+    final int uploads;
+    final int failures;
+    final int maxQueueDepth;
+    final long bytes;
+    final long uploadMillis;
+
+    private Stats(int uploads, int failures, int maxQueueDepth, long bytes, long uploadMillis) {
+      this.uploads = uploads;
+      this.failures = failures;
+      this.maxQueueDepth = maxQueueDepth;
+      this.bytes = bytes;
+      this.uploadMillis = uploadMillis;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(uploads).append(" remote cache uploads");
+      if (failures > 0) {
+        sb.append(" (").append(failures).append(" failed)");
+      }
+      sb.append(", ").append(bytes / 1024).append(" KB");
+      if (uploadMillis > 0) {
+        sb.append(", ")
+            .append(bytes / 1024 * 1000 / uploadMillis)
+            .append(" KB/s per upload thread");
+      }
+      sb.append(", max queue depth ").append(maxQueueDepth);
+      return sb.toString();
+    }
+  }
+
+  private final Executor executor;
+  private final Semaphore slots;
+
+  @GuardedBy("this")
+  private int pending;
+
+  @GuardedBy("this")
+  private int maxQueueDepth;
+
+  @GuardedBy("this")
+  private int uploads;
+
+  @GuardedBy("this")
+  private int failures;
+
+  @GuardedBy("this")
+  private long bytes;
+
+  @GuardedBy("this")
+  private long uploadNanos;
+
+  AsyncUploader(int queueSize, int threads) {
+    this(
+        queueSize,
+        Executors.newFixedThreadPool(
+            threads,
+            new ThreadFactoryBuilder()
+                .setNameFormat("remote-upload-%d")
+                .setDaemon(true)
+                .build()));
+  }
+
+  AsyncUploader(int queueSize, Executor executor) {
+    this.executor = executor;
+    this.slots = new Semaphore(queueSize);
+  }
+
+  /**
+   * Schedules an upload. Blocks while the maximum number of uploads is pending. Failed uploads are
+   * logged and counted, but otherwise ignored, as a missing cache entry is not an error.
+   */
+  void submit(final String description, final Upload upload) throws InterruptedException {
+    slots.acquire();
+    synchronized (this) {
+      pending++;
+      maxQueueDepth = Math.max(maxQueueDepth, pending);
+    }
+    try {
+      executor.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              long startNanos = System.nanoTime();
+              long uploaded = -1;
+              try {
+                uploaded = upload.upload();
+              } catch (IOException | RuntimeException e) {
+                LOG.log(Level.WARNING, "Failed uploading " + description + " to remote cache", e);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              } finally {
+                finished(uploaded, System.nanoTime() - startNanos);
+                slots.release();
+              }
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      // The upload threads were shut down. Count the upload as failed, so that drain() returns.
+      LOG.log(Level.WARNING, "Dropped upload of " + description + " to remote cache", e);
+      finished(-1, 0);
+      slots.release();
+    }
+  }
+
+  private synchronized void finished(long uploaded, long nanos) {
+    pending--;
+    uploadNanos += nanos;
+    if (uploaded >= 0) {
+      uploads++;
+      bytes += uploaded;
+    } else {
+      failures++;
+    }
+    if (pending == 0) {
+      notifyAll();
+    }
+  }
+
+  /** Waits for all pending uploads to finish, and returns and resets the statistics. */
+  synchronized Stats drain() throws InterruptedException {
+    while (pending > 0) {
+      wait();
+    }
+    Stats stats = new Stats(uploads, failures, maxQueueDepth, bytes, uploadNanos / 1000000);
+    uploads = 0;
+    failures = 0;
+    maxQueueDepth = 0;
+    bytes = 0;
+    uploadNanos = 0;
+    return stats;
+  }
+
+  /** Returns the number of uploads that are queued or in progress. */
+  synchronized int getQueueDepth() {
+    return pending;
+  }
+
+  /** Stops the upload threads. Pending uploads are abandoned and counted as failed. */
+  void shutdownNow() {
+    if (executor instanceof ExecutorService) {
+      List<Runnable> abandoned = ((ExecutorService) executor).shutdownNow();
+      for (int i = 0; i < abandoned.size(); i++) {
+        finished(-1, 0);
+        slots.release();
+      }
+    }
+  }
+}
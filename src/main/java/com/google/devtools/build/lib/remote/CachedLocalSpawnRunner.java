@@ -57,9 +57,24 @@ final class CachedLocalSpawnRunner implements SpawnRunner {
 
   private final RemoteActionCache remoteCache;
   private final SpawnRunner delegate;
+  private final LocalResultUploader resultUploader;
 
   CachedLocalSpawnRunner(
       Path execRoot, RemoteOptions options, RemoteActionCache remoteCache, SpawnRunner delegate) {
+    this(
+        execRoot,
+        options,
+        remoteCache,
+        delegate,
+        new LocalResultUploader(execRoot, options, new RemoteCacheStats(), null));
+  }
+
+  CachedLocalSpawnRunner(
+      Path execRoot,
+      RemoteOptions options,
+      RemoteActionCache remoteCache,
+      SpawnRunner delegate,
+      LocalResultUploader resultUploader) {
     this.execRoot = execRoot;
     this.options = options;
     if (options.experimentalRemotePlatformOverride != null) {
@@ -75,6 +90,7 @@ final class CachedLocalSpawnRunner implements SpawnRunner {
     }
     this.remoteCache = remoteCache;
     this.delegate = delegate;
+    this.resultUploader = resultUploader;
   }
 
   @Override
@@ -199,12 +215,6 @@ final class CachedLocalSpawnRunner implements SpawnRunner {
         outputFiles.add(outputPath);
       }
     }
-    ActionResult.Builder result = ActionResult.newBuilder();
-    remoteCache.uploadAllResults(execRoot, outputFiles, result);
-    Digest stderr = remoteCache.uploadFileContents(outErr.getErrorPath());
-    Digest stdout = remoteCache.uploadFileContents(outErr.getOutputPath());
-    result.setStderrDigest(stderr);
-    result.setStdoutDigest(stdout);
-    remoteCache.setCachedActionResult(actionKey, result.build());
+    resultUploader.upload(spawn.getMnemonic(), remoteCache, actionKey, outputFiles, outErr);
   }
 }
@@ -0,0 +1,102 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.remote;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for the spawns of the dynamic strategy, aggregated per mnemonic over a build: which of
+ * local and remote execution finished first, and how often the local machine was too busy to race.
+ */
+@ThreadSafe
+final class DynamicExecutionStats {
+  private static final class Counts {
+    final AtomicLong localWins = new AtomicLong();
+    final AtomicLong remoteWins = new AtomicLong();
+    final AtomicLong remoteOnly = new AtomicLong();
+  }
+
+  // Sorted, so that the summary lists the mnemonics in a stable order.
+  private final ConcurrentMap<String, Counts> counts = new ConcurrentSkipListMap<>();
+
+  private Counts get(String mnemonic) {
+    Counts result = counts.get(mnemonic);
+    if (result == null) {
+      Counts newCounts = new Counts();
+      result = counts.putIfAbsent(mnemonic, newCounts);
+      if (result == null) {
+        result = newCounts;
+      }
+    }
+    return result;
+  }
+
+  /** Records that local execution finished first, or that remote execution gave up. */
+  void recordLocalWin(String mnemonic) {
+    get(mnemonic).localWins.incrementAndGet();
+  }
+
+  /** Records that remote execution finished first. */
+  void recordRemoteWin(String mnemonic) {
+    get(mnemonic).remoteWins.incrementAndGet();
+  }
+
+  /** Records that a spawn only ran remotely, as the local machine had no resources to spare. */
+  void recordRemoteOnly(String mnemonic) {
+    get(mnemonic).remoteOnly.incrementAndGet();
+  }
+
+  long getLocalWins(String mnemonic) {
+    Counts result = counts.get(mnemonic);
+    return result == null ? 0 : result.localWins.get();
+  }
+
+  long getRemoteWins(String mnemonic) {
+    Counts result = counts.get(mnemonic);
+    return result == null ? 0 : result.remoteWins.get();
+  }
+
+  long getRemoteOnly(String mnemonic) {
+    Counts result = counts.get(mnemonic);
+    return result == null ? 0 : result.remoteOnly.get();
+  }
+
+  boolean isEmpty() {
+    return counts.isEmpty();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder("Dynamic execution:");
+    String separator = " ";
+    for (Map.Entry<String, Counts> entry : counts.entrySet()) {
+      Counts mnemonicCounts = entry.getValue();
+      result.append(
+          String.format(
+              "%s%s won %d locally and %d remotely, %d remote only",
+              separator,
+              entry.getKey(),
+              mnemonicCounts.localWins.get(),
+              mnemonicCounts.remoteWins.get(),
+              mnemonicCounts.remoteOnly.get()));
+      separator = "; ";
+    }
+    return result.toString();
+  }
+}
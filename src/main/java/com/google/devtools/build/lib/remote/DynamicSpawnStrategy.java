@@ -0,0 +1,54 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.remote;
+
+import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.ExecException;
+import com.google.devtools.build.lib.actions.ExecutionStrategy;
+import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.actions.SpawnActionContext;
+
+/**
+ * Strategy that executes spawns remotely like the remote strategy, and, while the local machine
+ * has resources to spare, locally at the same time. Whichever finishes first provides the outputs,
+ * and the other one is cancelled.
+ */
+@ExecutionStrategy(
+  name = {"dynamic"},
+  contextType = SpawnActionContext.class
+)
+final class DynamicSpawnStrategy implements SpawnActionContext {
+  private final RemoteSpawnStrategy remoteStrategy;
+
+  DynamicSpawnStrategy(RemoteSpawnStrategy remoteStrategy) {
+    this.remoteStrategy = remoteStrategy;
+  }
+
+  @Override
+  public void exec(Spawn spawn, ActionExecutionContext actionExecutionContext)
+      throws ExecException, InterruptedException {
+    remoteStrategy.exec(spawn, actionExecutionContext, /*raceLocally=*/ true);
+  }
+
+  @Override
+  public boolean shouldPropagateExecException() {
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return "dynamic";
+  }
+}
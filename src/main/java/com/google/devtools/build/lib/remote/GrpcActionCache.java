@@ -26,6 +26,7 @@ import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 import com.google.devtools.build.lib.actions.ActionInput;
 import com.google.devtools.build.lib.actions.ActionInputFileCache;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
@@ -60,6 +61,8 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -68,15 +71,28 @@ import java.util.concurrent.atomic.AtomicReference;
 /** A RemoteActionCache implementation that uses gRPC calls to a remote cache server. */
 @ThreadSafe
 public class GrpcActionCache implements RemoteActionCache {
+  // The remote execution API recommends to keep batch requests below 10 MiB.
+  private static final long MAX_BATCH_SIZE_BYTES = 10 * 1024 * 1024;
+
   private final RemoteOptions options;
   private final ChannelOptions channelOptions;
   private final Channel channel;
+  private final RemoteCacheStats stats;
 
   @VisibleForTesting
   public GrpcActionCache(Channel channel, ChannelOptions channelOptions, RemoteOptions options) {
+    this(channel, channelOptions, options, new RemoteCacheStats());
+  }
+
+  GrpcActionCache(
+      Channel channel,
+      ChannelOptions channelOptions,
+      RemoteOptions options,
+      RemoteCacheStats stats) {
     this.options = options;
     this.channelOptions = channelOptions;
     this.channel = channel;
+    this.stats = stats;
   }
 
   // All gRPC stubs are reused.
@@ -136,6 +152,7 @@ public class GrpcActionCache implements RemoteActionCache {
     if (request.getBlobDigestsCount() == 0) {
       return ImmutableSet.of();
     }
+    stats.recordRoundTrip();
     FindMissingBlobsResponse response = casBlockingStub.get().findMissingBlobs(request.build());
     return ImmutableSet.copyOf(response.getMissingBlobDigestsList());
   }
@@ -157,24 +174,12 @@ public class GrpcActionCache implements RemoteActionCache {
     repository.getDataFromDigests(missingDigests, actionInputs, treeNodes);
 
     if (!treeNodes.isEmpty()) {
-      // TODO(olaola): split this into multiple requests if total size is > 10MB.
-      BatchUpdateBlobsRequest.Builder treeBlobRequest =
-          BatchUpdateBlobsRequest.newBuilder().setInstanceName(options.remoteInstanceName);
+      Map<Digest, ByteString> treeBlobs = new LinkedHashMap<>();
       for (Directory d : treeNodes) {
         final byte[] data = d.toByteArray();
-        treeBlobRequest
-            .addRequestsBuilder()
-            .setContentDigest(Digests.computeDigest(data))
-            .setData(ByteString.copyFrom(data));
-      }
-      BatchUpdateBlobsResponse response =
-          casBlockingStub.get().batchUpdateBlobs(treeBlobRequest.build());
-      // TODO(olaola): handle retries on transient errors.
-      for (BatchUpdateBlobsResponse.Response r : response.getResponsesList()) {
-        if (!Status.fromCodeValue(r.getStatus().getCode()).isOk()) {
-          throw StatusProto.toStatusRuntimeException(r.getStatus());
-        }
+        treeBlobs.put(Digests.computeDigest(data), ByteString.copyFrom(data));
       }
+      batchUpdateBlobs(treeBlobs);
     }
     if (!actionInputs.isEmpty()) {
       uploadChunks(
@@ -237,6 +242,7 @@ public class GrpcActionCache implements RemoteActionCache {
       resourceName += options.remoteInstanceName + "/";
     }
     resourceName += "blobs/" + digest.getHash() + "/" + digest.getSizeBytes();
+    stats.recordRoundTrip();
     try {
       return bsBlockingStub
           .get()
@@ -254,6 +260,8 @@ public class GrpcActionCache implements RemoteActionCache {
   public void uploadAllResults(Path execRoot, Collection<Path> files, ActionResult.Builder result)
       throws IOException, InterruptedException {
     ArrayList<Digest> digests = new ArrayList<>();
+    // Contents of the outputs that are small enough to be inlined, keyed by digest.
+    Map<Digest, ByteString> smallBlobs = new LinkedHashMap<>();
     Chunker.Builder b = new Chunker.Builder();
     for (Path file : files) {
       if (!file.exists()) {
@@ -265,22 +273,83 @@ public class GrpcActionCache implements RemoteActionCache {
         // TreeNodeRepository to call uploadTree.
         throw new UnsupportedOperationException("Storing a directory is not yet supported.");
       }
-      digests.add(Digests.computeDigest(file));
-      b.addInput(file);
+      Digest digest = Digests.computeDigest(file);
+      if (RemoteUtils.shouldInline(
+          digest.getSizeBytes(), options.experimentalRemoteInlineMaxBytes)) {
+        smallBlobs.put(digest, ByteString.copyFrom(FileSystemUtils.readContent(file)));
+      } else {
+        b.addInput(file);
+      }
+      digests.add(digest);
+      // Add to protobuf.
+      OutputFile.Builder outputFile =
+          result
+              .addOutputFilesBuilder()
+              .setPath(file.relativeTo(execRoot).getPathString())
+              .setDigest(digest)
+              .setIsExecutable(file.isExecutable());
+      ByteString content = smallBlobs.get(digest);
+      if (content != null) {
+        // The server may return inlined contents to other clients, saving them a round trip.
+        // Clients still have to be able to fetch the contents by digest, so we upload them anyway.
+        outputFile.setContent(content);
+        stats.recordInlinedBlob();
+      }
     }
     ImmutableSet<Digest> missing = getMissingDigests(digests);
-    if (!missing.isEmpty()) {
-      uploadChunks(missing.size(), b.onlyUseDigests(missing).build());
+    if (missing.isEmpty()) {
+      return;
     }
-    int index = 0;
-    for (Path file : files) {
-      // Add to protobuf.
-      // TODO(olaola): inline small results here.
-      result
-          .addOutputFilesBuilder()
-          .setPath(file.relativeTo(execRoot).getPathString())
-          .setDigest(digests.get(index++))
-          .setIsExecutable(file.isExecutable());
+    // Upload the small blobs in as few requests as possible instead of one stream each.
+    Map<Digest, ByteString> missingSmallBlobs = new LinkedHashMap<>();
+    for (Map.Entry<Digest, ByteString> blob : smallBlobs.entrySet()) {
+      if (missing.contains(blob.getKey())) {
+        missingSmallBlobs.put(blob.getKey(), blob.getValue());
+      }
+    }
+    if (!missingSmallBlobs.isEmpty()) {
+      batchUpdateBlobs(missingSmallBlobs);
+    }
+    Sets.SetView<Digest> missingLargeBlobs = Sets.difference(missing, smallBlobs.keySet());
+    if (!missingLargeBlobs.isEmpty()) {
+      uploadChunks(
+          missingLargeBlobs.size(), b.onlyUseDigests(missingLargeBlobs.immutableCopy()).build());
+    }
+  }
+
+  /**
+   * Uploads the given blobs with as few BatchUpdateBlobs calls as possible, keeping the size of
+   * each request below {@link #MAX_BATCH_SIZE_BYTES}.
+   */
+  private void batchUpdateBlobs(Map<Digest, ByteString> blobs) {
+    BatchUpdateBlobsRequest.Builder request = null;
+    long requestSizeBytes = 0;
+    for (Map.Entry<Digest, ByteString> blob : blobs.entrySet()) {
+      long sizeBytes = blob.getValue().size();
+      if (request != null && requestSizeBytes + sizeBytes > MAX_BATCH_SIZE_BYTES) {
+        batchUpdateBlobs(request.build());
+        request = null;
+      }
+      if (request == null) {
+        request = BatchUpdateBlobsRequest.newBuilder().setInstanceName(options.remoteInstanceName);
+        requestSizeBytes = 0;
+      }
+      request.addRequestsBuilder().setContentDigest(blob.getKey()).setData(blob.getValue());
+      requestSizeBytes += sizeBytes;
+    }
+    if (request != null) {
+      batchUpdateBlobs(request.build());
+    }
+    stats.recordBatchedBlobs(blobs.size());
+  }
+
+  private void batchUpdateBlobs(BatchUpdateBlobsRequest request) {
+    stats.recordRoundTrip();
+    BatchUpdateBlobsResponse response = casBlockingStub.get().batchUpdateBlobs(request);
+    for (BatchUpdateBlobsResponse.Response r : response.getResponsesList()) {
+      if (!Status.fromCodeValue(r.getStatus().getCode()).isOk()) {
+        throw StatusProto.toStatusRuntimeException(r.getStatus());
+      }
     }
   }
 
@@ -334,6 +403,7 @@ public class GrpcActionCache implements RemoteActionCache {
       WriteRequest.Builder request = WriteRequest.newBuilder();
       if (offset == 0) { // Beginning of new upload.
         numItems--;
+        stats.recordRoundTrip();
         request.setResourceName(
             resourceName
                 + "uploads/"
@@ -429,6 +499,7 @@ public class GrpcActionCache implements RemoteActionCache {
   /** Returns a cached result for a given Action digest, or null if not found in cache. */
   @Override
   public ActionResult getCachedActionResult(ActionKey actionKey) {
+    stats.recordRoundTrip();
     try {
       return acBlockingStub
           .get()
@@ -449,6 +520,7 @@ public class GrpcActionCache implements RemoteActionCache {
   @Override
   public void setCachedActionResult(ActionKey actionKey, ActionResult result)
       throws InterruptedException {
+    stats.recordRoundTrip();
     try {
       acBlockingStub
           .get()
@@ -0,0 +1,159 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.remote;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.remote.Digests.ActionKey;
+import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.remoteexecution.v1test.ActionResult;
+import com.google.devtools.remoteexecution.v1test.OutputFile;
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.util.Collection;
+import javax.annotation.Nullable;
+
+/**
+ * Stores the results of locally executed spawns in the remote cache: their output files, stdout
+ * and stderr, and the action result referring to them. Uploads are done in the background if an
+ * {@link AsyncUploader} is given, and before returning otherwise.
+ */
+@ThreadSafe
+final class LocalResultUploader {
+  private final Path execRoot;
+  private final RemoteOptions options;
+  private final RemoteCacheStats stats;
+  // Null if results are uploaded synchronously.
+  @Nullable private final AsyncUploader asyncUploader;
+
+  LocalResultUploader(
+      Path execRoot,
+      RemoteOptions options,
+      RemoteCacheStats stats,
+      @Nullable AsyncUploader asyncUploader) {
+    this.execRoot = execRoot;
+    this.options = options;
+    this.stats = stats;
+    this.asyncUploader = asyncUploader;
+  }
+
+  /**
+   * Stores the given output files and the stdout and stderr in {@code outErr} as the result of the
+   * action with the given key.
+   */
+  void upload(
+      String mnemonic,
+      RemoteActionCache remoteCache,
+      ActionKey actionKey,
+      Collection<Path> outputFiles,
+      FileOutErr outErr)
+      throws IOException, InterruptedException {
+    if (asyncUploader == null) {
+      ActionResult.Builder result = ActionResult.newBuilder();
+      remoteCache.uploadAllResults(execRoot, outputFiles, result);
+      Path stderrPath = outErr.getErrorPath();
+      if (stderrPath.exists()) {
+        if (shouldInline(stderrPath.getFileSize())) {
+          result.setStderrRaw(ByteString.copyFrom(FileSystemUtils.readContent(stderrPath)));
+          stats.recordInlinedBlob();
+        } else {
+          result.setStderrDigest(remoteCache.uploadFileContents(stderrPath));
+        }
+      }
+      Path stdoutPath = outErr.getOutputPath();
+      if (stdoutPath.exists()) {
+        if (shouldInline(stdoutPath.getFileSize())) {
+          result.setStdoutRaw(ByteString.copyFrom(FileSystemUtils.readContent(stdoutPath)));
+          stats.recordInlinedBlob();
+        } else {
+          result.setStdoutDigest(remoteCache.uploadFileContents(stdoutPath));
+        }
+      }
+      remoteCache.setCachedActionResult(actionKey, result.build());
+      return;
+    }
+    // The stdout and stderr files may be reused as soon as the spawn completes, so they are read
+    // before the upload is queued.
+    byte[] stdout = readIfExists(outErr.getOutputPath());
+    byte[] stderr = readIfExists(outErr.getErrorPath());
+    asyncUploader.submit(
+        mnemonic + " results", newUpload(remoteCache, actionKey, outputFiles, stdout, stderr));
+  }
+
+  private AsyncUploader.Upload newUpload(
+      final RemoteActionCache remoteCache,
+      final ActionKey actionKey,
+      final Collection<Path> outputFiles,
+      @Nullable final byte[] stdout,
+      @Nullable final byte[] stderr) {
+    return new AsyncUploader.Upload() {
+      @Override
+      public long upload() throws IOException, InterruptedException {
+        long bytes = 0;
+        ActionResult.Builder result = ActionResult.newBuilder();
+        remoteCache.uploadAllResults(execRoot, outputFiles, result);
+        for (OutputFile file : result.getOutputFilesList()) {
+          bytes += file.getDigest().getSizeBytes();
+        }
+        if (stderr != null) {
+          if (shouldInline(stderr.length)) {
+            result.setStderrRaw(ByteString.copyFrom(stderr));
+            stats.recordInlinedBlob();
+          } else {
+            result.setStderrDigest(remoteCache.uploadBlob(stderr));
+          }
+          bytes += stderr.length;
+        }
+        if (stdout != null) {
+          if (shouldInline(stdout.length)) {
+            result.setStdoutRaw(ByteString.copyFrom(stdout));
+            stats.recordInlinedBlob();
+          } else {
+            result.setStdoutDigest(remoteCache.uploadBlob(stdout));
+          }
+          bytes += stdout.length;
+        }
+        remoteCache.setCachedActionResult(actionKey, result.build());
+        return bytes;
+      }
+    };
+  }
+
+  /**
+   * Waits for all background uploads to finish and returns statistics about them, or null if
+   * uploads are done synchronously.
+   */
+  @Nullable
+  AsyncUploader.Stats drain() throws InterruptedException {
+    return asyncUploader == null ? null : asyncUploader.drain();
+  }
+
+  /** Abandons all pending background uploads. */
+  void shutdownNow() {
+    if (asyncUploader != null) {
+      asyncUploader.shutdownNow();
+    }
+  }
+
+  private boolean shouldInline(long sizeBytes) {
+    return RemoteUtils.shouldInline(sizeBytes, options.experimentalRemoteInlineMaxBytes);
+  }
+
+  @Nullable
+  private static byte[] readIfExists(Path path) throws IOException {
+    return path.exists() ? FileSystemUtils.readContent(path) : null;
+  }
+}
@@ -0,0 +1,271 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.remote;
+
+import com.google.common.io.ByteStreams;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A {@link SimpleBlobStore} that keeps blobs as files in a local directory, so that they survive
+ * server restarts and can be shared between workspaces.
+ *
+ * <p>Blobs are sharded into subdirectories named after the first two characters of their key. The
+ * total size of the store is bounded; once it grows beyond the bound, the least recently used blobs
+ * are deleted. Access order is only tracked in memory; after a restart, the order is rebuilt from
+ * the modification times of the files, i.e., the oldest blobs are evicted first.
+ */
+@ThreadSafe
+public final class OnDiskBlobStore implements SimpleBlobStore {
+  private static final String TMP_DIR_NAME = "tmp";
+
+  private final Path root;
+  private final Path tmpDir;
+  private final long maxSizeBytes;
+
+  // Maps keys to blob sizes. Iteration order is access order, least recently used first.
+  @GuardedBy("this")
+  private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  @GuardedBy("this")
+  private long totalSizeBytes;
+
+  public OnDiskBlobStore(Path root, long maxSizeBytes) throws IOException {
+    this.root = root;
+    this.tmpDir = root.getRelative(TMP_DIR_NAME);
+    this.maxSizeBytes = maxSizeBytes;
+    FileSystemUtils.createDirectoryAndParents(tmpDir);
+    // Remove leftovers from writes that were interrupted by a server crash.
+    FileSystemUtils.deleteTreesBelow(tmpDir);
+    loadEntries();
+  }
+
+  private synchronized void loadEntries() throws IOException {
+    List<StoredBlob> blobs = new ArrayList<>();
+    for (Path shard : root.getDirectoryEntries()) {
+      if (shard.equals(tmpDir) || !shard.isDirectory()) {
+        continue;
+      }
+      for (Path file : shard.getDirectoryEntries()) {
+        FileStatus status = file.stat();
+        blobs.add(
+            new StoredBlob(file.getBaseName(), status.getSize(), status.getLastModifiedTime()));
+      }
+    }
+    Collections.sort(
+        blobs,
+        new Comparator<StoredBlob>() {
+          @Override
+          public int compare(StoredBlob a, StoredBlob b) {
+            return Long.compare(a.lastModifiedTime, b.lastModifiedTime);
+          }
+        });
+    for (StoredBlob blob : blobs) {
+      entries.put(blob.key, blob.size);
+      totalSizeBytes += blob.size;
+    }
+    evict(null);
+  }
+
+  private static final class StoredBlob {
+    final String key;
+    final long size;
+    final long lastModifiedTime;
+
+    StoredBlob(String key, long size, long lastModifiedTime) {
+      this.key = key;
+      this.size = size;
+      this.lastModifiedTime = lastModifiedTime;
+    }
+  }
+
+  private Path getPath(String key) {
+    String shard = key.length() > 2 ? key.substring(0, 2) : key;
+    return root.getRelative(shard).getRelative(key);
+  }
+
+  @Override
+  public synchronized boolean containsKey(String key) {
+    return entries.containsKey(key);
+  }
+
+  @Override
+  public byte[] get(String key) {
+    try {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      return get(key, buffer) ? buffer.toByteArray() : null;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public boolean get(String key, OutputStream out) throws IOException {
+    try (InputStream in = getInputStream(key)) {
+      if (in == null) {
+        return false;
+      }
+      ByteStreams.copy(in, out);
+      return true;
+    }
+  }
+
+  /**
+   * Returns a stream of the blob indexed by {@param key}, or null if the {@param key} cannot be
+   * found. The caller has to close the stream.
+   */
+  @Nullable
+  InputStream getInputStream(String key) throws IOException {
+    synchronized (this) {
+      // Also marks the entry as recently used.
+      if (entries.get(key) == null) {
+        return null;
+      }
+    }
+    try {
+      return getPath(key).getInputStream();
+    } catch (FileNotFoundException e) {
+      // The file was removed behind our back.
+      remove(key);
+      return null;
+    }
+  }
+
+  @Override
+  public void put(String key, byte[] value) {
+    try {
+      put(key, value.length, new ByteArrayInputStream(value));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public void put(String key, long length, InputStream in) throws IOException {
+    commit(key, write(in));
+  }
+
+  /**
+   * Stores the blob read from {@param in} both in this store and in {@param destination}. The blob
+   * is uploaded from its temporary file before it is added to this store, so that it can't have
+   * been evicted already.
+   */
+  void putAndUpload(String key, long length, InputStream in, SimpleBlobStore destination)
+      throws IOException {
+    Path tmp = write(in);
+    try (InputStream tmpIn = tmp.getInputStream()) {
+      destination.put(key, length, tmpIn);
+    } catch (IOException | RuntimeException e) {
+      tmp.delete();
+      throw e;
+    }
+    commit(key, tmp);
+  }
+
+  private Path write(InputStream in) throws IOException {
+    Path tmp = tmpDir.getRelative(UUID.randomUUID().toString());
+    try (OutputStream out = tmp.getOutputStream()) {
+      ByteStreams.copy(in, out);
+    }
+    return tmp;
+  }
+
+  /** Does nothing: the store holds no resources besides its files, and is kept across builds. */
+  @Override
+  public void close() {}
+
+  /**
+   * Downloads the blob indexed by {@param key} from {@param source} into this store. Returns false
+   * if the {@param key} cannot be found in {@param source}.
+   */
+  boolean fetch(String key, SimpleBlobStore source) throws IOException {
+    Path tmp = tmpDir.getRelative(UUID.randomUUID().toString());
+    boolean found;
+    try (OutputStream out = tmp.getOutputStream()) {
+      found = source.get(key, out);
+    }
+    if (!found) {
+      tmp.delete();
+      return false;
+    }
+    commit(key, tmp);
+    return true;
+  }
+
+  private void commit(String key, Path tmp) throws IOException {
+    // Blobs are only ever copied out of the store, never linked, as outputs are modified in place
+    // (e.g. made executable, or written to by tests). Keep them read-only all the same.
+    tmp.setWritable(false);
+    long size = tmp.getFileSize();
+    Path file = getPath(key);
+    FileSystemUtils.createDirectoryAndParents(file.getParentDirectory());
+    // Rename under the lock, so that evict() can't delete the file between the rename and the
+    // size update.
+    synchronized (this) {
+      tmp.renameTo(file);
+      Long previous = entries.put(key, size);
+      totalSizeBytes += size - (previous == null ? 0 : previous);
+      evict(key);
+    }
+  }
+
+  private synchronized void remove(String key) {
+    Long size = entries.remove(key);
+    if (size != null) {
+      totalSizeBytes -= size;
+    }
+  }
+
+  /**
+   * Deletes least recently used blobs until the store fits into its size bound. The blob indexed
+   * by {@param keep} is never deleted, even if it doesn't fit on its own.
+   */
+  @GuardedBy("this")
+  private void evict(@Nullable String keep) throws IOException {
+    Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+    while (totalSizeBytes > maxSizeBytes && it.hasNext()) {
+      Map.Entry<String, Long> entry = it.next();
+      if (entry.getKey().equals(keep)) {
+        continue;
+      }
+      getPath(entry.getKey()).delete();
+      totalSizeBytes -= entry.getValue();
+      it.remove();
+    }
+  }
+
+  /** Returns the number of bytes currently stored. */
+  public synchronized long getSizeBytes() {
+    return totalSizeBytes;
+  }
+}
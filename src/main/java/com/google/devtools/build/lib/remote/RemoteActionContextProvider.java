@@ -15,38 +15,79 @@
 package com.google.devtools.build.lib.remote;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableList.Builder;
 import com.google.devtools.build.lib.actions.Executor.ActionContext;
 import com.google.devtools.build.lib.authandtls.AuthAndTLSOptions;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
+import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.exec.ActionContextProvider;
 import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
+import javax.annotation.Nullable;
 
 /**
  * Provide a remote execution context.
  */
 final class RemoteActionContextProvider extends ActionContextProvider {
+  private final CommandEnvironment env;
+  private final RemoteSpawnStrategy remoteStrategy;
   private final ImmutableList<ActionContext> strategies;
 
   RemoteActionContextProvider(
       CommandEnvironment env,
-      BuildRequest buildRequest) {
+      BuildRequest buildRequest,
+      @Nullable OnDiskBlobStore localDiskCache) {
     boolean verboseFailures = buildRequest.getOptions(ExecutionOptions.class).verboseFailures;
-    Builder<ActionContext> strategiesBuilder = ImmutableList.builder();
-    strategiesBuilder.add(
+    this.env = env;
+    this.remoteStrategy =
         new RemoteSpawnStrategy(
             env.getClientEnv(),
             env.getExecRoot(),
             buildRequest.getOptions(RemoteOptions.class),
             buildRequest.getOptions(AuthAndTLSOptions.class),
             verboseFailures,
-            env.getRuntime().getProductName()));
-    this.strategies = strategiesBuilder.build();
+            env.getRuntime().getProductName(),
+            localDiskCache);
+    this.strategies =
+        ImmutableList.<ActionContext>of(remoteStrategy, new DynamicSpawnStrategy(remoteStrategy));
+  }
+
+  /** Returns the fetcher for outputs left in the remote cache, or null if all are downloaded. */
+  @Nullable
+  RemoteActionInputFetcher getInputFetcher() {
+    return remoteStrategy.getInputFetcher();
+  }
+
+  /** Releases the resources held for the build, once nothing can use the cache anymore. */
+  void close() {
+    remoteStrategy.close();
   }
 
   @Override
   public Iterable<ActionContext> getActionContexts() {
     return strategies;
   }
+
+  @Override
+  public void executionPhaseEnding() {
+    try {
+      AsyncUploader.Stats stats = remoteStrategy.drainUploads();
+      if (stats != null && stats.uploads + stats.failures > 0) {
+        env.getReporter().handle(Event.info(stats.toString()));
+      }
+      RemoteCacheStats cacheStats = remoteStrategy.getCacheStats();
+      if (cacheStats.getActions() > 0) {
+        env.getReporter().handle(Event.info(cacheStats.toString()));
+      }
+      DynamicExecutionStats raceStats = remoteStrategy.getRaceStats();
+      if (!raceStats.isEmpty()) {
+        env.getReporter().handle(Event.info(raceStats.toString()));
+      }
+    } catch (InterruptedException e) {
+      env.getReporter().handle(Event.warn("Interrupted, abandoning pending remote cache uploads"));
+      Thread.currentThread().interrupt();
+    } finally {
+      remoteStrategy.shutdownUploads();
+      remoteStrategy.shutdownRaces();
+    }
+  }
 }
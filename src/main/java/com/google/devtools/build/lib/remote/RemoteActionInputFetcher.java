@@ -0,0 +1,93 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.remote;
+
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.exec.ActionInputPrefetcher;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.remoteexecution.v1test.ActionResult;
+import com.google.devtools.remoteexecution.v1test.OutputFile;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of action outputs that were left in the remote cache instead of being downloaded,
+ * and fetches them once they are needed locally.
+ *
+ * <p>Only the outputs of the current build are known. The {@link
+ * com.google.devtools.build.lib.skyframe.FilesystemValueChecker} invalidates actions whose remote
+ * outputs are still missing locally in a later build, so that they are looked up in the remote
+ * cache again and their outputs registered with that build's fetcher.
+ *
+ * <p>Unlike what {@link ActionInputPrefetcher} suggests, {@link #prefetchFiles} blocks until all
+ * given inputs are available, since the consumer would fail otherwise.
+ */
+@ThreadSafe
+final class RemoteActionInputFetcher implements ActionInputPrefetcher {
+  private static final Logger LOG = Logger.getLogger(RemoteActionInputFetcher.class.getName());
+
+  private final Path execRoot;
+  private final RemoteActionCache remoteCache;
+
+  // Maps exec paths to the outputs that only exist in the remote cache.
+  private final ConcurrentMap<String, OutputFile> remoteOutputs = new ConcurrentHashMap<>();
+
+  RemoteActionInputFetcher(Path execRoot, RemoteActionCache remoteCache) {
+    this.execRoot = execRoot;
+    this.remoteCache = remoteCache;
+  }
+
+  /** Records that the given output is stored in the remote cache, but not on the local disk. */
+  void register(OutputFile file) {
+    remoteOutputs.put(file.getPath(), file);
+  }
+
+  @Override
+  public void prefetchFiles(Iterable<? extends ActionInput> inputs) {
+    for (ActionInput input : inputs) {
+      try {
+        fetch(input);
+      } catch (IOException | CacheNotFoundException e) {
+        // The consumer will fail with a missing input.
+        LOG.log(Level.WARNING, "Failed to fetch " + input.getExecPathString(), e);
+      }
+    }
+  }
+
+  /**
+   * Downloads the given input if it only exists in the remote cache. Concurrent calls for the same
+   * input wait for a single download.
+   */
+  void fetch(ActionInput input) throws IOException, CacheNotFoundException {
+    String execPath = input.getExecPathString();
+    OutputFile file = remoteOutputs.get(execPath);
+    if (file == null) {
+      return;
+    }
+    synchronized (file) {
+      if (remoteOutputs.get(execPath) != file) {
+        // Fetched by another thread in the meantime.
+        return;
+      }
+      remoteCache.downloadAllResults(
+          ActionResult.newBuilder().addOutputFiles(file).build(), execRoot);
+      remoteOutputs.remove(execPath, file);
+    }
+  }
+}
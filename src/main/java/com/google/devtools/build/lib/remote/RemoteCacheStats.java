@@ -0,0 +1,77 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.remote;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Counters for the traffic between Bazel and the remote cache, aggregated over a build. */
+@ThreadSafe
+final class RemoteCacheStats {
+  private final AtomicLong actions = new AtomicLong();
+  private final AtomicLong roundTrips = new AtomicLong();
+  private final AtomicLong inlinedBlobs = new AtomicLong();
+  private final AtomicLong batchedBlobs = new AtomicLong();
+
+  /** Records that an action was looked up in or uploaded to the remote cache. */
+  void recordAction() {
+    actions.incrementAndGet();
+  }
+
+  /** Records a single request to the remote cache. */
+  void recordRoundTrip() {
+    roundTrips.incrementAndGet();
+  }
+
+  /** Records a blob that was inlined into an action result instead of being stored separately. */
+  void recordInlinedBlob() {
+    inlinedBlobs.incrementAndGet();
+  }
+
+  /** Records blobs that were uploaded together in a single batch request. */
+  void recordBatchedBlobs(int count) {
+    batchedBlobs.addAndGet(count);
+  }
+
+  long getActions() {
+    return actions.get();
+  }
+
+  long getRoundTrips() {
+    return roundTrips.get();
+  }
+
+  long getInlinedBlobs() {
+    return inlinedBlobs.get();
+  }
+
+  long getBatchedBlobs() {
+    return batchedBlobs.get();
+  }
+
+  @Override
+  public String toString() {
+    long actions = getActions();
+    long roundTrips = getRoundTrips();
+    return String.format(
+        "%d remote cache round trips for %d actions (%.1f per action), "
+            + "%d blobs inlined, %d blobs batched",
+        roundTrips,
+        actions,
+        actions == 0 ? 0.0 : (double) roundTrips / actions,
+        getInlinedBlobs(),
+        getBatchedBlobs());
+  }
+}
@@ -17,10 +17,13 @@ package com.google.devtools.build.lib.remote;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.eventbus.Subscribe;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.analysis.TargetCompleteEvent;
 import com.google.devtools.build.lib.authandtls.AuthAndTLSOptions;
 import com.google.devtools.build.lib.buildeventstream.PathConverter;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
 import com.google.devtools.build.lib.buildtool.buildevent.BuildStartingEvent;
+import com.google.devtools.build.lib.collect.nestedset.NestedSet;
 import com.google.devtools.build.lib.exec.ExecutorBuilder;
 import com.google.devtools.build.lib.runtime.BlazeModule;
 import com.google.devtools.build.lib.runtime.Command;
@@ -78,6 +81,15 @@ public final class RemoteModule extends BlazeModule {
 
   private final CasPathConverter converter = new CasPathConverter();
   private CommandEnvironment env;
+  // Kept across builds, so that the contents of the cache directory only have to be indexed once
+  // per server.
+  private OnDiskBlobStore localDiskCache;
+  private Path localDiskCachePath;
+  private long localDiskCacheMaxSizeMb;
+  // The provider of the current build's strategies, closed after the command.
+  private RemoteActionContextProvider actionContextProvider;
+  // Fetches outputs that were left in the remote cache. Null unless outputs may stay remote.
+  private RemoteActionInputFetcher inputFetcher;
 
   @Override
   public void serverInit(OptionsProvider startupOptions, ServerBuilder builder)
@@ -98,12 +110,35 @@ public final class RemoteModule extends BlazeModule {
 
   @Override
   public void afterCommand() {
+    if (actionContextProvider != null) {
+      actionContextProvider.close();
+      actionContextProvider = null;
+    }
     this.env = null;
+    this.inputFetcher = null;
   }
 
   @Override
   public void executorInit(CommandEnvironment env, BuildRequest request, ExecutorBuilder builder) {
-    builder.addActionContextProvider(new RemoteActionContextProvider(env, request));
+    RemoteActionContextProvider provider =
+        new RemoteActionContextProvider(env, request, localDiskCache);
+    builder.addActionContextProvider(provider);
+    actionContextProvider = provider;
+    inputFetcher = provider.getInputFetcher();
+    if (inputFetcher != null) {
+      builder.setActionInputPrefetcher(inputFetcher);
+    }
+  }
+
+  /** Downloads the outputs of top-level targets, as those are what the user asked for. */
+  @Subscribe
+  public void targetComplete(TargetCompleteEvent event) {
+    if (inputFetcher == null || event.failed()) {
+      return;
+    }
+    for (NestedSet<Artifact> artifacts : event.reportedArtifacts()) {
+      inputFetcher.prefetchFiles(artifacts);
+    }
   }
 
   @Subscribe
@@ -119,6 +154,26 @@ public final class RemoteModule extends BlazeModule {
             ExitCode.COMMAND_LINE_ERROR));
       }
     }
+
+    if (SimpleBlobStoreFactory.isLocalDiskCacheOptions(options)) {
+      Path path = env.getWorkspace().getRelative(options.experimentalLocalDiskCache);
+      if (localDiskCache == null
+          || !path.equals(localDiskCachePath)
+          || options.experimentalLocalDiskCacheMaxSizeMb != localDiskCacheMaxSizeMb) {
+        try {
+          localDiskCache = SimpleBlobStoreFactory.createLocalDisk(options, env.getWorkspace());
+          localDiskCachePath = path;
+          localDiskCacheMaxSizeMb = options.experimentalLocalDiskCacheMaxSizeMb;
+        } catch (IOException e) {
+          localDiskCache = null;
+          env.getBlazeModuleEnvironment().exit(new AbruptExitException(
+              "Failed to initialize the local disk cache at " + path + ": " + e.getMessage(),
+              ExitCode.LOCAL_ENVIRONMENTAL_ERROR));
+        }
+      }
+    } else {
+      localDiskCache = null;
+    }
   }
 
   @Override
@@ -14,8 +14,12 @@
 
 package com.google.devtools.build.lib.remote;
 
+import com.google.devtools.build.lib.util.OptionsUtils;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.common.options.Converters.CommaSeparatedOptionListConverter;
 import com.google.devtools.common.options.Option;
 import com.google.devtools.common.options.OptionsBase;
+import java.util.List;
 
 /** Options for remote execution and distributed caching. */
 public final class RemoteOptions extends OptionsBase {
@@ -29,6 +33,36 @@ public final class RemoteOptions extends OptionsBase {
   )
   public String remoteRestCache;
 
+  @Option(
+    name = "remote_rest_cache_pool_size",
+    defaultValue = "20",
+    category = "remote",
+    help = "Size of the HTTP connection pool used to talk to the REST cache server."
+  )
+  public int remoteRestCachePoolSize;
+
+  @Option(
+    name = "experimental_local_disk_cache",
+    defaultValue = "null",
+    category = "remote",
+    converter = OptionsUtils.PathFragmentConverter.class,
+    help =
+        "An absolute path to a directory where Bazel keeps a persistent, content-addressed cache "
+            + "of action outputs. Can be used on its own, or in front of --remote_rest_cache or "
+            + "Hazelcast, in which case it is consulted first and populated from the remote cache."
+  )
+  public PathFragment experimentalLocalDiskCache;
+
+  @Option(
+    name = "experimental_local_disk_cache_max_size_mb",
+    defaultValue = "10240",
+    category = "remote",
+    help =
+        "The maximum size of the local disk cache in megabytes. The least recently used entries "
+            + "are evicted once the cache grows beyond this size."
+  )
+  public int experimentalLocalDiskCacheMaxSizeMb;
+
   @Option(
     name = "hazelcast_node",
     defaultValue = "null",
@@ -103,6 +137,84 @@ public final class RemoteOptions extends OptionsBase {
   )
   public boolean remoteUploadLocalResults;
 
+  @Option(
+    name = "experimental_remote_download_minimal",
+    defaultValue = "false",
+    category = "remote",
+    help =
+        "Don't download the outputs of remotely executed or cached actions. Their digests are "
+            + "recorded instead, and their contents are fetched only when a local action or "
+            + "the user needs them, i.e., for the inputs of locally executed spawns and for the "
+            + "outputs of top-level targets. Spawns executed by other strategies, such as "
+            + "'sandboxed' or 'worker', don't fetch their inputs, and fail if they need such a "
+            + "file. Actions whose outputs are missing locally are checked against the remote "
+            + "cache again in the next build."
+  )
+  public boolean experimentalRemoteDownloadMinimal;
+
+  @Option(
+    name = "experimental_remote_download_mnemonics",
+    defaultValue = "TestRunner",
+    category = "remote",
+    converter = CommaSeparatedOptionListConverter.class,
+    help =
+        "A comma-separated list of mnemonics of actions whose outputs are downloaded even with "
+            + "--experimental_remote_download_minimal, because Bazel reads them itself."
+  )
+  public List<String> experimentalRemoteDownloadMnemonics;
+
+  @Option(
+    name = "experimental_remote_download_suffixes",
+    defaultValue = ".d",
+    category = "remote",
+    converter = CommaSeparatedOptionListConverter.class,
+    help =
+        "A comma-separated list of file name suffixes of outputs that are downloaded even with "
+            + "--experimental_remote_download_minimal, because Bazel reads them itself."
+  )
+  public List<String> experimentalRemoteDownloadSuffixes;
+
+  @Option(
+    name = "experimental_remote_inline_max_bytes",
+    defaultValue = "0",
+    category = "remote",
+    help =
+        "Output files and stdout/stderr of locally executed actions up to this size are inlined "
+            + "into the action result instead of being uploaded as separate blobs. With the gRPC "
+            + "cache, such output files are still stored in the CAS, but are uploaded together in "
+            + "batch requests. 0 disables inlining."
+  )
+  public int experimentalRemoteInlineMaxBytes;
+
+  @Option(
+    name = "experimental_remote_async_upload",
+    defaultValue = "false",
+    category = "remote",
+    help =
+        "If enabled, locally executed action results are uploaded to the remote cache in the "
+            + "background, so that actions complete without waiting for the upload. All pending "
+            + "uploads are finished before the build completes."
+  )
+  public boolean experimentalRemoteAsyncUpload;
+
+  @Option(
+    name = "experimental_remote_async_upload_queue_size",
+    defaultValue = "100",
+    category = "remote",
+    help =
+        "The maximum number of pending background uploads. Actions wait for a free slot once the "
+            + "queue is full."
+  )
+  public int experimentalRemoteAsyncUploadQueueSize;
+
+  @Option(
+    name = "experimental_remote_async_upload_threads",
+    defaultValue = "4",
+    category = "remote",
+    help = "The number of threads used for background uploads to the remote cache."
+  )
+  public int experimentalRemoteAsyncUploadThreads;
+
   @Option(
     name = "experimental_remote_platform_override",
     defaultValue = "null",
@@ -16,17 +16,22 @@ package com.google.devtools.build.lib.remote;
 
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.devtools.build.lib.actions.ActionExecutionContext;
 import com.google.devtools.build.lib.actions.ActionInput;
 import com.google.devtools.build.lib.actions.ActionInputFileCache;
 import com.google.devtools.build.lib.actions.ActionStatusMessage;
+import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.ExecException;
 import com.google.devtools.build.lib.actions.ExecutionStrategy;
 import com.google.devtools.build.lib.actions.Executor;
+import com.google.devtools.build.lib.actions.ResourceManager;
 import com.google.devtools.build.lib.actions.Spawn;
 import com.google.devtools.build.lib.actions.SpawnActionContext;
 import com.google.devtools.build.lib.actions.Spawns;
 import com.google.devtools.build.lib.actions.UserExecException;
+import com.google.devtools.build.lib.actions.cache.MetadataHandler;
 import com.google.devtools.build.lib.authandtls.AuthAndTLSOptions;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
@@ -45,6 +50,7 @@ import com.google.devtools.remoteexecution.v1test.Command;
 import com.google.devtools.remoteexecution.v1test.Digest;
 import com.google.devtools.remoteexecution.v1test.ExecuteRequest;
 import com.google.devtools.remoteexecution.v1test.ExecuteResponse;
+import com.google.devtools.remoteexecution.v1test.OutputFile;
 import com.google.devtools.remoteexecution.v1test.Platform;
 import com.google.protobuf.Duration;
 import com.google.protobuf.TextFormat;
@@ -53,10 +59,15 @@ import io.grpc.StatusRuntimeException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.annotation.Nullable;
 
 /**
  * Strategy that uses a distributed cache for sharing action input and output files. Optionally this
@@ -75,6 +86,18 @@ final class RemoteSpawnStrategy implements SpawnActionContext {
   private final Platform platform;
   private final ChannelOptions channelOptions;
   private final SpawnInputExpander spawnInputExpander = new SpawnInputExpander(/*strict=*/ false);
+  // Shared by all actions, so that the underlying store can pool its connections.
+  private final SimpleBlobStoreActionCache blobStoreCache;
+  private final RemoteCacheStats cacheStats = new RemoteCacheStats();
+  private final LocalResultUploader resultUploader;
+  // Null if all outputs of remote actions are downloaded.
+  @Nullable private final RemoteActionInputFetcher inputFetcher;
+  // Runs both branches of the spawns that the dynamic strategy races.
+  private final ExecutorService raceExecutor =
+      Executors.newCachedThreadPool(
+          new ThreadFactoryBuilder().setNameFormat("dynamic-execution-%d").setDaemon(true).build());
+  private final DynamicExecutionStats raceStats = new DynamicExecutionStats();
+  private final SpawnRace spawnRace;
 
   RemoteSpawnStrategy(
       Map<String, String> clientEnv,
@@ -82,12 +105,44 @@ final class RemoteSpawnStrategy implements SpawnActionContext {
       RemoteOptions remoteOptions,
       AuthAndTLSOptions authTlsOptions,
       boolean verboseFailures,
-      String productName) {
+      String productName,
+      @Nullable OnDiskBlobStore localDiskCache) {
     this.execRoot = execRoot;
     this.standaloneStrategy = new StandaloneSpawnStrategy(execRoot, verboseFailures, productName);
+    this.spawnRace = new SpawnRace(execRoot, raceExecutor, raceStats);
     this.verboseFailures = verboseFailures;
     this.remoteOptions = remoteOptions;
     channelOptions = ChannelOptions.create(authTlsOptions);
+    SimpleBlobStore blobStore = SimpleBlobStoreFactory.createTiered(remoteOptions, localDiskCache);
+    blobStoreCache =
+        blobStore != null
+            ? new SimpleBlobStoreActionCache(
+                blobStore, remoteOptions.experimentalRemoteInlineMaxBytes, cacheStats)
+            : null;
+    if (remoteOptions.experimentalRemoteDownloadMinimal) {
+      RemoteActionCache fetchCache = blobStoreCache;
+      if (fetchCache == null && GrpcActionCache.isRemoteCacheOptions(remoteOptions)) {
+        fetchCache =
+            new GrpcActionCache(
+                RemoteUtils.createChannel(remoteOptions.remoteCache, channelOptions),
+                channelOptions,
+                remoteOptions,
+                cacheStats);
+      }
+      inputFetcher = fetchCache != null ? new RemoteActionInputFetcher(execRoot, fetchCache) : null;
+    } else {
+      inputFetcher = null;
+    }
+    resultUploader =
+        new LocalResultUploader(
+            execRoot,
+            remoteOptions,
+            cacheStats,
+            remoteOptions.experimentalRemoteAsyncUpload
+                ? new AsyncUploader(
+                    remoteOptions.experimentalRemoteAsyncUploadQueueSize,
+                    remoteOptions.experimentalRemoteAsyncUploadThreads)
+                : null);
     if (remoteOptions.experimentalRemotePlatformOverride != null) {
       Platform.Builder platformBuilder = Platform.newBuilder();
       try {
@@ -144,7 +199,18 @@ final class RemoteSpawnStrategy implements SpawnActionContext {
       RemoteActionCache remoteCache,
       ActionKey actionKey)
       throws ExecException, InterruptedException {
+    fetchRemoteInputs(spawn, actionExecutionContext);
     standaloneStrategy.exec(spawn, actionExecutionContext);
+    uploadLocalResults(spawn, actionExecutionContext, remoteCache, actionKey);
+  }
+
+  /** Uploads the results of a locally executed spawn to the remote action cache, if enabled. */
+  private void uploadLocalResults(
+      Spawn spawn,
+      ActionExecutionContext actionExecutionContext,
+      RemoteActionCache remoteCache,
+      ActionKey actionKey)
+      throws ExecException, InterruptedException {
     if (remoteOptions.remoteUploadLocalResults && remoteCache != null && actionKey != null) {
       ArrayList<Path> outputFiles = new ArrayList<>();
       for (ActionInput output : spawn.getOutputFiles()) {
@@ -158,18 +224,12 @@ final class RemoteSpawnStrategy implements SpawnActionContext {
         outputFiles.add(outputFile);
       }
       try {
-        ActionResult.Builder result = ActionResult.newBuilder();
-        remoteCache.uploadAllResults(execRoot, outputFiles, result);
-        FileOutErr outErr = actionExecutionContext.getFileOutErr();
-        if (outErr.getErrorPath().exists()) {
-          Digest stderr = remoteCache.uploadFileContents(outErr.getErrorPath());
-          result.setStderrDigest(stderr);
-        }
-        if (outErr.getOutputPath().exists()) {
-          Digest stdout = remoteCache.uploadFileContents(outErr.getOutputPath());
-          result.setStdoutDigest(stdout);
-        }
-        remoteCache.setCachedActionResult(actionKey, result.build());
+        resultUploader.upload(
+            spawn.getMnemonic(),
+            remoteCache,
+            actionKey,
+            outputFiles,
+            actionExecutionContext.getFileOutErr());
         // Handle all cache errors here.
       } catch (IOException e) {
         throw new UserExecException("Unexpected IO error.", e);
@@ -189,6 +249,130 @@ final class RemoteSpawnStrategy implements SpawnActionContext {
     }
   }
 
+  /** Downloads the inputs of a locally executed spawn that were left in the remote cache. */
+  private void fetchRemoteInputs(Spawn spawn, ActionExecutionContext actionExecutionContext)
+      throws ExecException {
+    if (inputFetcher == null) {
+      return;
+    }
+    try {
+      for (ActionInput input :
+          spawnInputExpander
+              .getInputMapping(
+                  spawn,
+                  actionExecutionContext.getArtifactExpander(),
+                  actionExecutionContext.getActionInputFileCache(),
+                  actionExecutionContext.getExecutor().getContext(FilesetActionContext.class))
+              .values()) {
+        // Empty files are mapped to null.
+        if (input != null) {
+          inputFetcher.fetch(input);
+        }
+      }
+    } catch (IOException e) {
+      throw new UserExecException("Unexpected IO error.", e);
+    } catch (CacheNotFoundException e) {
+      throw new UserExecException("Failed to fetch remote input", e);
+    }
+  }
+
+  /**
+   * Downloads the outputs of a remotely executed or cached action. If outputs may stay remote,
+   * only their metadata is recorded, and their contents are fetched once they are needed locally.
+   */
+  private void downloadResults(
+      Spawn spawn,
+      ActionResult result,
+      ActionExecutionContext actionExecutionContext,
+      RemoteActionCache remoteCache)
+      throws IOException, CacheNotFoundException {
+    MetadataHandler metadataHandler = actionExecutionContext.getMetadataHandler();
+    if (inputFetcher == null || metadataHandler == null || result.getExitCode() != 0) {
+      remoteCache.downloadAllResults(result, execRoot);
+      return;
+    }
+    Map<String, ActionInput> outputs = new HashMap<>();
+    for (ActionInput output : spawn.getOutputFiles()) {
+      outputs.put(output.getExecPathString(), output);
+    }
+    ActionResult.Builder downloads = result.toBuilder().clearOutputFiles();
+    for (OutputFile file : result.getOutputFilesList()) {
+      ActionInput output = outputs.get(file.getPath());
+      Digest digest = file.getDigest();
+      if (output instanceof Artifact
+          && !((Artifact) output).isTreeArtifact()
+          // Inlined and empty files cost nothing to write.
+          && file.getContent().isEmpty()
+          && digest.getSizeBytes() > 0
+          && !mustDownload(spawn, output)) {
+        metadataHandler.injectRemoteFile(
+            output, HashCode.fromString(digest.getHash()).asBytes(), digest.getSizeBytes());
+        inputFetcher.register(file);
+      } else {
+        downloads.addOutputFiles(file);
+      }
+    }
+    remoteCache.downloadAllResults(downloads.build(), execRoot);
+  }
+
+  /**
+   * Returns whether Bazel itself reads the given output right after the spawn completes, such as
+   * test results or the .d files in which C++ compiles report their headers.
+   */
+  private boolean mustDownload(Spawn spawn, ActionInput output) {
+    if (remoteOptions.experimentalRemoteDownloadMnemonics.contains(spawn.getMnemonic())) {
+      return true;
+    }
+    for (String suffix : remoteOptions.experimentalRemoteDownloadSuffixes) {
+      if (output.getExecPathString().endsWith(suffix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Returns the fetcher for outputs left in the remote cache, or null if all are downloaded. */
+  @Nullable
+  RemoteActionInputFetcher getInputFetcher() {
+    return inputFetcher;
+  }
+
+  /** Returns the statistics about the traffic to the remote cache during this build. */
+  RemoteCacheStats getCacheStats() {
+    return cacheStats;
+  }
+
+  /**
+   * Waits for all background uploads to finish and returns statistics about them, or null if
+   * uploads are done synchronously.
+   */
+  @Nullable
+  AsyncUploader.Stats drainUploads() throws InterruptedException {
+    return resultUploader.drain();
+  }
+
+  /** Abandons all pending background uploads. */
+  void shutdownUploads() {
+    resultUploader.shutdownNow();
+  }
+
+  /** Returns which branch won the spawns raced by the dynamic strategy during this build. */
+  DynamicExecutionStats getRaceStats() {
+    return raceStats;
+  }
+
+  /** Stops the threads that run raced spawns. Called once no more spawns are executed. */
+  void shutdownRaces() {
+    raceExecutor.shutdownNow();
+  }
+
+  /** Releases the connections to the remote cache. Called once the command is done with it. */
+  void close() {
+    if (blobStoreCache != null) {
+      blobStoreCache.close();
+    }
+  }
+
   private static void passRemoteOutErr(
       RemoteActionCache cache, ActionResult result, FileOutErr outErr) throws IOException {
     try {
@@ -214,6 +398,21 @@ final class RemoteSpawnStrategy implements SpawnActionContext {
     }
   }
 
+  /** Uploads the command and all the inputs into the remote cache, and executes the action. */
+  private ActionResult executeRemotely(
+      RemoteActionCache remoteCache,
+      GrpcRemoteExecutor workExecutor,
+      TreeNodeRepository repository,
+      TreeNode inputRoot,
+      Command command,
+      ExecuteRequest request)
+      throws IOException, InterruptedException {
+    remoteCache.uploadBlob(command.toByteArray());
+    remoteCache.uploadTree(repository, execRoot, inputRoot);
+    ExecuteResponse reply = workExecutor.executeRemotely(request);
+    return reply.getResult();
+  }
+
   @Override
   public String toString() {
     return "remote";
@@ -223,6 +422,15 @@ final class RemoteSpawnStrategy implements SpawnActionContext {
   @Override
   public void exec(Spawn spawn, ActionExecutionContext actionExecutionContext)
       throws ExecException, InterruptedException {
+    exec(spawn, actionExecutionContext, /*raceLocally=*/ false);
+  }
+
+  /**
+   * Executes the given {@code spawn}. If {@code raceLocally} is set and the spawn is executed
+   * remotely, it is also executed locally while local resources are idle.
+   */
+  void exec(Spawn spawn, ActionExecutionContext actionExecutionContext, boolean raceLocally)
+      throws ExecException, InterruptedException {
     ActionKey actionKey = null;
     String mnemonic = spawn.getMnemonic();
     Executor executor = actionExecutionContext.getExecutor();
@@ -233,14 +441,15 @@ final class RemoteSpawnStrategy implements SpawnActionContext {
     if (spawn.isRemotable()) {
       // Initialize remote cache and execution handlers. We use separate handlers for every
       // action to enable server-side parallelism (need a different gRPC channel per action).
-      if (SimpleBlobStoreFactory.isRemoteCacheOptions(remoteOptions)) {
-        remoteCache = new SimpleBlobStoreActionCache(SimpleBlobStoreFactory.create(remoteOptions));
+      if (blobStoreCache != null) {
+        remoteCache = blobStoreCache;
       } else if (GrpcActionCache.isRemoteCacheOptions(remoteOptions)) {
         remoteCache =
             new GrpcActionCache(
                 RemoteUtils.createChannel(remoteOptions.remoteCache, channelOptions),
                 channelOptions,
-                remoteOptions);
+                remoteOptions,
+                cacheStats);
       }
       // Otherwise remoteCache remains null and remote caching/execution are disabled.
 
@@ -253,6 +462,7 @@ final class RemoteSpawnStrategy implements SpawnActionContext {
       }
     }
     if (!spawn.isRemotable() || remoteCache == null) {
+      fetchRemoteInputs(spawn, actionExecutionContext);
       standaloneStrategy.exec(spawn, actionExecutionContext);
       return;
     }
@@ -266,16 +476,16 @@ final class RemoteSpawnStrategy implements SpawnActionContext {
     try {
       // Temporary hack: the TreeNodeRepository should be created and maintained upstream!
       ActionInputFileCache inputFileCache = actionExecutionContext.getActionInputFileCache();
-      TreeNodeRepository repository = new TreeNodeRepository(execRoot, inputFileCache);
+      final TreeNodeRepository repository = new TreeNodeRepository(execRoot, inputFileCache);
       SortedMap<PathFragment, ActionInput> inputMap =
           spawnInputExpander.getInputMapping(
               spawn,
               actionExecutionContext.getArtifactExpander(),
               actionExecutionContext.getActionInputFileCache(),
               actionExecutionContext.getExecutor().getContext(FilesetActionContext.class));
-      TreeNode inputRoot = repository.buildFromActionInputs(inputMap);
+      final TreeNode inputRoot = repository.buildFromActionInputs(inputMap);
       repository.computeMerkleDigests(inputRoot);
-      Command command = buildCommand(spawn.getArguments(), spawn.getEnvironment());
+      final Command command = buildCommand(spawn.getArguments(), spawn.getEnvironment());
       Action action =
           buildAction(
               spawn.getOutputFiles(),
@@ -286,6 +496,7 @@ final class RemoteSpawnStrategy implements SpawnActionContext {
 
       // Look up action cache, and reuse the action output if it is found.
       actionKey = Digests.computeActionKey(action);
+      cacheStats.recordAction();
       ActionResult result =
           this.remoteOptions.remoteAcceptCached
               ? remoteCache.getCachedActionResult(actionKey)
@@ -296,7 +507,7 @@ final class RemoteSpawnStrategy implements SpawnActionContext {
         // For now, download all outputs locally; in the future, we can reuse the digests to
         // just update the TreeNodeRepository and continue the build.
         try {
-          remoteCache.downloadAllResults(result, execRoot);
+          downloadResults(spawn, result, actionExecutionContext, remoteCache);
           passRemoteOutErr(remoteCache, result, actionExecutionContext.getFileOutErr());
           return;
         } catch (CacheNotFoundException e) {
@@ -309,25 +520,58 @@ final class RemoteSpawnStrategy implements SpawnActionContext {
         return;
       }
 
-      // Upload the command and all the inputs into the remote cache.
-      remoteCache.uploadBlob(command.toByteArray());
-      remoteCache.uploadTree(repository, execRoot, inputRoot);
       // TODO(olaola): set BuildInfo and input total bytes as well.
-      ExecuteRequest.Builder request =
+      final ExecuteRequest request =
           ExecuteRequest.newBuilder()
               .setInstanceName(remoteOptions.remoteInstanceName)
               .setAction(action)
               .setWaitForCompletion(true)
               .setTotalInputFileCount(inputMap.size())
-              .setSkipCacheLookup(!acceptCachedResult);
-      ExecuteResponse reply = workExecutor.executeRemotely(request.build());
-      result = reply.getResult();
+              .setSkipCacheLookup(!acceptCachedResult)
+              .build();
+      if (raceLocally && ResourceManager.instance().isIdleFor(spawn.getLocalResources())) {
+        final RemoteActionCache cache = remoteCache;
+        final GrpcRemoteExecutor remoteExecutor = workExecutor;
+        result =
+            spawnRace.race(
+                mnemonic,
+                spawn.getOutputFiles(),
+                actionExecutionContext.getFileOutErr(),
+                eventHandler,
+                new SpawnRace.LocalExecution() {
+                  @Override
+                  public void exec(FileOutErr outErr)
+                      throws ExecException, InterruptedException {
+                    ActionExecutionContext localContext =
+                        actionExecutionContext.withFileOutErr(outErr);
+                    fetchRemoteInputs(spawn, localContext);
+                    standaloneStrategy.exec(spawn, localContext);
+                  }
+                },
+                new Callable<ActionResult>() {
+                  @Override
+                  public ActionResult call() throws IOException, InterruptedException {
+                    return executeRemotely(
+                        cache, remoteExecutor, repository, inputRoot, command, request);
+                  }
+                });
+        if (result == null) {
+          uploadLocalResults(spawn, actionExecutionContext, remoteCache, actionKey);
+          return;
+        }
+      } else {
+        if (raceLocally) {
+          raceStats.recordRemoteOnly(mnemonic);
+        }
+        result =
+            executeRemotely(remoteCache, workExecutor, repository, inputRoot, command, request);
+      }
       if (remoteOptions.remoteLocalFallback && result.getExitCode() != 0) {
         execLocally(spawn, actionExecutionContext, remoteCache, actionKey);
         return;
       }
       passRemoteOutErr(remoteCache, result, actionExecutionContext.getFileOutErr());
-      remoteCache.downloadAllResults(result, execRoot);
+      downloadResults(spawn, result, actionExecutionContext, remoteCache);
       if (result.getExitCode() != 0) {
         String cwd = executor.getExecRoot().getPathString();
         String message =
@@ -19,7 +19,7 @@ import io.grpc.ManagedChannel;
 import io.grpc.netty.NegotiationType;
 import io.grpc.netty.NettyChannelBuilder;
 
-/** Helper methods for gRPC calls */
+/** Helper methods for gRPC calls and remote caching. */
 @ThreadSafe
 public final class RemoteUtils {
   public static ManagedChannel createChannel(String target, ChannelOptions channelOptions) {
@@ -35,4 +35,12 @@ public final class RemoteUtils {
     }
     return builder.build();
   }
+
+  /**
+   * Returns whether a blob of the given size should be inlined into the action result instead of
+   * being stored separately, given the value of {@code --experimental_remote_inline_max_bytes}.
+   */
+  public static boolean shouldInline(long sizeBytes, int inlineMaxBytes) {
+    return inlineMaxBytes > 0 && sizeBytes <= inlineMaxBytes;
+  }
 }
@@ -14,9 +14,17 @@
 
 package com.google.devtools.build.lib.remote;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 /**
- * A simple interface for storing blobs (in the form of byte arrays) each one indexed by a
- * hexadecimal string. Implementation must be thread-safe.
+ * A simple interface for storing blobs (in the form of byte arrays or streams) each one indexed by
+ * a hexadecimal string. Implementation must be thread-safe.
+ *
+ * <p>The byte array methods are meant for small blobs such as serialized protos. File contents
+ * should go through the streaming methods, so that blobs never have to be held in memory as a
+ * whole by the caller.
  */
 public interface SimpleBlobStore {
   /** Returns true if the provided {@param key} is stored in the blob store. */
@@ -24,7 +32,7 @@ public interface SimpleBlobStore {
 
   /**
    * Returns the blob (in the form of a byte array) indexed by {@param key}. Returns null if the
-   * {@pram key} cannot be found.
+   * {@param key} cannot be found.
    */
   byte[] get(String key);
 
@@ -33,4 +41,23 @@ public interface SimpleBlobStore {
    * indexed by the same {@param key} will be overwritten.
    */
   void put(String key, byte[] value);
+
+  /**
+   * Writes the blob indexed by {@param key} to {@param out}. Returns false, without writing
+   * anything, if the {@param key} cannot be found. The stream is not closed.
+   */
+  boolean get(String key, OutputStream out) throws IOException;
+
+  /**
+   * Uploads a blob of {@param length} bytes read from {@param in} and indexes it by {@param key}.
+   * A negative {@param length} means the length is not known in advance. Existing blob indexed by
+   * the same {@param key} will be overwritten. The stream is not closed.
+   */
+  void put(String key, long length, InputStream in) throws IOException;
+
+  /**
+   * Releases the resources held by the blob store, such as pooled connections. The blob store must
+   * not be used afterwards.
+   */
+  void close();
 }
@@ -34,6 +34,7 @@ import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Collection;
 import java.util.concurrent.Semaphore;
@@ -50,8 +51,27 @@ public final class SimpleBlobStoreActionCache implements RemoteActionCache {
   private static final int MAX_MEMORY_KBYTES = 512 * 1024;
   private final Semaphore uploadMemoryAvailable = new Semaphore(MAX_MEMORY_KBYTES, true);
 
+  private final int inlineMaxBytes;
+  private final RemoteCacheStats stats;
+
   public SimpleBlobStoreActionCache(SimpleBlobStore blobStore) {
+    this(blobStore, 0, new RemoteCacheStats());
+  }
+
+  /**
+   * Creates a cache that inlines output files of up to {@code inlineMaxBytes} into the action
+   * result rather than storing them as separate blobs, and records its requests in {@code stats}.
+   */
+  SimpleBlobStoreActionCache(
+      SimpleBlobStore blobStore, int inlineMaxBytes, RemoteCacheStats stats) {
     this.blobStore = blobStore;
+    this.inlineMaxBytes = inlineMaxBytes;
+    this.stats = stats;
+  }
+
+  /** Releases the resources held by the underlying blob store. */
+  public void close() {
+    blobStore.close();
   }
 
   @Override
@@ -82,27 +102,33 @@ public final class SimpleBlobStoreActionCache implements RemoteActionCache {
 
   @Override
   public Digest uploadFileContents(Path file) throws IOException, InterruptedException {
-    // This unconditionally reads the whole file into memory first!
-    return uploadBlob(ByteString.readFrom(file.getInputStream()).toByteArray());
+    return uploadStream(file, Digests.computeDigest(file));
   }
 
   @Override
   public Digest uploadFileContents(
       ActionInput input, Path execRoot, ActionInputFileCache inputCache)
       throws IOException, InterruptedException {
-    // This unconditionally reads the whole file into memory first!
     if (input instanceof VirtualActionInput) {
       ByteArrayOutputStream buffer = new ByteArrayOutputStream();
       ((VirtualActionInput) input).writeTo(buffer);
       byte[] blob = buffer.toByteArray();
       return uploadBlob(blob, Digests.computeDigest(blob));
     }
-    return uploadBlob(
-        ByteString.readFrom(execRoot.getRelative(input.getExecPathString()).getInputStream())
-            .toByteArray(),
+    return uploadStream(
+        execRoot.getRelative(input.getExecPathString()),
         Digests.getDigestFromInputCache(input, inputCache));
   }
 
+  /** Streams the contents of {@code file} into the blob store without buffering it in memory. */
+  private Digest uploadStream(Path file, Digest digest) throws IOException {
+    try (InputStream in = file.getInputStream()) {
+      stats.recordRoundTrip();
+      blobStore.put(digest.getHash(), digest.getSizeBytes(), in);
+    }
+    return digest;
+  }
+
   @Override
   public void downloadAllResults(ActionResult result, Path execRoot)
       throws IOException, CacheNotFoundException {
@@ -134,22 +160,42 @@ public final class SimpleBlobStoreActionCache implements RemoteActionCache {
         // TreeNodeRepository to call uploadTree.
         throw new UnsupportedOperationException("Storing a directory is not yet supported.");
       }
-      // TODO(olaola): inline small file contents here.
-      // First put the file content to cache.
-      Digest digest = uploadFileContents(file);
-      // Add to protobuf.
-      result
-          .addOutputFilesBuilder()
-          .setPath(file.relativeTo(execRoot).getPathString())
-          .setDigest(digest)
-          .setIsExecutable(file.isExecutable());
+      OutputFile.Builder outputFile =
+          result
+              .addOutputFilesBuilder()
+              .setPath(file.relativeTo(execRoot).getPathString())
+              .setIsExecutable(file.isExecutable());
+      if (RemoteUtils.shouldInline(file.getFileSize(), inlineMaxBytes)) {
+        // Small files are stored in the action result itself, which saves a request per file on
+        // upload and download. All readers of this cache prefer the inlined content.
+        outputFile
+            .setDigest(Digests.computeDigest(file))
+            .setContent(ByteString.copyFrom(FileSystemUtils.readContent(file)));
+        stats.recordInlinedBlob();
+      } else {
+        outputFile.setDigest(uploadFileContents(file));
+      }
     }
   }
 
   private void downloadFileContents(Digest digest, Path dest, boolean executable)
       throws IOException, CacheNotFoundException {
-    // This unconditionally downloads the whole file into memory first!
-    createFile(downloadBlob(digest), dest, executable);
+    FileSystemUtils.createDirectoryAndParents(dest.getParentDirectory());
+    if (digest.getSizeBytes() == 0) {
+      // Handle empty file locally.
+      FileSystemUtils.writeContent(dest, new byte[0]);
+    } else {
+      boolean found;
+      try (OutputStream out = dest.getOutputStream()) {
+        stats.recordRoundTrip();
+        found = blobStore.get(digest.getHash(), out);
+      }
+      if (!found) {
+        dest.delete();
+        throw new CacheNotFoundException(digest);
+      }
+    }
+    dest.setExecutable(executable);
   }
 
   private void createFile(byte[] contents, Path dest, boolean executable) throws IOException {
@@ -178,6 +224,7 @@ public final class SimpleBlobStoreActionCache implements RemoteActionCache {
     checkBlobSize(blobSizeKBytes, "Upload");
     uploadMemoryAvailable.acquire(blobSizeKBytes);
     try {
+      stats.recordRoundTrip();
       blobStore.put(digest.getHash(), blob);
     } finally {
       uploadMemoryAvailable.release(blobSizeKBytes);
@@ -192,6 +239,7 @@ public final class SimpleBlobStoreActionCache implements RemoteActionCache {
     }
     // This unconditionally downloads the whole blob into memory!
     checkBlobSize(digest.getSizeBytes() / 1024, "Download");
+    stats.recordRoundTrip();
     byte[] data = blobStore.get(digest.getHash());
     if (data == null) {
       throw new CacheNotFoundException(digest);
@@ -200,11 +248,13 @@ public final class SimpleBlobStoreActionCache implements RemoteActionCache {
   }
 
   public boolean containsKey(Digest digest) {
+    stats.recordRoundTrip();
     return blobStore.containsKey(digest.getHash());
   }
 
   @Override
   public ActionResult getCachedActionResult(ActionKey actionKey) {
+    stats.recordRoundTrip();
     byte[] data = blobStore.get(actionKey.getDigest().getHash());
     if (data == null) {
       return null;
@@ -219,6 +269,7 @@ public final class SimpleBlobStoreActionCache implements RemoteActionCache {
   @Override
   public void setCachedActionResult(ActionKey actionKey, ActionResult result)
       throws InterruptedException {
+    stats.recordRoundTrip();
     blobStore.put(actionKey.getDigest().getHash(), result.toByteArray());
   }
 }
@@ -14,6 +14,8 @@
 
 package com.google.devtools.build.lib.remote;
 
+import com.google.common.io.ByteStreams;
+import com.google.devtools.build.lib.vfs.Path;
 import com.hazelcast.client.HazelcastClient;
 import com.hazelcast.client.config.ClientConfig;
 import com.hazelcast.client.config.ClientNetworkConfig;
@@ -21,23 +23,30 @@ import com.hazelcast.client.config.XmlClientConfigBuilder;
 import com.hazelcast.config.Config;
 import com.hazelcast.core.Hazelcast;
 import com.hazelcast.core.HazelcastInstance;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
-import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPut;
-import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
 
 /**
  * A factory class for providing a {@link SimpleBlobStore} to be used with {@link
- * SimpleBlobStoreActionCache}. Currently implemented with Hazelcast or REST.
+ * SimpleBlobStoreActionCache}. Currently implemented with Hazelcast, REST or a local disk
+ * directory.
  */
 public final class SimpleBlobStoreFactory {
 
@@ -67,6 +76,28 @@ public final class SimpleBlobStoreFactory {
     public void put(String key, byte[] value) {
       map.put(key, value);
     }
+
+    @Override
+    public boolean get(String key, OutputStream out) throws IOException {
+      byte[] value = map.get(key);
+      if (value == null) {
+        return false;
+      }
+      out.write(value);
+      return true;
+    }
+
+    @Override
+    public void put(String key, long length, InputStream in) throws IOException {
+      // The map holds the values in memory anyway, so there is nothing to gain from streaming.
+      if (length > Integer.MAX_VALUE) {
+        throw new IOException("Blob too large for an in-memory store: " + length + " bytes");
+      }
+      map.put(key, ByteStreams.toByteArray(in));
+    }
+
+    @Override
+    public void close() {}
   }
 
   /** Construct a {@link SimpleBlobStore} using Hazelcast's version of {@link ConcurrentMap} */
@@ -120,17 +151,23 @@ public final class SimpleBlobStoreFactory {
   private static class RestBlobStore implements SimpleBlobStore {
 
     private final String baseUrl;
+    // Shared by all requests, so that connections to the cache server are pooled and reused
+    // instead of being set up again for every blob.
+    private final CloseableHttpClient client;
 
-    RestBlobStore(String baseUrl) {
+    RestBlobStore(String baseUrl, int poolSize) {
       this.baseUrl = baseUrl;
+      PoolingHttpClientConnectionManager connectionManager =
+          new PoolingHttpClientConnectionManager();
+      connectionManager.setMaxTotal(poolSize);
+      connectionManager.setDefaultMaxPerRoute(poolSize);
+      this.client = HttpClientBuilder.create().setConnectionManager(connectionManager).build();
     }
 
     @Override
     public boolean containsKey(String key) {
-      try {
-        HttpClient client = HttpClientBuilder.create().build();
-        HttpHead head = new HttpHead(baseUrl + "/" + key);
-        HttpResponse response = client.execute(head);
+      HttpHead head = new HttpHead(baseUrl + "/" + key);
+      try (CloseableHttpResponse response = client.execute(head)) {
         int statusCode = response.getStatusLine().getStatusCode();
         return HttpStatus.SC_OK == statusCode;
       } catch (IOException e) {
@@ -141,54 +178,101 @@ public final class SimpleBlobStoreFactory {
     @Override
     public byte[] get(String key) {
       try {
-        HttpClient client = HttpClientBuilder.create().build();
-        HttpGet get = new HttpGet(baseUrl + "/" + key);
-        HttpResponse response = client.execute(get);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        return get(key, buffer) ? buffer.toByteArray() : null;
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public boolean get(String key, OutputStream out) throws IOException {
+      HttpGet get = new HttpGet(baseUrl + "/" + key);
+      try (CloseableHttpResponse response = client.execute(get)) {
         int statusCode = response.getStatusLine().getStatusCode();
+        HttpEntity entity = response.getEntity();
         if (HttpStatus.SC_NOT_FOUND == statusCode || HttpStatus.SC_NO_CONTENT == statusCode) {
-          return null;
+          EntityUtils.consume(entity);
+          return false;
         }
         if (HttpStatus.SC_OK != statusCode) {
-          throw new RuntimeException("GET failed with status code " + statusCode);
+          EntityUtils.consume(entity);
+          throw new IOException("GET failed with status code " + statusCode);
         }
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        HttpEntity entity = response.getEntity();
-        entity.writeTo(buffer);
-        buffer.flush();
+        entity.writeTo(out);
         EntityUtils.consume(entity);
+        return true;
+      }
+    }
 
-        return buffer.toByteArray();
-
+    @Override
+    public void put(String key, byte[] value) {
+      try {
+        put(key, value.length, new ByteArrayInputStream(value));
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
     }
 
     @Override
-    public void put(String key, byte[] value) {
-      try {
-        HttpClient client = HttpClientBuilder.create().build();
-        HttpPut put = new HttpPut(baseUrl + "/" + key);
-        put.setEntity(new ByteArrayEntity(value));
-        put.setHeader("Content-Type", "application/octet-stream");
-        HttpResponse response = client.execute(put);
+    public void put(String key, long length, InputStream in) throws IOException {
+      HttpPut put = new HttpPut(baseUrl + "/" + key);
+      InputStreamEntity entity =
+          new InputStreamEntity(in, length, ContentType.APPLICATION_OCTET_STREAM);
+      // Use chunked transfer encoding if we don't know the length up front.
+      entity.setChunked(length < 0);
+      put.setEntity(entity);
+      try (CloseableHttpResponse response = client.execute(put)) {
         int statusCode = response.getStatusLine().getStatusCode();
+        EntityUtils.consume(response.getEntity());
 
         // Accept more than SC_OK to be compatible with Nginx WebDav module.
         if (HttpStatus.SC_OK != statusCode
             && HttpStatus.SC_ACCEPTED != statusCode
             && HttpStatus.SC_CREATED != statusCode
             && HttpStatus.SC_NO_CONTENT != statusCode) {
-          throw new RuntimeException("PUT failed with status code " + statusCode);
+          throw new IOException("PUT failed with status code " + statusCode);
         }
+      }
+    }
+
+    @Override
+    public void close() {
+      try {
+        client.close();
       } catch (IOException e) {
-        throw new RuntimeException(e);
+        // Closing only releases the pooled connections; there is nothing left to fail.
       }
     }
   }
 
   public static SimpleBlobStore createRest(RemoteOptions options) {
-    return new RestBlobStore(options.remoteRestCache);
+    return new RestBlobStore(options.remoteRestCache, options.remoteRestCachePoolSize);
+  }
+
+  /**
+   * Construct an {@link OnDiskBlobStore} in the directory given by {@code
+   * --experimental_local_disk_cache}, resolved against {@code workingDirectory} if relative.
+   */
+  public static OnDiskBlobStore createLocalDisk(RemoteOptions options, Path workingDirectory)
+      throws IOException {
+    return new OnDiskBlobStore(
+        workingDirectory.getRelative(options.experimentalLocalDiskCache),
+        options.experimentalLocalDiskCacheMaxSizeMb * 1024L * 1024L);
+  }
+
+  /**
+   * Puts the local disk cache, if any, in front of the remote blob store, if any. Returns null if
+   * neither is given.
+   */
+  @Nullable
+  public static SimpleBlobStore createTiered(
+      RemoteOptions options, @Nullable OnDiskBlobStore localDiskCache) {
+    if (!isRemoteCacheOptions(options)) {
+      return localDiskCache;
+    }
+    SimpleBlobStore remote = create(options);
+    return localDiskCache == null ? remote : new TieredBlobStore(localDiskCache, remote);
   }
 
   public static SimpleBlobStore create(RemoteOptions options) {
@@ -207,6 +291,10 @@ public final class SimpleBlobStoreFactory {
     return isHazelcastOptions(options) || isRestUrlOptions(options);
   }
 
+  public static boolean isLocalDiskCacheOptions(RemoteOptions options) {
+    return options.experimentalLocalDiskCache != null;
+  }
+
   private static boolean isHazelcastOptions(RemoteOptions options) {
     return options.hazelcastNode != null
         || options.hazelcastClientConfig != null
@@ -0,0 +1,241 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.remote;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ExecException;
+import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.events.EventHandler;
+import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import com.google.devtools.remoteexecution.v1test.ActionResult;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Executes spawns locally and remotely at the same time for the dynamic strategy. The branch that
+ * finishes successfully first wins and the other one is cancelled. If one branch fails, the other
+ * one is left to finish, so that e.g. a flaky local environment or an unavailable remote executor
+ * doesn't fail the build.
+ *
+ * <p>Remote execution leaves the exec root alone until its outputs are downloaded, so only the
+ * local branch needs to be stopped and cleaned up before they are. It writes to its own stdout
+ * and stderr files, which are passed on if it wins.
+ */
+@ThreadSafe
+final class SpawnRace {
+
+  /** The local branch of a raced spawn. */
+  interface LocalExecution {
+    /** Executes the spawn locally, writing its stdout and stderr to {@code outErr}. */
+    void exec(FileOutErr outErr) throws ExecException, InterruptedException;
+  }
+
+  private final Path execRoot;
+  private final ExecutorService executor;
+  private final DynamicExecutionStats stats;
+
+  SpawnRace(Path execRoot, ExecutorService executor, DynamicExecutionStats stats) {
+    this.execRoot = execRoot;
+    this.executor = executor;
+    this.stats = stats;
+  }
+
+  /**
+   * Runs {@code localExecution} while {@code remoteExecution} runs.
+   *
+   * @param outputs the outputs of the spawn, which are deleted if the local branch loses
+   * @param outErr where the stdout and stderr of the local branch go if it wins
+   * @return the remote result, or null if the spawn was executed locally
+   */
+  @Nullable
+  ActionResult race(
+      String mnemonic,
+      Collection<? extends ActionInput> outputs,
+      FileOutErr outErr,
+      EventHandler eventHandler,
+      LocalExecution localExecution,
+      Callable<ActionResult> remoteExecution)
+      throws ExecException, IOException, InterruptedException {
+    FileOutErr localOutErr =
+        new FileOutErr(
+            getSibling(outErr.getOutputPath(), ".local"),
+            getSibling(outErr.getErrorPath(), ".local"));
+    LocalBranch local = new LocalBranch(localExecution, localOutErr);
+    CompletionService<ActionResult> completion = new ExecutorCompletionService<>(executor);
+    Future<ActionResult> localFuture = completion.submit(local);
+    Future<ActionResult> remoteFuture = completion.submit(remoteExecution);
+    try {
+      if (completion.take() == remoteFuture) {
+        try {
+          ActionResult result = remoteFuture.get();
+          local.cancelAndWait();
+          deleteOutputs(outputs);
+          stats.recordRemoteWin(mnemonic);
+          return result;
+        } catch (ExecutionException e) {
+          eventHandler.handle(
+              Event.warn(
+                  mnemonic
+                      + " remote work failed, waiting for local execution ("
+                      + e.getCause()
+                      + ")"));
+          completion.take();
+        }
+      } else if (hasFailed(localFuture)) {
+        eventHandler.handle(
+            Event.warn(mnemonic + " local execution failed, waiting for remote execution"));
+        completion.take();
+        try {
+          ActionResult result = remoteFuture.get();
+          deleteOutputs(outputs);
+          stats.recordRemoteWin(mnemonic);
+          return result;
+        } catch (ExecutionException e) {
+          // Both failed; the local failure is reported below.
+        }
+      } else {
+        remoteFuture.cancel(true);
+      }
+      stats.recordLocalWin(mnemonic);
+      try {
+        localFuture.get();
+      } catch (ExecutionException e) {
+        Throwables.propagateIfPossible(
+            e.getCause(), ExecException.class, InterruptedException.class);
+        throw new IllegalStateException(e.getCause());
+      } finally {
+        handOff(localOutErr, outErr);
+      }
+      return null;
+    } catch (InterruptedException e) {
+      remoteFuture.cancel(true);
+      local.cancelAndWait();
+      throw e;
+    } finally {
+      try {
+        localOutErr.clearOut();
+        localOutErr.clearErr();
+      } catch (IOException e) {
+        // Left behind, and overwritten by the next spawn with the same output files.
+      }
+    }
+  }
+
+  private static boolean hasFailed(Future<?> done) throws InterruptedException {
+    try {
+      done.get();
+      return false;
+    } catch (ExecutionException e) {
+      return true;
+    }
+  }
+
+  /** Passes the stdout and stderr of the local branch on, so that they can be read from files. */
+  private static void handOff(FileOutErr localOutErr, FileOutErr outErr) {
+    localOutErr.dumpOutAsLatin1(outErr.getOutputStream());
+    localOutErr.dumpErrAsLatin1(outErr.getErrorStream());
+    try {
+      outErr.getOutputStream().flush();
+      outErr.getErrorStream().flush();
+    } catch (IOException e) {
+      // Like a failure to dump the output, this doesn't fail the spawn itself.
+    }
+  }
+
+  private static Path getSibling(Path path, String suffix) {
+    return path.getParentDirectory().getRelative(path.getBaseName() + suffix);
+  }
+
+  /** Deletes whatever a losing local branch left of the given outputs. */
+  private void deleteOutputs(Collection<? extends ActionInput> outputs) throws IOException {
+    for (ActionInput output : outputs) {
+      Path path = execRoot.getRelative(output.getExecPathString());
+      if (path.exists(Symlinks.NOFOLLOW)) {
+        FileSystemUtils.deleteTree(path);
+      }
+    }
+  }
+
+  /** The local branch of a raced spawn. It can be cancelled at any time, also before it starts. */
+  private static final class LocalBranch implements Callable<ActionResult> {
+    private final LocalExecution localExecution;
+    private final FileOutErr outErr;
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    @GuardedBy("this")
+    private Thread thread;
+
+    @GuardedBy("this")
+    private boolean cancelled;
+
+    LocalBranch(LocalExecution localExecution, FileOutErr outErr) {
+      this.localExecution = localExecution;
+      this.outErr = outErr;
+    }
+
+    @Override
+    public ActionResult call() throws ExecException, InterruptedException {
+      try {
+        synchronized (this) {
+          if (cancelled) {
+            throw new InterruptedException();
+          }
+          thread = Thread.currentThread();
+        }
+        try {
+          localExecution.exec(outErr);
+          return null;
+        } finally {
+          synchronized (this) {
+            thread = null;
+            // Don't leak the interrupt of a cancellation to the next spawn on this thread.
+            Thread.interrupted();
+          }
+        }
+      } finally {
+        done.countDown();
+      }
+    }
+
+    /**
+     * Cancels the local execution and waits until its process is gone, so that it won't touch the
+     * outputs anymore.
+     */
+    void cancelAndWait() {
+      synchronized (this) {
+        cancelled = true;
+        if (thread != null) {
+          thread.interrupt();
+        }
+      }
+      Uninterruptibles.awaitUninterruptibly(done);
+    }
+  }
+}
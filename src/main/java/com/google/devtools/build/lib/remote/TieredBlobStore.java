@@ -0,0 +1,78 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.remote;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A {@link SimpleBlobStore} that puts a local {@link OnDiskBlobStore} in front of a remote store.
+ * Reads are served from the local store whenever possible; blobs that have to be fetched from the
+ * remote store are written to the local store on the way. Writes go to both stores.
+ */
+@ThreadSafe
+final class TieredBlobStore implements SimpleBlobStore {
+  private final OnDiskBlobStore local;
+  private final SimpleBlobStore remote;
+
+  TieredBlobStore(OnDiskBlobStore local, SimpleBlobStore remote) {
+    this.local = local;
+    this.remote = remote;
+  }
+
+  @Override
+  public boolean containsKey(String key) {
+    return local.containsKey(key) || remote.containsKey(key);
+  }
+
+  @Override
+  public byte[] get(String key) {
+    byte[] value = local.get(key);
+    if (value == null) {
+      value = remote.get(key);
+      if (value != null) {
+        local.put(key, value);
+      }
+    }
+    return value;
+  }
+
+  @Override
+  public boolean get(String key, OutputStream out) throws IOException {
+    if (local.get(key, out)) {
+      return true;
+    }
+    return local.fetch(key, remote) && local.get(key, out);
+  }
+
+  @Override
+  public void put(String key, byte[] value) {
+    local.put(key, value);
+    remote.put(key, value);
+  }
+
+  @Override
+  public void put(String key, long length, InputStream in) throws IOException {
+    local.putAndUpload(key, length, in, remote);
+  }
+
+  /** Closes the remote store only, as the local one is kept across builds. */
+  @Override
+  public void close() {
+    remote.close();
+  }
+}
@@ -55,6 +55,7 @@ import com.google.devtools.build.lib.server.signal.InterruptSignalHandler;
 import com.google.devtools.build.lib.shell.JavaSubprocessFactory;
 import com.google.devtools.build.lib.shell.Subprocess;
 import com.google.devtools.build.lib.shell.SubprocessBuilder;
+import com.google.devtools.build.lib.syntax.SkylarkSamplingProfiler;
 import com.google.devtools.build.lib.unix.UnixFileSystem;
 import com.google.devtools.build.lib.util.AbruptExitException;
 import com.google.devtools.build.lib.util.BlazeClock;
@@ -392,10 +393,46 @@ public final class BlazeRuntime {
       }
     }
 
+    if (options.skylarkCpuProfilePath != null || options.skylarkAllocationProfilePath != null) {
+      OutputStream cpuProfile = null;
+      OutputStream allocationProfile = null;
+      try {
+        Path workingDirectory = env.getWorkingDirectory();
+        if (options.skylarkCpuProfilePath != null) {
+          cpuProfile =
+              workingDirectory.getRelative(options.skylarkCpuProfilePath).getOutputStream();
+        }
+        if (options.skylarkAllocationProfilePath != null) {
+          allocationProfile =
+              workingDirectory.getRelative(options.skylarkAllocationProfilePath).getOutputStream();
+        }
+        SkylarkSamplingProfiler.instance()
+            .start(
+                cpuProfile,
+                allocationProfile,
+                Math.max(1, options.skylarkProfileSamplingIntervalMillis));
+      } catch (IOException e) {
+        closeSkylarkProfile(cpuProfile);
+        closeSkylarkProfile(allocationProfile);
+        env.getReporter().handle(
+            Event.error("Error while creating Skylark profile file: " + e.getMessage()));
+      }
+    }
+
     // Initialize exit code to dummy value for afterCommand.
     storedExitCode.set(ExitCode.RESERVED.getNumericExitCode());
   }
 
+  private static void closeSkylarkProfile(@Nullable OutputStream profile) {
+    if (profile != null) {
+      try {
+        profile.close();
+      } catch (IOException ignored) {
+        // The profile is reported as failed anyway.
+      }
+    }
+  }
+
   /**
    * Posts the {@link CommandCompleteEvent}, so that listeners can tidy up. Called by {@link
    * #afterCommand}, and by BugReport when crashing from an exception in an async thread.
@@ -433,6 +470,14 @@ public final class BlazeRuntime {
     } catch (IOException e) {
       env.getReporter().handle(Event.error("Error while writing profile file: " + e.getMessage()));
     }
+    // Stopped separately, so that a failure to write the other profiles can't leave it running
+    // into the next command.
+    try {
+      SkylarkSamplingProfiler.instance().stop();
+    } catch (IOException e) {
+      env.getReporter().handle(
+          Event.error("Error while writing Skylark profile file: " + e.getMessage()));
+    }
     env.getReporter().clearEventBus();
   }
 
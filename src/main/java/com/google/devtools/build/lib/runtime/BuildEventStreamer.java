@@ -418,12 +418,13 @@ public class BuildEventStreamer implements EventHandler {
 
   /**
    * Return true, if the action is not worth being reported. This is the case, if the action
-   * executed successfully and is not an ExtraAction.
+   * executed successfully, is not an ExtraAction and has no resource usage to report.
    */
   private static boolean isActionWithoutError(BuildEvent event) {
     return event instanceof ActionExecutedEvent
         && ((ActionExecutedEvent) event).getException() == null
-        && (!(((ActionExecutedEvent) event).getAction() instanceof ExtraAction));
+        && (!(((ActionExecutedEvent) event).getAction() instanceof ExtraAction))
+        && ((ActionExecutedEvent) event).getResourceUsage() == null;
   }
 
   private boolean bufferUntilPrerequisitesReceived(BuildEvent event) {
@@ -245,6 +245,40 @@ public class CommonCommandOptions extends OptionsBase {
   )
   public PathFragment memoryProfilePath;
 
+  @Option(
+    name = "experimental_skylark_cpu_profile",
+    defaultValue = "null",
+    optionUsageRestrictions = OptionUsageRestrictions.UNDOCUMENTED,
+    converter = OptionsUtils.PathFragmentConverter.class,
+    help =
+        "If set, samples the Skylark call stacks of the threads evaluating Skylark code and writes "
+            + "the CPU time spent in each of them, in microseconds, to the specified file, in the "
+            + "folded format of flame graph tools."
+  )
+  public PathFragment skylarkCpuProfilePath;
+
+  @Option(
+    name = "experimental_skylark_allocation_profile",
+    defaultValue = "null",
+    optionUsageRestrictions = OptionUsageRestrictions.UNDOCUMENTED,
+    converter = OptionsUtils.PathFragmentConverter.class,
+    help =
+        "If set, samples the Skylark call stacks of the threads evaluating Skylark code and writes "
+            + "the bytes allocated in each of them to the specified file, in the folded format of "
+            + "flame graph tools."
+  )
+  public PathFragment skylarkAllocationProfilePath;
+
+  @Option(
+    name = "experimental_skylark_profile_sampling_interval_ms",
+    defaultValue = "10",
+    optionUsageRestrictions = OptionUsageRestrictions.UNDOCUMENTED,
+    help =
+        "The interval between two samples of --experimental_skylark_cpu_profile and "
+            + "--experimental_skylark_allocation_profile, in milliseconds."
+  )
+  public int skylarkProfileSamplingIntervalMillis;
+
   @Option(
     name = "gc_watchdog",
     defaultValue = "false",
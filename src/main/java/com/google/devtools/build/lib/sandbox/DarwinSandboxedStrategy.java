@@ -25,6 +25,7 @@ import com.google.devtools.build.lib.actions.ExecutionStrategy;
 import com.google.devtools.build.lib.actions.Executor;
 import com.google.devtools.build.lib.actions.Spawn;
 import com.google.devtools.build.lib.actions.SpawnActionContext;
+import com.google.devtools.build.lib.actions.SpawnCgroups.Cgroup;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
 import com.google.devtools.build.lib.exec.SpawnInputExpander;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
@@ -33,13 +34,13 @@ import com.google.devtools.build.lib.shell.CommandException;
 import com.google.devtools.build.lib.shell.CommandResult;
 import com.google.devtools.build.lib.standalone.StandaloneSpawnStrategy;
 import com.google.devtools.build.lib.vfs.FileSystem;
-import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
 
 /** Strategy that uses sandboxing to execute a process, for Darwin */
 @ExecutionStrategy(
@@ -49,7 +50,6 @@ import java.util.concurrent.atomic.AtomicReference;
 public class DarwinSandboxedStrategy extends SandboxStrategy {
 
   private final Path execRoot;
-  private final boolean sandboxDebug;
   private final boolean verboseFailures;
   private final String productName;
   private final SpawnInputExpander spawnInputExpander;
@@ -65,6 +65,7 @@ public class DarwinSandboxedStrategy extends SandboxStrategy {
       CommandEnvironment cmdEnv,
       BuildRequest buildRequest,
       Path sandboxBase,
+      SandboxTrash trash,
       boolean verboseFailures,
       String productName,
       ImmutableSet<Path> alwaysWritableDirs) {
@@ -72,10 +73,10 @@ public class DarwinSandboxedStrategy extends SandboxStrategy {
         cmdEnv,
         buildRequest,
         sandboxBase,
+        trash,
         verboseFailures,
         buildRequest.getOptions(SandboxOptions.class));
     this.execRoot = cmdEnv.getExecRoot();
-    this.sandboxDebug = buildRequest.getOptions(SandboxOptions.class).sandboxDebug;
     this.verboseFailures = verboseFailures;
     this.productName = productName;
     this.alwaysWritableDirs = alwaysWritableDirs;
@@ -86,6 +87,7 @@ public class DarwinSandboxedStrategy extends SandboxStrategy {
       CommandEnvironment cmdEnv,
       BuildRequest buildRequest,
       Path sandboxBase,
+      SandboxTrash trash,
       boolean verboseFailures,
       String productName)
       throws IOException {
@@ -93,6 +95,7 @@ public class DarwinSandboxedStrategy extends SandboxStrategy {
         cmdEnv,
         buildRequest,
         sandboxBase,
+        trash,
         verboseFailures,
         productName,
         getAlwaysWritableDirs(cmdEnv.getDirectories().getFileSystem()));
@@ -157,6 +160,7 @@ public class DarwinSandboxedStrategy extends SandboxStrategy {
   protected void actuallyExec(
       Spawn spawn,
       ActionExecutionContext actionExecutionContext,
+      @Nullable Cgroup cgroup,
       AtomicReference<Class<? extends SpawnActionContext>> writeOutputFiles)
       throws ExecException, InterruptedException, IOException {
     Executor executor = actionExecutionContext.getExecutor();
@@ -166,8 +170,9 @@ public class DarwinSandboxedStrategy extends SandboxStrategy {
     SandboxHelpers.reportSubcommand(executor, spawn);
 
     // Each invocation of "exec" gets its own sandbox.
-    Path sandboxPath = getSandboxRoot();
-    Path sandboxExecRoot = sandboxPath.getRelative("execroot").getRelative(execRoot.getBaseName());
+    SandboxDirectory sandboxDirectory = acquireSandboxDirectory(spawn);
+    Path sandboxPath = sandboxDirectory.getSandboxPath();
+    Path sandboxExecRoot = sandboxDirectory.getSandboxExecRoot();
 
     ImmutableMap<String, String> spawnEnvironment =
         StandaloneSpawnStrategy.locallyDeterminedEnv(execRoot, productName, spawn.getEnvironment());
@@ -176,9 +181,12 @@ public class DarwinSandboxedStrategy extends SandboxStrategy {
     ImmutableSet<Path> extraWritableDirs = getWritableDirs(sandboxExecRoot, spawnEnvironment);
     writableDirs.addAll(extraWritableDirs);
 
-    SymlinkedExecRoot symlinkedExecRoot = new SymlinkedExecRoot(sandboxExecRoot);
+    SymlinkedExecRoot symlinkedExecRoot = sandboxDirectory.getSymlinkedExecRoot();
     ImmutableSet<PathFragment> outputs = SandboxHelpers.getOutputFiles(spawn);
-    symlinkedExecRoot.createFileSystem(
+    createFileSystem(
+        sandboxDirectory,
+        symlinkedExecRoot,
+        spawn,
         SandboxHelpers.getInputFiles(
             spawnInputExpander, this.execRoot, spawn, actionExecutionContext),
         outputs,
@@ -193,6 +201,7 @@ public class DarwinSandboxedStrategy extends SandboxStrategy {
     DarwinSandboxRunner runner =
         new DarwinSandboxRunner(
             sandboxPath, sandboxExecRoot, writableDirs, getInaccessiblePaths(), verboseFailures);
+    boolean succeeded = false;
     try {
       runSpawn(
           spawn,
@@ -202,20 +211,9 @@ public class DarwinSandboxedStrategy extends SandboxStrategy {
           outputs,
           runner,
           writeOutputFiles);
+      succeeded = true;
     } finally {
-      if (!sandboxDebug) {
-        try {
-          FileSystemUtils.deleteTree(sandboxPath);
-        } catch (IOException e) {
-          // This usually means that the Spawn itself exited, but still has children running that
-          // we couldn't wait for, which now block deletion of the sandbox directory. On Linux this
-          // should never happen, as we use PID namespaces and where they are not available the
-          // subreaper feature to make sure all children have been reliably killed before returning,
-          // but on other OS this might not always work. The SandboxModule will try to delete them
-          // again when the build is all done, at which point it hopefully works, so let's just go
-          // on here.
-        }
-      }
+      releaseSandboxDirectory(sandboxDirectory, succeeded);
     }
   }
 }
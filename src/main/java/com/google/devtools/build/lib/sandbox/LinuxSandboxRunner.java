@@ -16,10 +16,12 @@ package com.google.devtools.build.lib.sandbox;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.ByteStreams;
+import com.google.devtools.build.lib.actions.SpawnCgroups.Cgroup;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
 import com.google.devtools.build.lib.shell.Command;
 import com.google.devtools.build.lib.shell.CommandException;
 import com.google.devtools.build.lib.util.OsUtils;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import java.io.File;
@@ -28,6 +30,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import javax.annotation.Nullable;
 
 /**
  * Helper class for running the Linux sandbox. This runner prepares environment inside the sandbox,
@@ -41,6 +44,10 @@ final class LinuxSandboxRunner extends SandboxRunner {
   private final Set<Path> tmpfsPaths;
   // a <target, source> mapping of paths to bind mount
   private final Map<Path, Path> bindMounts;
+  // the exec root to mount below an overlay on sandboxExecRoot, if any
+  @Nullable private final OverlayExecRoot overlay;
+  // the cgroup to run the spawn in, if any
+  @Nullable private final Cgroup cgroup;
   private final boolean sandboxDebug;
 
   LinuxSandboxRunner(
@@ -48,13 +55,17 @@ final class LinuxSandboxRunner extends SandboxRunner {
       Set<Path> writableDirs,
       Set<Path> tmpfsPaths,
       Map<Path, Path> bindMounts,
+      @Nullable OverlayExecRoot overlay,
+      @Nullable Cgroup cgroup,
       boolean verboseFailures,
       boolean sandboxDebug) {
-    super(verboseFailures);
+    super(verboseFailures, cgroup);
     this.sandboxExecRoot = sandboxExecRoot;
     this.writableDirs = writableDirs;
     this.tmpfsPaths = tmpfsPaths;
     this.bindMounts = bindMounts;
+    this.overlay = overlay;
+    this.cgroup = cgroup;
     this.sandboxDebug = sandboxDebug;
   }
 
@@ -66,15 +77,51 @@ final class LinuxSandboxRunner extends SandboxRunner {
       return false;
     }
 
-    Path execRoot = cmdEnv.getExecRoot();
+    List<String> args = new ArrayList<>();
+    args.add(embeddedTool.getPathString());
+    args.add("--");
+    args.add("/bin/true");
+    return canExecute(args, cmdEnv.getExecRoot());
+  }
+
+  /**
+   * Returns whether the kernel lets linux-sandbox mount overlay file systems, which needs Linux
+   * 5.11 or newer when running unprivileged.
+   *
+   * @param probeDir an empty directory that may be used for a test mount
+   */
+  static boolean isOverlaySupported(CommandEnvironment cmdEnv, Path probeDir) throws IOException {
+    Path embeddedTool = getLinuxSandbox(cmdEnv);
+    if (embeddedTool == null) {
+      return false;
+    }
+
+    Path lowerDir = probeDir.getRelative("lower");
+    Path scratchDir = probeDir.getRelative("scratch");
+    Path mountPoint = probeDir.getRelative("mnt");
+    FileSystemUtils.createDirectoryAndParents(lowerDir);
+    FileSystemUtils.createDirectoryAndParents(scratchDir.getRelative("upper"));
+    FileSystemUtils.createDirectoryAndParents(scratchDir.getRelative("work"));
+    FileSystemUtils.createDirectoryAndParents(mountPoint);
 
     List<String> args = new ArrayList<>();
     args.add(embeddedTool.getPathString());
+    args.add("-O");
+    args.add(lowerDir.getPathString());
+    args.add("-S");
+    args.add(scratchDir.getPathString());
     args.add("--");
     args.add("/bin/true");
+    try {
+      return canExecute(args, mountPoint);
+    } finally {
+      FileSystemUtils.deleteTree(probeDir);
+    }
+  }
 
+  private static boolean canExecute(List<String> args, Path workingDirectory) {
     ImmutableMap<String, String> env = ImmutableMap.of();
-    File cwd = execRoot.getPathFile();
+    File cwd = workingDirectory.getPathFile();
 
     Command cmd = new Command(args.toArray(new String[0]), env, cwd);
     try {
@@ -141,6 +188,18 @@ final class LinuxSandboxRunner extends SandboxRunner {
       }
     }
 
+    if (overlay != null) {
+      commandLineArgs.add("-O");
+      commandLineArgs.add(overlay.getLowerDir().getPathString());
+      commandLineArgs.add("-S");
+      commandLineArgs.add(overlay.getScratchDir().getPathString());
+    }
+
+    if (cgroup != null) {
+      commandLineArgs.add("-C");
+      commandLineArgs.add(cgroup.getPath().getPathString());
+    }
+
     if (!allowNetwork) {
       // Block network access out of the namespace.
       commandLineArgs.add("-N");
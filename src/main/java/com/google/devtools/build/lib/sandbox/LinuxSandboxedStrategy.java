@@ -24,9 +24,11 @@ import com.google.devtools.build.lib.actions.ExecutionStrategy;
 import com.google.devtools.build.lib.actions.Executor;
 import com.google.devtools.build.lib.actions.Spawn;
 import com.google.devtools.build.lib.actions.SpawnActionContext;
+import com.google.devtools.build.lib.actions.SpawnCgroups.Cgroup;
 import com.google.devtools.build.lib.actions.UserExecException;
 import com.google.devtools.build.lib.analysis.BlazeDirectories;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
+import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.exec.SpawnInputExpander;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
 import com.google.devtools.build.lib.vfs.FileSystem;
@@ -39,6 +41,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 /** Strategy that uses sandboxing to execute a process. */
 @ExecutionStrategy(
@@ -58,18 +62,28 @@ public class LinuxSandboxedStrategy extends SandboxStrategy {
   private final SpawnInputExpander spawnInputExpander;
   private final Path inaccessibleHelperFile;
   private final Path inaccessibleHelperDir;
+  private final boolean overlayExecRoot;
+  private final Path sandboxBase;
+
+  // Created when the first spawn runs, as the execution root isn't set up before.
+  @GuardedBy("this")
+  @Nullable
+  private OverlayExecRoot.LowerDir overlayLowerDir;
 
   private LinuxSandboxedStrategy(
       CommandEnvironment cmdEnv,
       BuildRequest buildRequest,
       Path sandboxBase,
+      SandboxTrash trash,
       boolean verboseFailures,
       Path inaccessibleHelperFile,
-      Path inaccessibleHelperDir) {
+      Path inaccessibleHelperDir,
+      boolean overlayExecRoot) {
     super(
         cmdEnv,
         buildRequest,
         sandboxBase,
+        trash,
         verboseFailures,
         buildRequest.getOptions(SandboxOptions.class));
     this.sandboxOptions = buildRequest.getOptions(SandboxOptions.class);
@@ -79,12 +93,15 @@ public class LinuxSandboxedStrategy extends SandboxStrategy {
     this.spawnInputExpander = new SpawnInputExpander(false);
     this.inaccessibleHelperFile = inaccessibleHelperFile;
     this.inaccessibleHelperDir = inaccessibleHelperDir;
+    this.overlayExecRoot = overlayExecRoot;
+    this.sandboxBase = sandboxBase;
   }
 
   static LinuxSandboxedStrategy create(
       CommandEnvironment cmdEnv,
       BuildRequest buildRequest,
       Path sandboxBase,
+      SandboxTrash trash,
       boolean verboseFailures)
       throws IOException {
     Path inaccessibleHelperFile = sandboxBase.getRelative("inaccessibleHelperFile");
@@ -99,19 +116,35 @@ public class LinuxSandboxedStrategy extends SandboxStrategy {
     inaccessibleHelperDir.setWritable(false);
     inaccessibleHelperDir.setExecutable(false);
 
+    boolean overlayExecRoot = buildRequest.getOptions(SandboxOptions.class).overlayExecRoot;
+    if (overlayExecRoot
+        && !LinuxSandboxRunner.isOverlaySupported(
+            cmdEnv, sandboxBase.getRelative("overlayProbe"))) {
+      cmdEnv
+          .getReporter()
+          .handle(
+              Event.warn(
+                  "--experimental_sandbox_overlay_exec_root is not supported on this system, "
+                      + "falling back to symlinking the inputs of sandboxed actions"));
+      overlayExecRoot = false;
+    }
+
     return new LinuxSandboxedStrategy(
         cmdEnv,
         buildRequest,
         sandboxBase,
+        trash,
         verboseFailures,
         inaccessibleHelperFile,
-        inaccessibleHelperDir);
+        inaccessibleHelperDir,
+        overlayExecRoot);
   }
 
   @Override
   protected void actuallyExec(
       Spawn spawn,
       ActionExecutionContext actionExecutionContext,
+      @Nullable Cgroup cgroup,
       AtomicReference<Class<? extends SpawnActionContext>> writeOutputFiles)
       throws IOException, ExecException, InterruptedException {
     Executor executor = actionExecutionContext.getExecutor();
@@ -121,13 +154,22 @@ public class LinuxSandboxedStrategy extends SandboxStrategy {
     SandboxHelpers.reportSubcommand(executor, spawn);
 
     // Each invocation of "exec" gets its own sandbox.
-    Path sandboxPath = getSandboxRoot();
-    Path sandboxExecRoot = sandboxPath.getRelative("execroot").getRelative(execRoot.getBaseName());
+    SandboxDirectory sandboxDirectory = acquireSandboxDirectory(spawn);
+    Path sandboxExecRoot = sandboxDirectory.getSandboxExecRoot();
 
     Set<Path> writableDirs = getWritableDirs(sandboxExecRoot, spawn.getEnvironment());
-    SymlinkedExecRoot symlinkedExecRoot = new SymlinkedExecRoot(sandboxExecRoot);
+    // With an overlay, the spawn sees the source roots instead of a symlink for each input.
+    OverlayExecRoot overlay =
+        overlayExecRoot
+            ? sandboxDirectory.getOverlayExecRoot(execRoot, getOverlayLowerDir())
+            : null;
+    SandboxExecRoot spawnExecRoot =
+        overlay != null ? overlay : sandboxDirectory.getSymlinkedExecRoot();
     ImmutableSet<PathFragment> outputs = SandboxHelpers.getOutputFiles(spawn);
-    symlinkedExecRoot.createFileSystem(
+    createFileSystem(
+        sandboxDirectory,
+        spawnExecRoot,
+        spawn,
         SandboxHelpers.getInputFiles(spawnInputExpander, execRoot, spawn, actionExecutionContext),
         outputs,
         writableDirs);
@@ -138,33 +180,33 @@ public class LinuxSandboxedStrategy extends SandboxStrategy {
             writableDirs,
             getTmpfsPaths(),
             getReadOnlyBindMounts(blazeDirs, sandboxExecRoot),
+            overlay,
+            cgroup,
             verboseFailures,
             sandboxOptions.sandboxDebug);
 
+    boolean succeeded = false;
     try {
       runSpawn(
           spawn,
           actionExecutionContext,
           spawn.getEnvironment(),
-          symlinkedExecRoot,
+          spawnExecRoot,
           outputs,
           runner,
           writeOutputFiles);
+      succeeded = true;
     } finally {
-      if (!sandboxOptions.sandboxDebug) {
-        try {
-          FileSystemUtils.deleteTree(sandboxPath);
-        } catch (IOException e) {
-          // This usually means that the Spawn itself exited, but still has children running that
-          // we couldn't wait for, which now block deletion of the sandbox directory. On Linux this
-          // should never happen, as we use PID namespaces and where they are not available the
-          // subreaper feature to make sure all children have been reliably killed before returning,
-          // but on other OS this might not always work. The SandboxModule will try to delete them
-          // again when the build is all done, at which point it hopefully works, so let's just go
-          // on here.
-        }
-      }
+      releaseSandboxDirectory(sandboxDirectory, succeeded);
+    }
+  }
+
+  private synchronized OverlayExecRoot.LowerDir getOverlayLowerDir() throws IOException {
+    if (overlayLowerDir == null) {
+      overlayLowerDir =
+          OverlayExecRoot.LowerDir.create(execRoot, sandboxBase.getRelative("overlayLower"));
     }
+    return overlayLowerDir;
   }
 
   @Override
@@ -0,0 +1,210 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import com.google.devtools.build.lib.vfs.Dirent;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Makes the source files of the real execution root available inside the sandbox through an
+ * overlay file system that linux-sandbox mounts on the sandboxed execution root, instead of
+ * symlinking every input like {@link SymlinkedExecRoot} does.
+ *
+ * <p>The lower directory of the overlay is a {@link LowerDir}, which only holds the symlinks from
+ * the real execution root to the source roots. Everything the spawn writes ends up in the upper
+ * directory of the overlay. Setting up the sandbox therefore only has to create the inputs that are
+ * not source files at the same path, mostly generated files, and the declared outputs are moved
+ * out of the upper directory afterwards.
+ *
+ * <p>Unlike {@link SymlinkedExecRoot}, this does not hide undeclared source files from the spawn.
+ * Undeclared generated files are hidden, as only the declared ones are linked in.
+ */
+final class OverlayExecRoot implements SandboxExecRoot {
+
+  /**
+   * The read-only lower directory of the overlays of a build. It mirrors the symlinks at the top
+   * of the real execution root, which point to the source roots and don't change while actions
+   * run. The directories of the execution root that actions write into, like the output tree, are
+   * left out, because overlayfs does not define what happens when its lower directory changes.
+   */
+  static final class LowerDir {
+    private final Path path;
+    private final ImmutableSet<String> entries;
+
+    private LowerDir(Path path, ImmutableSet<String> entries) {
+      this.path = path;
+      this.entries = entries;
+    }
+
+    /** Creates the lower directory at {@code path} from the current state of {@code execRoot}. */
+    static LowerDir create(Path execRoot, Path path) throws IOException {
+      if (path.exists(Symlinks.NOFOLLOW)) {
+        FileSystemUtils.deleteTree(path);
+      }
+      FileSystemUtils.createDirectoryAndParents(path);
+      ImmutableSet.Builder<String> entries = ImmutableSet.builder();
+      for (Dirent dirent : execRoot.readdir(Symlinks.NOFOLLOW)) {
+        if (dirent.getType() != Dirent.Type.SYMLINK) {
+          continue;
+        }
+        // Relative targets would be resolved against the wrong directory.
+        PathFragment target = execRoot.getChild(dirent.getName()).readSymbolicLink();
+        path.getChild(dirent.getName())
+            .createSymbolicLink(execRoot.getRelative(target).asFragment());
+        entries.add(dirent.getName());
+      }
+      return new LowerDir(path, entries.build());
+    }
+
+    Path getPath() {
+      return path;
+    }
+
+    /** Returns whether the given path of the execution root is visible through this directory. */
+    boolean contains(PathFragment execPath) {
+      return execPath.segmentCount() > 0 && entries.contains(execPath.getSegment(0));
+    }
+  }
+
+  private final Path execRoot;
+  private final LowerDir lowerDir;
+  private final Path sandboxExecRoot;
+  private final Path scratchDir;
+
+  /**
+   * @param execRoot the real execution root
+   * @param lowerDir the lower directory of the overlay, created from {@code execRoot}
+   * @param sandboxExecRoot the directory that the overlay is mounted on
+   * @param scratchDir the directory for the upper and work directories of the overlay, which must
+   *     be on the same file system and not below {@code execRoot}
+   */
+  OverlayExecRoot(Path execRoot, LowerDir lowerDir, Path sandboxExecRoot, Path scratchDir) {
+    this.execRoot = execRoot;
+    this.lowerDir = lowerDir;
+    this.sandboxExecRoot = sandboxExecRoot;
+    this.scratchDir = scratchDir;
+  }
+
+  /** Returns the directory that is mounted read-only below the overlay. */
+  Path getLowerDir() {
+    return lowerDir.getPath();
+  }
+
+  /** Returns the directory that holds the "upper" and "work" directories of the overlay. */
+  Path getScratchDir() {
+    return scratchDir;
+  }
+
+  private Path getUpperDir() {
+    return scratchDir.getRelative("upper");
+  }
+
+  @Override
+  public void createFileSystem(
+      Map<PathFragment, Path> inputs, Collection<PathFragment> outputs, Set<Path> writableDirs)
+      throws IOException {
+    // Whatever a previous spawn left in a reused sandbox directory must not show up in this one.
+    if (scratchDir.exists()) {
+      FileSystemUtils.deleteTree(scratchDir);
+    }
+    FileSystemUtils.createDirectoryAndParents(sandboxExecRoot);
+    FileSystemUtils.createDirectoryAndParents(getUpperDir());
+    scratchDir.getRelative("work").createDirectory();
+
+    Set<PathFragment> createdDirs = new HashSet<>();
+    for (Map.Entry<PathFragment, Path> entry : inputs.entrySet()) {
+      PathFragment input = entry.getKey();
+      Path target = entry.getValue();
+      if (target != null
+          && lowerDir.contains(input)
+          && target.equals(execRoot.getRelative(input))) {
+        // Source files are visible through the overlay as they are.
+        continue;
+      }
+      createDirectories(createdDirs, input.getParentDirectory());
+      Path path = getUpperDir().getRelative(input);
+      if (target == null) {
+        FileSystemUtils.createEmptyFile(path);
+      } else {
+        path.createSymbolicLink(target);
+      }
+    }
+
+    for (PathFragment output : outputs) {
+      createDirectories(createdDirs, output.getParentDirectory());
+    }
+
+    for (Path writablePath : writableDirs) {
+      if (writablePath.startsWith(sandboxExecRoot)) {
+        createDirectories(createdDirs, writablePath.relativeTo(sandboxExecRoot));
+      }
+    }
+  }
+
+  /**
+   * Creates the given directory and its parents in the upper directory, so that they are merged
+   * with the directories of the same name in the lower directory.
+   */
+  private void createDirectories(Set<PathFragment> createdDirs, PathFragment dir)
+      throws IOException {
+    if (dir == null || dir.segmentCount() == 0 || createdDirs.contains(dir)) {
+      return;
+    }
+    createDirectories(createdDirs, dir.getParentDirectory());
+    if (dir.segmentCount() == 1 && lowerDir.contains(dir)) {
+      // A directory in the upper directory would hide the symlink together with everything that
+      // can be reached through it, e.g. all source files of a top-level package.
+      throw new IOException(
+          String.format(
+              "Cannot create files below '%s' in the sandbox, as it is a symlink in the execution "
+                  + "root",
+              dir));
+    }
+    Path path = getUpperDir().getRelative(dir);
+    if (!path.isDirectory()) {
+      path.createDirectory();
+    }
+    createdDirs.add(dir);
+  }
+
+  @Override
+  public void copyOutputs(Path execRoot, Collection<PathFragment> outputs) throws IOException {
+    for (PathFragment output : outputs) {
+      Path source = getUpperDir().getRelative(output);
+      Path target = execRoot.getRelative(output);
+      if (source.isFile() || source.isSymbolicLink()) {
+        Files.move(source.getPathFile(), target.getPathFile());
+      } else if (source.isDirectory()) {
+        try {
+          source.renameTo(target);
+        } catch (IOException e) {
+          // Failed to move directory directly, thus move it recursively.
+          target.createDirectory();
+          FileSystemUtils.moveTreesBelow(source, target);
+        }
+      }
+    }
+  }
+}
@@ -14,14 +14,19 @@
 
 package com.google.devtools.build.lib.sandbox;
 
+import com.google.devtools.build.lib.actions.SpawnCgroups.Cgroup;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
 import com.google.devtools.build.lib.shell.Command;
+import com.google.devtools.build.lib.shell.ResourceUsage;
+import com.google.devtools.build.lib.shell.TerminationStatus;
+import com.google.devtools.build.lib.standalone.StandaloneSpawnStrategy;
 import com.google.devtools.build.lib.util.OsUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import javax.annotation.Nullable;
 
 /**
  * This runner runs process-wrapper inside a sandboxed execution root, which should work on most
@@ -31,10 +36,22 @@ final class ProcessWrapperRunner extends SandboxRunner {
   private static final String PROCESS_WRAPPER = "process-wrapper" + OsUtils.executableExtension();
 
   private final Path sandboxExecRoot;
+  @Nullable private final Cgroup cgroup;
+  @Nullable private final Path statsFile;
 
-  ProcessWrapperRunner(Path sandboxExecRoot, boolean verboseFailures) {
-    super(verboseFailures);
+  /**
+   * @param statsFile the file for process-wrapper to write the resource usage of the spawn to, or
+   *     null if it's not needed
+   */
+  ProcessWrapperRunner(
+      Path sandboxExecRoot,
+      @Nullable Cgroup cgroup,
+      @Nullable Path statsFile,
+      boolean verboseFailures) {
+    super(verboseFailures, cgroup);
     this.sandboxExecRoot = sandboxExecRoot;
+    this.cgroup = cgroup;
+    this.statsFile = statsFile;
   }
 
   static boolean isSupported(CommandEnvironment cmdEnv) {
@@ -58,14 +75,30 @@ final class ProcessWrapperRunner extends SandboxRunner {
       boolean allowNetwork,
       boolean useFakeHostname,
       boolean useFakeUsername) {
-    List<String> commandLineArgs = getCommandLine(cmdEnv, spawnArguments, timeout);
+    List<String> commandLineArgs =
+        getCommandLine(cmdEnv, spawnArguments, timeout, cgroup, statsFile);
     return new Command(commandLineArgs.toArray(new String[0]), env, sandboxExecRoot.getPathFile());
   }
 
+  @Override
+  protected ResourceUsage getResourceUsage(TerminationStatus status) {
+    return StandaloneSpawnStrategy.getResourceUsage(status, statsFile);
+  }
+
   static List<String> getCommandLine(
-      CommandEnvironment cmdEnv, List<String> spawnArguments, int timeout) {
-    List<String> commandLineArgs = new ArrayList<>(5 + spawnArguments.size());
+      CommandEnvironment cmdEnv,
+      List<String> spawnArguments,
+      int timeout,
+      @Nullable Cgroup cgroup,
+      @Nullable Path statsFile) {
+    List<String> commandLineArgs = new ArrayList<>(7 + spawnArguments.size());
     commandLineArgs.add(getProcessWrapper(cmdEnv).getPathString());
+    if (cgroup != null) {
+      commandLineArgs.add("--cgroup=" + cgroup.getPath().getPathString());
+    }
+    if (statsFile != null) {
+      commandLineArgs.add("--stats=" + statsFile.getPathString());
+    }
     commandLineArgs.add(Integer.toString(timeout));
     commandLineArgs.add("5"); /* kill delay: give some time to print stacktraces and whatnot. */
     commandLineArgs.add("-"); /* stdout. */
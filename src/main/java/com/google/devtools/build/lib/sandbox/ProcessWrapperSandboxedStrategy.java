@@ -21,18 +21,20 @@ import com.google.devtools.build.lib.actions.ActionStatusMessage;
 import com.google.devtools.build.lib.actions.ExecException;
 import com.google.devtools.build.lib.actions.ExecutionStrategy;
 import com.google.devtools.build.lib.actions.Executor;
+import com.google.devtools.build.lib.actions.ResourceManager;
 import com.google.devtools.build.lib.actions.Spawn;
 import com.google.devtools.build.lib.actions.SpawnActionContext;
+import com.google.devtools.build.lib.actions.SpawnCgroups.Cgroup;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
 import com.google.devtools.build.lib.exec.SpawnInputExpander;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
 import com.google.devtools.build.lib.standalone.StandaloneSpawnStrategy;
-import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import java.io.IOException;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
 
 /** Strategy that uses sandboxing to execute a process. */
 @ExecutionStrategy(
@@ -45,7 +47,6 @@ public class ProcessWrapperSandboxedStrategy extends SandboxStrategy {
     return ProcessWrapperRunner.isSupported(cmdEnv);
   }
 
-  private final SandboxOptions sandboxOptions;
   private final Path execRoot;
   private final boolean verboseFailures;
   private final String productName;
@@ -55,15 +56,16 @@ public class ProcessWrapperSandboxedStrategy extends SandboxStrategy {
       CommandEnvironment cmdEnv,
       BuildRequest buildRequest,
       Path sandboxBase,
+      SandboxTrash trash,
       boolean verboseFailures,
       String productName) {
     super(
         cmdEnv,
         buildRequest,
         sandboxBase,
+        trash,
         verboseFailures,
         buildRequest.getOptions(SandboxOptions.class));
-    this.sandboxOptions = buildRequest.getOptions(SandboxOptions.class);
     this.execRoot = cmdEnv.getExecRoot();
     this.verboseFailures = verboseFailures;
     this.productName = productName;
@@ -74,6 +76,7 @@ public class ProcessWrapperSandboxedStrategy extends SandboxStrategy {
   protected void actuallyExec(
       Spawn spawn,
       ActionExecutionContext actionExecutionContext,
+      @Nullable Cgroup cgroup,
       AtomicReference<Class<? extends SpawnActionContext>> writeOutputFiles)
       throws ExecException, InterruptedException, IOException {
     Executor executor = actionExecutionContext.getExecutor();
@@ -85,22 +88,31 @@ public class ProcessWrapperSandboxedStrategy extends SandboxStrategy {
     SandboxHelpers.reportSubcommand(executor, spawn);
 
     // Each invocation of "exec" gets its own sandbox.
-    Path sandboxPath = getSandboxRoot();
-    Path sandboxExecRoot = sandboxPath.getRelative("execroot").getRelative(execRoot.getBaseName());
+    SandboxDirectory sandboxDirectory = acquireSandboxDirectory(spawn);
+    Path sandboxExecRoot = sandboxDirectory.getSandboxExecRoot();
 
     ImmutableMap<String, String> spawnEnvironment =
         StandaloneSpawnStrategy.locallyDeterminedEnv(execRoot, productName, spawn.getEnvironment());
 
     Set<Path> writableDirs = getWritableDirs(sandboxExecRoot, spawn.getEnvironment());
-    SymlinkedExecRoot symlinkedExecRoot = new SymlinkedExecRoot(sandboxExecRoot);
+    SymlinkedExecRoot symlinkedExecRoot = sandboxDirectory.getSymlinkedExecRoot();
     ImmutableSet<PathFragment> outputs = SandboxHelpers.getOutputFiles(spawn);
-    symlinkedExecRoot.createFileSystem(
+    createFileSystem(
+        sandboxDirectory,
+        symlinkedExecRoot,
+        spawn,
         SandboxHelpers.getInputFiles(
             spawnInputExpander, this.execRoot, spawn, actionExecutionContext),
         outputs,
         writableDirs);
 
-    SandboxRunner runner = new ProcessWrapperRunner(sandboxExecRoot, verboseFailures);
+    Path statsFile =
+        ResourceManager.instance().isRecordingResourceUsage()
+            ? sandboxDirectory.getSandboxPath().getRelative("stats")
+            : null;
+    SandboxRunner runner =
+        new ProcessWrapperRunner(sandboxExecRoot, cgroup, statsFile, verboseFailures);
+    boolean succeeded = false;
     try {
       runSpawn(
           spawn,
@@ -110,20 +122,9 @@ public class ProcessWrapperSandboxedStrategy extends SandboxStrategy {
           outputs,
           runner,
           writeOutputFiles);
+      succeeded = true;
     } finally {
-      if (!sandboxOptions.sandboxDebug) {
-        try {
-          FileSystemUtils.deleteTree(sandboxPath);
-        } catch (IOException e) {
-          // This usually means that the Spawn itself exited, but still has children running that
-          // we couldn't wait for, which now block deletion of the sandbox directory. On Linux this
-          // should never happen, as we use PID namespaces and where they are not available the
-          // subreaper feature to make sure all children have been reliably killed before returning,
-          // but on other OS this might not always work. The SandboxModule will try to delete them
-          // again when the build is all done, at which point it hopefully works, so let's just go
-          // on here.
-        }
-      }
+      releaseSandboxDirectory(sandboxDirectory, succeeded);
     }
   }
 }
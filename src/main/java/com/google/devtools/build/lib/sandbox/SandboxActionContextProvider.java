@@ -17,6 +17,7 @@ package com.google.devtools.build.lib.sandbox;
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.actions.Executor.ActionContext;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
+import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.exec.ActionContextProvider;
 import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
@@ -29,15 +30,22 @@ import java.io.IOException;
  */
 final class SandboxActionContextProvider extends ActionContextProvider {
 
+  private final CommandEnvironment cmdEnv;
+  private final SandboxTrash trash;
+
   @SuppressWarnings("unchecked")
   private final ImmutableList<ActionContext> contexts;
 
-  private SandboxActionContextProvider(ImmutableList<ActionContext> contexts) {
+  private SandboxActionContextProvider(
+      CommandEnvironment cmdEnv, SandboxTrash trash, ImmutableList<ActionContext> contexts) {
+    this.cmdEnv = cmdEnv;
+    this.trash = trash;
     this.contexts = contexts;
   }
 
   public static SandboxActionContextProvider create(
-      CommandEnvironment cmdEnv, BuildRequest buildRequest, Path sandboxBase) throws IOException {
+      CommandEnvironment cmdEnv, BuildRequest buildRequest, Path sandboxBase, SandboxTrash trash)
+      throws IOException {
     ImmutableList.Builder<ActionContext> contexts = ImmutableList.builder();
 
     boolean verboseFailures = buildRequest.getOptions(ExecutionOptions.class).verboseFailures;
@@ -47,32 +55,47 @@ final class SandboxActionContextProvider extends ActionContextProvider {
     if (OS.isPosixCompatible()) {
       contexts.add(
           new ProcessWrapperSandboxedStrategy(
-              cmdEnv, buildRequest, sandboxBase, verboseFailures, productName));
+              cmdEnv, buildRequest, sandboxBase, trash, verboseFailures, productName));
     }
 
     switch (OS.getCurrent()) {
       case LINUX:
         if (LinuxSandboxedStrategy.isSupported(cmdEnv)) {
           contexts.add(
-              LinuxSandboxedStrategy.create(cmdEnv, buildRequest, sandboxBase, verboseFailures));
+              LinuxSandboxedStrategy.create(
+                  cmdEnv, buildRequest, sandboxBase, trash, verboseFailures));
         }
         break;
       case DARWIN:
         if (DarwinSandboxRunner.isSupported(cmdEnv)) {
           contexts.add(
               DarwinSandboxedStrategy.create(
-                  cmdEnv, buildRequest, sandboxBase, verboseFailures, productName));
+                  cmdEnv, buildRequest, sandboxBase, trash, verboseFailures, productName));
         }
         break;
       default:
         // No additional platform-specific sandboxing available.
     }
 
-    return new SandboxActionContextProvider(contexts.build());
+    return new SandboxActionContextProvider(cmdEnv, trash, contexts.build());
   }
 
   @Override
   public Iterable<ActionContext> getActionContexts() {
     return contexts;
   }
+
+  @Override
+  public void executionPhaseEnding() {
+    for (ActionContext context : contexts) {
+      String stats = ((SandboxStrategy) context).getAndResetSetupStats();
+      if (stats != null) {
+        cmdEnv.getReporter().handle(Event.info(stats));
+      }
+    }
+    String trashStats = trash.getAndResetStats();
+    if (trashStats != null) {
+      cmdEnv.getReporter().handle(Event.info(trashStats));
+    }
+  }
 }
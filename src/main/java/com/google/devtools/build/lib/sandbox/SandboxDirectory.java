@@ -0,0 +1,66 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.devtools.build.lib.vfs.Path;
+
+/**
+ * The directory of a single sandboxed spawn, together with the exec root inside it.
+ *
+ * <p>When sandbox directories are reused, the same instance is handed to several spawns one after
+ * the other, so that its {@link SymlinkedExecRoot} only has to apply the differences between their
+ * inputs.
+ */
+final class SandboxDirectory {
+  private final Path sandboxPath;
+  private final Path sandboxExecRoot;
+  private final SymlinkedExecRoot symlinkedExecRoot;
+  private String lastMnemonic;
+
+  SandboxDirectory(Path sandboxPath, String execRootName) {
+    this.sandboxPath = sandboxPath;
+    this.sandboxExecRoot = sandboxPath.getRelative("execroot").getRelative(execRootName);
+    this.symlinkedExecRoot = new SymlinkedExecRoot(sandboxExecRoot);
+  }
+
+  /** Returns the directory that holds everything of this sandbox. */
+  Path getSandboxPath() {
+    return sandboxPath;
+  }
+
+  /** Returns the exec root that the spawn runs in. */
+  Path getSandboxExecRoot() {
+    return sandboxExecRoot;
+  }
+
+  SymlinkedExecRoot getSymlinkedExecRoot() {
+    return symlinkedExecRoot;
+  }
+
+  /** Returns an exec root that shows the source files of {@code execRoot} through an overlay. */
+  OverlayExecRoot getOverlayExecRoot(Path execRoot, OverlayExecRoot.LowerDir lowerDir) {
+    return new OverlayExecRoot(
+        execRoot, lowerDir, sandboxExecRoot, sandboxPath.getRelative("overlay"));
+  }
+
+  /** Returns the mnemonic of the last spawn that used this directory, or null if there was none. */
+  String getLastMnemonic() {
+    return lastMnemonic;
+  }
+
+  void setLastMnemonic(String mnemonic) {
+    this.lastMnemonic = mnemonic;
+  }
+}
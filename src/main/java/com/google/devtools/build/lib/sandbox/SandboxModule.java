@@ -34,6 +34,8 @@ import java.io.IOException;
 public final class SandboxModule extends BlazeModule {
   private Path sandboxBase;
   private boolean shouldCleanupSandboxBase;
+  // Lives as long as the server, so that deletions can go on between commands.
+  private SandboxTrash trash;
 
   @Override
   public Iterable<Class<? extends OptionsBase>> getCommandOptions(Command command) {
@@ -62,10 +64,21 @@ public final class SandboxModule extends BlazeModule {
     // out the contents of the generated sandbox directories.
     shouldCleanupSandboxBase = !sandboxOptions.sandboxDebug;
 
+    // The trash has to be on the same file system as the sandbox directories to move them there.
+    Path trashDir =
+        sandboxBase.getParentDirectory().getRelative(sandboxBase.getBaseName() + "-trash");
+    if (trash == null || !trash.getTrashDir().equals(trashDir)) {
+      if (trash != null) {
+        trash.shutdown();
+      }
+      trash = new SandboxTrash(trashDir);
+    }
+    trash.setMaxBacklog(sandboxOptions.asyncTreeDeleteMaxBacklog);
+
     try {
       FileSystemUtils.createDirectoryAndParents(sandboxBase);
       builder.addActionContextProvider(
-          SandboxActionContextProvider.create(cmdEnv, request, sandboxBase));
+          SandboxActionContextProvider.create(cmdEnv, request, sandboxBase, trash));
     } catch (IOException e) {
       throw new IllegalStateException(e);
     }
@@ -79,7 +92,7 @@ public final class SandboxModule extends BlazeModule {
     if (sandboxBase != null) {
       if (shouldCleanupSandboxBase) {
         try {
-          FileSystemUtils.deleteTree(sandboxBase);
+          trash.delete(sandboxBase);
         } catch (IOException e) {
           // Nothing we can do at this point.
         }
@@ -87,4 +100,12 @@ public final class SandboxModule extends BlazeModule {
       sandboxBase = null;
     }
   }
+
+  @Override
+  public void blazeShutdown() {
+    if (trash != null) {
+      trash.shutdown();
+      trash = null;
+    }
+  }
 }
@@ -151,4 +151,38 @@ public class SandboxOptions extends OptionsBase {
     help = "Add additional path pair to mount in sandbox."
   )
   public List<ImmutableMap.Entry<String, String>> sandboxAdditionalMounts;
+
+  @Option(
+    name = "experimental_reuse_sandbox_directories",
+    defaultValue = "false",
+    category = "strategy",
+    help =
+        "If enabled, the sandbox directory of a finished action is kept and reused by the next "
+            + "one, so that only the input symlinks that differ between them have to be changed. "
+            + "Ignored with --sandbox_debug."
+  )
+  public boolean reuseSandboxDirectories;
+
+  @Option(
+    name = "experimental_sandbox_overlay_exec_root",
+    defaultValue = "false",
+    category = "strategy",
+    help =
+        "If enabled, the Linux sandbox mounts an overlay of the source roots instead of creating "
+            + "a symlink for each source file, which is much faster for actions with many inputs. "
+            + "Actions can then read undeclared source files, and only their declared outputs "
+            + "are kept. Needs Linux 5.11 or newer."
+  )
+  public boolean overlayExecRoot;
+
+  @Option(
+    name = "experimental_sandbox_async_tree_delete_max_backlog",
+    defaultValue = "1000",
+    category = "strategy",
+    help =
+        "How many sandbox directories may wait to be deleted in the background. When more are "
+            + "waiting, actions delete their sandbox directories themselves. 0 means that sandbox "
+            + "directories are always deleted by the actions that used them."
+  )
+  public int asyncTreeDeleteMaxBacklog;
 }
@@ -14,20 +14,27 @@
 
 package com.google.devtools.build.lib.sandbox;
 
+import com.google.devtools.build.lib.actions.ActionExecutionMetadata;
 import com.google.devtools.build.lib.actions.ExecException;
+import com.google.devtools.build.lib.actions.ResourceManager;
+import com.google.devtools.build.lib.actions.SpawnCgroups.Cgroup;
 import com.google.devtools.build.lib.actions.UserExecException;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
 import com.google.devtools.build.lib.shell.AbnormalTerminationException;
 import com.google.devtools.build.lib.shell.Command;
 import com.google.devtools.build.lib.shell.CommandException;
+import com.google.devtools.build.lib.shell.CommandResult;
 import com.google.devtools.build.lib.shell.KillableObserver;
+import com.google.devtools.build.lib.shell.ResourceUsage;
 import com.google.devtools.build.lib.shell.TerminationStatus;
+import com.google.devtools.build.lib.util.BlazeClock;
 import com.google.devtools.build.lib.util.CommandFailureUtils;
 import com.google.devtools.build.lib.util.io.OutErr;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import javax.annotation.Nullable;
 
 /** A common interface of all sandbox runners, no matter which platform they're working on. */
 abstract class SandboxRunner {
@@ -36,14 +43,22 @@ abstract class SandboxRunner {
       "\n\nUse --sandbox_debug to see verbose messages from the sandbox";
 
   private final boolean verboseFailures;
+  @Nullable private final Cgroup cgroup;
 
   SandboxRunner(boolean verboseFailures) {
+    this(verboseFailures, null);
+  }
+
+  /** @param cgroup the cgroup that the command runs in, to explain failures caused by its limits */
+  SandboxRunner(boolean verboseFailures, @Nullable Cgroup cgroup) {
     this.verboseFailures = verboseFailures;
+    this.cgroup = cgroup;
   }
 
   /**
    * Runs the command specified via {@code arguments} and {@code env} inside the sandbox.
    *
+   * @param owner - the action that the spawn belongs to.
    * @param cmdEnv - the current command environment.
    * @param arguments - arguments of spawn to run inside the sandbox.
    * @param environment - environment variables to pass to the spawn.
@@ -55,6 +70,7 @@ abstract class SandboxRunner {
    * @param useFakeUsername - whether the username should be set to 'nobody' inside the sandbox.
    */
   void run(
+      ActionExecutionMetadata owner,
       CommandEnvironment cmdEnv,
       List<String> arguments,
       Map<String, String> environment,
@@ -81,21 +97,32 @@ abstract class SandboxRunner {
     }
 
     TerminationStatus status = null;
+    long startNanos = BlazeClock.nanoTime();
     try {
-      cmd.execute(
-          /* stdin */ new byte[] {},
-          getCommandObserver(timeout),
-          outErr.getOutputStream(),
-          outErr.getErrorStream(),
-          /* killSubprocessOnInterrupt */ true);
+      CommandResult result =
+          cmd.execute(
+              /* stdin */ new byte[] {},
+              getCommandObserver(timeout),
+              outErr.getOutputStream(),
+              outErr.getErrorStream(),
+              /* killSubprocessOnInterrupt */ true);
+      ResourceManager.instance()
+          .recordResourceUsage(
+              owner, startNanos, getResourceUsage(result.getTerminationStatus()));
     } catch (CommandException e) {
       boolean timedOut = false;
       if (e instanceof AbnormalTerminationException) {
         status = ((AbnormalTerminationException) e).getResult().getTerminationStatus();
+        ResourceManager.instance()
+            .recordResourceUsage(owner, startNanos, getResourceUsage(status));
         timedOut = !status.exited() && (status.getTerminatingSignal() == getSignalOnTimeout());
       }
 
       String statusMessage = status + " [sandboxed]";
+      String limits = cgroup != null ? cgroup.explainFailure() : null;
+      if (limits != null) {
+        statusMessage += "; the spawn was " + limits;
+      }
 
       if (!verboseFailures) {
         // Simplest possible error message.
@@ -112,6 +139,10 @@ abstract class SandboxRunner {
       String commandFailureMessage =
           CommandFailureUtils.describeCommandFailure(true, commandList, environment, null);
 
+      if (limits != null) {
+        commandFailureMessage += "\n\nThe spawn was " + limits;
+      }
+
       if (!sandboxDebug) {
         commandFailureMessage += SANDBOX_DEBUG_SUGGESTION;
       }
@@ -141,6 +172,12 @@ abstract class SandboxRunner {
       boolean useFakeUsername)
       throws IOException;
 
+  /** Returns what the command returned by {@link #getCommand} used, or null if not known. */
+  @Nullable
+  protected ResourceUsage getResourceUsage(TerminationStatus status) {
+    return status.getResourceUsage();
+  }
+
   /**
    * Returns a {@link KillableObserver} that the {@link #run} method will use when executing the
    * command returned by {@link #getCommand}.
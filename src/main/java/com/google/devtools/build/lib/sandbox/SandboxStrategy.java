@@ -26,20 +26,32 @@ import com.google.devtools.build.lib.actions.ResourceManager.ResourceHandle;
 import com.google.devtools.build.lib.actions.SandboxedSpawnActionContext;
 import com.google.devtools.build.lib.actions.Spawn;
 import com.google.devtools.build.lib.actions.SpawnActionContext;
+import com.google.devtools.build.lib.actions.SpawnCgroups;
+import com.google.devtools.build.lib.actions.SpawnCgroups.Cgroup;
 import com.google.devtools.build.lib.actions.Spawns;
 import com.google.devtools.build.lib.actions.UserExecException;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
+import com.google.devtools.build.lib.util.BlazeClock;
 import com.google.devtools.build.lib.util.io.OutErr;
 import com.google.devtools.build.lib.vfs.FileSystem;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 /** Abstract common ancestor for sandbox strategies implementing the common parts. */
 abstract class SandboxStrategy implements SandboxedSpawnActionContext {
@@ -48,22 +60,40 @@ abstract class SandboxStrategy implements SandboxedSpawnActionContext {
   private final BuildRequest buildRequest;
   private final Path execRoot;
   private final Path sandboxBase;
+  private final SandboxTrash trash;
   private final boolean verboseFailures;
   private final SandboxOptions sandboxOptions;
   private final ImmutableSet<Path> inaccessiblePaths;
+  private final boolean reuseSandboxDirectories;
+
+  // Sandbox directories of finished spawns that the next spawns can reuse, most recent last. There
+  // are never more than there are jobs, as that many spawns can run at the same time.
+  @GuardedBy("idleSandboxDirectories")
+  private final Deque<SandboxDirectory> idleSandboxDirectories = new ArrayDeque<>();
+  private final int maxIdleSandboxDirectories;
+
+  private final AtomicInteger setups = new AtomicInteger();
+  private final AtomicInteger reusedSetups = new AtomicInteger();
+  private final AtomicLong setupNanos = new AtomicLong();
 
   public SandboxStrategy(
       CommandEnvironment cmdEnv,
       BuildRequest buildRequest,
       Path sandboxBase,
+      SandboxTrash trash,
       boolean verboseFailures,
       SandboxOptions sandboxOptions) {
     this.cmdEnv = cmdEnv;
     this.buildRequest = buildRequest;
     this.execRoot = cmdEnv.getExecRoot();
     this.sandboxBase = sandboxBase;
+    this.trash = trash;
     this.verboseFailures = verboseFailures;
     this.sandboxOptions = sandboxOptions;
+    // With --sandbox_debug, every spawn keeps its own directory for inspection.
+    this.reuseSandboxDirectories =
+        sandboxOptions.reuseSandboxDirectories && !sandboxOptions.sandboxDebug;
+    this.maxIdleSandboxDirectories = Math.max(1, buildRequest.getBuildOptions().jobs);
 
     ImmutableSet.Builder<Path> inaccessiblePaths = ImmutableSet.builder();
     FileSystem fileSystem = cmdEnv.getDirectories().getFileSystem();
@@ -103,17 +133,32 @@ abstract class SandboxStrategy implements SandboxedSpawnActionContext {
     EventBus eventBus = actionExecutionContext.getExecutor().getEventBus();
     ActionExecutionMetadata owner = spawn.getResourceOwner();
     eventBus.post(ActionStatusMessage.schedulingStrategy(owner));
-    try (ResourceHandle ignored =
-        ResourceManager.instance().acquireResources(owner, spawn.getLocalResources())) {
-      actuallyExec(spawn, actionExecutionContext, writeOutputFiles);
+    ResourceManager resourceManager = ResourceManager.instance();
+    try (ResourceHandle handle =
+        resourceManager.acquireResources(owner, spawn.getLocalResources())) {
+      SpawnCgroups cgroups = resourceManager.getSpawnCgroups();
+      Cgroup cgroup = cgroups != null ? cgroups.createCgroup(handle.getResources()) : null;
+      try {
+        actuallyExec(spawn, actionExecutionContext, cgroup, writeOutputFiles);
+      } finally {
+        if (cgroup != null) {
+          cgroup.delete();
+        }
+      }
     } catch (IOException e) {
       throw new UserExecException("I/O exception during sandboxed execution", e);
     }
   }
 
+  /**
+   * Executes the given {@code spawn} in a sandbox.
+   *
+   * @param cgroup the cgroup to run the spawn in, if its resources are to be limited
+   */
   protected abstract void actuallyExec(
       Spawn spawn,
       ActionExecutionContext actionExecutionContext,
+      @Nullable Cgroup cgroup,
       AtomicReference<Class<? extends SpawnActionContext>> writeOutputFiles)
       throws ExecException, InterruptedException, IOException;
 
@@ -131,6 +176,7 @@ abstract class SandboxStrategy implements SandboxedSpawnActionContext {
     OutErr outErr = actionExecutionContext.getFileOutErr();
     try {
       runner.run(
+          spawn.getResourceOwner(),
           cmdEnv,
           spawn.getArguments(),
           spawnEnvironment,
@@ -185,6 +231,109 @@ abstract class SandboxStrategy implements SandboxedSpawnActionContext {
             .toString());
   }
 
+  /**
+   * Returns the sandbox directory for a single spawn. With {@code
+   * --experimental_reuse_sandbox_directories}, this is the directory of an earlier spawn if there
+   * is one, preferably of one with the same mnemonic, as its inputs are likely similar.
+   */
+  protected SandboxDirectory acquireSandboxDirectory(Spawn spawn) throws IOException {
+    if (reuseSandboxDirectories) {
+      synchronized (idleSandboxDirectories) {
+        Iterator<SandboxDirectory> it = idleSandboxDirectories.descendingIterator();
+        while (it.hasNext()) {
+          SandboxDirectory sandboxDirectory = it.next();
+          if (spawn.getMnemonic().equals(sandboxDirectory.getLastMnemonic())) {
+            it.remove();
+            return sandboxDirectory;
+          }
+        }
+        if (!idleSandboxDirectories.isEmpty()) {
+          return idleSandboxDirectories.removeLast();
+        }
+      }
+    }
+    return new SandboxDirectory(getSandboxRoot(), execRoot.getBaseName());
+  }
+
+  /**
+   * Makes the inputs of the spawn available in its sandbox directory through the given exec root
+   * and creates the directories for its outputs, recording how long it took.
+   */
+  protected void createFileSystem(
+      SandboxDirectory sandboxDirectory,
+      SandboxExecRoot sandboxExecRoot,
+      Spawn spawn,
+      Map<PathFragment, Path> inputs,
+      Collection<PathFragment> outputs,
+      Set<Path> writableDirs)
+      throws IOException {
+    boolean reused = sandboxDirectory.getLastMnemonic() != null;
+    long startNanos = BlazeClock.nanoTime();
+    sandboxExecRoot.createFileSystem(inputs, outputs, writableDirs);
+    setupNanos.addAndGet(BlazeClock.nanoTime() - startNanos);
+    setups.incrementAndGet();
+    if (reused) {
+      reusedSetups.incrementAndGet();
+    }
+    sandboxDirectory.setLastMnemonic(spawn.getMnemonic());
+  }
+
+  /**
+   * Deletes the sandbox directory of a finished spawn, usually in the background, or keeps it for
+   * the next spawn if sandbox directories are reused.
+   *
+   * @param succeeded whether the spawn ran successfully; if not, it may have left anything in the
+   *     directory, so the next spawn to reuse it has to check all of its contents
+   */
+  protected void releaseSandboxDirectory(SandboxDirectory sandboxDirectory, boolean succeeded) {
+    if (sandboxOptions.sandboxDebug) {
+      return;
+    }
+    if (reuseSandboxDirectories) {
+      if (!succeeded) {
+        sandboxDirectory.getSymlinkedExecRoot().invalidate();
+      }
+      synchronized (idleSandboxDirectories) {
+        idleSandboxDirectories.addLast(sandboxDirectory);
+        if (idleSandboxDirectories.size() <= maxIdleSandboxDirectories) {
+          return;
+        }
+        sandboxDirectory = idleSandboxDirectories.removeFirst();
+      }
+    }
+    try {
+      trash.delete(sandboxDirectory.getSandboxPath());
+    } catch (IOException e) {
+      // This usually means that the Spawn itself exited, but still has children running that
+      // we couldn't wait for, which now block deletion of the sandbox directory. On Linux this
+      // should never happen, as we use PID namespaces and where they are not available the
+      // subreaper feature to make sure all children have been reliably killed before returning,
+      // but on other OS this might not always work. The SandboxModule will try to delete them
+      // again when the build is all done, at which point it hopefully works, so let's just go
+      // on here.
+    }
+  }
+
+  /**
+   * Returns a summary of the time spent setting up sandboxes since the last call, or null if no
+   * spawn was sandboxed in the meantime.
+   */
+  @Nullable
+  String getAndResetSetupStats() {
+    int count = setups.getAndSet(0);
+    int reused = reusedSetups.getAndSet(0);
+    long nanos = setupNanos.getAndSet(0);
+    if (count == 0) {
+      return null;
+    }
+    return String.format(
+        "%s: set up %d sandboxes (%d reused) in %d ms on average",
+        this,
+        count,
+        reused,
+        TimeUnit.NANOSECONDS.toMillis(nanos / count));
+  }
+
   /**
    * Gets the list of directories that the spawn will assume to be writable.
    *
@@ -0,0 +1,246 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Deletes the directories of finished sandboxed spawns in the background, so that deleting deep
+ * trees on slow disks does not add to the duration of actions.
+ *
+ * <p>Directories are renamed into a trash directory, which is cheap and immediately frees their
+ * original location, and then deleted one after the other by a low-priority thread. When too many
+ * directories are waiting to be deleted, the caller deletes them itself, so that the backlog can't
+ * grow without bounds on disks that don't keep up.
+ */
+@ThreadSafe
+final class SandboxTrash {
+  private static final Logger LOG = Logger.getLogger(SandboxTrash.class.getName());
+
+  private final Path trashDir;
+  private final ExecutorService executor;
+  // Distinguishes our entries from those that an earlier server may have left in the trash.
+  private final String namePrefix = Long.toString(System.currentTimeMillis()) + "-";
+  private final AtomicInteger nextId = new AtomicInteger();
+  private final AtomicInteger backlog = new AtomicInteger();
+  private volatile int maxBacklog;
+
+  @GuardedBy("this")
+  private int deletedInBackground;
+
+  @GuardedBy("this")
+  private long backgroundNanos;
+
+  @GuardedBy("this")
+  private int deletedInline;
+
+  @GuardedBy("this")
+  private long inlineNanos;
+
+  @GuardedBy("this")
+  private int peakBacklog;
+
+  /**
+   * @param trashDir the directory to move deleted directories into, which must be on the same file
+   *     system as them; anything already in it is deleted as well
+   */
+  SandboxTrash(Path trashDir) {
+    this(
+        trashDir,
+        Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("sandbox-trash-%d")
+                .setDaemon(true)
+                .setPriority(Thread.MIN_PRIORITY)
+                .build()));
+  }
+
+  @VisibleForTesting
+  SandboxTrash(Path trashDir, ExecutorService executor) {
+    this.trashDir = trashDir;
+    this.executor = executor;
+    // Left behind by a previous server that was killed before it emptied the trash. Only what is
+    // there now is deleted here; what we move into the trash later is deleted by its own task.
+    final Collection<Path> leftovers = getLeftovers(trashDir);
+    if (leftovers.isEmpty()) {
+      return;
+    }
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            for (Path leftover : leftovers) {
+              try {
+                FileSystemUtils.deleteTree(leftover);
+              } catch (IOException e) {
+                LOG.log(Level.WARNING, "Failed to delete " + leftover, e);
+              }
+            }
+          }
+        });
+  }
+
+  private static Collection<Path> getLeftovers(Path trashDir) {
+    try {
+      if (trashDir.exists()) {
+        return trashDir.getDirectoryEntries();
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to list " + trashDir, e);
+    }
+    return ImmutableList.of();
+  }
+
+  Path getTrashDir() {
+    return trashDir;
+  }
+
+  /**
+   * Sets how many directories may wait for deletion before {@link #delete} deletes them in the
+   * calling thread. Zero disables deleting in the background.
+   */
+  void setMaxBacklog(int maxBacklog) {
+    this.maxBacklog = maxBacklog;
+  }
+
+  /**
+   * Deletes the given directory, usually in the background. It is gone from its original location
+   * when this method returns.
+   */
+  void delete(Path dir) throws IOException {
+    // Taking a place in the backlog first keeps concurrent callers from exceeding it together.
+    int pending = backlog.incrementAndGet();
+    if (pending > maxBacklog) {
+      backlog.decrementAndGet();
+      deleteInline(dir);
+      return;
+    }
+    final Path trashPath = trashDir.getRelative(namePrefix + nextId.getAndIncrement());
+    try {
+      FileSystemUtils.createDirectoryAndParents(trashDir);
+      dir.renameTo(trashPath);
+    } catch (IOException e) {
+      // E.g. because the directory is on a different file system than the trash.
+      backlog.decrementAndGet();
+      deleteInline(dir);
+      return;
+    }
+    synchronized (this) {
+      peakBacklog = Math.max(peakBacklog, pending);
+    }
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            long startNanos = System.nanoTime();
+            try {
+              FileSystemUtils.deleteTree(trashPath);
+            } catch (IOException e) {
+              // Most likely a process of the spawn outlived it and still writes into the
+              // directory. The trash is emptied again when the server starts the next time.
+              LOG.log(Level.WARNING, "Failed to delete " + trashPath, e);
+            } finally {
+              backlog.decrementAndGet();
+              synchronized (SandboxTrash.this) {
+                deletedInBackground++;
+                backgroundNanos += System.nanoTime() - startNanos;
+              }
+            }
+          }
+        });
+  }
+
+  private void deleteInline(Path dir) throws IOException {
+    long startNanos = System.nanoTime();
+    try {
+      FileSystemUtils.deleteTree(dir);
+    } finally {
+      synchronized (this) {
+        deletedInline++;
+        inlineNanos += System.nanoTime() - startNanos;
+      }
+    }
+  }
+
+  /**
+   * Returns a summary of the deletions since the last call, or null if nothing was deleted in the
+   * meantime, and resets it.
+   */
+  @Nullable
+  synchronized String getAndResetStats() {
+    String stats = null;
+    if (deletedInBackground + deletedInline > 0) {
+      stats =
+          String.format(
+              "Sandbox teardown: deleted %d directories in the background in %d ms on average "
+                  + "and %d in actions in %d ms on average; peak backlog %d, %d pending",
+              deletedInBackground,
+              deletedInBackground == 0 ? 0 : backgroundNanos / deletedInBackground / 1000000,
+              deletedInline,
+              deletedInline == 0 ? 0 : inlineNanos / deletedInline / 1000000,
+              peakBacklog,
+              backlog.get());
+    }
+    deletedInBackground = 0;
+    backgroundNanos = 0;
+    deletedInline = 0;
+    inlineNanos = 0;
+    peakBacklog = backlog.get();
+    return stats;
+  }
+
+  /**
+   * Stops deleting in the background once the directory currently being deleted is gone, and
+   * deletes everything that is left in the trash in the calling thread.
+   */
+  void shutdown() {
+    executor.shutdownNow();
+    boolean interrupted = false;
+    while (true) {
+      try {
+        if (executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+          break;
+        }
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    try {
+      if (trashDir.exists()) {
+        FileSystemUtils.deleteTree(trashDir);
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to delete " + trashDir, e);
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -14,66 +14,234 @@
 
 package com.google.devtools.build.lib.sandbox;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.io.Files;
 import com.google.devtools.build.lib.util.Preconditions;
+import com.google.devtools.build.lib.vfs.Dirent;
 import com.google.devtools.build.lib.vfs.FileStatus;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.Symlinks;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import javax.annotation.Nullable;
 
 /**
  * Creates an execRoot for a Spawn that contains input files as symlinks to their original
  * destination.
+ *
+ * <p>The same instance can be used for several spawns in a row. It remembers the inputs, outputs
+ * and writable directories of the previous spawn, so that the next one only has to delete what the
+ * previous spawn was allowed to write and the symlinks that differ, without listing the directory.
+ * Files the previous spawn wrote outside of its outputs and writable directories, and inputs it
+ * modified, go unnoticed; call {@link #invalidate} if it may have left such changes, e.g. because
+ * it failed.
  */
 public final class SymlinkedExecRoot implements SandboxExecRoot {
 
   private final Path sandboxExecRoot;
 
+  // The inputs of the previous spawn, or null if the contents of the directory are unknown, e.g.
+  // because setting it up failed half-way.
+  @Nullable private Map<PathFragment, Path> previousInputs;
+  private Collection<PathFragment> previousOutputs = ImmutableList.of();
+  private Set<Path> previousWritableDirs = ImmutableSet.of();
+
+  // The directories below sandboxExecRoot that are known to exist.
+  private final Set<Path> createdDirs = new HashSet<>();
+
   public SymlinkedExecRoot(Path sandboxExecRoot) {
     this.sandboxExecRoot = sandboxExecRoot;
   }
 
+  /**
+   * Forgets what the previous spawn got, so that the next call to {@link #createFileSystem} lists
+   * the whole directory and checks every file in it.
+   */
+  public void invalidate() {
+    previousInputs = null;
+  }
+
   @Override
   public void createFileSystem(
       Map<PathFragment, Path> inputs, Collection<PathFragment> outputs, Set<Path> writableDirs)
       throws IOException {
-    Set<Path> createdDirs = new HashSet<>();
-    cleanFileSystem(inputs.keySet());
+    Map<PathFragment, Path> previous = previousInputs;
+    previousInputs = null;
+    Set<PathFragment> inputsInPlace = new HashSet<>();
+    List<Path> removedInputs = new ArrayList<>();
+    if (previous == null) {
+      cleanFileSystem(inputs);
+    } else {
+      cleanAfterPreviousSpawn(inputs, previous, inputsInPlace, removedInputs);
+    }
     FileSystemUtils.createDirectoryAndParentsWithCache(createdDirs, sandboxExecRoot);
     createParentDirectoriesForInputs(createdDirs, inputs.keySet());
-    createInputs(inputs);
+    createInputs(inputs, inputsInPlace, previous != null);
     createWritableDirectories(createdDirs, writableDirs);
     createDirectoriesForOutputs(createdDirs, outputs);
+    if (!removedInputs.isEmpty()) {
+      deleteUnneededDirectories(removedInputs, inputs.keySet(), outputs, writableDirs);
+    }
+    // The map may contain null values, so ImmutableMap won't do.
+    previousInputs = new HashMap<>(inputs);
+    previousOutputs = ImmutableList.copyOf(outputs);
+    previousWritableDirs = ImmutableSet.copyOf(writableDirs);
   }
 
-  private void cleanFileSystem(Set<PathFragment> allowedFiles) throws IOException {
+  /** Deletes everything in the exec root that is not an input of the next spawn. */
+  private void cleanFileSystem(Map<PathFragment, Path> inputs) throws IOException {
+    createdDirs.clear();
     if (sandboxExecRoot.exists(Symlinks.NOFOLLOW)) {
-      deleteExceptAllowedFiles(sandboxExecRoot, allowedFiles);
+      createdDirs.add(sandboxExecRoot);
+      deleteExceptAllowedFiles(sandboxExecRoot, inputs.keySet());
     }
   }
 
-  private void deleteExceptAllowedFiles(Path root, Set<PathFragment> allowedFiles)
+  /** Returns whether anything was left in {@code root}. */
+  private boolean deleteExceptAllowedFiles(Path root, Set<PathFragment> inputs)
       throws IOException {
-    for (Path p : root.getDirectoryEntries()) {
-      FileStatus stat = p.stat(Symlinks.NOFOLLOW);
-      if (!stat.isDirectory()) {
-        if (!allowedFiles.contains(p.relativeTo(sandboxExecRoot))) {
+    boolean keptAnything = false;
+    for (Dirent dirent : root.readdir(Symlinks.NOFOLLOW)) {
+      Path p = root.getChild(dirent.getName());
+      if (dirent.getType() == Dirent.Type.DIRECTORY) {
+        if (deleteExceptAllowedFiles(p, inputs)) {
+          createdDirs.add(p);
+          keptAnything = true;
+        } else {
           p.delete();
         }
+      } else if (inputs.contains(p.relativeTo(sandboxExecRoot))) {
+        // We don't know what this is, so createInputs has to check it.
+        keptAnything = true;
       } else {
-        deleteExceptAllowedFiles(p, allowedFiles);
-        if (p.readdir(Symlinks.NOFOLLOW).isEmpty()) {
-          p.delete();
+        p.delete();
+      }
+    }
+    return keptAnything;
+  }
+
+  /**
+   * Deletes the outputs of the previous spawn, the contents of its writable directories below the
+   * exec root and those of its inputs that differ from {@code inputs}. The inputs that are the same
+   * are added to {@code inputsInPlace}, the deleted ones to {@code removedInputs}.
+   */
+  private void cleanAfterPreviousSpawn(
+      Map<PathFragment, Path> inputs,
+      Map<PathFragment, Path> previous,
+      Set<PathFragment> inputsInPlace,
+      List<Path> removedInputs)
+      throws IOException {
+    for (PathFragment output : previousOutputs) {
+      Path path = sandboxExecRoot.getRelative(output);
+      if (path.exists(Symlinks.NOFOLLOW)) {
+        FileSystemUtils.deleteTree(path);
+      }
+    }
+    List<Path> clearedDirs = new ArrayList<>();
+    for (Path writableDir : previousWritableDirs) {
+      // The exec root itself is writable, but what's in it is tracked input by input.
+      if (!writableDir.equals(sandboxExecRoot) && writableDir.startsWith(sandboxExecRoot)) {
+        FileSystemUtils.deleteTreesBelow(writableDir);
+        clearedDirs.add(writableDir);
+      }
+    }
+    if (!clearedDirs.isEmpty()) {
+      for (Iterator<Path> it = createdDirs.iterator(); it.hasNext(); ) {
+        if (isBelowAny(it.next(), clearedDirs)) {
+          it.remove();
         }
       }
     }
+    for (Entry<PathFragment, Path> entry : previous.entrySet()) {
+      Path path = sandboxExecRoot.getRelative(entry.getKey());
+      if (!clearedDirs.isEmpty() && isBelowAny(path, clearedDirs)) {
+        continue;
+      }
+      // Empty files are always recreated, as the previous spawn may have written into them.
+      Path target = entry.getValue();
+      if (target != null && target.equals(inputs.get(entry.getKey()))) {
+        inputsInPlace.add(entry.getKey());
+      } else {
+        path.delete();
+        removedInputs.add(path);
+      }
+    }
+  }
+
+  private static boolean isBelowAny(Path path, List<Path> dirs) {
+    for (Path dir : dirs) {
+      if (path.startsWith(dir) && !path.equals(dir)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Deletes the directories that only held inputs of the previous spawn. Directories that are not
+   * empty, because the previous spawn wrote something there, are left alone.
+   */
+  private void deleteUnneededDirectories(
+      List<Path> removedInputs,
+      Set<PathFragment> inputs,
+      Collection<PathFragment> outputs,
+      Set<Path> writableDirs)
+      throws IOException {
+    Set<Path> neededDirs = new HashSet<>();
+    for (PathFragment input : inputs) {
+      addWithParents(neededDirs, sandboxExecRoot.getRelative(input).getParentDirectory());
+    }
+    for (PathFragment output : outputs) {
+      addWithParents(neededDirs, sandboxExecRoot.getRelative(output).getParentDirectory());
+    }
+    for (Path writableDir : writableDirs) {
+      if (writableDir.startsWith(sandboxExecRoot)) {
+        addWithParents(neededDirs, writableDir);
+      }
+    }
+    Set<Path> unneededDirs = new HashSet<>();
+    for (Path removedInput : removedInputs) {
+      Path dir = removedInput.getParentDirectory();
+      while (!dir.equals(sandboxExecRoot) && !neededDirs.contains(dir) && unneededDirs.add(dir)) {
+        dir = dir.getParentDirectory();
+      }
+    }
+    List<Path> deepestFirst = new ArrayList<>(unneededDirs);
+    Collections.sort(
+        deepestFirst,
+        new Comparator<Path>() {
+          @Override
+          public int compare(Path a, Path b) {
+            return b.asFragment().segmentCount() - a.asFragment().segmentCount();
+          }
+        });
+    for (Path dir : deepestFirst) {
+      try {
+        dir.delete();
+        createdDirs.remove(dir);
+      } catch (IOException e) {
+        // The previous spawn wrote something in there; the directory does no harm.
+      }
+    }
+  }
+
+  private void addWithParents(Set<Path> dirs, Path dir) {
+    while (dir.startsWith(sandboxExecRoot) && dirs.add(dir)) {
+      dir = dir.getParentDirectory();
+    }
   }
 
   /**
@@ -98,11 +266,21 @@ public final class SymlinkedExecRoot implements SandboxExecRoot {
     }
   }
 
-  private void createInputs(Map<PathFragment, Path> inputs) throws IOException {
+  /**
+   * Creates the inputs that are not in place yet.
+   *
+   * @param cleaned whether everything except {@code inputsInPlace} is known to have been deleted
+   */
+  private void createInputs(
+      Map<PathFragment, Path> inputs, Set<PathFragment> inputsInPlace, boolean cleaned)
+      throws IOException {
     // All input files are relative to the execroot.
     for (Entry<PathFragment, Path> entry : inputs.entrySet()) {
+      if (inputsInPlace.contains(entry.getKey())) {
+        continue;
+      }
       Path key = sandboxExecRoot.getRelative(entry.getKey());
-      FileStatus keyStat = key.statNullable(Symlinks.NOFOLLOW);
+      FileStatus keyStat = cleaned ? null : key.statNullable(Symlinks.NOFOLLOW);
       if (keyStat != null) {
         if (keyStat.isSymbolicLink()
             && entry.getValue() != null
@@ -111,15 +289,28 @@ public final class SymlinkedExecRoot implements SandboxExecRoot {
         }
         key.delete();
       }
-      // A null value means that we're supposed to create an empty file as the input.
-      if (entry.getValue() != null) {
-        key.createSymbolicLink(entry.getValue());
-      } else {
-        FileSystemUtils.createEmptyFile(key);
+      try {
+        createInput(key, entry.getValue());
+      } catch (IOException e) {
+        if (!cleaned || !key.exists(Symlinks.NOFOLLOW)) {
+          throw e;
+        }
+        // The previous spawn created something here that it wasn't supposed to.
+        FileSystemUtils.deleteTree(key);
+        createInput(key, entry.getValue());
       }
     }
   }
 
+  private static void createInput(Path key, @Nullable Path target) throws IOException {
+    // A null value means that we're supposed to create an empty file as the input.
+    if (target != null) {
+      key.createSymbolicLink(target);
+    } else {
+      FileSystemUtils.createEmptyFile(key);
+    }
+  }
+
   private void createWritableDirectories(Set<Path> createdDirs, Set<Path> writableDirs)
       throws IOException {
     for (Path writablePath : writableDirs) {
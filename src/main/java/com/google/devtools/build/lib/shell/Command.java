@@ -894,7 +894,8 @@ public final class Command {
       while (true) {
         try {
           process.waitFor();
-          return new TerminationStatus(process.exitValue(), process.timedout());
+          return new TerminationStatus(
+              process.exitValue(), process.timedout(), process.getResourceUsage());
         } catch (InterruptedException ie) {
           wasInterrupted = true;
           if (killSubprocessOnInterrupt) {
@@ -70,6 +70,12 @@ public class JavaSubprocessFactory implements Subprocess.Factory {
       process.waitFor();
     }
 
+    @Override
+    public ResourceUsage getResourceUsage() {
+      // Not supported.
+      return null;
+    }
+
     @Override
     public OutputStream getOutputStream() {
       return process.getOutputStream();
@@ -0,0 +1,110 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.shell;
+
+/**
+ * The resources that a process and the descendants it waited for used, as reported by wait4(2).
+ *
+ * Instances are immutable.
+ */
+public final class ResourceUsage {
+  private final long userTimeMicros;
+  private final long systemTimeMicros;
+  private final long maxResidentSetKb;
+  private final long blockInputOps;
+  private final long blockOutputOps;
+
+  public ResourceUsage(
+      long userTimeMicros,
+      long systemTimeMicros,
+      long maxResidentSetKb,
+      long blockInputOps,
+      long blockOutputOps) {
+    this.userTimeMicros = userTimeMicros;
+    this.systemTimeMicros = systemTimeMicros;
+    this.maxResidentSetKb = maxResidentSetKb;
+    this.blockInputOps = blockInputOps;
+    this.blockOutputOps = blockOutputOps;
+  }
+
+  /** Returns the CPU time spent in user mode, in microseconds. */
+  public long getUserTimeMicros() {
+    return userTimeMicros;
+  }
+
+  /** Returns the CPU time spent in the kernel, in microseconds. */
+  public long getSystemTimeMicros() {
+    return systemTimeMicros;
+  }
+
+  /** Returns the maximum resident set size of the largest process, in kilobytes. */
+  public long getMaxResidentSetKb() {
+    return maxResidentSetKb;
+  }
+
+  /** Returns the number of times the file system had to read from disk. */
+  public long getBlockInputOps() {
+    return blockInputOps;
+  }
+
+  /** Returns the number of times the file system had to write to disk. */
+  public long getBlockOutputOps() {
+    return blockOutputOps;
+  }
+
+  /**
+   * Returns the usage of two processes that ran one after the other, i.e. the sum of their times
+   * and operations, and the larger of their maximum resident set sizes.
+   */
+  public ResourceUsage combine(ResourceUsage other) {
+    return new ResourceUsage(
+        userTimeMicros + other.userTimeMicros,
+        systemTimeMicros + other.systemTimeMicros,
+        Math.max(maxResidentSetKb, other.maxResidentSetKb),
+        blockInputOps + other.blockInputOps,
+        blockOutputOps + other.blockOutputOps);
+  }
+
+  /**
+   * Parses what process-wrapper writes with {@code --stats}: the user and system time in
+   * microseconds, the maximum resident set size in kilobytes and the block input and output
+   * operations, separated by spaces.
+   *
+   * @throws IllegalArgumentException if {@code stats} is not in that format
+   */
+  public static ResourceUsage parse(String stats) {
+    String[] fields = stats.trim().split(" ");
+    if (fields.length != 5) {
+      throw new IllegalArgumentException("Bad resource usage: '" + stats + "'");
+    }
+    return new ResourceUsage(
+        Long.parseLong(fields[0]),
+        Long.parseLong(fields[1]),
+        Long.parseLong(fields[2]),
+        Long.parseLong(fields[3]),
+        Long.parseLong(fields[4]));
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "user %d ms, system %d ms, max RSS %d KB, %d block inputs, %d block outputs",
+        userTimeMicros / 1000,
+        systemTimeMicros / 1000,
+        maxResidentSetKb,
+        blockInputOps,
+        blockOutputOps);
+  }
+}
@@ -62,6 +62,12 @@ public interface Subprocess extends Closeable {
    */
   void waitFor() throws InterruptedException;
 
+  /**
+   * Returns the resources that the process used, or null if it hasn't finished yet or the
+   * implementation doesn't know.
+   */
+  ResourceUsage getResourceUsage();
+
   /**
    * Returns a stream into which data can be written that the process will get on its stdin.
    */
@@ -30,6 +30,7 @@ public final class TerminationStatus {
 
   private final int waitResult;
   private final boolean timedout;
+  private final ResourceUsage resourceUsage;
 
   /**
    * Values taken from the glibc strsignal(3) function.
@@ -81,8 +82,19 @@ public final class TerminationStatus {
    * @param waitResult the value returned by {@link java.lang.Process#waitFor}.
    */
   public TerminationStatus(int waitResult, boolean timedout) {
+    this(waitResult, timedout, null);
+  }
+
+  /**
+   * Construct a TerminationStatus instance from a Process waitFor code and the resources that the
+   * process used.
+   *
+   * @param resourceUsage the resources used by the process, or null if not known
+   */
+  public TerminationStatus(int waitResult, boolean timedout, ResourceUsage resourceUsage) {
     this.waitResult = waitResult;
     this.timedout = timedout;
+    this.resourceUsage = resourceUsage;
   }
 
   /**
@@ -120,6 +132,13 @@ public final class TerminationStatus {
     return timedout;
   }
 
+  /**
+   * Returns the resources that the process used, or null if they are not known.
+   */
+  public ResourceUsage getResourceUsage() {
+    return resourceUsage;
+  }
+
   /**
    * Returns the exit code of the subprocess.  Undefined if exited() is false.
    */
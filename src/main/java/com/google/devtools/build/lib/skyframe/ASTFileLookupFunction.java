@@ -15,12 +15,16 @@
 package com.google.devtools.build.lib.skyframe;
 
 import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.events.StoredEventHandler;
 import com.google.devtools.build.lib.packages.BuildFileNotFoundException;
 import com.google.devtools.build.lib.packages.RuleClassProvider;
 import com.google.devtools.build.lib.syntax.BuildFileAST;
 import com.google.devtools.build.lib.syntax.Mutability;
 import com.google.devtools.build.lib.syntax.Runtime;
 import com.google.devtools.build.lib.syntax.SkylarkSemanticsOptions;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.RootedPath;
@@ -43,9 +47,16 @@ import javax.annotation.Nullable;
 public class ASTFileLookupFunction implements SkyFunction {
 
   private final RuleClassProvider ruleClassProvider;
+  @Nullable private final PersistentASTCache persistentAstCache;
 
   public ASTFileLookupFunction(RuleClassProvider ruleClassProvider) {
+    this(ruleClassProvider, null);
+  }
+
+  public ASTFileLookupFunction(
+      RuleClassProvider ruleClassProvider, @Nullable PersistentASTCache persistentAstCache) {
     this.ruleClassProvider = ruleClassProvider;
+    this.persistentAstCache = persistentAstCache;
   }
 
   @Override
@@ -108,7 +119,19 @@ public class ASTFileLookupFunction implements SkyFunction {
     BuildFileAST ast = null;
     Path path = rootedPath.asPath();
     try {
-      long astFileSize = fileValue.getSize();
+      // The cache is keyed on the bytes that are parsed, so that a file that changes after it was
+      // read can't get the AST of its other contents.
+      byte[] bytes = FileSystemUtils.readWithKnownFileSize(path, fileValue.getSize());
+      String persistentAstKey = null;
+      if (persistentAstCache != null && persistentAstCache.isEnabled()) {
+        persistentAstKey = persistentAstCache.getSkylarkFileKey(path, bytes, skylarkSemantics);
+        ast = persistentAstCache.get(persistentAstKey);
+        if (ast != null) {
+          return ASTFileLookupValue.withFile(ast);
+        }
+      }
+      long startTime = BlazeClock.nanoTime();
+      StoredEventHandler eventHandler = new StoredEventHandler();
       try (Mutability mutability = Mutability.create("validate")) {
         com.google.devtools.build.lib.syntax.Environment validationEnv =
             ruleClassProvider
@@ -116,15 +139,24 @@ public class ASTFileLookupFunction implements SkyFunction {
                     fileLabel,
                     mutability,
                     skylarkSemantics,
-                    env.getListener(),
+                    eventHandler,
                     // the two below don't matter for extracting the ValidationEnvironment:
                     /*astFileContentHashCode=*/ null,
                     /*importMap=*/ null)
                 .setupDynamic(Runtime.PKG_NAME, Runtime.NONE)
                 .setupDynamic(Runtime.REPOSITORY_NAME, Runtime.NONE);
-          ast = BuildFileAST.parseSkylarkFile(path, astFileSize, env.getListener());
-          ast = ast.validate(validationEnv, env.getListener());
+          ast =
+              BuildFileAST.parseSkylarkFile(
+                  bytes,
+                  FileSystem.getDigestFunction().digest(bytes),
+                  path.asFragment(),
+                  eventHandler);
+          ast = ast.validate(validationEnv, eventHandler);
         }
+      eventHandler.replayOn(env.getListener());
+      if (persistentAstKey != null && eventHandler.isEmpty() && !ast.containsErrors()) {
+        persistentAstCache.put(persistentAstKey, ast, BlazeClock.nanoTime() - startTime);
+      }
     } catch (IOException e) {
       throw new ASTLookupFunctionException(new ErrorReadingSkylarkExtensionException(e),
           Transience.TRANSIENT);
@@ -115,6 +115,20 @@ public class ActionExecutionValue implements SkyValue {
     return artifactData;
   }
 
+  /**
+   * Returns the outputs whose contents were left in a remote cache, and which are therefore not
+   * covered by {@link #getAllFileValues}. Only needed by {@link FilesystemValueChecker}.
+   */
+  ImmutableMap<Artifact, FileArtifactValue> getRemoteOutputs() {
+    ImmutableMap.Builder<Artifact, FileArtifactValue> remoteOutputs = ImmutableMap.builder();
+    for (Map.Entry<Artifact, FileArtifactValue> entry : additionalOutputData.entrySet()) {
+      if (entry.getValue().isRemote()) {
+        remoteOutputs.put(entry);
+      }
+    }
+    return remoteOutputs.build();
+  }
+
   /**
    * @return The map from {@link Artifact}s to the corresponding {@link TreeArtifactValue}s that
    *     would be returned by {@link #getTreeArtifactValue}. Should only be needed by {@link
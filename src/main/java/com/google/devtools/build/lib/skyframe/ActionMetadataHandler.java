@@ -95,6 +95,13 @@ public class ActionMetadataHandler implements MetadataHandler {
   /** Outputs that are to be omitted. */
   private final Set<Artifact> omittedOutputs = Sets.newConcurrentHashSet();
 
+  /**
+   * Outputs that only exist remotely. Their metadata is stored in {@link #additionalOutputData}
+   * as a remote {@link FileArtifactValue}, and they have no entry in {@link #outputArtifactData}.
+   * The {@link FilesystemValueChecker} invalidates the action once they are missing on disk.
+   */
+  private final Set<Artifact> remoteOutputs = Sets.newConcurrentHashSet();
+
   /**
    * Contains RealArtifactValues when those values must be stored separately.
    * See {@link #getAdditionalOutputData()} for details.
@@ -229,6 +236,9 @@ public class ActionMetadataHandler implements MetadataHandler {
       throw new FileNotFoundException(artifact + " not found");
     }
     // It's an ordinary artifact.
+    if (remoteOutputs.contains(artifact)) {
+      return metadataFromValue(additionalOutputData.get(artifact));
+    }
     FileValue fileValue = outputArtifactData.get(artifact);
     if (fileValue != null) {
       // Non-middleman artifacts should only have additionalOutputData if they have
@@ -494,6 +504,19 @@ public class ActionMetadataHandler implements MetadataHandler {
     }
   }
 
+  @Override
+  public void injectRemoteFile(ActionInput output, byte[] digest, long size) {
+    Preconditions.checkState(executionMode.get());
+    // Assumption: any non-Artifact output is 'virtual' and should be ignored here.
+    if (output instanceof Artifact) {
+      Artifact artifact = (Artifact) output;
+      Preconditions.checkArgument(!artifact.isTreeArtifact(), artifact);
+      Preconditions.checkState(injectedFiles.add(artifact), artifact);
+      additionalOutputData.put(artifact, FileArtifactValue.createRemoteFile(digest, size));
+      remoteOutputs.add(artifact);
+    }
+  }
+
   @Override
   public void markOmitted(ActionInput output) {
     Preconditions.checkState(executionMode.get());
@@ -519,6 +542,7 @@ public class ActionMetadataHandler implements MetadataHandler {
     Preconditions.checkState(omittedOutputs.isEmpty(),
         "Artifacts cannot be marked omitted before action execution: %s", omittedOutputs);
     outputArtifactData.clear();
+    remoteOutputs.clear();
     outputDirectoryListings.clear();
     outputTreeArtifactData.clear();
     additionalOutputData.clear();
@@ -145,16 +145,19 @@ final class ConfiguredTargetFunction implements SkyFunction {
   private final RuleClassProvider ruleClassProvider;
   private final Semaphore cpuBoundSemaphore;
   private final Supplier<Boolean> removeActionsAfterEvaluation;
+  private final Supplier<Boolean> ruleLevelChangePruning;
 
   ConfiguredTargetFunction(
       BuildViewProvider buildViewProvider,
       RuleClassProvider ruleClassProvider,
       Semaphore cpuBoundSemaphore,
-      Supplier<Boolean> removeActionsAfterEvaluation) {
+      Supplier<Boolean> removeActionsAfterEvaluation,
+      Supplier<Boolean> ruleLevelChangePruning) {
     this.buildViewProvider = buildViewProvider;
     this.ruleClassProvider = ruleClassProvider;
     this.cpuBoundSemaphore = cpuBoundSemaphore;
     this.removeActionsAfterEvaluation = Preconditions.checkNotNull(removeActionsAfterEvaluation);
+    this.ruleLevelChangePruning = Preconditions.checkNotNull(ruleLevelChangePruning);
   }
 
   private static boolean useDynamicConfigurations(BuildConfiguration config) {
@@ -173,21 +176,40 @@ final class ConfiguredTargetFunction implements SkyFunction {
 
     BuildConfiguration configuration = lc.getConfiguration();
 
-    PackageValue packageValue =
-        (PackageValue) env.getValue(PackageValue.key(lc.getLabel().getPackageIdentifier()));
-    if (packageValue == null) {
-      return null;
-    }
-
     // TODO(ulfjack): This tries to match the logic in TransitiveTargetFunction /
     // TargetMarkerFunction. Maybe we can merge the two?
-    Package pkg = packageValue.getPackage();
+    Package pkg;
     Target target;
-    try {
-      target = pkg.getTarget(lc.getLabel().getName());
-    } catch (NoSuchTargetException e) {
-      throw new ConfiguredTargetFunctionException(
-          new ConfiguredValueCreationException(e.getMessage()));
+    if (ruleLevelChangePruning.get()) {
+      // Only depend on the target, so that this isn't evaluated again when other targets of the
+      // package change.
+      TargetValue targetValue;
+      try {
+        targetValue =
+            (TargetValue)
+                env.getValueOrThrow(TargetValue.key(lc.getLabel()), NoSuchTargetException.class);
+      } catch (NoSuchTargetException e) {
+        throw new ConfiguredTargetFunctionException(
+            new ConfiguredValueCreationException(e.getMessage()));
+      }
+      if (targetValue == null) {
+        return null;
+      }
+      target = targetValue.getTarget();
+      pkg = target.getPackage();
+    } else {
+      PackageValue packageValue =
+          (PackageValue) env.getValue(PackageValue.key(lc.getLabel().getPackageIdentifier()));
+      if (packageValue == null) {
+        return null;
+      }
+      pkg = packageValue.getPackage();
+      try {
+        target = pkg.getTarget(lc.getLabel().getName());
+      } catch (NoSuchTargetException e) {
+        throw new ConfiguredTargetFunctionException(
+            new ConfiguredValueCreationException(e.getMessage()));
+      }
     }
     if (pkg.containsErrors()) {
       transitiveLoadingRootCauses.add(lc.getLabel());
@@ -151,7 +151,7 @@ public abstract class FileArtifactValue implements SkyValue {
     }
   }
 
-  private static final class RegularFileArtifactValue extends FileArtifactValue {
+  private static class RegularFileArtifactValue extends FileArtifactValue {
     private final byte[] digest;
     private final long size;
 
@@ -210,6 +210,21 @@ public abstract class FileArtifactValue implements SkyValue {
     }
   }
 
+  /**
+   * A regular file whose contents were left in a remote cache instead of being written to the local
+   * file system. Compares equal to a local file with the same contents.
+   */
+  private static final class RemoteFileArtifactValue extends RegularFileArtifactValue {
+    private RemoteFileArtifactValue(byte[] digest, long size) {
+      super(digest, size);
+    }
+
+    @Override
+    boolean isRemote() {
+      return true;
+    }
+  }
+
   @VisibleForTesting
   public static FileArtifactValue create(Artifact artifact) throws IOException {
     Path path = artifact.getPath();
@@ -243,6 +258,10 @@ public abstract class FileArtifactValue implements SkyValue {
     return new RegularFileArtifactValue(digest, size);
   }
 
+  static FileArtifactValue createRemoteFile(byte[] digest, long size) {
+    return new RemoteFileArtifactValue(digest, size);
+  }
+
   /**
    * Creates a FileArtifactValue used as a 'proxy' input for other ArtifactValues.
    * These are used in {@link com.google.devtools.build.lib.actions.ActionCacheChecker}.
@@ -264,4 +283,9 @@ public abstract class FileArtifactValue implements SkyValue {
 
   /** Gets last modified time of file. Should only be called if this is not a file. */
   abstract long getModifiedTime();
+
+  /** Returns whether the contents of this file are only stored remotely, not on the local disk. */
+  boolean isRemote() {
+    return false;
+  }
 }
@@ -35,10 +35,12 @@ import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.util.Preconditions;
 import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
 import com.google.devtools.build.lib.vfs.BatchStat;
+import com.google.devtools.build.lib.vfs.FileStatus;
 import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
 import com.google.devtools.build.lib.vfs.ModifiedFileSet;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
 import com.google.devtools.build.skyframe.Differencer;
 import com.google.devtools.build.skyframe.SkyFunctionName;
 import com.google.devtools.build.skyframe.SkyKey;
@@ -240,7 +242,7 @@ public class FilesystemValueChecker {
             new HashMap<>();
         for (Pair<SkyKey, ActionExecutionValue> keyAndValue : shard) {
           ActionExecutionValue actionValue = keyAndValue.getSecond();
-          if (actionValue == null) {
+          if (actionValue == null || remoteOutputIsMissing(actionValue)) {
             dirtyKeys.add(keyAndValue.getFirst());
           } else {
             for (Artifact artifact : actionValue.getAllFileValues().keySet()) {
@@ -384,7 +386,7 @@ public class FilesystemValueChecker {
   private boolean actionValueIsDirtyWithDirectSystemCalls(ActionExecutionValue actionValue,
       ImmutableSet<PathFragment> knownModifiedOutputFiles,
       Supplier<NavigableSet<PathFragment>> sortedKnownModifiedOutputFiles) {
-    boolean isDirty = false;
+    boolean isDirty = remoteOutputIsMissing(actionValue);
     for (Map.Entry<Artifact, FileValue> entry : actionValue.getAllFileValues().entrySet()) {
       Artifact file = entry.getKey();
       FileValue lastKnownData = entry.getValue();
@@ -431,6 +433,29 @@ public class FilesystemValueChecker {
     return isDirty;
   }
 
+  /**
+   * Returns whether an output that the action left in a remote cache is missing on disk, or doesn't
+   * match its metadata anymore. Such outputs can only be fetched during the build that produced
+   * them, so the action has to run again for a later build to get hold of them. They are checked
+   * regardless of the known modified output files, as their absence is not a modification.
+   */
+  private boolean remoteOutputIsMissing(ActionExecutionValue actionValue) {
+    for (Map.Entry<Artifact, FileArtifactValue> entry :
+        actionValue.getRemoteOutputs().entrySet()) {
+      try {
+        FileStatus stat = entry.getKey().getPath().statIfFound(Symlinks.FOLLOW);
+        if (stat != null && stat.isFile() && stat.getSize() == entry.getValue().getSize()) {
+          continue;
+        }
+      } catch (IOException e) {
+        // Treated as missing.
+      }
+      modifiedOutputFilesCounter.getAndIncrement();
+      return true;
+    }
+    return false;
+  }
+
   private static boolean shouldCheckFile(ImmutableSet<PathFragment> knownModifiedOutputFiles,
       Artifact artifact) {
     return knownModifiedOutputFiles == null
@@ -52,6 +52,7 @@ import com.google.devtools.build.lib.syntax.ParserInputSource;
 import com.google.devtools.build.lib.syntax.SkylarkImport;
 import com.google.devtools.build.lib.syntax.SkylarkSemanticsOptions;
 import com.google.devtools.build.lib.syntax.Statement;
+import com.google.devtools.build.lib.util.BlazeClock;
 import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.util.Preconditions;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
@@ -93,6 +94,7 @@ public class PackageFunction implements SkyFunction {
       packageFunctionCache;
   private final Cache<PackageIdentifier, CacheEntryWithGlobDeps<AstAfterPreprocessing>> astCache;
   private final AtomicBoolean showLoadingProgress;
+  private final AtomicBoolean skyframeOnlyGlobbing;
   private final AtomicInteger numPackagesLoaded;
   @Nullable private final PackageProgressReceiver packageProgress;
   private final Profiler profiler = Profiler.instance();
@@ -103,6 +105,8 @@ public class PackageFunction implements SkyFunction {
 
   private final ActionOnIOExceptionReadingBuildFile actionOnIOExceptionReadingBuildFile;
 
+  @Nullable private final PersistentASTCache persistentAstCache;
+
   static final PathFragment DEFAULTS_PACKAGE_NAME = PathFragment.create("tools/defaults");
 
   public PackageFunction(
@@ -114,7 +118,9 @@ public class PackageFunction implements SkyFunction {
       AtomicInteger numPackagesLoaded,
       @Nullable SkylarkImportLookupFunction skylarkImportLookupFunctionForInlining,
       @Nullable PackageProgressReceiver packageProgress,
-      ActionOnIOExceptionReadingBuildFile actionOnIOExceptionReadingBuildFile) {
+      ActionOnIOExceptionReadingBuildFile actionOnIOExceptionReadingBuildFile,
+      @Nullable PersistentASTCache persistentAstCache,
+      AtomicBoolean skyframeOnlyGlobbing) {
     this.skylarkImportLookupFunctionForInlining = skylarkImportLookupFunctionForInlining;
     // Can be null in tests.
     this.preludeLabel = packageFactory == null
@@ -128,6 +134,8 @@ public class PackageFunction implements SkyFunction {
     this.numPackagesLoaded = numPackagesLoaded;
     this.packageProgress = packageProgress;
     this.actionOnIOExceptionReadingBuildFile = actionOnIOExceptionReadingBuildFile;
+    this.persistentAstCache = persistentAstCache;
+    this.skyframeOnlyGlobbing = skyframeOnlyGlobbing;
   }
 
   public PackageFunction(
@@ -147,7 +155,9 @@ public class PackageFunction implements SkyFunction {
         numPackagesLoaded,
         skylarkImportLookupFunctionForInlining,
         null,
-        ActionOnIOExceptionReadingBuildFile.UseOriginalIOException.INSTANCE);
+        ActionOnIOExceptionReadingBuildFile.UseOriginalIOException.INSTANCE,
+        null,
+        new AtomicBoolean(false));
   }
 
   public void setSkylarkImportLookupFunctionForInliningForTesting(
@@ -888,8 +898,9 @@ public class PackageFunction implements SkyFunction {
 
   /**
    * A {@link Globber} implemented on top of skyframe that falls back to a
-   * {@link PackageFactory.LegacyGlobber} on a skyframe cache-miss. This way we don't require a
-   * skyframe restart after a call to {@link Globber#runAsync} and before/during a call to
+   * {@link PackageFactory.LegacyGlobber} on a skyframe cache-miss (or, with
+   * --experimental_skyframe_only_globbing, to a {@link MissingGlobsGlobber}). This way we don't
+   * require a skyframe restart after a call to {@link Globber#runAsync} and before/during a call to
    * {@link Globber#fetch}.
    *
    * <p>There are three advantages to this hybrid approach over the more obvious approach of solely
@@ -910,11 +921,11 @@ public class PackageFunction implements SkyFunction {
     private final PackageIdentifier packageId;
     private final Path packageRoot;
     private final Environment env;
-    private final LegacyGlobber legacyGlobber;
+    private final Globber legacyGlobber;
     private final Set<SkyKey> globDepsRequested = Sets.newConcurrentHashSet();
 
     private SkyframeHybridGlobber(PackageIdentifier packageId, Path packageRoot, Environment env,
-        LegacyGlobber legacyGlobber) {
+        Globber legacyGlobber) {
       this.packageId = packageId;
       this.packageRoot = packageRoot;
       this.env = env;
@@ -1139,6 +1150,44 @@ public class PackageFunction implements SkyFunction {
     }
   }
 
+  /**
+   * The {@link Globber} that a {@link SkyframeHybridGlobber} falls back to when globs are only
+   * evaluated by Skyframe: globs whose {@link GlobValue}s are not computed yet match nothing, and
+   * the package has to be evaluated again once Skyframe has computed them.
+   *
+   * <p>This evaluates each glob exactly once, through the {@link GlobFunction}, whose
+   * {@link DirectoryListingValue}s and sub-glob {@link GlobValue}s are shared between all globs
+   * and kept across builds. The price is evaluating the BUILD file again; all the globs it needs
+   * are requested from Skyframe in one batch, unless which globs are evaluated depends on the
+   * results of other globs.
+   */
+  private static class MissingGlobsGlobber implements Globber {
+    private static final Token TOKEN = new Token() {};
+
+    private volatile boolean globsMissing = false;
+
+    @Override
+    public Token runAsync(List<String> includes, List<String> excludes, boolean excludeDirs) {
+      if (!includes.isEmpty() || !excludes.isEmpty()) {
+        globsMissing = true;
+      }
+      return TOKEN;
+    }
+
+    @Override
+    public List<String> fetch(Token token) {
+      return ImmutableList.of();
+    }
+
+    @Override
+    public void onInterrupt() {
+    }
+
+    @Override
+    public void onCompletion() {
+    }
+  }
+
   /**
    * Constructs a {@link Package} object for the given package using legacy package loading.
    * Note that the returned package may be in error.
@@ -1178,12 +1227,16 @@ public class PackageFunction implements SkyFunction {
             env.getListener().handle(Event.progress("Loading package: " + packageId));
           }
           // We use a LegacyGlobber that doesn't sort the matches for each individual glob pattern,
-          // since we want to sort the final result anyway.
-          LegacyGlobber legacyGlobber = packageFactory.createLegacyGlobberThatDoesntSort(
-              buildFilePath.getParentDirectory(), packageId, packageLocator);
+          // since we want to sort the final result anyway. If globs are only evaluated by
+          // Skyframe, there is no LegacyGlobber at all.
+          LegacyGlobber legacyGlobber = skyframeOnlyGlobbing.get()
+              ? null
+              : packageFactory.createLegacyGlobberThatDoesntSort(
+                  buildFilePath.getParentDirectory(), packageId, packageLocator);
           SkyframeHybridGlobber skyframeGlobber = new SkyframeHybridGlobber(packageId, packageRoot,
-              env, legacyGlobber);
+              env, legacyGlobber != null ? legacyGlobber : new MissingGlobsGlobber());
           ParserInputSource input;
+          String persistentAstKey = null;
           if (replacementContents == null) {
             Preconditions.checkNotNull(buildFileValue, packageId);
             byte[] buildFileBytes = null;
@@ -1205,6 +1258,11 @@ public class PackageFunction implements SkyFunction {
               // If control flow reaches here, we're in territory that is deliberately unsound.
               // See the javadoc for ActionOnIOExceptionReadingBuildFile.
             }
+            if (persistentAstCache != null && persistentAstCache.isEnabled()) {
+              persistentAstKey =
+                  persistentAstCache.getBuildFileKey(
+                      buildFilePath, buildFileBytes, preludeStatements, skylarkSemantics);
+            }
             input =
                 ParserInputSource.create(
                     FileSystemUtils.convertFromLatin1(buildFileBytes),
@@ -1214,8 +1272,18 @@ public class PackageFunction implements SkyFunction {
           }
           StoredEventHandler astParsingEventHandler = new StoredEventHandler();
           BuildFileAST ast =
-              PackageFactory.parseBuildFile(
-                  packageId, input, preludeStatements, astParsingEventHandler);
+              persistentAstKey == null ? null : persistentAstCache.get(persistentAstKey);
+          if (ast == null) {
+            long startTime = BlazeClock.nanoTime();
+            ast =
+                PackageFactory.parseBuildFile(
+                    packageId, input, preludeStatements, astParsingEventHandler);
+            if (persistentAstKey != null
+                && astParsingEventHandler.isEmpty()
+                && !ast.containsErrors()) {
+              persistentAstCache.put(persistentAstKey, ast, BlazeClock.nanoTime() - startTime);
+            }
+          }
           // If no globs were fetched during preprocessing, then there's no need to reuse the
           // legacy globber instance during BUILD file evaluation since the performance argument
           // below does not apply.
@@ -1248,14 +1316,60 @@ public class PackageFunction implements SkyFunction {
         if (importResult == null) {
           return null;
         }
+        MissingGlobsGlobber missingGlobsGlobber = null;
+        boolean prefetchGlobs = true;
+        if (skyframeOnlyGlobbing.get()) {
+          // The globs that earlier evaluations of this BUILD file found missing are all requested
+          // again before the file is evaluated. The file is then only evaluated once they are
+          // computed, and without starting its globs first, since that is what found them.
+          if (!globDepsRequestedDuringPreprocessing.isEmpty()) {
+            // Errors are reported when the BUILD file asks for the glob again.
+            env.getValuesOrThrow(globDepsRequestedDuringPreprocessing, IOException.class,
+                BuildFileNotFoundException.class, FileSymlinkCycleException.class,
+                InconsistentFilesystemException.class);
+            if (env.valuesMissing()) {
+              return null;
+            }
+          } else {
+            missingGlobsGlobber = new MissingGlobsGlobber();
+            SkyframeHybridGlobber prefetchGlobber =
+                new SkyframeHybridGlobber(packageId, packageRoot, env, missingGlobsGlobber);
+            try {
+              packageFactory.prefetchGlobsFromPreprocessingAst(
+                  packageId,
+                  buildFilePath,
+                  astAfterPreprocessing,
+                  importResult.importMap,
+                  defaultVisibility,
+                  skylarkSemantics,
+                  prefetchGlobber);
+            } catch (InterruptedException e) {
+              astCache.invalidate(packageId);
+              throw e;
+            }
+            if (missingGlobsGlobber.globsMissing) {
+              keepAstWithMissingGlobs(
+                  packageId, astCacheEntry, prefetchGlobber.getGlobDepsRequested());
+              return null;
+            }
+          }
+          prefetchGlobs = false;
+        }
         astCache.invalidate(packageId);
-        // If a legacy globber was used to evaluate globs during preprocessing, it's important that
-        // we reuse that globber during BUILD file evaluation for performance, in the case that
-        // globs were fetched lazily during preprocessing. See Preprocessor.Factory#considersGlobs.
-        LegacyGlobber legacyGlobber = astCacheEntry.legacyGlobber != null
-            ? astCacheEntry.legacyGlobber
-            : packageFactory.createLegacyGlobber(
-                buildFilePath.getParentDirectory(), packageId, packageLocator);
+        Globber legacyGlobber;
+        if (skyframeOnlyGlobbing.get()) {
+          missingGlobsGlobber = new MissingGlobsGlobber();
+          legacyGlobber = missingGlobsGlobber;
+        } else if (astCacheEntry.legacyGlobber != null) {
+          // If a legacy globber was used to evaluate globs during preprocessing, it's important
+          // that we reuse that globber during BUILD file evaluation for performance, in the case
+          // that globs were fetched lazily during preprocessing. See
+          // Preprocessor.Factory#considersGlobs.
+          legacyGlobber = astCacheEntry.legacyGlobber;
+        } else {
+          legacyGlobber = packageFactory.createLegacyGlobber(
+              buildFilePath.getParentDirectory(), packageId, packageLocator);
+        }
         SkyframeHybridGlobber skyframeGlobber = new SkyframeHybridGlobber(packageId, packageRoot,
             env, legacyGlobber);
         Package.Builder pkgBuilder = packageFactory.createPackageFromPreprocessingAst(
@@ -1267,7 +1381,14 @@ public class PackageFunction implements SkyFunction {
             importResult.fileDependencies,
             defaultVisibility,
             skylarkSemantics,
-            skyframeGlobber);
+            skyframeGlobber,
+            prefetchGlobs);
+        if (missingGlobsGlobber != null && missingGlobsGlobber.globsMissing) {
+          // The package was evaluated with some globs matching nothing, which happens if which
+          // globs it makes depends on the results of other globs. It is discarded.
+          keepAstWithMissingGlobs(packageId, astCacheEntry, skyframeGlobber.getGlobDepsRequested());
+          return null;
+        }
         Set<SkyKey> globDepsRequested = ImmutableSet.<SkyKey>builder()
             .addAll(globDepsRequestedDuringPreprocessing)
             .addAll(skyframeGlobber.getGlobDepsRequested())
@@ -1286,6 +1407,27 @@ public class PackageFunction implements SkyFunction {
     return packageFunctionCacheEntry;
   }
 
+  /**
+   * Keeps the AST of a package whose evaluation found globs missing, so that the BUILD file isn't
+   * parsed again once Skyframe has computed them. The globs are kept along with it, so that they
+   * are all requested before the BUILD file is evaluated again. A BUILD file can't be resumed in
+   * the middle of its evaluation, so this is all that is kept across the restart.
+   */
+  private void keepAstWithMissingGlobs(
+      PackageIdentifier packageId,
+      CacheEntryWithGlobDeps<AstAfterPreprocessing> astCacheEntry,
+      Set<SkyKey> globDepsRequested) {
+    astCache.put(
+        packageId,
+        new CacheEntryWithGlobDeps<>(
+            astCacheEntry.value,
+            ImmutableSet.<SkyKey>builder()
+                .addAll(astCacheEntry.globDepKeys)
+                .addAll(globDepsRequested)
+                .build(),
+            /*legacyGlobber=*/ null));
+  }
+
   private static class InternalInconsistentFilesystemException extends Exception {
     private boolean isTransient;
 
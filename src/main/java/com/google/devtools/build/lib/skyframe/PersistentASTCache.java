@@ -0,0 +1,241 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.HashCode;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.syntax.BuildFileAST;
+import com.google.devtools.build.lib.syntax.SkylarkSemanticsOptions;
+import com.google.devtools.build.lib.syntax.Statement;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * An on-disk cache of the {@link BuildFileAST}s of BUILD files and Skylark extensions, so that
+ * they don't have to be parsed (and, for extensions, validated) again after a server restart.
+ *
+ * <p>The ASTs are stored with Java serialization. The key of an AST covers everything it depends
+ * on: the path and the contents of the file, the Skylark semantics, the prelude of BUILD files,
+ * and the Blaze binary. Only ASTs that were created without any events are stored, since the
+ * events would not be reported again when the AST is read back. Entries that can't be read, for
+ * example because they were written by a different version of the AST classes, are misses.
+ *
+ * <p>Each Blaze binary has a directory of its own, and the directories of other binaries are
+ * removed when the cache is enabled, since their entries are never read again. Entries of files
+ * that changed aren't read again either, so the cache is also cleared once it has too many
+ * entries.
+ */
+@ThreadSafe
+public final class PersistentASTCache {
+
+  private static final Logger LOG = Logger.getLogger(PersistentASTCache.class.getName());
+
+  /** Has to be changed whenever the meaning of a stored AST changes without its classes. */
+  private static final int FORMAT_VERSION = 1;
+
+  private static final int DEFAULT_MAX_ENTRIES = 50000;
+
+  private static final String TMP_SUFFIX = ".tmp";
+
+  @Nullable private final HashCode installMD5;
+  private final int maxEntries;
+
+  // The directory of the entries of this binary.
+  @Nullable private volatile Path directory;
+
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicLong parseTimeSavedNanos = new AtomicLong();
+
+  public PersistentASTCache(@Nullable HashCode installMD5) {
+    this(installMD5, DEFAULT_MAX_ENTRIES);
+  }
+
+  @VisibleForTesting
+  PersistentASTCache(@Nullable HashCode installMD5, int maxEntries) {
+    this.installMD5 = installMD5;
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * Makes the cache store its entries in the given directory, or disables it if {@code directory}
+   * is null. Stale entries are removed when the directory changes.
+   */
+  public void setDirectory(@Nullable Path directory) {
+    Path entries = null;
+    if (directory != null) {
+      entries = directory.getChild(installMD5 == null ? "unknown" : installMD5.toString());
+      if (entries.equals(this.directory)) {
+        return;
+      }
+      try {
+        FileSystemUtils.createDirectoryAndParents(entries);
+        removeStaleEntries(directory, entries);
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Cannot create the persistent AST cache in " + directory, e);
+        entries = null;
+      }
+    }
+    this.directory = entries;
+  }
+
+  /**
+   * Removes the directories of other binaries, the temporary files of entries that were being
+   * written when an earlier server died, and all entries if there are too many.
+   */
+  private void removeStaleEntries(Path directory, Path entries) throws IOException {
+    for (Path child : directory.getDirectoryEntries()) {
+      if (!child.equals(entries)) {
+        FileSystemUtils.deleteTree(child);
+      }
+    }
+    Collection<Path> children = entries.getDirectoryEntries();
+    boolean full = children.size() > maxEntries;
+    for (Path child : children) {
+      if (full || child.getBaseName().contains(TMP_SUFFIX)) {
+        child.delete();
+      }
+    }
+  }
+
+  /** Returns whether ASTs are read from and stored in the cache. */
+  public boolean isEnabled() {
+    return directory != null;
+  }
+
+  /** Returns the key of the AST of a Skylark extension with the given contents. */
+  String getSkylarkFileKey(Path file, byte[] content, SkylarkSemanticsOptions skylarkSemantics) {
+    return newFingerprint("skylark", file, skylarkSemantics).addBytes(content).hexDigestAndReset();
+  }
+
+  /** Returns the key of the AST of a BUILD file with the given contents. */
+  String getBuildFileKey(
+      Path file,
+      byte[] content,
+      List<Statement> preludeStatements,
+      SkylarkSemanticsOptions skylarkSemantics) {
+    Fingerprint fingerprint = newFingerprint("build", file, skylarkSemantics).addBytes(content);
+    // The prelude is parsed by the same binary, so its printed form identifies it.
+    fingerprint.addInt(preludeStatements.size());
+    for (Statement statement : preludeStatements) {
+      fingerprint.addString(statement.toString());
+    }
+    return fingerprint.hexDigestAndReset();
+  }
+
+  private Fingerprint newFingerprint(
+      String kind, Path file, SkylarkSemanticsOptions skylarkSemantics) {
+    return new Fingerprint()
+        .addInt(FORMAT_VERSION)
+        .addNullableString(installMD5 == null ? null : installMD5.toString())
+        .addString(kind)
+        .addPath(file)
+        .addString(skylarkSemantics.cacheKey());
+  }
+
+  /** Returns the AST stored under the given key, or null if there is none. */
+  @Nullable
+  BuildFileAST get(String key) {
+    Path directory = this.directory;
+    if (directory == null) {
+      return null;
+    }
+    long startTime = BlazeClock.nanoTime();
+    Entry entry;
+    try (ObjectInputStream in = new ObjectInputStream(directory.getChild(key).getInputStream())) {
+      entry = (Entry) in.readObject();
+    } catch (IOException | ClassNotFoundException | ClassCastException e) {
+      // Either there is no entry, or it was written by an incompatible binary. In the latter case
+      // it is overwritten once the file is parsed again.
+      return null;
+    }
+    hits.incrementAndGet();
+    parseTimeSavedNanos.addAndGet(entry.parseTimeNanos - (BlazeClock.nanoTime() - startTime));
+    return entry.ast;
+  }
+
+  /**
+   * Stores the given AST under the given key. {@code parseTimeNanos} is the time it took to create
+   * the AST, which is saved whenever it is read from the cache.
+   *
+   * <p>The AST is serialized before this method returns, so it may be evaluated afterwards.
+   */
+  void put(String key, BuildFileAST ast, long parseTimeNanos) {
+    Path directory = this.directory;
+    if (directory == null) {
+      return;
+    }
+    // Entries are written to a temporary file first, so that an entry is never read while it is
+    // only partially written.
+    Path file = directory.getChild(key);
+    Path tmpFile = directory.getChild(key + TMP_SUFFIX + Thread.currentThread().getId());
+    try {
+      try (ObjectOutputStream out = new ObjectOutputStream(tmpFile.getOutputStream())) {
+        out.writeObject(new Entry(ast, parseTimeNanos));
+      }
+      tmpFile.renameTo(file);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Cannot write " + file, e);
+    } finally {
+      try {
+        // Only left behind if the entry couldn't be written.
+        tmpFile.delete();
+      } catch (IOException e) {
+        // Removed when the cache is enabled by the next server.
+      }
+    }
+  }
+
+  /** Returns the number of ASTs read from the cache since the statistics were last reset. */
+  int getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Returns the time saved by reading ASTs from the cache instead of parsing them again, since the
+   * statistics were last reset.
+   */
+  long getParseTimeSavedMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(parseTimeSavedNanos.get());
+  }
+
+  void resetStatistics() {
+    hits.set(0);
+    parseTimeSavedNanos.set(0);
+  }
+
+  private static final class Entry implements Serializable {
+    private final BuildFileAST ast;
+    private final long parseTimeNanos;
+
+    private Entry(BuildFileAST ast, long parseTimeNanos) {
+      this.ast = ast;
+      this.parseTimeNanos = parseTimeNanos;
+    }
+  }
+}
@@ -543,7 +543,8 @@ public final class SkyframeBuildView {
   }
 
   SkyframeDependencyResolver createDependencyResolver(Environment env) {
-    return new SkyframeDependencyResolver(env);
+    return new SkyframeDependencyResolver(
+        env, skyframeExecutor.isRuleLevelChangePruningEnabled());
   }
 
   /**
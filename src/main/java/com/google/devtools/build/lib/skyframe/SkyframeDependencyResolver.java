@@ -43,9 +43,20 @@ import javax.annotation.Nullable;
 public final class SkyframeDependencyResolver extends DependencyResolver {
 
   private final Environment env;
+  private final boolean ruleLevelChangePruning;
 
   public SkyframeDependencyResolver(Environment env) {
+    this(env, /*ruleLevelChangePruning=*/ false);
+  }
+
+  /**
+   * @param ruleLevelChangePruning whether to depend on the {@link TargetValue} of each dependency
+   *     instead of its whole package, so that the dependent isn't evaluated again when only other
+   *     targets of that package change
+   */
+  public SkyframeDependencyResolver(Environment env, boolean ruleLevelChangePruning) {
     this.env = env;
+    this.ruleLevelChangePruning = ruleLevelChangePruning;
   }
 
   @Override
@@ -88,6 +99,9 @@ public final class SkyframeDependencyResolver extends DependencyResolver {
   @Override
   protected Target getTarget(Target from, Label label, NestedSetBuilder<Label> rootCauses)
       throws InterruptedException {
+    if (ruleLevelChangePruning) {
+      return getTargetValue(from, label, rootCauses);
+    }
     SkyKey key = PackageValue.key(label.getPackageIdentifier());
     PackageValue packageValue;
     try {
@@ -121,6 +135,34 @@ public final class SkyframeDependencyResolver extends DependencyResolver {
     }
   }
 
+  /** Like the lookup through the package in {@link #getTarget}, but through the target only. */
+  @Nullable
+  private Target getTargetValue(Target from, Label label, NestedSetBuilder<Label> rootCauses)
+      throws InterruptedException {
+    TargetValue targetValue;
+    try {
+      targetValue =
+          (TargetValue)
+              env.getValueOrThrow(
+                  TargetValue.key(label),
+                  NoSuchPackageException.class,
+                  NoSuchTargetException.class);
+    } catch (NoSuchPackageException | NoSuchTargetException e) {
+      rootCauses.add(label);
+      missingEdgeHook(from, label, e);
+      return null;
+    }
+    if (targetValue == null) {
+      return null;
+    }
+    Target target = targetValue.getTarget();
+    if (target.getPackage().containsErrors()) {
+      missingEdgeHook(from, label, new NoSuchTargetException(target));
+      rootCauses.add(label);
+    }
+    return target;
+  }
+
   @Nullable
   @Override
   protected List<BuildConfiguration> getConfigurations(
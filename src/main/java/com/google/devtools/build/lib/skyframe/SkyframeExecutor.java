@@ -211,6 +211,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
 
   private final AtomicInteger numPackagesLoaded = new AtomicInteger(0);
   private final PackageProgressReceiver packageProgress = new PackageProgressReceiver();
+  private final PersistentASTCache persistentAstCache;
 
   protected SkyframeBuildView skyframeBuildView;
   private ActionLogBufferPathGenerator actionLogBufferPathGenerator;
@@ -219,6 +220,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
 
   // AtomicReferences are used here as mutable boxes shared with value builders.
   private final AtomicBoolean showLoadingProgress = new AtomicBoolean();
+  private final AtomicBoolean skyframeOnlyGlobbing = new AtomicBoolean();
   protected final AtomicReference<UnixGlob.FilesystemCalls> syscalls =
       new AtomicReference<>(UnixGlob.DEFAULT_SYSCALLS);
   protected final AtomicReference<PathPackageLocator> pkgLocator =
@@ -273,6 +275,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
       new SkyframeIncrementalBuildMonitor();
 
   protected final MutableSupplier<Boolean> removeActionsAfterEvaluation = new MutableSupplier<>();
+  private final MutableSupplier<Boolean> ruleLevelChangePruning = new MutableSupplier<>();
   private MutableSupplier<ConfigurationFactory> configurationFactory = new MutableSupplier<>();
   private MutableSupplier<ImmutableList<ConfigurationFragmentFactory>> configurationFragments =
       new MutableSupplier<>();
@@ -314,9 +317,10 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     this.pkgFactory = pkgFactory;
     this.pkgFactory.setSyscalls(syscalls);
     this.workspaceStatusActionFactory = workspaceStatusActionFactory;
+    this.persistentAstCache = new PersistentASTCache(directories.getInstallMD5());
     this.packageManager = new SkyframePackageManager(
         new SkyframePackageLoader(), new SkyframeTransitivePackageLoader(),
-        syscalls, cyclesReporter, pkgLocator, numPackagesLoaded, this);
+        syscalls, cyclesReporter, pkgLocator, numPackagesLoaded, persistentAstCache, this);
     this.resourceManager = ResourceManager.instance();
     this.skyframeActionExecutor = new SkyframeActionExecutor(eventBus, statusReporterRef);
     this.directories = Preconditions.checkNotNull(directories);
@@ -341,6 +345,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     this.buildFilesByPriority = buildFilesByPriority;
     this.actionOnIOExceptionReadingBuildFile = actionOnIOExceptionReadingBuildFile;
     this.removeActionsAfterEvaluation.set(false);
+    this.ruleLevelChangePruning.set(false);
   }
 
   private ImmutableMap<SkyFunctionName, SkyFunction> skyFunctions(
@@ -371,7 +376,9 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
         new PackageLookupFunction(
             deletedPackages, crossRepositoryLabelViolationStrategy, buildFilesByPriority));
     map.put(SkyFunctions.CONTAINING_PACKAGE_LOOKUP, new ContainingPackageLookupFunction());
-    map.put(SkyFunctions.AST_FILE_LOOKUP, new ASTFileLookupFunction(ruleClassProvider));
+    map.put(
+        SkyFunctions.AST_FILE_LOOKUP,
+        new ASTFileLookupFunction(ruleClassProvider, persistentAstCache));
     map.put(
         SkyFunctions.SKYLARK_IMPORTS_LOOKUP,
         newSkylarkImportLookupFunction(ruleClassProvider, pkgFactory));
@@ -403,16 +410,18 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
             ruleClassProvider,
             packageProgress));
     map.put(SkyFunctions.PACKAGE_ERROR, new PackageErrorFunction());
+    map.put(SkyFunctions.TARGET, new TargetFunction());
     map.put(SkyFunctions.TARGET_MARKER, new TargetMarkerFunction());
     map.put(SkyFunctions.TRANSITIVE_TARGET, new TransitiveTargetFunction(ruleClassProvider));
-    map.put(Label.TRANSITIVE_TRAVERSAL, new TransitiveTraversalFunction());
+    map.put(Label.TRANSITIVE_TRAVERSAL, new TransitiveTraversalFunction(ruleLevelChangePruning));
     map.put(
         SkyFunctions.CONFIGURED_TARGET,
         new ConfiguredTargetFunction(
             new BuildViewProvider(),
             ruleClassProvider,
             cpuBoundSemaphore,
-            removeActionsAfterEvaluation));
+            removeActionsAfterEvaluation,
+            ruleLevelChangePruning));
     map.put(
         SkyFunctions.ASPECT,
         new AspectFunction(
@@ -478,7 +487,9 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
         numPackagesLoaded,
         null,
         packageProgress,
-        actionOnIOExceptionReadingBuildFile);
+        actionOnIOExceptionReadingBuildFile,
+        persistentAstCache,
+        skyframeOnlyGlobbing);
   }
 
   protected SkyFunction newSkylarkImportLookupFunction(
@@ -662,6 +673,14 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     // Assume incrementality.
   }
 
+  /**
+   * Whether analysis depends on the targets it needs instead of their whole packages, see {@link
+   * TargetValue}.
+   */
+  boolean isRuleLevelChangePruningEnabled() {
+    return ruleLevelChangePruning.get();
+  }
+
   public boolean hasIncrementalState() {
     return true;
   }
@@ -982,6 +1001,13 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
 
     syscalls.set(getPerBuildSyscallCache(packageCacheOptions.globbingThreads));
     this.pkgFactory.setGlobbingThreads(packageCacheOptions.globbingThreads);
+    skyframeOnlyGlobbing.set(packageCacheOptions.skyframeOnlyGlobbing);
+    ruleLevelChangePruning.set(packageCacheOptions.ruleLevelChangePruning);
+    this.pkgFactory.setBuildFileEvaluationThreads(packageCacheOptions.buildFileEvaluationThreads);
+    persistentAstCache.setDirectory(
+        packageCacheOptions.persistentAstCache
+            ? directories.getOutputBase().getRelative("ast_cache")
+            : null);
     this.pkgFactory.setMaxDirectoriesToEagerlyVisitInGlobbing(
         packageCacheOptions.maxDirectoriesToEagerlyVisitInGlobbing);
     emittedEventState.clear();
@@ -990,6 +1016,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     packageFunctionCache.invalidateAll();
     astCache.invalidateAll();
     numPackagesLoaded.set(0);
+    persistentAstCache.resetStatistics();
     packageProgress.reset();
 
     // Reset the stateful SkyframeCycleReporter, which contains cycles from last run.
@@ -47,6 +47,7 @@ class SkyframePackageManager implements PackageManager {
   private final AtomicReference<CyclesReporter> skyframeCyclesReporter;
   private final AtomicReference<PathPackageLocator> pkgLocator;
   private final AtomicInteger numPackagesLoaded;
+  private final PersistentASTCache persistentAstCache;
   private final SkyframeExecutor skyframeExecutor;
 
   public SkyframePackageManager(SkyframePackageLoader packageLoader,
@@ -55,6 +56,7 @@ class SkyframePackageManager implements PackageManager {
       AtomicReference<CyclesReporter> skyframeCyclesReporter,
       AtomicReference<PathPackageLocator> pkgLocator,
       AtomicInteger numPackagesLoaded,
+      PersistentASTCache persistentAstCache,
       SkyframeExecutor skyframeExecutor) {
     this.packageLoader = packageLoader;
     this.transitiveLoader = transitiveLoader;
@@ -62,6 +64,7 @@ class SkyframePackageManager implements PackageManager {
     this.pkgLocator = pkgLocator;
     this.syscalls = syscalls;
     this.numPackagesLoaded = numPackagesLoaded;
+    this.persistentAstCache = persistentAstCache;
     this.skyframeExecutor = skyframeExecutor;
   }
 
@@ -85,6 +88,16 @@ class SkyframePackageManager implements PackageManager {
       public int getPackagesLoaded() {
         return numPackagesLoaded.get();
       }
+
+      @Override
+      public int getASTsReadFromPersistentCache() {
+        return persistentAstCache.getHits();
+      }
+
+      @Override
+      public long getParseTimeSavedInMs() {
+        return persistentAstCache.getParseTimeSavedMillis();
+      }
     };
   }
 
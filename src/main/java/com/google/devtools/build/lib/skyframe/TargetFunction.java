@@ -0,0 +1,71 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.packages.NoSuchPackageException;
+import com.google.devtools.build.lib.packages.NoSuchTargetException;
+import com.google.devtools.build.skyframe.SkyFunction;
+import com.google.devtools.build.skyframe.SkyFunctionException;
+import com.google.devtools.build.skyframe.SkyKey;
+import com.google.devtools.build.skyframe.SkyValue;
+
+/**
+ * A SkyFunction for {@link TargetValue}s. Looks the target up in its package, which may have
+ * errors.
+ */
+public final class TargetFunction implements SkyFunction {
+
+  @Override
+  public SkyValue compute(SkyKey key, Environment env)
+      throws TargetFunctionException, InterruptedException {
+    Label label = (Label) key.argument();
+    PackageValue packageValue;
+    try {
+      packageValue =
+          (PackageValue)
+              env.getValueOrThrow(
+                  PackageValue.key(label.getPackageIdentifier()), NoSuchPackageException.class);
+    } catch (NoSuchPackageException e) {
+      throw new TargetFunctionException(e);
+    }
+    if (packageValue == null) {
+      return null;
+    }
+    try {
+      return new TargetValue(packageValue.getPackage().getTarget(label.getName()));
+    } catch (NoSuchTargetException e) {
+      throw new TargetFunctionException(e);
+    }
+  }
+
+  @Override
+  public String extractTag(SkyKey skyKey) {
+    return Label.print((Label) skyKey.argument());
+  }
+
+  /**
+   * Used to declare all the exception types that can be wrapped in the exception thrown by
+   * {@link TargetFunction#compute}.
+   */
+  private static final class TargetFunctionException extends SkyFunctionException {
+    public TargetFunctionException(NoSuchTargetException e) {
+      super(e, Transience.PERSISTENT);
+    }
+
+    public TargetFunctionException(NoSuchPackageException e) {
+      super(e, Transience.PERSISTENT);
+    }
+  }
+}
@@ -0,0 +1,95 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.packages.InputFile;
+import com.google.devtools.build.lib.packages.OutputFile;
+import com.google.devtools.build.lib.packages.Rule;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.util.Preconditions;
+import com.google.devtools.build.skyframe.LegacySkyKey;
+import com.google.devtools.build.skyframe.SkyKey;
+import com.google.devtools.build.skyframe.SkyValue;
+
+/**
+ * A single target of a package.
+ *
+ * <p>Values are equal if their targets have the same content, even if they belong to different
+ * versions of the package (see {@link Rule#hasSameContentAs}). So when a BUILD file changes, the
+ * values of its unchanged targets are pruned, and their previous targets are kept: functions that
+ * depend on this value instead of the whole {@link PackageValue} are then only evaluated again
+ * for the targets that actually changed. Other kinds of targets than rules and files are only
+ * equal if they are the same object.
+ */
+@Immutable
+@ThreadSafe
+public final class TargetValue implements SkyValue {
+
+  private final Target target;
+
+  TargetValue(Target target) {
+    this.target = Preconditions.checkNotNull(target);
+  }
+
+  /**
+   * Returns the target. It may belong to an older version of its package than the current {@link
+   * PackageValue}, which only differs in other targets.
+   */
+  public Target getTarget() {
+    return target;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof TargetValue)) {
+      return false;
+    }
+    Target other = ((TargetValue) o).target;
+    if (target == other) {
+      return true;
+    }
+    if (target instanceof Rule && other instanceof Rule) {
+      return ((Rule) target).hasSameContentAs((Rule) other);
+    }
+    if (target instanceof InputFile && other instanceof InputFile) {
+      return ((InputFile) target).hasSameContentAs((InputFile) other);
+    }
+    if (target instanceof OutputFile && other instanceof OutputFile) {
+      return ((OutputFile) target).hasSameContentAs((OutputFile) other);
+    }
+    return false;
+  }
+
+  @Override
+  public int hashCode() {
+    return target.getLabel().hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return "TargetValue(" + target.getLabel() + ")";
+  }
+
+  @ThreadSafe
+  public static SkyKey key(Label label) {
+    Preconditions.checkArgument(!label.getPackageIdentifier().getRepository().isDefault());
+    return LegacySkyKey.create(SkyFunctions.TARGET, label);
+  }
+}
@@ -100,6 +100,15 @@ abstract class TransitiveBaseTraversalFunction<TProcessedTargets> implements Sky
   abstract TargetMarkerValue getTargetMarkerValue(SkyKey targetMarkerKey, Environment env)
       throws NoSuchTargetException, NoSuchPackageException, InterruptedException;
 
+  /**
+   * Returns whether the target is looked up through its {@link TargetValue} instead of its whole
+   * package once {@link #getTargetMarkerValue} succeeded, so that the target isn't visited again
+   * when only other targets of its package change.
+   */
+  boolean loadTargetsThroughTargetValues() {
+    return false;
+  }
+
   @Override
   public SkyValue compute(SkyKey key, Environment env)
       throws TransitiveBaseTraversalFunctionException, InterruptedException {
@@ -313,24 +322,34 @@ abstract class TransitiveBaseTraversalFunction<TProcessedTargets> implements Sky
       if (targetValueMissing) {
         return ValuesMissing.INSTANCE;
       }
-      PackageValue packageValue = (PackageValue) env.getValueOrThrow(packageKey,
-          NoSuchPackageException.class);
-      if (packageValue == null) {
-        return ValuesMissing.INSTANCE;
+      Package pkg;
+      if (loadTargetsThroughTargetValues()) {
+        TargetValue loadedTarget = (TargetValue) env.getValueOrThrow(TargetValue.key(label),
+            NoSuchTargetException.class, NoSuchPackageException.class);
+        if (loadedTarget == null) {
+          return ValuesMissing.INSTANCE;
+        }
+        target = loadedTarget.getTarget();
+        pkg = target.getPackage();
+      } else {
+        PackageValue packageValue = (PackageValue) env.getValueOrThrow(packageKey,
+            NoSuchPackageException.class);
+        if (packageValue == null) {
+          return ValuesMissing.INSTANCE;
+        }
+        pkg = packageValue.getPackage();
+        try {
+          target = pkg.getTarget(label.getName());
+        } catch (NoSuchTargetException unexpected) {
+          // Not expected since the TargetMarkerFunction would have failed earlier if the Target
+          // was not present.
+          throw new IllegalStateException(unexpected);
+        }
       }
-
-      Package pkg = packageValue.getPackage();
       if (pkg.containsErrors()) {
         throw new BuildFileContainsErrorsException(label.getPackageIdentifier());
       }
       packageLoadedSuccessfully = true;
-      try {
-        target = pkg.getTarget(label.getName());
-      } catch (NoSuchTargetException unexpected) {
-        // Not expected since the TargetMarkerFunction would have failed earlier if the Target
-        // was not present.
-        throw new IllegalStateException(unexpected);
-      }
     } catch (NoSuchTargetException e) {
       if (!e.hasTarget()) {
         throw e;
@@ -13,6 +13,7 @@
 // limitations under the License.
 package com.google.devtools.build.lib.skyframe;
 
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.collect.nestedset.NestedSet;
@@ -43,6 +44,12 @@ import javax.annotation.Nullable;
 public class TransitiveTraversalFunction
     extends TransitiveBaseTraversalFunction<FirstErrorMessageAccumulator> {
 
+  private final Supplier<Boolean> ruleLevelChangePruning;
+
+  public TransitiveTraversalFunction(Supplier<Boolean> ruleLevelChangePruning) {
+    this.ruleLevelChangePruning = Preconditions.checkNotNull(ruleLevelChangePruning);
+  }
+
   @Override
   SkyKey getKey(Label label) {
     return TransitiveTraversalValue.key(label);
@@ -122,9 +129,20 @@ public class TransitiveTraversalFunction
   @Override
   TargetMarkerValue getTargetMarkerValue(SkyKey targetMarkerKey, Environment env)
       throws NoSuchTargetException, NoSuchPackageException, InterruptedException {
+    if (ruleLevelChangePruning.get()) {
+      // Unlike the package, the marker is pruned when other targets of the package change.
+      return (TargetMarkerValue)
+          env.getValueOrThrow(
+              targetMarkerKey, NoSuchTargetException.class, NoSuchPackageException.class);
+    }
     return TargetMarkerFunction.computeTargetMarkerValue(targetMarkerKey, env);
   }
 
+  @Override
+  boolean loadTargetsThroughTargetValues() {
+    return ruleLevelChangePruning.get();
+  }
+
   /**
    * Keeps track of the first error message encountered while traversing itself and its
    * dependencies.
@@ -115,6 +115,7 @@ public abstract class AbstractPackageLoader implements PackageLoader {
   protected final BlazeDirectories directories;
   private final int legacyGlobbingThreads;
   private final int skyframeThreads;
+  private final boolean skyframeOnlyGlobbing;
 
   /** Abstract base class of a builder for {@link PackageLoader} instances. */
   public abstract static class Builder {
@@ -126,6 +127,7 @@ public abstract class AbstractPackageLoader implements PackageLoader {
     protected String defaultsPackageContents = getDefaultDefaulsPackageContents();
     protected int legacyGlobbingThreads = 1;
     int skyframeThreads = 1;
+    boolean skyframeOnlyGlobbing = false;
 
     protected Builder(Path workspaceDir) {
       this.workspaceDir = workspaceDir;
@@ -168,6 +170,12 @@ public abstract class AbstractPackageLoader implements PackageLoader {
       return this;
     }
 
+    /** Sets whether globs are only evaluated by Skyframe, without legacy globbing threads. */
+    public Builder setSkyframeOnlyGlobbing(boolean skyframeOnlyGlobbing) {
+      this.skyframeOnlyGlobbing = skyframeOnlyGlobbing;
+      return this;
+    }
+
     public abstract PackageLoader build();
 
     protected abstract RuleClassProvider getDefaultRuleClassProvider();
@@ -185,6 +193,7 @@ public abstract class AbstractPackageLoader implements PackageLoader {
     this.pkgLocatorRef = new AtomicReference<>(pkgLocator);
     this.legacyGlobbingThreads = builder.legacyGlobbingThreads;
     this.skyframeThreads = builder.skyframeThreads;
+    this.skyframeOnlyGlobbing = builder.skyframeOnlyGlobbing;
 
     // The 'installBase' and 'outputBase' directories won't be meaningfully used by
     // WorkspaceFileFunction, so we pass in a dummy Path.
@@ -372,7 +381,9 @@ public abstract class AbstractPackageLoader implements PackageLoader {
                 /*numPackagesLoaded=*/ new AtomicInteger(0),
                 /*skylarkImportLookupFunctionForInlining=*/ null,
                 /*packageProgress=*/ null,
-                getActionOnIOExceptionReadingBuildFile()))
+                getActionOnIOExceptionReadingBuildFile(),
+                /*persistentAstCache=*/ null,
+                new AtomicBoolean(skyframeOnlyGlobbing)))
         .putAll(extraSkyFunctions)
         .putAll(getExtraExtraSkyFunctions());
     return builder.build();
@@ -14,17 +14,59 @@
 package com.google.devtools.build.lib.standalone;
 
 import com.google.devtools.build.lib.buildtool.BuildRequest;
+import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.exec.ExecutorBuilder;
 import com.google.devtools.build.lib.runtime.BlazeModule;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
+import com.google.devtools.build.lib.shell.JavaSubprocessFactory;
+import com.google.devtools.build.lib.shell.SubprocessBuilder;
+import com.google.devtools.build.lib.unix.ProcessLauncherSubprocessFactory;
+import com.google.devtools.build.lib.util.OS;
 
 /**
  * StandaloneModule provides pluggable functionality for blaze.
  */
 public class StandaloneModule extends BlazeModule {
+  // Lives as long as the server, so that the launcher is only started once.
+  private ProcessLauncherSubprocessFactory processLauncher;
+  private boolean processLauncherInstalled;
+
   @Override
   public void executorInit(CommandEnvironment env, BuildRequest request, ExecutorBuilder builder) {
     builder.addActionContextProvider(new StandaloneActionContextProvider(env, request));
     builder.addActionContextConsumer(new StandaloneActionContextConsumer());
+
+    if (request.getOptions(ExecutionOptions.class).useProcessLauncher
+        && OS.getCurrent() != OS.WINDOWS) {
+      if (processLauncher == null) {
+        processLauncher =
+            new ProcessLauncherSubprocessFactory(
+                env.getDirectories()
+                    .getEmbeddedBinariesRoot()
+                    .getRelative("process-launcher")
+                    .getPathFile(),
+                env.getOutputBase().getRelative("process-launcher").getPathFile());
+      }
+      // This covers every command that the server runs during the build, including the spawns of
+      // the sandboxed strategies.
+      SubprocessBuilder.setSubprocessFactory(processLauncher);
+      processLauncherInstalled = true;
+    }
+  }
+
+  @Override
+  public void afterCommand() {
+    if (processLauncherInstalled) {
+      SubprocessBuilder.setSubprocessFactory(JavaSubprocessFactory.INSTANCE);
+      processLauncherInstalled = false;
+    }
+  }
+
+  @Override
+  public void blazeShutdown() {
+    if (processLauncher != null) {
+      processLauncher.close();
+      processLauncher = null;
+    }
   }
 }
@@ -18,13 +18,17 @@ import com.google.common.eventbus.EventBus;
 import com.google.devtools.build.lib.actions.ActionExecutionContext;
 import com.google.devtools.build.lib.actions.ActionExecutionMetadata;
 import com.google.devtools.build.lib.actions.ActionStatusMessage;
+import com.google.devtools.build.lib.actions.EnvironmentalExecException;
 import com.google.devtools.build.lib.actions.ExecException;
 import com.google.devtools.build.lib.actions.ExecutionStrategy;
 import com.google.devtools.build.lib.actions.Executor;
 import com.google.devtools.build.lib.actions.ResourceManager;
 import com.google.devtools.build.lib.actions.ResourceManager.ResourceHandle;
+import com.google.devtools.build.lib.actions.ResourceSet;
 import com.google.devtools.build.lib.actions.Spawn;
 import com.google.devtools.build.lib.actions.SpawnActionContext;
+import com.google.devtools.build.lib.actions.SpawnCgroups;
+import com.google.devtools.build.lib.actions.SpawnCgroups.Cgroup;
 import com.google.devtools.build.lib.actions.Spawns;
 import com.google.devtools.build.lib.actions.UserExecException;
 import com.google.devtools.build.lib.rules.apple.AppleConfiguration;
@@ -33,15 +37,21 @@ import com.google.devtools.build.lib.rules.apple.DottedVersion;
 import com.google.devtools.build.lib.shell.AbnormalTerminationException;
 import com.google.devtools.build.lib.shell.Command;
 import com.google.devtools.build.lib.shell.CommandException;
+import com.google.devtools.build.lib.shell.CommandResult;
+import com.google.devtools.build.lib.shell.ResourceUsage;
 import com.google.devtools.build.lib.shell.TerminationStatus;
+import com.google.devtools.build.lib.util.BlazeClock;
 import com.google.devtools.build.lib.util.CommandFailureUtils;
 import com.google.devtools.build.lib.util.OS;
 import com.google.devtools.build.lib.util.OsUtils;
 import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import javax.annotation.Nullable;
 
 /**
  * Strategy that uses subprocessing to execute a process.
@@ -81,7 +91,7 @@ public class StandaloneSpawnStrategy implements SpawnActionContext {
     try (ResourceHandle handle =
         resourceManager.acquireResources(owner, spawn.getLocalResources())) {
       eventBus.post(ActionStatusMessage.runningStrategy(owner, "standalone"));
-      actuallyExec(spawn, actionExecutionContext);
+      actuallyExec(spawn, actionExecutionContext, handle.getResources());
     }
   }
 
@@ -89,7 +99,7 @@ public class StandaloneSpawnStrategy implements SpawnActionContext {
    * Executes the given {@code spawn}.
    */
   private void actuallyExec(Spawn spawn,
-      ActionExecutionContext actionExecutionContext)
+      ActionExecutionContext actionExecutionContext, ResourceSet resources)
       throws ExecException {
     Executor executor = actionExecutionContext.getExecutor();
 
@@ -103,12 +113,28 @@ public class StandaloneSpawnStrategy implements SpawnActionContext {
     // All actions therefore depend on the process-wrapper file. Since it's embedded,
     // we don't bother with declaring it as an input.
     List<String> args = new ArrayList<>();
+    Cgroup cgroup = null;
+    Path statsFile = null;
     if (OS.getCurrent() != OS.WINDOWS) {
       // TODO(bazel-team): process-wrapper seems to work on Windows, but requires
       // additional setup as it is an msys2 binary, so it needs msys2 DLLs on %PATH%.
       // Disable it for now to make the setup easier and to avoid further PATH hacks.
       // Ideally we should have a native implementation of process-wrapper for Windows.
       args.add(processWrapper.getPathString());
+      SpawnCgroups cgroups = resourceManager.getSpawnCgroups();
+      if (cgroups != null) {
+        try {
+          cgroup = cgroups.createCgroup(resources);
+        } catch (IOException e) {
+          throw new EnvironmentalExecException("Could not create the cgroup of the spawn", e);
+        }
+        args.add("--cgroup=" + cgroup.getPath().getPathString());
+      }
+      if (resourceManager.isRecordingResourceUsage()) {
+        Path stdout = actionExecutionContext.getFileOutErr().getOutputPath();
+        statsFile = stdout.getParentDirectory().getChild(stdout.getBaseName() + ".stats");
+        args.add("--stats=" + statsFile.getPathString());
+      }
       args.add(Integer.toString(timeoutSeconds));
       args.add("5"); /* kill delay: give some time to print stacktraces and whatnot. */
 
@@ -119,6 +145,24 @@ public class StandaloneSpawnStrategy implements SpawnActionContext {
     }
     args.addAll(spawn.getArguments());
 
+    try {
+      execCommand(spawn, actionExecutionContext, args, timeoutSeconds, cgroup, statsFile);
+    } finally {
+      if (cgroup != null) {
+        cgroup.delete();
+      }
+    }
+  }
+
+  private void execCommand(
+      Spawn spawn,
+      ActionExecutionContext actionExecutionContext,
+      List<String> args,
+      int timeoutSeconds,
+      @Nullable Cgroup cgroup,
+      @Nullable Path statsFile)
+      throws ExecException {
+    Executor executor = actionExecutionContext.getExecutor();
     String cwd = executor.getExecRoot().getPathString();
     Command cmd =
         new Command(
@@ -128,21 +172,35 @@ public class StandaloneSpawnStrategy implements SpawnActionContext {
             OS.getCurrent() == OS.WINDOWS && timeoutSeconds >= 0 ? timeoutSeconds * 1000 : -1);
 
     FileOutErr outErr = actionExecutionContext.getFileOutErr();
+    long startNanos = BlazeClock.nanoTime();
     try {
-      cmd.execute(
-          /* stdin */ new byte[] {},
-          Command.NO_OBSERVER,
-          outErr.getOutputStream(),
-          outErr.getErrorStream(),
-          /*killSubprocessOnInterrupt*/ true);
+      CommandResult result =
+          cmd.execute(
+              /* stdin */ new byte[] {},
+              Command.NO_OBSERVER,
+              outErr.getOutputStream(),
+              outErr.getErrorStream(),
+              /*killSubprocessOnInterrupt*/ true);
+      resourceManager.recordResourceUsage(
+          spawn.getResourceOwner(),
+          startNanos,
+          getResourceUsage(result.getTerminationStatus(), statsFile));
     } catch (AbnormalTerminationException e) {
       TerminationStatus status = e.getResult().getTerminationStatus();
+      resourceManager.recordResourceUsage(
+          spawn.getResourceOwner(), startNanos, getResourceUsage(status, statsFile));
       boolean timedOut = !status.exited() && (
           status.timedout() || status.getTerminatingSignal() == 14 /* SIGALRM */);
       String message =
           CommandFailureUtils.describeCommandFailure(
               verboseFailures, spawn.getArguments(), spawn.getEnvironment(), cwd);
-      throw new UserExecException(String.format("%s: %s", message, e), timedOut);
+      String limits = cgroup == null ? null : cgroup.explainFailure();
+      if (limits != null) {
+        message = String.format("%s: %s; the spawn was %s", message, e, limits);
+      } else {
+        message = String.format("%s: %s", message, e);
+      }
+      throw new UserExecException(message, timedOut);
     } catch (CommandException e) {
       String message = CommandFailureUtils.describeCommandFailure(
           verboseFailures, spawn.getArguments(), spawn.getEnvironment(), cwd);
@@ -150,6 +208,31 @@ public class StandaloneSpawnStrategy implements SpawnActionContext {
     }
   }
 
+  /**
+   * Returns what a process that ran under process-wrapper used, preferably as written to {@code
+   * statsFile}, which is deleted. The usage that the process itself reports, if any, includes that
+   * of process-wrapper.
+   */
+  @Nullable
+  public static ResourceUsage getResourceUsage(
+      TerminationStatus status, @Nullable Path statsFile) {
+    if (statsFile == null) {
+      return status.getResourceUsage();
+    }
+    try {
+      return ResourceUsage.parse(new String(FileSystemUtils.readContentAsLatin1(statsFile)));
+    } catch (IOException | IllegalArgumentException e) {
+      // process-wrapper itself was killed before it could write the file.
+      return status.getResourceUsage();
+    } finally {
+      try {
+        statsFile.delete();
+      } catch (IOException e) {
+        // Overwritten by the next spawn of the action.
+      }
+    }
+  }
+
   @Override
   public String toString() {
     return "standalone";
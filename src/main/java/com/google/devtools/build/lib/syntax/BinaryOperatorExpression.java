@@ -118,8 +118,21 @@ public final class BinaryOperatorExpression extends Expression {
       }
     }
 
-    Object rval = rhs.eval(env);
+    return evaluate(operator, lval, rhs.eval(env), env, location, isAugmented);
+  }
 
+  /**
+   * Applies an operator that isn't short-circuit to its evaluated operands. Used by the bytecode
+   * of compiled functions, which evaluates the operands itself.
+   */
+  static Object evaluate(
+      Operator operator,
+      Object lval,
+      Object rval,
+      Environment env,
+      Location location,
+      boolean isAugmented)
+      throws EvalException {
     switch (operator) {
       case PLUS:
         return plus(lval, rval, env, location, isAugmented);
@@ -24,6 +24,8 @@ import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.syntax.Parser.ParseResult;
 import com.google.devtools.build.lib.syntax.SkylarkImports.SkylarkImportSyntaxException;
 import com.google.devtools.build.lib.util.Pair;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import java.io.IOException;
@@ -282,11 +284,23 @@ public class BuildFileAST extends ASTNode {
 
   public static BuildFileAST parseSkylarkFile(Path file, long fileSize, EventHandler eventHandler)
       throws IOException {
-    ParserInputSource input = ParserInputSource.create(file, fileSize);
+    byte[] bytes = FileSystemUtils.readWithKnownFileSize(file, fileSize);
+    return parseSkylarkFile(
+        bytes, FileSystem.getDigestFunction().digest(bytes), file.asFragment(), eventHandler);
+  }
+
+  /**
+   * Parses the given contents of a Skylark file with the given digest, for callers that need the
+   * contents themselves too and shouldn't read the file twice.
+   */
+  public static BuildFileAST parseSkylarkFile(
+      byte[] bytes, byte[] digest, PathFragment path, EventHandler eventHandler) {
+    ParserInputSource input =
+        ParserInputSource.create(FileSystemUtils.convertFromLatin1(bytes), path);
     Parser.ParseResult result = Parser.parseFileForSkylark(input, eventHandler);
     return create(
         ImmutableList.<Statement>of(), result,
-        HashCode.fromBytes(file.getDigest()).toString(), eventHandler);
+        HashCode.fromBytes(digest).toString(), eventHandler);
   }
 
   /**
@@ -0,0 +1,103 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import java.util.Iterator;
+
+/**
+ * The body of a {@link UserDefinedFunction}, compiled to JVM bytecode by {@link SkylarkCompiler}.
+ *
+ * <p>The generated subclasses are defined by class loaders of their own, so they can only use the
+ * protected members of this class. These refer to the syntax tree nodes that the bytecode was
+ * generated from by their index, and behave exactly like evaluating them, including the locations
+ * that errors are reported at.
+ */
+@ThreadSafe
+public abstract class CompiledFunctionBody {
+  private final ASTNode[] nodes;
+
+  protected CompiledFunctionBody(Object[] nodes) {
+    this.nodes = new ASTNode[nodes.length];
+    System.arraycopy(nodes, 0, this.nodes, 0, nodes.length);
+  }
+
+  /**
+   * Executes the body in the scope of the function, which was already entered, and returns the
+   * value of the function call.
+   */
+  protected abstract Object run(Environment env) throws EvalException, InterruptedException;
+
+  /** Evaluates an expression that wasn't compiled. */
+  protected final Object evalExpression(int expression, Environment env)
+      throws EvalException, InterruptedException {
+    return ((Expression) nodes[expression]).eval(env);
+  }
+
+  /** Executes a statement that wasn't compiled. */
+  protected final void execStatement(int statement, Environment env)
+      throws EvalException, InterruptedException {
+    ((Statement) nodes[statement]).exec(env);
+  }
+
+  /** Applies the operator of a {@link BinaryOperatorExpression} that isn't short-circuit. */
+  protected final Object applyOperator(int expression, Object lval, Object rval, Environment env)
+      throws EvalException {
+    BinaryOperatorExpression node = (BinaryOperatorExpression) nodes[expression];
+    try {
+      return BinaryOperatorExpression.evaluate(
+          node.getOperator(), lval, rval, env, node.getLocation(), false);
+    } catch (EvalException e) {
+      throw node.maybeTransformException(e);
+    }
+  }
+
+  /**
+   * Assigns a value to the {@link LValue} of an {@link AssignmentStatement} or to the variable of
+   * a {@link ForStatement}.
+   */
+  protected final void assign(int statement, Environment env, Object value)
+      throws EvalException, InterruptedException {
+    Statement node = (Statement) nodes[statement];
+    try {
+      if (node instanceof ForStatement) {
+        ((ForStatement) node).getVariable().assign(env, node.getLocation(), value);
+      } else {
+        ((AssignmentStatement) node).getLValue().assign(env, node.getLocation(), value);
+      }
+    } catch (EvalException e) {
+      throw node.maybeTransformException(e);
+    }
+  }
+
+  /**
+   * Starts the loop of a {@link ForStatement} over the given collection, which stays locked until
+   * {@link #endLoop} is called.
+   */
+  protected final Iterator<?> startLoop(int statement, Object collection) throws EvalException {
+    ForStatement node = (ForStatement) nodes[statement];
+    try {
+      Iterable<?> iterable = EvalUtils.toIterable(collection, node.getLocation());
+      EvalUtils.lock(collection, node.getLocation());
+      return iterable.iterator();
+    } catch (EvalException e) {
+      throw node.maybeTransformException(e);
+    }
+  }
+
+  /** Ends the loop of a {@link ForStatement}, however it was left. */
+  protected final void endLoop(int statement, Object collection) {
+    EvalUtils.unlock(collection, nodes[statement].getLocation());
+  }
+}
@@ -252,14 +252,17 @@ public final class Environment implements Freezable {
    * A Continuation contains data saved during a function call and restored when the function exits.
    */
   private static final class Continuation {
+    // The fields that make up the call stack are final, so that the stack can be read by the
+    // SkylarkSamplingProfiler from another thread.
+
     /** The {@link BaseFunction} being evaluated that will return into this Continuation. */
-    BaseFunction function;
+    final BaseFunction function;
 
     /** The {@link FuncallExpression} to which this Continuation will return. */
-    FuncallExpression caller;
+    final FuncallExpression caller;
 
     /** The next Continuation after this Continuation. */
-    @Nullable Continuation continuation;
+    @Nullable final Continuation continuation;
 
     /** The lexical Frame of the caller. */
     Frame lexicalFrame;
@@ -270,19 +273,27 @@ public final class Environment implements Freezable {
     /** The set of known global variables of the caller. */
     @Nullable Set<String> knownGlobalVariables;
 
+    /** The local scope of the caller and the values of its slots. */
+    @Nullable LocalScope localScope;
+    @Nullable Object[] locals;
+
     Continuation(
         Continuation continuation,
         BaseFunction function,
         FuncallExpression caller,
         Frame lexicalFrame,
         Frame globalFrame,
-        Set<String> knownGlobalVariables) {
+        Set<String> knownGlobalVariables,
+        LocalScope localScope,
+        Object[] locals) {
       this.continuation = continuation;
       this.function = function;
       this.caller = caller;
       this.lexicalFrame = lexicalFrame;
       this.globalFrame = globalFrame;
       this.knownGlobalVariables = knownGlobalVariables;
+      this.localScope = localScope;
+      this.locals = locals;
     }
   }
 
@@ -393,6 +404,15 @@ public final class Environment implements Freezable {
    */
   @Nullable private Set<String> knownGlobalVariables;
 
+  /**
+   * When in the body of a function that was validated, the local variables of that function.
+   * Their values live in {@link #locals} instead of in the lexical Frame.
+   */
+  @Nullable private LocalScope localScope;
+
+  /** The values of the variables of {@link #localScope}, indexed by slot; null if unbound. */
+  @Nullable private Object[] locals;
+
   /**
    * When in a lexical (Skylark) frame, this lists the names of the functions in the call stack.
    * We currently use it to artificially disable recursion.
@@ -413,15 +433,42 @@ public final class Environment implements Freezable {
    * @param globals the global Frame that this function closes over from its definition Environment
    */
   void enterScope(BaseFunction function, FuncallExpression caller, Frame globals) {
+    enterScope(function, caller, globals, null);
+  }
+
+  /**
+   * Enters a scope by saving state to a new Continuation
+   * @param function the function whose scope to enter
+   * @param caller the source AST node for the caller
+   * @param globals the global Frame that this function closes over from its definition Environment
+   * @param scope the local variables of the function, if they were resolved to slots
+   */
+  void enterScope(
+      BaseFunction function,
+      FuncallExpression caller,
+      Frame globals,
+      @Nullable LocalScope scope) {
+    if (continuation == null && SkylarkSamplingProfiler.isRunning()) {
+      SkylarkSamplingProfiler.instance().enter(this);
+    }
     continuation =
         new Continuation(
-            continuation, function, caller, lexicalFrame, globalFrame, knownGlobalVariables);
+            continuation,
+            function,
+            caller,
+            lexicalFrame,
+            globalFrame,
+            knownGlobalVariables,
+            localScope,
+            locals);
     // TODO(bazel-team): What if instead of tracking both the lexical and global frames from the
     // Environment, we instead just tracked the current lexical frame, and made the global frame its
     // parent?
     lexicalFrame = new Frame(mutability(), null);
     globalFrame = globals;
     knownGlobalVariables = new HashSet<>();
+    localScope = scope;
+    locals = scope != null ? new Object[scope.size()] : null;
   }
 
   /**
@@ -432,7 +479,12 @@ public final class Environment implements Freezable {
     lexicalFrame = continuation.lexicalFrame;
     globalFrame = continuation.globalFrame;
     knownGlobalVariables = continuation.knownGlobalVariables;
+    localScope = continuation.localScope;
+    locals = continuation.locals;
     continuation = continuation.continuation;
+    if (continuation == null && SkylarkSamplingProfiler.isRunning()) {
+      SkylarkSamplingProfiler.instance().exit(this);
+    }
   }
 
   private final String transitiveHashCode;
@@ -673,7 +725,8 @@ public final class Environment implements Freezable {
           String.format("Trying to bind dynamic variable '%s' but it is already bound",
               varname));
     }
-    if (lexicalFrame != null && lexicalFrame.get(varname) != null) {
+    if (lexicalFrame != null
+        && (lexicalFrame.get(varname) != null || lookupLocal(varname) != null)) {
       throw new AssertionError(
           String.format("Trying to bind dynamic variable '%s' but it is already bound lexically",
               varname));
@@ -708,14 +761,13 @@ public final class Environment implements Freezable {
    */
   public Environment update(String varname, Object value) throws EvalException {
     Preconditions.checkNotNull(value, "update(value == null)");
-    // prevents clashes between static and dynamic variables.
-    if (dynamicFrame.get(varname) != null) {
-      throw new EvalException(
-          null, String.format("Trying to update special read-only global variable '%s'", varname));
-    }
-    if (isKnownGlobalVariable(varname)) {
-      throw new EvalException(
-          null, String.format("Trying to update read-only global variable '%s'", varname));
+    checkUpdatable(varname);
+    if (localScope != null) {
+      int slot = localScope.getSlot(varname);
+      if (slot >= 0) {
+        locals[slot] = value;
+        return this;
+      }
     }
     try {
       currentFrame().put(this, varname, Preconditions.checkNotNull(value));
@@ -732,6 +784,37 @@ public final class Environment implements Freezable {
     return this;
   }
 
+  /**
+   * Binds a local variable of the function being evaluated, like {@link #update}. If the variable
+   * was resolved to a slot of the current local scope, its name isn't looked up.
+   *
+   * @param scope the scope that the variable was resolved against, or null if it wasn't
+   * @param slot the slot of the variable in {@code scope}
+   */
+  void updateLocal(@Nullable LocalScope scope, int slot, String varname, Object value)
+      throws EvalException {
+    if (scope == null || scope != localScope || slot < 0) {
+      update(varname, value);
+      return;
+    }
+    Preconditions.checkNotNull(value, "update(value == null)");
+    checkUpdatable(varname);
+    // The function's call already made sure that this Environment is mutable.
+    locals[slot] = value;
+  }
+
+  private void checkUpdatable(String varname) throws EvalException {
+    // prevents clashes between static and dynamic variables.
+    if (dynamicFrame.get(varname) != null) {
+      throw new EvalException(
+          null, String.format("Trying to update special read-only global variable '%s'", varname));
+    }
+    if (isKnownGlobalVariable(varname)) {
+      throw new EvalException(
+          null, String.format("Trying to update read-only global variable '%s'", varname));
+    }
+  }
+
   public boolean hasVariable(String varname) {
     return lookup(varname) != null;
   }
@@ -771,11 +854,42 @@ public final class Environment implements Freezable {
   public Object lookup(String varname) {
     // Lexical frame takes precedence, then globals, then dynamics.
     if (lexicalFrame != null) {
+      Object localValue = lookupLocal(varname);
+      if (localValue != null) {
+        return localValue;
+      }
       Object lexicalValue = lexicalFrame.get(varname);
       if (lexicalValue != null) {
         return lexicalValue;
       }
     }
+    return lookupGlobal(varname);
+  }
+
+  /**
+   * Returns the value of a variable in the function being evaluated, like {@link #lookup}. If
+   * {@code scope} is the current local scope, neither a local variable's name nor the lexical Frame
+   * are looked up.
+   *
+   * @param scope the scope of the function that the variable was resolved in, or null if it
+   *     wasn't
+   * @param slot the slot of the variable in {@code scope}, or -1 if it isn't local to it
+   */
+  Object lookup(@Nullable LocalScope scope, int slot, String varname) {
+    if (scope == null || scope != localScope) {
+      return lookup(varname);
+    }
+    if (slot >= 0) {
+      Object localValue = locals[slot];
+      if (localValue != null) {
+        return localValue;
+      }
+    }
+    // Only the variables of the scope are bound in this function.
+    return lookupGlobal(varname);
+  }
+
+  private Object lookupGlobal(String varname) {
     Object globalValue = globalFrame.get(varname);
     Object dynamicValue = dynamicFrame.get(varname);
     if (globalValue == null && dynamicValue == null) {
@@ -790,6 +904,15 @@ public final class Environment implements Freezable {
     return dynamicValue;
   }
 
+  @Nullable
+  private Object lookupLocal(String varname) {
+    if (localScope == null) {
+      return null;
+    }
+    int slot = localScope.getSlot(varname);
+    return slot >= 0 ? locals[slot] : null;
+  }
+
   /**
    * @return true if varname is a known global variable,
    * because it has been read in the context of the current function.
@@ -812,6 +935,13 @@ public final class Environment implements Freezable {
     if (lexicalFrame != null) {
       vars.addAll(lexicalFrame.getTransitiveBindings().keySet());
     }
+    if (localScope != null) {
+      for (int slot = 0; slot < locals.length; slot++) {
+        if (locals[slot] != null) {
+          vars.add(localScope.getName(slot));
+        }
+      }
+    }
     vars.addAll(globalFrame.getTransitiveBindings().keySet());
     vars.addAll(dynamicFrame.getTransitiveBindings().keySet());
     return vars;
@@ -22,6 +22,7 @@ import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
 import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.skylarkinterface.Param;
 import com.google.devtools.build.lib.skylarkinterface.SkylarkCallable;
@@ -32,7 +33,9 @@ import com.google.devtools.build.lib.syntax.Runtime.NoneType;
 import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.util.Preconditions;
 import com.google.devtools.build.lib.util.StringUtilities;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.Collections;
@@ -55,18 +58,78 @@ public final class FuncallExpression extends Expression {
    * This is needed because the annotation is sometimes in a superclass.
    */
   public static final class MethodDescriptor {
+    private static final MethodType INVOKER_TYPE =
+        MethodType.methodType(Object.class, Object.class, Object[].class);
+
     private final Method method;
     private final SkylarkCallable annotation;
+    // Takes the receiver (ignored for static methods) and the array of arguments, so that it can
+    // be called with invokeExact.
+    private final MethodHandle invoker;
+    // The types and default values of annotation.parameters(), which are the same for every call.
+    // A parameter without default value has a null entry.
+    private final SkylarkType[] parameterTypes;
+    private final Object[] defaultValues;
+    // Whether the classes of the arguments alone decide if a call matches this method. This is not
+    // the case if a parameter has a generic type, whose contents are checked as well.
+    private final boolean matchedByArgumentClasses;
 
     private MethodDescriptor(Method method, SkylarkCallable annotation) {
       this.method = method;
       this.annotation = annotation;
+      // This happens when the interface is public but the implementation classes
+      // have reduced visibility.
+      method.setAccessible(true);
+      this.invoker = createInvoker(method);
+      Param[] parameters = annotation.parameters();
+      this.parameterTypes = new SkylarkType[parameters.length];
+      this.defaultValues = new Object[parameters.length];
+      boolean matchedByArgumentClasses = true;
+      for (int i = 0; i < parameters.length; i++) {
+        Param param = parameters[i];
+        if (param.generic1() != Object.class) {
+          matchedByArgumentClasses = false;
+        }
+        SkylarkType type = getType(param);
+        if (param.noneable()) {
+          type = SkylarkType.Union.of(type, SkylarkType.NONE);
+        }
+        parameterTypes[i] = type;
+        if (!param.defaultValue().isEmpty()) {
+          defaultValues[i] = SkylarkSignatureProcessor.getDefaultValue(param, null);
+        }
+      }
+      this.matchedByArgumentClasses = matchedByArgumentClasses;
+    }
+
+    private static MethodHandle createInvoker(Method method) {
+      MethodHandle handle;
+      try {
+        handle = MethodHandles.lookup().unreflect(method).asFixedArity();
+      } catch (IllegalAccessException e) {
+        // Can't happen, the method was made accessible.
+        throw new IllegalStateException(e);
+      }
+      if (Modifier.isStatic(method.getModifiers())) {
+        handle = MethodHandles.dropArguments(handle, 0, Object.class);
+      }
+      return handle
+          .asSpreader(Object[].class, method.getParameterTypes().length)
+          .asType(INVOKER_TYPE);
     }
 
     Method getMethod() {
       return method;
     }
 
+    /**
+     * Calls the method. Unlike {@link Method#invoke}, exceptions thrown by the method are not
+     * wrapped.
+     */
+    Object invoke(@Nullable Object obj, Object[] args) throws Throwable {
+      return (Object) invoker.invokeExact(obj, args);
+    }
+
     /**
      * Returns the SkylarkCallable annotation corresponding to this method.
      */
@@ -184,6 +247,83 @@ public final class FuncallExpression extends Expression {
     }
   }
 
+  /** The Skylark callable methods with a given name of a receiver class. */
+  @Immutable
+  private static final class ReceiverMethods {
+    private final Class<?> objClass;
+    private final String methodName;
+    @Nullable private final List<MethodDescriptor> methods;
+
+    private ReceiverMethods(
+        Class<?> objClass, String methodName, @Nullable List<MethodDescriptor> methods) {
+      this.objClass = objClass;
+      this.methodName = methodName;
+      this.methods = methods;
+    }
+  }
+
+  /**
+   * The method that a call resolved to, with the receiver class, the classes of the arguments and
+   * the names of the keyword arguments that the resolution depended on.
+   */
+  @Immutable
+  private static final class ResolvedMethod {
+    private final Class<?> objClass;
+    private final String methodName;
+    private final Class<?>[] argClasses;
+    private final String[] kwargNames;
+    private final Class<?>[] kwargClasses;
+    private final MethodDescriptor method;
+
+    private ResolvedMethod(
+        Class<?> objClass,
+        String methodName,
+        List<Object> args,
+        Map<String, Object> kwargs,
+        MethodDescriptor method) {
+      this.objClass = objClass;
+      this.methodName = methodName;
+      this.argClasses = new Class<?>[args.size()];
+      for (int i = 0; i < argClasses.length; i++) {
+        argClasses[i] = args.get(i).getClass();
+      }
+      this.kwargNames = new String[kwargs.size()];
+      this.kwargClasses = new Class<?>[kwargs.size()];
+      int i = 0;
+      for (Map.Entry<String, Object> kwarg : kwargs.entrySet()) {
+        kwargNames[i] = kwarg.getKey();
+        kwargClasses[i] = kwarg.getValue().getClass();
+        i++;
+      }
+      this.method = method;
+    }
+
+    /** Returns whether a call with the given arguments resolves to the same method. */
+    private boolean appliesTo(
+        Class<?> objClass, String methodName, List<Object> args, Map<String, Object> kwargs) {
+      if (this.objClass != objClass
+          || !this.methodName.equals(methodName)
+          || argClasses.length != args.size()
+          || kwargNames.length != kwargs.size()) {
+        return false;
+      }
+      for (int i = 0; i < argClasses.length; i++) {
+        if (args.get(i).getClass() != argClasses[i]) {
+          return false;
+        }
+      }
+      int i = 0;
+      for (Map.Entry<String, Object> kwarg : kwargs.entrySet()) {
+        if (!kwargNames[i].equals(kwarg.getKey())
+            || kwargClasses[i] != kwarg.getValue().getClass()) {
+          return false;
+        }
+        i++;
+      }
+      return true;
+    }
+  }
+
   @Nullable private final Expression obj;
 
   private final Identifier func;
@@ -192,6 +332,16 @@ public final class FuncallExpression extends Expression {
 
   private final int numPositionalArgs;
 
+  // The Java methods found for the last receiver class this call was made on. Most call sites
+  // only ever see one receiver class, and for them this saves looking the methods up in
+  // methodCache on each call.
+  @Nullable private transient volatile ReceiverMethods receiverMethods;
+
+  // The method that the last call from here resolved to, if the classes of its receiver and
+  // arguments decided that. Calls with the same classes only need to convert their arguments for
+  // that method instead of trying every overload.
+  @Nullable private transient volatile ResolvedMethod resolvedMethod;
+
   public FuncallExpression(@Nullable Expression obj, Identifier func,
                            List<Argument.Passed> args) {
     this.obj = obj;
@@ -288,52 +438,46 @@ public final class FuncallExpression extends Expression {
 
   static Object callMethod(MethodDescriptor methodDescriptor, String methodName, Object obj,
       Object[] args, Location loc, Environment env) throws EvalException {
-    try {
-      Method method = methodDescriptor.getMethod();
-      if (obj == null && !Modifier.isStatic(method.getModifiers())) {
-        throw new EvalException(loc, "method '" + methodName + "' is not static");
-      }
-      // This happens when the interface is public but the implementation classes
-      // have reduced visibility.
-      method.setAccessible(true);
-      Object result = method.invoke(obj, args);
-      if (method.getReturnType().equals(Void.TYPE)) {
+    Method method = methodDescriptor.getMethod();
+    if (obj == null && !Modifier.isStatic(method.getModifiers())) {
+      throw new EvalException(loc, "method '" + methodName + "' is not static");
+    }
+    Object result = invokeJavaMethod(methodDescriptor, obj, args, loc);
+    if (method.getReturnType().equals(Void.TYPE)) {
+      return Runtime.NONE;
+    }
+    if (result == null) {
+      if (methodDescriptor.getAnnotation().allowReturnNones()) {
         return Runtime.NONE;
-      }
-      if (result == null) {
-        if (methodDescriptor.getAnnotation().allowReturnNones()) {
-          return Runtime.NONE;
-        } else {
-          throw new EvalException(
-              loc,
-              "method invocation returned None, please file a bug report: "
-                  + methodName
-                  + Printer.listString(ImmutableList.copyOf(args), "(", ", ", ")", null));
-        }
-      }
-      // TODO(bazel-team): get rid of this, by having everyone use the Skylark data structures
-      result = SkylarkType.convertToSkylark(result, method, env);
-      if (result != null && !EvalUtils.isSkylarkAcceptable(result.getClass())) {
+      } else {
         throw new EvalException(
             loc,
-            Printer.format(
-                "method '%s' returns an object of invalid type %r", methodName, result.getClass()));
-      }
-      return result;
-    } catch (IllegalAccessException e) {
-      // TODO(bazel-team): Print a nice error message. Maybe the method exists
-      // and an argument is missing or has the wrong type.
-      throw new EvalException(loc, "Method invocation failed: " + e);
-    } catch (InvocationTargetException e) {
-      if (e.getCause() instanceof FuncallException) {
-        throw new EvalException(loc, e.getCause().getMessage());
-      } else if (e.getCause() != null) {
-        throw new EvalExceptionWithJavaCause(loc, e.getCause());
-      } else {
-        // This is unlikely to happen
-        throw new EvalException(loc, "method invocation failed: " + e);
+            "method invocation returned None, please file a bug report: "
+                + methodName
+                + Printer.listString(ImmutableList.copyOf(args), "(", ", ", ")", null));
       }
     }
+    // TODO(bazel-team): get rid of this, by having everyone use the Skylark data structures
+    result = SkylarkType.convertToSkylark(result, method, env);
+    if (result != null && !EvalUtils.isSkylarkAcceptable(result.getClass())) {
+      throw new EvalException(
+          loc,
+          Printer.format(
+              "method '%s' returns an object of invalid type %r", methodName, result.getClass()));
+    }
+    return result;
+  }
+
+  private static Object invokeJavaMethod(
+      MethodDescriptor methodDescriptor, @Nullable Object obj, Object[] args, Location loc)
+      throws EvalException {
+    try {
+      return methodDescriptor.invoke(obj, args);
+    } catch (FuncallException e) {
+      throw new EvalException(loc, e.getMessage());
+    } catch (Throwable e) {
+      throw new EvalExceptionWithJavaCause(loc, e);
+    }
   }
 
   // TODO(bazel-team): If there's exactly one usable method, this works. If there are multiple
@@ -343,14 +487,23 @@ public final class FuncallExpression extends Expression {
   private Pair<MethodDescriptor, List<Object>> findJavaMethod(
       Class<?> objClass, String methodName, List<Object> args, Map<String, Object> kwargs)
       throws EvalException {
+    ResolvedMethod resolved = resolvedMethod;
+    if (resolved != null && resolved.appliesTo(objClass, methodName, args, kwargs)) {
+      List<Object> arguments = convertArgumentList(args, kwargs, resolved.method).getArguments();
+      if (arguments != null) {
+        return new Pair<>(resolved.method, arguments);
+      }
+    }
     Pair<MethodDescriptor, List<Object>> matchingMethod = null;
-    List<MethodDescriptor> methods = getMethods(objClass, methodName);
+    List<MethodDescriptor> methods = getReceiverMethods(objClass, methodName);
+    boolean matchedByArgumentClasses = true;
     ArgumentListConversionResult argumentListConversionResult = null;
     if (methods != null) {
       for (MethodDescriptor method : methods) {
         if (method.getAnnotation().structField()) {
           return new Pair<>(method, null);
         } else {
+          matchedByArgumentClasses &= method.matchedByArgumentClasses;
           argumentListConversionResult = convertArgumentList(args, kwargs, method);
           if (argumentListConversionResult.getArguments() != null) {
             if (matchingMethod == null) {
@@ -389,9 +542,24 @@ public final class FuncallExpression extends Expression {
       }
       throw new EvalException(getLocation(), errorMessage);
     }
+    if (matchedByArgumentClasses) {
+      resolvedMethod =
+          new ResolvedMethod(objClass, methodName, args, kwargs, matchingMethod.first);
+    }
     return matchingMethod;
   }
 
+  @Nullable
+  private List<MethodDescriptor> getReceiverMethods(Class<?> objClass, String methodName) {
+    ReceiverMethods cached = receiverMethods;
+    if (cached != null && cached.objClass == objClass && cached.methodName.equals(methodName)) {
+      return cached.methods;
+    }
+    List<MethodDescriptor> methods = getMethods(objClass, methodName);
+    receiverMethods = new ReceiverMethods(objClass, methodName, methods);
+    return methods;
+  }
+
   private static SkylarkType getType(Param param) {
     SkylarkType type =
         param.generic1() != Object.class
@@ -443,11 +611,10 @@ public final class FuncallExpression extends Expression {
 
     // Then the parameters specified in callable.parameters()
     Set<String> keys = new HashSet<>(kwargs.keySet());
-    for (Param param : callable.parameters()) {
-      SkylarkType type = getType(param);
-      if (param.noneable()) {
-        type = SkylarkType.Union.of(type, SkylarkType.NONE);
-      }
+    Param[] parameters = callable.parameters();
+    for (int p = 0; p < parameters.length; p++) {
+      Param param = parameters[p];
+      SkylarkType type = method.parameterTypes[p];
       Object value = null;
       if (i < args.size()) {
         value = args.get(i);
@@ -470,11 +637,11 @@ public final class FuncallExpression extends Expression {
         }
       } else {
         // Use default value
-        if (param.defaultValue().isEmpty()) {
+        value = method.defaultValues[p];
+        if (value == null) {
           return ArgumentListConversionResult.fromError(
               String.format("parameter '%s' has no default value", param.name()));
         }
-        value = SkylarkSignatureProcessor.getDefaultValue(param, null);
       }
       builder.add(value);
       if (!param.noneable() && value instanceof NoneType) {
@@ -643,20 +810,8 @@ public final class FuncallExpression extends Expression {
           call.findJavaMethod(objClass, method, positionalArgs, keyWordArgs);
       if (javaMethod.first.getAnnotation().structField()) {
         // Not a method but a callable attribute
-        try {
-          return callFunction(javaMethod.first.getMethod().invoke(obj), env);
-        } catch (IllegalAccessException e) {
-          throw new EvalException(getLocation(), "method invocation failed: " + e);
-        } catch (InvocationTargetException e) {
-          if (e.getCause() instanceof FuncallException) {
-            throw new EvalException(getLocation(), e.getCause().getMessage());
-          } else if (e.getCause() != null) {
-            throw new EvalExceptionWithJavaCause(getLocation(), e.getCause());
-          } else {
-            // This is unlikely to happen
-            throw new EvalException(getLocation(), "method invocation failed: " + e);
-          }
-        }
+        return callFunction(
+            invokeJavaMethod(javaMethod.first, obj, new Object[0], getLocation()), env);
       }
       return callMethod(javaMethod.first, method, obj, javaMethod.second.toArray(), location, env);
     }
@@ -16,6 +16,7 @@ package com.google.devtools.build.lib.syntax;
 import com.google.common.collect.ImmutableList;
 import java.util.ArrayList;
 import java.util.List;
+import javax.annotation.Nullable;
 
 /**
  * Syntax node for a function definition.
@@ -26,6 +27,8 @@ public final class FunctionDefStatement extends Statement {
   private final FunctionSignature.WithValues<Expression, Expression> signature;
   private final ImmutableList<Statement> statements;
   private final ImmutableList<Parameter<Expression, Expression>> parameters;
+  // The local variables of the function, once it was validated.
+  @Nullable private LocalScope localScope;
 
   public FunctionDefStatement(Identifier ident,
       Iterable<Parameter<Expression, Expression>> parameters,
@@ -59,13 +62,18 @@ public final class FunctionDefStatement extends Statement {
               + "error using the flag --incompatible_disallow_keyword_only_args=false");
     }
 
+    int compilationThreshold = env.getSemantics().experimentalSkylarkCompilationThreshold;
     env.update(
         ident.getName(),
         new UserDefinedFunction(
             ident,
             FunctionSignature.WithValues.<Object, SkylarkType>create(sig, defaultValues, types),
             statements,
-            env.getGlobals()));
+            env.getGlobals(),
+            localScope,
+            compilationThreshold >= 0
+                ? new SkylarkCompiler(ident.getName(), statements, compilationThreshold)
+                : null));
   }
 
   @Override
@@ -124,5 +132,6 @@ public final class FunctionDefStatement extends Statement {
     for (Statement stmts : statements) {
       stmts.validate(localEnv);
     }
+    localScope = localEnv.resolveLocalVariables(statements);
   }
 }
@@ -22,9 +22,8 @@ import javax.annotation.Nullable;
 // (1) intern the strings, so we can use == to compare, and have .equals use the assumption.
 // Then have Argument and Parameter use Identifier again instead of String as keys.
 // (2) Use Identifier, not String, as keys in the Environment, which will be cleaner.
-// (3) For performance, avoid doing HashMap lookups at runtime, and compile local variable access
-// into array reference with a constant index. Variable lookups are currently a speed bottleneck,
-// as previously measured in an experiment.
+// (3) Also compile global variable access into array references with a constant index. Only the
+// local variables of validated functions are resolved to slots so far, see LocalScope.
 /**
  * Syntax node for an identifier.
  *
@@ -36,6 +35,11 @@ public final class Identifier extends Expression {
 
   private final String name;
 
+  // If this identifier is in the body of a function, the function's scope and the slot of the
+  // variable in it, or -1 for a global variable. Set when the function is validated.
+  @Nullable private LocalScope scope;
+  private int slot = -1;
+
   public Identifier(String name) {
     this.name = name;
   }
@@ -70,9 +74,23 @@ public final class Identifier extends Expression {
     return name.hashCode();
   }
 
+  /**
+   * Resolves this identifier to the given slot of the local variables of a function, or to a
+   * global variable if the slot is -1.
+   */
+  void resolve(LocalScope scope, int slot) {
+    this.scope = scope;
+    this.slot = slot;
+  }
+
+  /** Binds the variable that this identifier refers to. */
+  void assign(Environment env, Object value) throws EvalException {
+    env.updateLocal(scope, slot, name, value);
+  }
+
   @Override
   Object doEval(Environment env) throws EvalException {
-    Object value = env.lookup(name);
+    Object value = env.lookup(scope, slot, name);
     if (value == null) {
       throw createInvalidIdentifierException(env.getVariableNames());
     }
@@ -177,7 +177,7 @@ public class LValue extends ASTNode {
                   + "The variable is defined in the global scope.",
               ident.getName()));
     }
-    env.update(ident.getName(), result);
+    ident.assign(env, result);
   }
 
   @Override
@@ -14,7 +14,6 @@
 
 package com.google.devtools.build.lib.syntax;
 
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
@@ -24,6 +23,7 @@ import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.util.Pair;
+import com.google.devtools.build.lib.util.StringCanonicalizer;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import java.util.HashMap;
 import java.util.List;
@@ -42,21 +42,6 @@ import java.util.Stack;
  */
 public final class Lexer {
 
-  // Characters that can come immediately prior to an '=' character to generate
-  // a different token
-  private static final ImmutableMap<Character, TokenKind> EQUAL_TOKENS =
-      ImmutableMap.<Character, TokenKind>builder()
-          .put('=', TokenKind.EQUALS_EQUALS)
-          .put('!', TokenKind.NOT_EQUALS)
-          .put('>', TokenKind.GREATER_EQUALS)
-          .put('<', TokenKind.LESS_EQUALS)
-          .put('+', TokenKind.PLUS_EQUALS)
-          .put('-', TokenKind.MINUS_EQUALS)
-          .put('*', TokenKind.STAR_EQUALS)
-          .put('/', TokenKind.SLASH_EQUALS)
-          .put('%', TokenKind.PERCENT_EQUALS)
-          .build();
-
   private final EventHandler eventHandler;
 
   // Input buffer and position
@@ -92,6 +77,14 @@ public final class Lexer {
 
   private boolean containsErrors;
 
+  /**
+   * The identifiers and simple string literals of this file, so that the String for a repeated
+   * one (such as "name", "srcs" or a label) is only created once, and interned in the shared
+   * {@link StringCanonicalizer}. An open-addressing hash table whose length is a power of two.
+   */
+  private String[] symbols = new String[256];
+  private int symbolCount = 0;
+
   /**
    * Constructs a lexer which tokenizes the contents of the specified InputBuffer. Any errors during
    * lexing are reported on "handler".
@@ -483,7 +476,7 @@ public final class Lexer {
         case '"':
           if (c == quot) {
             // close-quote, all done.
-            return new Token(TokenKind.STRING, oldPos, pos, bufferSlice(oldPos + 1, pos - 1));
+            return new Token(TokenKind.STRING, oldPos, pos, symbol(oldPos + 1, pos - 1));
           }
           break;
         default: // fall out
@@ -546,15 +539,15 @@ public final class Lexer {
    */
   private Token identifierOrKeyword() {
     int oldPos = pos - 1;
-    String id = scanIdentifier();
+    scanIdentifier();
+    String id = symbol(oldPos, pos);
     TokenKind kind = keywordMap.get(id);
     return (kind == null)
         ? new Token(TokenKind.IDENTIFIER, oldPos, pos, id)
         : new Token(kind, oldPos, pos, null);
   }
 
-  private String scanIdentifier() {
-    int oldPos = pos - 1;
+  private void scanIdentifier() {
     while (pos < buffer.length) {
       switch (buffer[pos]) {
         case '_':
@@ -572,15 +565,13 @@ public final class Lexer {
         case '6': case '7': case '8': case '9':
           pos++;
           break;
-       default:
-          return bufferSlice(oldPos, pos);
+        default:
+          return;
       }
     }
-    return bufferSlice(oldPos, pos);
   }
 
-  private String scanInteger() {
-    int oldPos = pos - 1;
+  private void scanInteger() {
     while (pos < buffer.length) {
       char c = buffer[pos];
       switch (c) {
@@ -599,14 +590,12 @@ public final class Lexer {
           pos++;
           break;
         default:
-          return bufferSlice(oldPos, pos);
+          return;
       }
     }
     // TODO(bazel-team): (2009) to do roundtripping when we evaluate the integer
     // constants, we must save the actual text of the tokens, not just their
     // integer value.
-
-    return bufferSlice(oldPos, pos);
   }
 
   /**
@@ -619,29 +608,36 @@ public final class Lexer {
    */
   private Token integer() {
     int oldPos = pos - 1;
-    String literal = scanInteger();
+    scanInteger();
 
-    final String substring;
+    // The digits are converted directly from the buffer, with the same result as
+    // Integer.parseInt, to avoid creating a String for every literal.
+    int start = oldPos;
     final int radix;
-    if (literal.startsWith("0x") || literal.startsWith("0X")) {
+    if (pos - oldPos > 1 && buffer[oldPos] == '0'
+        && (buffer[oldPos + 1] == 'x' || buffer[oldPos + 1] == 'X')) {
       radix = 16;
-      substring = literal.substring(2);
-    } else if (literal.startsWith("0") && literal.length() > 1) {
+      start += 2;
+    } else if (pos - oldPos > 1 && buffer[oldPos] == '0') {
       radix = 8;
-      substring = literal.substring(1);
+      start += 1;
     } else {
       radix = 10;
-      substring = literal;
     }
 
-    int value = 0;
-    try {
-      value = Integer.parseInt(substring, radix);
-    } catch (NumberFormatException e) {
-      error("invalid base-" + radix + " integer constant: " + literal);
+    long value = 0;
+    boolean valid = start < pos;
+    for (int i = start; valid && i < pos; i++) {
+      int digit = Character.digit(buffer[i], radix);
+      value = value * radix + digit;
+      valid = digit >= 0 && value <= Integer.MAX_VALUE;
+    }
+    if (!valid) {
+      error("invalid base-" + radix + " integer constant: " + bufferSlice(oldPos, pos));
+      value = 0;
     }
 
-    return new Token(TokenKind.INT, oldPos, pos, value);
+    return new Token(TokenKind.INT, oldPos, pos, (int) value);
   }
 
   /**
@@ -656,7 +652,7 @@ public final class Lexer {
     char c2 = buffer[pos + 1];
     TokenKind tok = null;
     if (c2 == '=') {
-      tok = EQUAL_TOKENS.get(c1);
+      tok = equalToken(c1);
     } else if (c2 == '*' && c1 == '*') {
       tok = TokenKind.STAR_STAR;
     }
@@ -668,6 +664,25 @@ public final class Lexer {
     }
   }
 
+  /**
+   * Returns the kind of the token made of the given character immediately followed by an '='
+   * character, or null if that is not a single token.
+   */
+  private static TokenKind equalToken(char c) {
+    switch (c) {
+      case '=': return TokenKind.EQUALS_EQUALS;
+      case '!': return TokenKind.NOT_EQUALS;
+      case '>': return TokenKind.GREATER_EQUALS;
+      case '<': return TokenKind.LESS_EQUALS;
+      case '+': return TokenKind.PLUS_EQUALS;
+      case '-': return TokenKind.MINUS_EQUALS;
+      case '*': return TokenKind.STAR_EQUALS;
+      case '/': return TokenKind.SLASH_EQUALS;
+      case '%': return TokenKind.PERCENT_EQUALS;
+      default: return null;
+    }
+  }
+
   /** Test if the character at pos+p is c. */
   private boolean lookaheadIs(int p, char c) {
     return pos + p < buffer.length && buffer[pos + p] == c;
@@ -876,4 +891,58 @@ public final class Lexer {
     return new String(this.buffer, start, end - start);
   }
 
+  /**
+   * Returns the same string as {@link #bufferSlice}, but only creates it the first time the
+   * slice occurs in the file. The result is interned.
+   */
+  private String symbol(int start, int end) {
+    // Same hash function as String.hashCode, so that the hashes of the strings in the table are
+    // cached by the strings themselves.
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + buffer[i];
+    }
+    int mask = symbols.length - 1;
+    int i = hash & mask;
+    for (String symbol = symbols[i]; symbol != null; symbol = symbols[i]) {
+      if (symbol.hashCode() == hash && sliceEquals(symbol, start, end)) {
+        return symbol;
+      }
+      i = (i + 1) & mask;
+    }
+    String symbol = StringCanonicalizer.intern(bufferSlice(start, end));
+    symbols[i] = symbol;
+    if (++symbolCount * 2 > symbols.length) {
+      resizeSymbols();
+    }
+    return symbol;
+  }
+
+  private boolean sliceEquals(String symbol, int start, int end) {
+    if (symbol.length() != end - start) {
+      return false;
+    }
+    for (int i = start; i < end; i++) {
+      if (symbol.charAt(i - start) != buffer[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void resizeSymbols() {
+    String[] oldSymbols = symbols;
+    symbols = new String[oldSymbols.length * 2];
+    int mask = symbols.length - 1;
+    for (String symbol : oldSymbols) {
+      if (symbol != null) {
+        int i = symbol.hashCode() & mask;
+        while (symbols[i] != null) {
+          i = (i + 1) & mask;
+        }
+        symbols[i] = symbol;
+      }
+    }
+  }
+
 }
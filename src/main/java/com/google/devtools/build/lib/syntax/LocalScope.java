@@ -0,0 +1,64 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
+import java.io.Serializable;
+
+/**
+ * The local variables of a user-defined function, as found by validating its body. Each local
+ * variable has a slot, and each call of the function stores the values of the variables in an
+ * array indexed by slot, so that the {@link Identifier}s of the body that were resolved to a slot
+ * can be evaluated without looking up their names.
+ *
+ * <p>Scopes are compared by identity: an identifier's slot is only used while the scope it was
+ * resolved against is the current one.
+ */
+@Immutable
+final class LocalScope implements Serializable {
+  private final ImmutableList<String> names;
+  private final ImmutableMap<String, Integer> slots;
+
+  LocalScope(Iterable<String> names) {
+    this.names = ImmutableList.copyOf(names);
+    ImmutableMap.Builder<String, Integer> slots = ImmutableMap.builder();
+    for (int i = 0; i < this.names.size(); i++) {
+      slots.put(this.names.get(i), i);
+    }
+    this.slots = slots.build();
+  }
+
+  /** Returns the number of local variables. */
+  int size() {
+    return names.size();
+  }
+
+  /** Returns the name of the variable in the given slot. */
+  String getName(int slot) {
+    return names.get(slot);
+  }
+
+  /** Returns the slot of the given variable, or -1 if it isn't local to this scope. */
+  int getSlot(String name) {
+    Integer slot = slots.get(name);
+    return slot == null ? -1 : slot;
+  }
+
+  @Override
+  public String toString() {
+    return "LocalScope" + names;
+  }
+}
@@ -0,0 +1,452 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.syntax.IfStatement.ConditionalStatements;
+import com.google.devtools.build.lib.util.Preconditions;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Compiles the body of a {@link UserDefinedFunction} to JVM bytecode once the function was called
+ * often enough.
+ *
+ * <p>The control flow of the body (if, for, break, continue and return) and the operators are
+ * compiled, so that executing it doesn't walk the statements and expressions, and doesn't throw
+ * exceptions to leave loops or the function. All other statements and expressions, such as
+ * function calls, are still evaluated by the interpreter. The values of variables are kept in the
+ * {@link Environment} either way, so that the interpreted nodes can read them.
+ */
+@ThreadSafe
+final class SkylarkCompiler {
+  private static final String PACKAGE = "com/google/devtools/build/lib/syntax/compiled/";
+  private static final String SUPER_NAME = Type.getInternalName(CompiledFunctionBody.class);
+  private static final String OBJECT = Type.getInternalName(Object.class);
+  private static final String ENVIRONMENT = Type.getDescriptor(Environment.class);
+  private static final String RUN_DESCRIPTOR = "(" + ENVIRONMENT + ")Ljava/lang/Object;";
+  private static final String[] RUN_EXCEPTIONS = {
+    Type.getInternalName(EvalException.class), Type.getInternalName(InterruptedException.class)
+  };
+
+  // Used to give each generated class a name of its own.
+  private static final AtomicLong classCounter = new AtomicLong();
+
+  private final String functionName;
+  private final ImmutableList<Statement> statements;
+  private final int threshold;
+  private final AtomicInteger calls = new AtomicInteger();
+  @Nullable private volatile CompiledFunctionBody compiledBody;
+
+  /**
+   * @param threshold how many calls of the function are interpreted before its body is compiled
+   */
+  SkylarkCompiler(String functionName, ImmutableList<Statement> statements, int threshold) {
+    Preconditions.checkArgument(threshold >= 0);
+    this.functionName = functionName;
+    this.statements = statements;
+    this.threshold = threshold;
+  }
+
+  /**
+   * Records a call of the function and returns its compiled body, or null if the body should still
+   * be interpreted. The body is compiled by the call that reaches the threshold; calls made while
+   * it's compiled are interpreted.
+   */
+  @Nullable
+  CompiledFunctionBody getCompiledBody() {
+    CompiledFunctionBody body = compiledBody;
+    if (body == null && calls.getAndIncrement() == threshold) {
+      body = compile(functionName, statements);
+      compiledBody = body;
+    }
+    return body;
+  }
+
+  /**
+   * Compiles the body of a function, or returns null if it can't be compiled because the generated
+   * method would be too large.
+   */
+  @VisibleForTesting
+  @Nullable
+  static CompiledFunctionBody compile(String functionName, ImmutableList<Statement> statements) {
+    String className = PACKAGE + mangle(functionName) + "$" + classCounter.incrementAndGet();
+    ClassWriter classWriter =
+        new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+          @Override
+          protected String getCommonSuperClass(String type1, String type2) {
+            // Values are only ever used as Objects, and the generated class can't be loaded yet.
+            return OBJECT;
+          }
+        };
+    classWriter.visit(
+        Opcodes.V1_8,
+        Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER,
+        className,
+        null,
+        SUPER_NAME,
+        null);
+
+    MethodVisitor constructor =
+        classWriter.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "([Ljava/lang/Object;)V", null, null);
+    constructor.visitCode();
+    constructor.visitVarInsn(Opcodes.ALOAD, 0);
+    constructor.visitVarInsn(Opcodes.ALOAD, 1);
+    constructor.visitMethodInsn(
+        Opcodes.INVOKESPECIAL, SUPER_NAME, "<init>", "([Ljava/lang/Object;)V", false);
+    constructor.visitInsn(Opcodes.RETURN);
+    constructor.visitMaxs(0, 0);
+    constructor.visitEnd();
+
+    MethodVisitor run =
+        classWriter.visitMethod(
+            Opcodes.ACC_PROTECTED, "run", RUN_DESCRIPTOR, null, RUN_EXCEPTIONS);
+    run.visitCode();
+    BodyGenerator generator = new BodyGenerator(run);
+    generator.statements(statements);
+    generator.returnNone();
+    run.visitMaxs(0, 0);
+    run.visitEnd();
+    classWriter.visitEnd();
+
+    byte[] bytecode;
+    try {
+      bytecode = classWriter.toByteArray();
+    } catch (RuntimeException e) {
+      // ASM refuses to generate methods with more than 64k of bytecode.
+      return null;
+    }
+    Class<?> bodyClass = new BodyClassLoader().define(className.replace('/', '.'), bytecode);
+    try {
+      return (CompiledFunctionBody)
+          bodyClass
+              .getConstructor(Object[].class)
+              .newInstance(new Object[] {generator.nodes.toArray()});
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Can't instantiate compiled body of " + functionName, e);
+    }
+  }
+
+  /** Turns a function name into a valid class name. */
+  private static String mangle(String functionName) {
+    StringBuilder result = new StringBuilder(functionName.length());
+    for (int i = 0; i < functionName.length(); i++) {
+      char c = functionName.charAt(i);
+      result.append(Character.isJavaIdentifierPart(c) ? c : '_');
+    }
+    return result.toString();
+  }
+
+  /**
+   * Defines a single generated class, so that it can be unloaded together with the function it
+   * belongs to.
+   */
+  private static final class BodyClassLoader extends ClassLoader {
+    BodyClassLoader() {
+      super(CompiledFunctionBody.class.getClassLoader());
+    }
+
+    Class<?> define(String name, byte[] bytecode) {
+      return defineClass(name, bytecode, 0, bytecode.length);
+    }
+  }
+
+  /** A for loop that encloses the code being generated. */
+  private static final class Loop {
+    private final int statement;
+    // The local variable that holds the collection, to unlock it when the loop is left.
+    private final int collectionVariable;
+    private final Label next;
+    private final Label end;
+
+    private Loop(int statement, int collectionVariable, Label next, Label end) {
+      this.statement = statement;
+      this.collectionVariable = collectionVariable;
+      this.next = next;
+      this.end = end;
+    }
+  }
+
+  /**
+   * Generates the code of the run method. Nodes that the code refers to are collected in {@link
+   * #nodes}; the generated class receives them in its constructor.
+   */
+  private static final class BodyGenerator {
+    private static final int THIS = 0;
+    private static final int ENV = 1;
+
+    private final MethodVisitor mv;
+    private final List<ASTNode> nodes = new ArrayList<>();
+    private final Deque<Loop> loops = new ArrayDeque<>();
+    private int nextVariable = ENV + 1;
+
+    private BodyGenerator(MethodVisitor mv) {
+      this.mv = mv;
+    }
+
+    private int addNode(ASTNode node) {
+      nodes.add(node);
+      return nodes.size() - 1;
+    }
+
+    private void pushInt(int value) {
+      if (value >= -1 && value <= 5) {
+        mv.visitInsn(Opcodes.ICONST_0 + value);
+      } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+        mv.visitIntInsn(Opcodes.BIPUSH, value);
+      } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+        mv.visitIntInsn(Opcodes.SIPUSH, value);
+      } else {
+        mv.visitLdcInsn(value);
+      }
+    }
+
+    /** Pushes this and the index of the node, the first arguments of most helper methods. */
+    private void pushNode(ASTNode node) {
+      mv.visitVarInsn(Opcodes.ALOAD, THIS);
+      pushInt(addNode(node));
+    }
+
+    private void invokeHelper(String name, String descriptor) {
+      mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, SUPER_NAME, name, descriptor, false);
+    }
+
+    private void returnNone() {
+      mv.visitFieldInsn(
+          Opcodes.GETSTATIC,
+          Type.getInternalName(Runtime.class),
+          "NONE",
+          Type.getDescriptor(Runtime.NoneType.class));
+      mv.visitInsn(Opcodes.ARETURN);
+    }
+
+    private void statements(List<Statement> statements) {
+      for (Statement statement : statements) {
+        statement(statement);
+      }
+    }
+
+    private void statement(Statement statement) {
+      if (statement instanceof ExpressionStatement) {
+        expression(((ExpressionStatement) statement).getExpression());
+        mv.visitInsn(Opcodes.POP);
+      } else if (statement instanceof AssignmentStatement) {
+        pushNode(statement);
+        mv.visitVarInsn(Opcodes.ALOAD, ENV);
+        expression(((AssignmentStatement) statement).getExpression());
+        invokeHelper("assign", "(I" + ENVIRONMENT + "Ljava/lang/Object;)V");
+      } else if (statement instanceof IfStatement) {
+        ifStatement((IfStatement) statement);
+      } else if (statement instanceof ForStatement) {
+        forStatement((ForStatement) statement);
+      } else if (statement instanceof ReturnStatement) {
+        returnStatement((ReturnStatement) statement);
+      } else if (statement instanceof FlowStatement && !loops.isEmpty()) {
+        Loop loop = loops.peek();
+        if (((FlowStatement) statement).getKind() == FlowStatement.Kind.BREAK) {
+          mv.visitJumpInsn(Opcodes.GOTO, loop.end);
+        } else {
+          mv.visitJumpInsn(Opcodes.GOTO, loop.next);
+        }
+      } else {
+        pushNode(statement);
+        mv.visitVarInsn(Opcodes.ALOAD, ENV);
+        invokeHelper("execStatement", "(I" + ENVIRONMENT + ")V");
+      }
+    }
+
+    private void ifStatement(IfStatement statement) {
+      Label end = new Label();
+      for (ConditionalStatements block : statement.getThenBlocks()) {
+        Label next = new Label();
+        condition(block.getCondition(), next);
+        statements(block.getStmts());
+        mv.visitJumpInsn(Opcodes.GOTO, end);
+        mv.visitLabel(next);
+      }
+      statements(statement.getElseBlock());
+      mv.visitLabel(end);
+    }
+
+    /**
+     * Generates code that evaluates a for loop like {@link ForStatement#doExec}. The collection is
+     * unlocked when the loop ends, is left by break or return, or when an exception is thrown.
+     */
+    private void forStatement(ForStatement statement) {
+      int collectionVariable = nextVariable++;
+      int iteratorVariable = nextVariable++;
+      Label start = new Label();
+      Label next = new Label();
+      Label end = new Label();
+      Label handler = new Label();
+      Label after = new Label();
+
+      expression(statement.getCollection());
+      mv.visitVarInsn(Opcodes.ASTORE, collectionVariable);
+      int node = addNode(statement);
+      mv.visitVarInsn(Opcodes.ALOAD, THIS);
+      pushInt(node);
+      mv.visitVarInsn(Opcodes.ALOAD, collectionVariable);
+      invokeHelper("startLoop", "(ILjava/lang/Object;)Ljava/util/Iterator;");
+      mv.visitVarInsn(Opcodes.ASTORE, iteratorVariable);
+
+      mv.visitLabel(start);
+      mv.visitLabel(next);
+      mv.visitVarInsn(Opcodes.ALOAD, iteratorVariable);
+      mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/util/Iterator", "hasNext", "()Z", true);
+      mv.visitJumpInsn(Opcodes.IFEQ, end);
+      mv.visitVarInsn(Opcodes.ALOAD, THIS);
+      pushInt(node);
+      mv.visitVarInsn(Opcodes.ALOAD, ENV);
+      mv.visitVarInsn(Opcodes.ALOAD, iteratorVariable);
+      mv.visitMethodInsn(
+          Opcodes.INVOKEINTERFACE, "java/util/Iterator", "next", "()Ljava/lang/Object;", true);
+      invokeHelper("assign", "(I" + ENVIRONMENT + "Ljava/lang/Object;)V");
+      loops.push(new Loop(node, collectionVariable, next, end));
+      statements(statement.block());
+      loops.pop();
+      mv.visitJumpInsn(Opcodes.GOTO, next);
+
+      mv.visitLabel(end);
+      endLoop(node, collectionVariable);
+      mv.visitJumpInsn(Opcodes.GOTO, after);
+
+      // The exception handler doesn't cover the normal end of the loop, which unlocks the
+      // collection itself. Unlocking doesn't throw exceptions, so the code that unlocks the
+      // collection before a return statement may be covered.
+      mv.visitTryCatchBlock(start, end, handler, null);
+      mv.visitLabel(handler);
+      endLoop(node, collectionVariable);
+      mv.visitInsn(Opcodes.ATHROW);
+      mv.visitLabel(after);
+    }
+
+    private void endLoop(int node, int collectionVariable) {
+      mv.visitVarInsn(Opcodes.ALOAD, THIS);
+      pushInt(node);
+      mv.visitVarInsn(Opcodes.ALOAD, collectionVariable);
+      invokeHelper("endLoop", "(ILjava/lang/Object;)V");
+    }
+
+    private void returnStatement(ReturnStatement statement) {
+      expression(statement.getReturnExpression());
+      if (!loops.isEmpty()) {
+        int valueVariable = nextVariable++;
+        mv.visitVarInsn(Opcodes.ASTORE, valueVariable);
+        for (Loop loop : loops) {
+          endLoop(loop.statement, loop.collectionVariable);
+        }
+        mv.visitVarInsn(Opcodes.ALOAD, valueVariable);
+      }
+      mv.visitInsn(Opcodes.ARETURN);
+    }
+
+    /** Generates code that jumps to the given label if the condition is false. */
+    private void condition(Expression condition, Label ifFalse) {
+      expression(condition);
+      toBoolean();
+      mv.visitJumpInsn(Opcodes.IFEQ, ifFalse);
+    }
+
+    private void toBoolean() {
+      mv.visitMethodInsn(
+          Opcodes.INVOKESTATIC,
+          Type.getInternalName(EvalUtils.class),
+          "toBoolean",
+          "(Ljava/lang/Object;)Z",
+          false);
+    }
+
+    /** Generates code that pushes the value of the expression. */
+    private void expression(Expression expression) {
+      if (expression instanceof StringLiteral) {
+        mv.visitLdcInsn(((StringLiteral) expression).getValue());
+      } else if (expression instanceof IntegerLiteral) {
+        pushInt(((IntegerLiteral) expression).getValue());
+        mv.visitMethodInsn(
+            Opcodes.INVOKESTATIC,
+            "java/lang/Integer",
+            "valueOf",
+            "(I)Ljava/lang/Integer;",
+            false);
+      } else if (expression instanceof BinaryOperatorExpression) {
+        binaryOperator((BinaryOperatorExpression) expression);
+      } else if (expression instanceof NotExpression) {
+        Label isTrue = new Label();
+        Label end = new Label();
+        expression(((NotExpression) expression).getExpression());
+        toBoolean();
+        mv.visitJumpInsn(Opcodes.IFNE, isTrue);
+        pushBoolean("TRUE");
+        mv.visitJumpInsn(Opcodes.GOTO, end);
+        mv.visitLabel(isTrue);
+        pushBoolean("FALSE");
+        mv.visitLabel(end);
+      } else if (expression instanceof ConditionalExpression) {
+        ConditionalExpression conditional = (ConditionalExpression) expression;
+        Label elseCase = new Label();
+        Label end = new Label();
+        condition(conditional.getCondition(), elseCase);
+        expression(conditional.getThenCase());
+        mv.visitJumpInsn(Opcodes.GOTO, end);
+        mv.visitLabel(elseCase);
+        expression(conditional.getElseCase());
+        mv.visitLabel(end);
+      } else {
+        pushNode(expression);
+        mv.visitVarInsn(Opcodes.ALOAD, ENV);
+        invokeHelper("evalExpression", "(I" + ENVIRONMENT + ")Ljava/lang/Object;");
+      }
+    }
+
+    private void pushBoolean(String field) {
+      mv.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/Boolean", field, "Ljava/lang/Boolean;");
+    }
+
+    private void binaryOperator(BinaryOperatorExpression expression) {
+      Operator operator = expression.getOperator();
+      if (operator == Operator.AND || operator == Operator.OR) {
+        // The value of the left operand if it decides the result, else the right one.
+        Label end = new Label();
+        expression(expression.getLhs());
+        mv.visitInsn(Opcodes.DUP);
+        toBoolean();
+        mv.visitJumpInsn(operator == Operator.AND ? Opcodes.IFEQ : Opcodes.IFNE, end);
+        mv.visitInsn(Opcodes.POP);
+        expression(expression.getRhs());
+        mv.visitLabel(end);
+      } else {
+        pushNode(expression);
+        expression(expression.getLhs());
+        expression(expression.getRhs());
+        mv.visitVarInsn(Opcodes.ALOAD, ENV);
+        invokeHelper(
+            "applyOperator",
+            "(ILjava/lang/Object;Ljava/lang/Object;" + ENVIRONMENT + ")Ljava/lang/Object;");
+      }
+    }
+  }
+}
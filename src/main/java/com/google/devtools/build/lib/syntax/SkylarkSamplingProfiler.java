@@ -0,0 +1,290 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.events.Location;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+
+/**
+ * A sampling profiler of Skylark evaluation.
+ *
+ * <p>While it runs, a background thread periodically looks at the call stacks of the threads that
+ * are evaluating Skylark functions, and attributes the CPU time used and the bytes allocated by
+ * each of them since the previous sample to its current call stack. Unlike the {@link
+ * com.google.devtools.build.lib.profiler.Profiler} tasks, nothing is recorded per call, so the
+ * overhead doesn't depend on the number of calls; when the profiler isn't running, it is a single
+ * volatile read per outermost call.
+ *
+ * <p>The profiles are written in the folded format of flame graph tools: one line per call stack,
+ * with the frames separated by semicolons from the outermost to the innermost one, followed by a
+ * space and the total (in microseconds of CPU time, or in bytes). The frames of functions defined
+ * in Skylark are named after their file, so that the cost of each .bzl file can be told apart.
+ */
+@ThreadSafe
+public final class SkylarkSamplingProfiler {
+
+  private static final SkylarkSamplingProfiler INSTANCE = new SkylarkSamplingProfiler();
+
+  public static SkylarkSamplingProfiler instance() {
+    return INSTANCE;
+  }
+
+  /** Whether the profiler is running. Checked whenever an Environment enters its outermost call. */
+  private static volatile boolean running;
+
+  static boolean isRunning() {
+    return running;
+  }
+
+  /** The Skylark state of a thread, and what it used up to the previous sample. */
+  private static final class ThreadState {
+    final long threadId;
+
+    /** The Environments evaluating Skylark functions on the thread, innermost last. */
+    private final List<Environment> environments = new ArrayList<>();
+
+    // Set when the thread is registered, and then only accessed when taking samples.
+    long cpuTimeNanos;
+    long allocatedBytes;
+
+    ThreadState(long threadId) {
+      this.threadId = threadId;
+    }
+
+    synchronized void push(Environment env) {
+      environments.add(env);
+    }
+
+    /** Removes the innermost occurrence of {@code env}, if it was registered. */
+    synchronized void pop(Environment env) {
+      // Environments can't be compared with equals.
+      for (int i = environments.size() - 1; i >= 0; i--) {
+        if (environments.get(i) == env) {
+          environments.remove(i);
+          return;
+        }
+      }
+    }
+
+    /** Returns the folded call stack of the thread, or null if it isn't in a Skylark function. */
+    @Nullable
+    synchronized String getFoldedStack() {
+      StringBuilder stack = new StringBuilder();
+      for (Environment env : environments) {
+        for (BaseFunction function : env.getStackTrace()) {
+          if (stack.length() > 0) {
+            stack.append(';');
+          }
+          appendFrame(stack, function);
+        }
+      }
+      return stack.length() > 0 ? stack.toString() : null;
+    }
+  }
+
+  private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+  private final Map<Thread, ThreadState> threads = new ConcurrentHashMap<>();
+
+  /** The CPU time and allocated bytes of each folded stack. Only accessed when taking samples. */
+  private final Map<String, long[]> totals = new TreeMap<>();
+
+  @Nullable private OutputStream cpuProfile;
+  @Nullable private OutputStream allocationProfile;
+  @Nullable private Thread sampler;
+
+  private SkylarkSamplingProfiler() {}
+
+  /**
+   * Starts sampling every {@code intervalMillis} milliseconds. The profiles are written to the
+   * given streams, either of which may be null, when the profiler is stopped. If both are null,
+   * there is nothing to write, so nothing is sampled.
+   */
+  public synchronized void start(
+      @Nullable OutputStream cpuProfile,
+      @Nullable OutputStream allocationProfile,
+      final long intervalMillis) {
+    Preconditions.checkState(sampler == null, "The Skylark profiler is already running");
+    Preconditions.checkArgument(intervalMillis > 0, intervalMillis);
+    if (cpuProfile == null && allocationProfile == null) {
+      return;
+    }
+    if (threadBean.isThreadCpuTimeSupported() && !threadBean.isThreadCpuTimeEnabled()) {
+      threadBean.setThreadCpuTimeEnabled(true);
+    }
+    this.cpuProfile = cpuProfile;
+    this.allocationProfile = allocationProfile;
+    threads.clear();
+    totals.clear();
+    running = true;
+    sampler =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                while (true) {
+                  try {
+                    Thread.sleep(intervalMillis);
+                  } catch (InterruptedException e) {
+                    return;
+                  }
+                  sample();
+                }
+              }
+            },
+            "skylark-sampling-profiler");
+    sampler.setDaemon(true);
+    sampler.start();
+  }
+
+  /** Stops sampling and writes the profiles. Does nothing if the profiler isn't running. */
+  public synchronized void stop() throws IOException {
+    if (sampler == null) {
+      return;
+    }
+    running = false;
+    sampler.interrupt();
+    Uninterruptibles.joinUninterruptibly(sampler);
+    sampler = null;
+    try {
+      sample();
+      if (cpuProfile != null) {
+        // Flame graphs need integers, and nanoseconds would only add noise.
+        write(cpuProfile, 0, 1000);
+      }
+      if (allocationProfile != null) {
+        write(allocationProfile, 1, 1);
+      }
+    } finally {
+      threads.clear();
+      totals.clear();
+      try {
+        if (cpuProfile != null) {
+          cpuProfile.close();
+        }
+      } finally {
+        if (allocationProfile != null) {
+          allocationProfile.close();
+        }
+        cpuProfile = null;
+        allocationProfile = null;
+      }
+    }
+  }
+
+  /** Called when {@code env} enters its outermost call on the current thread. */
+  void enter(Environment env) {
+    Thread thread = Thread.currentThread();
+    ThreadState state = threads.get(thread);
+    if (state == null) {
+      // A thread is only measured from the time it first evaluates Skylark. It stays registered
+      // afterwards, so that what it uses between two samples is attributed to whatever it runs at
+      // the time of the second one, however short its calls are.
+      state = new ThreadState(thread.getId());
+      state.cpuTimeNanos = getCpuTimeNanos(state.threadId);
+      state.allocatedBytes = getAllocatedBytes(state.threadId);
+      threads.put(thread, state);
+    }
+    state.push(env);
+  }
+
+  /** Called when {@code env} exits its outermost call on the current thread. */
+  void exit(Environment env) {
+    ThreadState state = threads.get(Thread.currentThread());
+    if (state != null) {
+      state.pop(env);
+    }
+  }
+
+  private void sample() {
+    for (Map.Entry<Thread, ThreadState> entry : threads.entrySet()) {
+      if (!entry.getKey().isAlive()) {
+        threads.remove(entry.getKey());
+        continue;
+      }
+      ThreadState state = entry.getValue();
+      String stack = state.getFoldedStack();
+      long cpuTimeNanos = getCpuTimeNanos(state.threadId);
+      long allocatedBytes = getAllocatedBytes(state.threadId);
+      if (stack != null) {
+        long[] total = totals.get(stack);
+        if (total == null) {
+          total = new long[2];
+          totals.put(stack, total);
+        }
+        total[0] += Math.max(0, cpuTimeNanos - state.cpuTimeNanos);
+        total[1] += Math.max(0, allocatedBytes - state.allocatedBytes);
+      }
+      state.cpuTimeNanos = cpuTimeNanos;
+      state.allocatedBytes = allocatedBytes;
+    }
+  }
+
+  private long getCpuTimeNanos(long threadId) {
+    return threadBean.isThreadCpuTimeEnabled() ? threadBean.getThreadCpuTime(threadId) : 0;
+  }
+
+  private long getAllocatedBytes(long threadId) {
+    if (threadBean instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean allocationBean =
+          (com.sun.management.ThreadMXBean) threadBean;
+      if (allocationBean.isThreadAllocatedMemoryEnabled()) {
+        return allocationBean.getThreadAllocatedBytes(threadId);
+      }
+    }
+    return 0;
+  }
+
+  private void write(OutputStream out, int index, long unit) throws IOException {
+    Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    for (Map.Entry<String, long[]> entry : totals.entrySet()) {
+      long value = entry.getValue()[index] / unit;
+      if (value > 0) {
+        writer.append(entry.getKey()).append(' ').append(Long.toString(value)).append('\n');
+      }
+    }
+    writer.flush();
+  }
+
+  /**
+   * Appends the name of a frame: "path/to/file.bzl:name" for functions defined in Skylark, and
+   * just the name for builtins.
+   */
+  private static void appendFrame(StringBuilder stack, BaseFunction function) {
+    Location location = function.getLocation();
+    String frame = function.getName();
+    if (function instanceof UserDefinedFunction
+        && location != null
+        && location.getPath() != null
+        && !location.getPath().getPathString().isEmpty()) {
+      frame = location.getPath().getPathString() + ":" + frame;
+    }
+    // The folded format separates frames with semicolons.
+    stack.append(frame.replace(';', '_'));
+  }
+}
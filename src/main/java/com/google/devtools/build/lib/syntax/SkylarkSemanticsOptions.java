@@ -96,4 +96,15 @@ public class SkylarkSemanticsOptions extends OptionsBase implements Serializable
             + "(outside a function definition)"
   )
   public boolean incompatibleDisallowToplevelIfStatement;
+
+  @Option(
+    name = "experimental_skylark_compilation_threshold",
+    defaultValue = "-1",
+    category = "experimental",
+    help =
+        "If non-negative, the body of a Skylark function is compiled to JVM bytecode once the "
+            + "function was called this many times. Constructs that the compiler doesn't "
+            + "support are still interpreted. A negative value disables the compiler."
+  )
+  public int experimentalSkylarkCompilationThreshold;
 }
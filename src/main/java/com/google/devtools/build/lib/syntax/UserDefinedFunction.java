@@ -17,6 +17,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
+import javax.annotation.Nullable;
 
 /**
  * The actual function registered in the environment. This function is defined in the
@@ -29,15 +30,34 @@ public class UserDefinedFunction extends BaseFunction {
   // we close over the globals at the time of definition
   private final Environment.Frame definitionGlobals;
 
+  // The local variables that the identifiers of the statements were resolved to, if any.
+  @Nullable private final LocalScope localScope;
+
+  // Compiles the statements once the function is hot, if the compiler is enabled.
+  @Nullable private final SkylarkCompiler compiler;
+
   protected UserDefinedFunction(
       Identifier function,
       FunctionSignature.WithValues<Object, SkylarkType> signature,
       ImmutableList<Statement> statements,
       Environment.Frame definitionGlobals)
       throws EvalException {
+    this(function, signature, statements, definitionGlobals, null, null);
+  }
+
+  UserDefinedFunction(
+      Identifier function,
+      FunctionSignature.WithValues<Object, SkylarkType> signature,
+      ImmutableList<Statement> statements,
+      Environment.Frame definitionGlobals,
+      @Nullable LocalScope localScope,
+      @Nullable SkylarkCompiler compiler)
+      throws EvalException {
     super(function.getName(), signature, function.getLocation());
     this.statements = statements;
     this.definitionGlobals = definitionGlobals;
+    this.localScope = localScope;
+    this.compiler = compiler;
   }
 
   public FunctionSignature.WithValues<Object, SkylarkType> getFunctionSignature() {
@@ -62,7 +82,7 @@ public class UserDefinedFunction extends BaseFunction {
 
     Profiler.instance().startTask(ProfilerTask.SKYLARK_USER_FN, getName());
     try {
-      env.enterScope(this, ast, definitionGlobals);
+      env.enterScope(this, ast, definitionGlobals, localScope);
       ImmutableList<String> names = signature.getSignature().getNames();
 
       // Registering the functions's arguments as variables in the local Environment
@@ -71,6 +91,11 @@ public class UserDefinedFunction extends BaseFunction {
         env.update(name, arguments[i++]);
       }
 
+      CompiledFunctionBody compiledBody = compiler == null ? null : compiler.getCompiledBody();
+      if (compiledBody != null) {
+        return compiledBody.run(env);
+      }
+
       try {
         for (Statement stmt : statements) {
           if (stmt instanceof ReturnStatement) {
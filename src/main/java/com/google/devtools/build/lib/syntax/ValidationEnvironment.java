@@ -20,6 +20,7 @@ import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.util.Preconditions;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -35,7 +36,8 @@ public final class ValidationEnvironment {
 
   private final ValidationEnvironment parent;
 
-  private final Set<String> variables = new HashSet<>();
+  // In declaration order, which is the order of the slots of a function's local variables.
+  private final Set<String> variables = new LinkedHashSet<>();
 
   private final Map<String, Location> variableLocations = new HashMap<>();
 
@@ -112,6 +114,23 @@ public final class ValidationEnvironment {
     return Preconditions.checkNotNull(parent == null ? this : parent);
   }
 
+  /**
+   * Assigns a slot to each variable declared in this local environment, and resolves the
+   * identifiers of the given function body to them or, if they aren't local, to global variables.
+   * The body must have been validated in this environment.
+   */
+  LocalScope resolveLocalVariables(List<Statement> statements) {
+    Preconditions.checkState(!isTopLevel());
+    final LocalScope scope = new LocalScope(variables);
+    new SyntaxTreeVisitor() {
+      @Override
+      public void visit(Identifier node) {
+        node.resolve(scope, scope.getSlot(node.getName()));
+      }
+    }.visitAll(statements);
+    return scope;
+  }
+
   /**
    * Starts a session with temporarily disabled readonly checking for variables between branches.
    * This is useful to validate control flows like if-else when we know that certain parts of the
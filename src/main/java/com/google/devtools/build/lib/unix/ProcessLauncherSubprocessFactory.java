@@ -0,0 +1,510 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.unix;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import com.google.common.base.Splitter;
+import com.google.devtools.build.lib.shell.JavaSubprocessFactory;
+import com.google.devtools.build.lib.shell.ResourceUsage;
+import com.google.devtools.build.lib.shell.Subprocess;
+import com.google.devtools.build.lib.shell.SubprocessBuilder;
+import com.google.devtools.build.lib.shell.SubprocessBuilder.StreamAction;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A subprocess factory that has the process-launcher helper binary start the processes.
+ *
+ * <p>Forking the server for every spawn gets expensive as its heap grows, and
+ * {@link java.lang.ProcessBuilder} needs a thread per process to wait for it. The launcher is a
+ * small process that is started once and then forks itself instead; it reaps all of its children
+ * in a single thread and reports their resource usage along with their exit status.
+ *
+ * <p>The standard streams of the processes are FIFOs in a directory of the server, as there is no
+ * way to pass file descriptors to another process from Java.
+ */
+@ThreadSafe
+public final class ProcessLauncherSubprocessFactory implements Subprocess.Factory {
+  private static final Logger LOG =
+      Logger.getLogger(ProcessLauncherSubprocessFactory.class.getName());
+
+  private final File launcherBinary;
+  private final File fifoDir;
+  private final AtomicLong nextId = new AtomicLong();
+
+  @GuardedBy("this")
+  private Launcher launcher;
+
+  /**
+   * @param launcherBinary the process-launcher binary
+   * @param fifoDir the directory to create the FIFOs for the standard streams in, which must be
+   *     on a local file system
+   */
+  public ProcessLauncherSubprocessFactory(File launcherBinary, File fifoDir) {
+    this.launcherBinary = launcherBinary;
+    this.fifoDir = fifoDir;
+  }
+
+  @Override
+  public Subprocess create(SubprocessBuilder params) throws IOException {
+    if (params.getTimeoutMillis() >= 0) {
+      // The launcher doesn't support timeouts, so let JavaSubprocessFactory reject them.
+      return JavaSubprocessFactory.INSTANCE.create(params);
+    }
+    return getLauncher().spawn(params, nextId.getAndIncrement());
+  }
+
+  /** Returns the running launcher, starting a new one if there is none or it died. */
+  private synchronized Launcher getLauncher() throws IOException {
+    if (launcher == null) {
+      if (!fifoDir.isDirectory() && !fifoDir.mkdirs()) {
+        throw new IOException("Cannot create " + fifoDir);
+      }
+      // Left behind by an earlier server.
+      for (File fifo : fifoDir.listFiles()) {
+        fifo.delete();
+      }
+    }
+    if (launcher == null || !launcher.isAlive()) {
+      launcher = new Launcher(launcherBinary);
+    }
+    return launcher;
+  }
+
+  /**
+   * Stops the launcher, which kills all processes that it started and which are still running.
+   */
+  public synchronized void close() {
+    if (launcher != null) {
+      launcher.close();
+      launcher = null;
+    }
+  }
+
+  /** A running process-launcher and the processes it started. */
+  private final class Launcher {
+    private final Process process;
+    @GuardedBy("this")
+    private final OutputStream requests;
+    private final Map<Long, LauncherSubprocess> subprocesses = new ConcurrentHashMap<>();
+    private volatile boolean alive = true;
+
+    Launcher(File binary) throws IOException {
+      this.process =
+          new ProcessBuilder(binary.getPath())
+              .redirectError(Redirect.INHERIT)
+              .start();
+      this.requests = new BufferedOutputStream(process.getOutputStream());
+      Thread reader =
+          new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  readResponses();
+                }
+              },
+              "process-launcher-reader");
+      reader.setDaemon(true);
+      reader.start();
+    }
+
+    boolean isAlive() {
+      return alive;
+    }
+
+    LauncherSubprocess spawn(SubprocessBuilder params, long id) throws IOException {
+      String prefix = new File(fifoDir, Long.toString(id)).getPath();
+      File stdin = new File(prefix + ".in");
+      File stdout = params.getStdout() == StreamAction.STREAM ? new File(prefix + ".out") : null;
+      File stderr = params.getStderr() == StreamAction.STREAM ? new File(prefix + ".err") : null;
+      LauncherSubprocess subprocess = new LauncherSubprocess(this, id, stdin, stdout, stderr);
+      try {
+        for (File fifo : subprocess.fifos) {
+          NativePosixFiles.mkfifo(fifo.getPath(), 0600);
+        }
+
+        List<String> request = new ArrayList<>();
+        request.add("spawn");
+        request.add(Long.toString(id));
+        request.add(
+            params.getWorkingDirectory() != null
+                ? params.getWorkingDirectory().getPath()
+                : System.getProperty("user.dir"));
+        request.add(stdin.getPath());
+        request.add(getOutputSpec(params.getStdout(), params.getStdoutFile(), stdout));
+        request.add(getOutputSpec(params.getStderr(), params.getStderrFile(), stderr));
+        request.add(Integer.toString(params.getArgv().size()));
+        request.addAll(params.getArgv());
+        if (params.getEnv() == null) {
+          request.add("-1");
+        } else {
+          request.add(Integer.toString(params.getEnv().size()));
+          for (Map.Entry<String, String> entry : params.getEnv().entrySet()) {
+            request.add(entry.getKey() + "=" + entry.getValue());
+          }
+        }
+
+        subprocesses.put(id, subprocess);
+        if (!alive) {
+          // The reader is gone and would never report on the process.
+          subprocesses.remove(id);
+          throw new IOException("process-launcher is not running");
+        }
+        send(request);
+        subprocess.openStreams();
+        subprocess.awaitStart();
+      } catch (IOException e) {
+        subprocesses.remove(id);
+        subprocess.closeStreams();
+        throw new IOException(
+            String.format("Cannot run program \"%s\": %s", params.getArgv().get(0), e.getMessage()),
+            e);
+      } finally {
+        for (File fifo : subprocess.fifos) {
+          fifo.delete();
+        }
+      }
+      return subprocess;
+    }
+
+    private String getOutputSpec(StreamAction action, File file, File fifo) {
+      switch (action) {
+        case DISCARD:
+          return "";
+
+        case REDIRECT:
+          // Like JavaSubprocessFactory, we append to a fresh file, because on older Linux kernels
+          // writes are otherwise not atomic and might result in lost log messages.
+          if (file.exists()) {
+            file.delete();
+          }
+          return "a" + file.getPath();
+
+        case STREAM:
+          return "p" + fifo.getPath();
+
+        default:
+          throw new IllegalStateException();
+      }
+    }
+
+    synchronized void send(List<String> fields) throws IOException {
+      for (String field : fields) {
+        // Bazel keeps file names and arguments as Latin-1 strings of their raw bytes.
+        requests.write(field.getBytes(ISO_8859_1));
+        requests.write(0);
+      }
+      requests.flush();
+    }
+
+    private void readResponses() {
+      try (BufferedReader reader =
+          new BufferedReader(new InputStreamReader(process.getInputStream(), ISO_8859_1))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          List<String> fields = Splitter.on(' ').splitToList(line);
+          LauncherSubprocess subprocess = subprocesses.get(Long.parseLong(fields.get(1)));
+          if (subprocess == null) {
+            // E.g. a process that failed to start and is reported as exited, too.
+            continue;
+          }
+          switch (fields.get(0)) {
+            case "started":
+              subprocess.started();
+              break;
+            case "failed":
+              subprocess.failed("error=" + fields.get(2));
+              break;
+            case "exited":
+              subprocess.exited(
+                  Integer.parseInt(fields.get(2)),
+                  new ResourceUsage(
+                      Long.parseLong(fields.get(3)),
+                      Long.parseLong(fields.get(4)),
+                      Long.parseLong(fields.get(5)),
+                      Long.parseLong(fields.get(6)),
+                      Long.parseLong(fields.get(7))));
+              break;
+            default:
+              throw new IOException("Unexpected response from process-launcher: " + line);
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        LOG.log(Level.WARNING, "Failed to read from process-launcher", e);
+      }
+      alive = false;
+      process.destroy();
+      // Its children were either killed when the launcher exited or are orphans now; either way
+      // nobody is going to report on them anymore.
+      for (LauncherSubprocess subprocess : subprocesses.values()) {
+        subprocess.failed("process-launcher died");
+        subprocess.exited(/*SIGNAL_BASE=*/128 + /*SIGKILL=*/9, null);
+      }
+      subprocesses.clear();
+    }
+
+    void remove(long id) {
+      subprocesses.remove(id);
+    }
+
+    void close() {
+      synchronized (this) {
+        try {
+          requests.close();
+        } catch (IOException e) {
+          // The launcher is already gone.
+        }
+      }
+      boolean interrupted = false;
+      while (true) {
+        try {
+          process.waitFor();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /** A process started by the launcher. */
+  private static final class LauncherSubprocess implements Subprocess {
+    private final Launcher launcher;
+    private final long id;
+    private final File stdinFifo;
+    private final File stdoutFifo;
+    private final File stderrFifo;
+    private final List<File> fifos = new ArrayList<>();
+
+    private OutputStream stdin;
+    private InputStream stdout;
+    private InputStream stderr;
+
+    // Open the other ends of the FIFOs when the process fails to, so that opening ours returns.
+    @GuardedBy("this")
+    private final List<RandomAccessFile> unblockers = new ArrayList<>();
+
+    @GuardedBy("this")
+    private boolean streamsOpened;
+
+    @GuardedBy("this")
+    private boolean started;
+
+    @GuardedBy("this")
+    private String failure;
+
+    @GuardedBy("this")
+    private boolean exited;
+
+    @GuardedBy("this")
+    private int exitValue;
+
+    @GuardedBy("this")
+    private ResourceUsage resourceUsage;
+
+    private LauncherSubprocess(
+        Launcher launcher, long id, File stdinFifo, File stdoutFifo, File stderrFifo) {
+      this.launcher = launcher;
+      this.id = id;
+      this.stdinFifo = stdinFifo;
+      this.stdoutFifo = stdoutFifo;
+      this.stderrFifo = stderrFifo;
+      for (File fifo : new File[] {stdinFifo, stdoutFifo, stderrFifo}) {
+        if (fifo != null) {
+          fifos.add(fifo);
+        }
+      }
+    }
+
+    /** Opens our ends of the FIFOs in the same order as the child does. */
+    private void openStreams() throws IOException {
+      try {
+        stdin = new FileOutputStream(stdinFifo);
+        stdout = stdoutFifo != null ? new FileInputStream(stdoutFifo) : emptyStream();
+        stderr = stderrFifo != null ? new FileInputStream(stderrFifo) : emptyStream();
+      } finally {
+        synchronized (this) {
+          streamsOpened = true;
+          for (RandomAccessFile unblocker : unblockers) {
+            unblocker.close();
+          }
+          unblockers.clear();
+        }
+      }
+    }
+
+    private static InputStream emptyStream() {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+
+    private void closeStreams() {
+      for (Closeable stream : new Closeable[] {stdin, stdout, stderr}) {
+        if (stream != null) {
+          try {
+            stream.close();
+          } catch (IOException e) {
+            // Nothing we could do about it.
+          }
+        }
+      }
+    }
+
+    private synchronized void awaitStart() throws IOException {
+      boolean interrupted = false;
+      while (!started && failure == null) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          // The process is running or about to fail, so we wait for the outcome either way.
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (failure != null) {
+        throw new IOException(failure);
+      }
+    }
+
+    private synchronized void started() {
+      started = true;
+      if (exited) {
+        launcher.remove(id);
+      }
+      notifyAll();
+    }
+
+    private synchronized void failed(String message) {
+      if (started) {
+        return;
+      }
+      failure = message;
+      launcher.remove(id);
+      if (!streamsOpened) {
+        for (File fifo : fifos) {
+          try {
+            // Opening a FIFO for reading and writing doesn't block on Linux.
+            unblockers.add(new RandomAccessFile(fifo, "rw"));
+          } catch (IOException e) {
+            // Already opened and deleted.
+          }
+        }
+      }
+      notifyAll();
+    }
+
+    private synchronized void exited(int exitValue, ResourceUsage resourceUsage) {
+      if (exited) {
+        return;
+      }
+      this.exited = true;
+      this.exitValue = exitValue;
+      this.resourceUsage = resourceUsage;
+      if (started) {
+        launcher.remove(id);
+      }
+      notifyAll();
+    }
+
+    @Override
+    public boolean destroy() {
+      if (!finished()) {
+        try {
+          launcher.send(Arrays.asList("kill", Long.toString(id), /*SIGTERM=*/"15"));
+        } catch (IOException e) {
+          // The launcher is gone, and with it the process.
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public synchronized int exitValue() {
+      if (!exited) {
+        throw new IllegalThreadStateException("process hasn't exited");
+      }
+      return exitValue;
+    }
+
+    @Override
+    public synchronized boolean finished() {
+      return exited;
+    }
+
+    @Override
+    public boolean timedout() {
+      // Not supported.
+      return false;
+    }
+
+    @Override
+    public synchronized void waitFor() throws InterruptedException {
+      while (!exited) {
+        wait();
+      }
+    }
+
+    @Override
+    public synchronized ResourceUsage getResourceUsage() {
+      return resourceUsage;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return stdin;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return stdout;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+      return stderr;
+    }
+
+    @Override
+    public void close() {
+      // The launcher already reaped the process, and its streams are closed by their readers.
+    }
+  }
+}
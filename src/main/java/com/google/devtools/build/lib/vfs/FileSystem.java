@@ -43,13 +43,15 @@ public abstract class FileSystem {
 
   /** Type of hash function to use for digesting files. */
   public enum HashFunction {
-    MD5(16),
-    SHA1(20);
+    MD5(16, Hashing.md5()),
+    SHA1(20, Hashing.sha1());
 
     private final int digestSize;
+    private final com.google.common.hash.HashFunction hash;
 
-    HashFunction(int digestSize) {
+    HashFunction(int digestSize, com.google.common.hash.HashFunction hash) {
       this.digestSize = digestSize;
+      this.hash = hash;
     }
 
     /** Converts to {@link HashFunction}. */
@@ -62,6 +64,15 @@ public abstract class FileSystem {
     public boolean isValidDigest(byte[] digest) {
       return digest != null && digest.length == digestSize;
     }
+
+    /**
+     * Returns the digest of the given content, which is what {@link Path#getDigest} returns for a
+     * file with that content. Callers that already read a file can use this instead of reading it
+     * again.
+     */
+    public byte[] digest(byte[] content) {
+      return hash.hashBytes(content).asBytes();
+    }
   }
 
   // This is effectively final, should be changed only in unit-tests!
@@ -14,6 +14,7 @@
 
 package com.google.devtools.build.lib.windows;
 
+import com.google.devtools.build.lib.shell.ResourceUsage;
 import com.google.devtools.build.lib.shell.Subprocess;
 import java.io.IOException;
 import java.io.InputStream;
@@ -227,6 +228,12 @@ public class WindowsSubprocess implements Subprocess {
     waitLatch.await();
   }
 
+  @Override
+  public ResourceUsage getResourceUsage() {
+    // Not supported.
+    return null;
+  }
+
   @Override
   public synchronized void close() {
     if (nativeProcess != WindowsProcesses.INVALID) {
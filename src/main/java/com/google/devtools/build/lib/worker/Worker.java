@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.ProcessBuilder.Redirect;
+import javax.annotation.concurrent.GuardedBy;
 
 /**
  * Interface to a worker process running as a child process.
@@ -37,15 +38,30 @@ class Worker {
   private final int workerId;
   private final Path workDir;
   private final Path logFile;
+  private final long creationNanos;
 
   private Process process;
   private Thread shutdownHook;
 
+  @GuardedBy("this")
+  private boolean busy;
+
+  @GuardedBy("this")
+  private boolean evicted;
+
+  @GuardedBy("this")
+  private int requestsServed;
+
+  @GuardedBy("this")
+  private long idleSinceNanos;
+
   Worker(WorkerKey workerKey, int workerId, final Path workDir, Path logFile) {
     this.workerKey = workerKey;
     this.workerId = workerId;
     this.workDir = workDir;
     this.logFile = logFile;
+    this.creationNanos = System.nanoTime();
+    this.idleSinceNanos = creationNanos;
 
     final Worker self = this;
     this.shutdownHook =
@@ -124,6 +140,60 @@ class Worker {
     return this.workerId;
   }
 
+  /** Returns the {@link System#nanoTime} at which this worker was created. */
+  long getCreationNanos() {
+    return creationNanos;
+  }
+
+  WorkerKey getWorkerKey() {
+    return workerKey;
+  }
+
+  /**
+   * Marks the worker as busy with an action. Returns false if the worker was evicted in the
+   * meantime and must not be used.
+   */
+  synchronized boolean claim() {
+    if (evicted) {
+      return false;
+    }
+    busy = true;
+    requestsServed++;
+    return true;
+  }
+
+  /** Marks the worker as idle again. */
+  synchronized void release() {
+    busy = false;
+    idleSinceNanos = System.nanoTime();
+  }
+
+  /** Marks the worker as evicted, unless it is busy. Returns whether it was evicted. */
+  synchronized boolean evict() {
+    if (busy) {
+      return false;
+    }
+    evicted = true;
+    return true;
+  }
+
+  synchronized boolean isEvicted() {
+    return evicted;
+  }
+
+  synchronized boolean isBusy() {
+    return busy;
+  }
+
+  synchronized int getRequestsServed() {
+    return requestsServed;
+  }
+
+  /** Returns for how long the worker has been idle, or 0 if it is busy. */
+  synchronized long getIdleNanos() {
+    return busy ? 0 : System.nanoTime() - idleSinceNanos;
+  }
+
   HashCode getWorkerFilesHash() {
     return workerKey.getWorkerFilesHash();
   }
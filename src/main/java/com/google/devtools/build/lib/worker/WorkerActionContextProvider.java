@@ -15,8 +15,11 @@ package com.google.devtools.build.lib.worker;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
+import com.google.devtools.build.lib.actions.ActionGraph;
+import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.Executor.ActionContext;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
+import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.exec.ActionContextProvider;
 import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.rules.test.TestActionContext;
@@ -26,19 +29,28 @@ import com.google.devtools.build.lib.runtime.CommandEnvironment;
  * Factory for the Worker-based execution strategy.
  */
 final class WorkerActionContextProvider extends ActionContextProvider {
+  private final CommandEnvironment env;
+  private final WorkerOptions workerOptions;
+  private final WorkerPool workers;
+  private final WorkerWarmup warmup;
   private final ImmutableList<ActionContext> strategies;
 
   public WorkerActionContextProvider(
-      CommandEnvironment env, BuildRequest buildRequest, WorkerPool workers) {
+      CommandEnvironment env, BuildRequest buildRequest, WorkerPool workers, WorkerWarmup warmup) {
+    this.env = env;
+    this.workerOptions = buildRequest.getOptions(WorkerOptions.class);
+    this.workers = workers;
+    this.warmup = warmup;
     ImmutableMultimap.Builder<String, String> extraFlags = ImmutableMultimap.builder();
-    extraFlags.putAll(buildRequest.getOptions(WorkerOptions.class).workerExtraFlags);
+    extraFlags.putAll(workerOptions.workerExtraFlags);
 
     WorkerSpawnStrategy workerSpawnStrategy =
         new WorkerSpawnStrategy(
             env.getExecRoot(),
             workers,
             buildRequest.getOptions(ExecutionOptions.class).verboseFailures,
-            extraFlags.build());
+            extraFlags.build(),
+            workerOptions.workerMultiplex && !workerOptions.workerSandboxing);
     TestActionContext workerTestStrategy =
         new WorkerTestStrategy(env, buildRequest, workers, extraFlags.build());
     this.strategies = ImmutableList.of(workerSpawnStrategy, workerTestStrategy);
@@ -48,4 +60,26 @@ final class WorkerActionContextProvider extends ActionContextProvider {
   public Iterable<ActionContext> getActionContexts() {
     return strategies;
   }
+
+  @Override
+  public void executionPhaseStarting(
+      ActionGraph actionGraph, Iterable<Artifact> topLevelArtifacts) {
+    // Sandboxed workers are set up for each action, so they can't be started ahead of time.
+    if (workerOptions.workerPrewarm && !workerOptions.workerSandboxing) {
+      warmup.prewarm(workers, workerOptions.workerMaxInstances);
+    }
+  }
+
+  @Override
+  public void executionPhaseEnding() {
+    if (workerOptions.workerVerbose) {
+      for (String stats : workers.getWorkerStats()) {
+        env.getReporter().handle(Event.info(stats));
+      }
+    }
+    String report = warmup.reportAndReset();
+    if (report != null) {
+      env.getReporter().handle(Event.info(report));
+    }
+  }
 }
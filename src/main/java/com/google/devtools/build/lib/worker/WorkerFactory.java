@@ -13,9 +13,12 @@
 // limitations under the License.
 package com.google.devtools.build.lib.worker;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.vfs.Path;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.pool2.BaseKeyedPooledObjectFactory;
 import org.apache.commons.pool2.PooledObject;
@@ -33,11 +36,14 @@ final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker
 
   private WorkerOptions workerOptions;
   private final Path workerBaseDir;
+  private final WorkerWarmup warmup;
+  private final Set<Worker> liveWorkers = Sets.newConcurrentHashSet();
   private Reporter reporter;
 
-  public WorkerFactory(WorkerOptions workerOptions, Path workerBaseDir) {
+  public WorkerFactory(WorkerOptions workerOptions, Path workerBaseDir, WorkerWarmup warmup) {
     this.workerOptions = workerOptions;
     this.workerBaseDir = workerBaseDir;
+    this.warmup = warmup;
   }
 
   public void setReporter(Reporter reporter) {
@@ -50,6 +56,7 @@ final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker
 
   @Override
   public Worker create(WorkerKey key) throws Exception {
+    long startNanos = System.nanoTime();
     int workerId = pidCounter.getAndIncrement();
     Path logFile =
         workerBaseDir.getRelative("worker-" + workerId + "-" + key.getMnemonic() + ".log");
@@ -64,6 +71,8 @@ final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker
     }
     worker.prepareExecution(key);
     worker.createProcess();
+    warmup.recordStart(System.nanoTime() - startNanos);
+    liveWorkers.add(worker);
     if (workerOptions.workerVerbose) {
       reporter.handle(
           Event.info(
@@ -96,9 +105,15 @@ final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker
               String.format(
                   "Destroying %s worker (id %d)", key.getMnemonic(), p.getObject().getWorkerId())));
     }
+    liveWorkers.remove(p.getObject());
     p.getObject().destroy();
   }
 
+  /** Returns all workers that were created and not yet destroyed, whether idle or busy. */
+  ImmutableList<Worker> getLiveWorkers() {
+    return ImmutableList.copyOf(liveWorkers);
+  }
+
   /**
    * The worker is considered to be valid when its files have not changed on disk and its process is
    * still alive.
@@ -106,6 +121,9 @@ final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker
   @Override
   public boolean validateObject(WorkerKey key, PooledObject<Worker> p) {
     Worker worker = p.getObject();
+    if (worker.isEvicted()) {
+      return false;
+    }
     boolean hashMatches = key.getWorkerFilesHash().equals(worker.getWorkerFilesHash());
 
     if (reporter != null && !hashMatches) {
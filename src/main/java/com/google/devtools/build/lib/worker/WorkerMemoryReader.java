@@ -0,0 +1,109 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the resident memory of worker processes from /proc, which is only available on Linux.
+ *
+ * <p>Java 8 does not expose the pid of a {@link Process}. Instead, a worker process is recognized
+ * as a child of the server whose stderr is the worker's own log file. This also holds when the
+ * worker binary is a wrapper script that execs the actual worker.
+ *
+ * <p>Only children of the server are considered. For a sandboxed worker, that child is the sandbox
+ * process (e.g. linux-sandbox), so the measured resident memory is the sandbox process's, not that
+ * of the worker running inside it.
+ */
+class WorkerMemoryReader {
+  private static final Path PROC = Paths.get("/proc");
+
+  /**
+   * Returns the resident set size in KB of each of the given workers whose process could be found.
+   * Returns an empty map if /proc is not available.
+   */
+  Map<Worker, Long> getResidentSetSizesKb(Collection<Worker> workers) {
+    Map<Worker, Long> residentKb = new HashMap<>();
+    Map<String, Worker> workersByLogFile = new HashMap<>();
+    for (Worker worker : workers) {
+      workersByLogFile.put(getRealPath(worker.getLogFile().getPathString()), worker);
+    }
+    if (workersByLogFile.isEmpty()) {
+      return residentKb;
+    }
+    String serverPid;
+    try {
+      serverPid = Files.readSymbolicLink(PROC.resolve("self")).toString();
+    } catch (IOException | UnsupportedOperationException e) {
+      // This is not Linux.
+      return residentKb;
+    }
+    try (DirectoryStream<Path> processes = Files.newDirectoryStream(PROC, "[0-9]*")) {
+      for (Path process : processes) {
+        try {
+          if (!serverPid.equals(getParentPid(process))) {
+            continue;
+          }
+          Worker worker =
+              workersByLogFile.get(Files.readSymbolicLink(process.resolve("fd/2")).toString());
+          if (worker != null) {
+            long kb = getResidentSetSizeKb(process);
+            if (kb >= 0) {
+              residentKb.put(worker, kb);
+            }
+          }
+        } catch (IOException | RuntimeException e) {
+          // The process exited in the meantime.
+        }
+      }
+    } catch (IOException e) {
+      // Report what we have so far.
+    }
+    return residentKb;
+  }
+
+  // The links in /proc point to the real path of the file.
+  private static String getRealPath(String path) {
+    try {
+      return Paths.get(path).toRealPath().toString();
+    } catch (IOException | RuntimeException e) {
+      return path;
+    }
+  }
+
+  private static String getParentPid(Path process) throws IOException {
+    // The line looks like "1234 (name) S 1000 ...". The name may contain spaces and parentheses.
+    String stat = new String(Files.readAllBytes(process.resolve("stat")), UTF_8);
+    return stat.substring(stat.lastIndexOf(')') + 2).split(" ")[1];
+  }
+
+  private static long getResidentSetSizeKb(Path process) throws IOException {
+    for (String line : Files.readAllLines(process.resolve("status"), UTF_8)) {
+      if (line.startsWith("VmRSS:")) {
+        // The line looks like "VmRSS:     12345 kB".
+        return Long.parseLong(line.substring("VmRSS:".length()).trim().split("\\s+")[0]);
+      }
+    }
+    return -1;
+  }
+}
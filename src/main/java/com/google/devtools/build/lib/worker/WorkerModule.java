@@ -36,6 +36,7 @@ import java.io.IOException;
 public class WorkerModule extends BlazeModule {
   private CommandEnvironment env;
 
+  private final WorkerWarmup warmup = new WorkerWarmup();
   private WorkerFactory workerFactory;
   private WorkerPool workerPool;
   private WorkerPoolConfig workerPoolConfig;
@@ -90,7 +91,7 @@ public class WorkerModule extends BlazeModule {
             .handle(Event.error("Could not create base directory for workers: " + workerDir));
       }
 
-      workerFactory = new WorkerFactory(options, workerDir);
+      workerFactory = new WorkerFactory(options, workerDir, warmup);
     }
 
     workerFactory.setReporter(env.getReporter());
@@ -105,8 +106,11 @@ public class WorkerModule extends BlazeModule {
 
     if (workerPool == null) {
       workerPoolConfig = newConfig;
-      workerPool = new WorkerPool(workerFactory, workerPoolConfig);
+      workerPool = new WorkerPool(workerFactory, workerPoolConfig, warmup);
     }
+    workerPool.setMemoryBudgetMb(options.workerMemoryLimitMb);
+    // Idle workers may have grown or been killed since the last build.
+    workerPool.enforceMemoryBudget();
   }
 
   private WorkerPoolConfig createWorkerPoolConfig(WorkerOptions options) {
@@ -144,7 +148,7 @@ public class WorkerModule extends BlazeModule {
   public void executorInit(CommandEnvironment env, BuildRequest request, ExecutorBuilder builder) {
     Preconditions.checkNotNull(workerPool);
     builder.addActionContextProvider(
-        new WorkerActionContextProvider(env, request, workerPool));
+        new WorkerActionContextProvider(env, request, workerPool, warmup));
     builder.addActionContextConsumer(new WorkerActionContextConsumer());
   }
 
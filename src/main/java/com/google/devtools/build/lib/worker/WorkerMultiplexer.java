@@ -0,0 +1,141 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Sends the work requests of many concurrent actions to a single worker process.
+ *
+ * <p>Requests are tagged with a request id. A reader thread hands each response, which may arrive
+ * in any order, to the action waiting for the response with the same id. If the worker process
+ * dies or sends garbage, all pending requests fail and the multiplexer can no longer be used.
+ */
+@ThreadSafe
+final class WorkerMultiplexer {
+  private final Worker worker;
+  private final AtomicInteger nextRequestId = new AtomicInteger(1);
+  private final Object writeLock = new Object();
+
+  @GuardedBy("this")
+  private final Map<Integer, SettableFuture<WorkResponse>> pendingResponses = new HashMap<>();
+
+  @GuardedBy("this")
+  private IOException failure;
+
+  WorkerMultiplexer(Worker worker) {
+    this.worker = worker;
+    // The worker is never returned to the pool, so it must not be evicted like an idle one.
+    worker.claim();
+    Thread reader =
+        new Thread("worker-multiplexer-" + worker.getWorkerId()) {
+          @Override
+          public void run() {
+            readResponses();
+          }
+        };
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  /** Returns the worker process. Pending requests fail once it is destroyed. */
+  Worker getWorker() {
+    return worker;
+  }
+
+  /** Returns whether the worker process is still alive and has not failed any requests. */
+  synchronized boolean isUsable() {
+    return failure == null && worker.isAlive();
+  }
+
+  /**
+   * Sends the request to the worker process and waits for its response.
+   *
+   * @throws IOException if the request could not be sent, or the worker process failed before
+   *     responding
+   */
+  WorkResponse execute(WorkRequest request) throws IOException, InterruptedException {
+    int requestId = nextRequestId.getAndIncrement();
+    SettableFuture<WorkResponse> response = SettableFuture.create();
+    synchronized (this) {
+      if (failure != null) {
+        throw new IOException("Worker process can no longer accept requests", failure);
+      }
+      pendingResponses.put(requestId, response);
+    }
+    try {
+      try {
+        synchronized (writeLock) {
+          OutputStream out = worker.getOutputStream();
+          request.toBuilder().setRequestId(requestId).build().writeDelimitedTo(out);
+          out.flush();
+        }
+      } catch (IOException e) {
+        fail(e);
+        throw e;
+      }
+      return response.get();
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), IOException.class);
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      // If we were interrupted, a late response is simply dropped by the reader thread.
+      synchronized (this) {
+        pendingResponses.remove(requestId);
+      }
+    }
+  }
+
+  private void readResponses() {
+    try {
+      while (true) {
+        WorkResponse response = WorkResponse.parseDelimitedFrom(worker.getInputStream());
+        if (response == null) {
+          throw new IOException("Worker process closed its stdout stream");
+        }
+        SettableFuture<WorkResponse> future;
+        synchronized (this) {
+          future = pendingResponses.remove(response.getRequestId());
+        }
+        if (future != null) {
+          future.set(response);
+        }
+      }
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  private synchronized void fail(IOException e) {
+    if (failure == null) {
+      failure = e;
+    }
+    for (SettableFuture<WorkResponse> future : pendingResponses.values()) {
+      future.setException(e);
+    }
+    pendingResponses.clear();
+  }
+}
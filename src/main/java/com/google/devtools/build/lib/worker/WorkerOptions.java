@@ -86,4 +86,38 @@ public class WorkerOptions extends OptionsBase {
     help = "If enabled, workers will be executed in a sandboxed environment."
   )
   public boolean workerSandboxing;
+
+  @Option(
+    name = "experimental_worker_multiplex",
+    defaultValue = "false",
+    category = "strategy",
+    help =
+        "If enabled, actions that declare 'supports-multiplex-workers' send all their work "
+            + "requests to a single worker process per key, instead of to a pool of "
+            + "--worker_max_instances processes. Has no effect with --worker_sandboxing."
+  )
+  public boolean workerMultiplex;
+
+  @Option(
+    name = "experimental_worker_prewarm",
+    defaultValue = "false",
+    category = "strategy",
+    help =
+        "If enabled, worker processes are started in the background when the execution phase "
+            + "starts, as many per kind as previous builds in this server needed at the same "
+            + "time (up to --worker_max_instances)."
+  )
+  public boolean workerPrewarm;
+
+  @Option(
+    name = "experimental_worker_memory_limit_mb",
+    defaultValue = "0",
+    category = "strategy",
+    help =
+        "If greater than zero, idle worker processes are shut down, least recently used first, "
+            + "while all worker processes together use more resident memory than this. Also "
+            + "stops --experimental_worker_prewarm from starting workers beyond it. The memory "
+            + "is read from /proc, so this only has an effect on Linux."
+  )
+  public int workerMemoryLimitMb;
 }
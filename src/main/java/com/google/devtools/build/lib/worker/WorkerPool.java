@@ -13,32 +13,94 @@
 // limitations under the License.
 package com.google.devtools.build.lib.worker;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.devtools.build.lib.actions.ResourceManager;
 
 import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
 import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 /**
  * A worker pool that spawns multiple workers and delegates work to them.
  *
  * <p>This is useful when the worker cannot handle multiple parallel requests on its own and we need
- * to pre-fork a couple of them instead.
+ * to pre-fork a couple of them instead. Workers that can handle parallel requests on their own are
+ * not pooled, but shared through a single {@link WorkerMultiplexer} per key.
+ *
+ * <p>The pool also keeps track of the memory its worker processes use. Their idle part is reported
+ * to the {@link ResourceManager}, and if a memory budget is set, the least recently used idle
+ * workers are evicted to stay within it.
  */
 @ThreadSafe
 final class WorkerPool extends GenericKeyedObjectPool<WorkerKey, Worker> {
 
-  public WorkerPool(WorkerFactory factory, GenericKeyedObjectPoolConfig config) {
+  private final WorkerFactory factory;
+  private final WorkerWarmup warmup;
+  private final WorkerMemoryReader memoryReader;
+
+  // Reading /proc for every worker on every returned worker would be wasteful.
+  private static final long MEMORY_CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final Object memoryLock = new Object();
+
+  @GuardedBy("memoryLock")
+  private long lastMemoryCheckNanos;
+
+  private volatile long memoryBudgetKb;
+
+  // Pending until the worker process of the multiplexer has started.
+  @GuardedBy("multiplexers")
+  private final Map<WorkerKey, SettableFuture<WorkerMultiplexer>> multiplexers = new HashMap<>();
+
+  public WorkerPool(
+      WorkerFactory factory, GenericKeyedObjectPoolConfig config, WorkerWarmup warmup) {
+    this(factory, config, warmup, new WorkerMemoryReader());
+  }
+
+  @VisibleForTesting
+  WorkerPool(
+      WorkerFactory factory,
+      GenericKeyedObjectPoolConfig config,
+      WorkerWarmup warmup,
+      WorkerMemoryReader memoryReader) {
     super(factory, config);
+    this.factory = factory;
+    this.warmup = warmup;
+    this.memoryReader = memoryReader;
   }
 
   @Override
   public Worker borrowObject(WorkerKey key) throws IOException, InterruptedException {
+    long startNanos = System.nanoTime();
     try {
-      return super.borrowObject(key);
+      while (true) {
+        Worker worker = super.borrowObject(key);
+        if (worker.claim()) {
+          warmup.recordBorrow(key, getNumActive(key), worker.getCreationNanos() >= startNanos);
+          return worker;
+        }
+        // The worker was evicted after the pool validated it.
+        discard(key, worker);
+      }
     } catch (Throwable t) {
       Throwables.propagateIfPossible(t, IOException.class, InterruptedException.class);
       throw new RuntimeException("unexpected", t);
@@ -54,4 +116,217 @@ final class WorkerPool extends GenericKeyedObjectPool<WorkerKey, Worker> {
       throw new RuntimeException("unexpected", t);
     }
   }
+
+  @Override
+  public void returnObject(WorkerKey key, Worker worker) {
+    worker.release();
+    super.returnObject(key, worker);
+    synchronized (memoryLock) {
+      long now = System.nanoTime();
+      if (now - lastMemoryCheckNanos < MEMORY_CHECK_INTERVAL_NANOS) {
+        return;
+      }
+      lastMemoryCheckNanos = now;
+    }
+    enforceMemoryBudget();
+  }
+
+  /** Removes an evicted worker from the pool, unless another thread already did. */
+  private void discard(WorkerKey key, Worker worker) throws Exception {
+    try {
+      super.invalidateObject(key, worker);
+    } catch (IllegalStateException e) {
+      // Already gone.
+    }
+  }
+
+  /**
+   * Sets the total amount of memory that the worker processes may use. Zero means there is no
+   * limit.
+   */
+  public void setMemoryBudgetMb(int budgetMb) {
+    this.memoryBudgetKb = budgetMb * 1024L;
+  }
+
+  /**
+   * Evicts the least recently used idle workers until the worker processes use no more memory than
+   * the budget, and reports the memory of the remaining idle workers to the {@link
+   * ResourceManager}. Busy workers are never evicted, so the budget can be exceeded while they run.
+   */
+  public void enforceMemoryBudget() {
+    final Map<Worker, Long> idleNanos = new HashMap<>();
+    Map<Worker, Long> residentKb = memoryReader.getResidentSetSizesKb(factory.getLiveWorkers());
+    long totalKb = 0;
+    for (Worker worker : residentKb.keySet()) {
+      totalKb += residentKb.get(worker);
+      if (!worker.isBusy()) {
+        idleNanos.put(worker, worker.getIdleNanos());
+      }
+    }
+
+    long budgetKb = memoryBudgetKb;
+    if (budgetKb > 0 && totalKb > budgetKb) {
+      List<Worker> idle = new ArrayList<>(idleNanos.keySet());
+      Collections.sort(
+          idle,
+          new Comparator<Worker>() {
+            @Override
+            public int compare(Worker a, Worker b) {
+              return Long.compare(idleNanos.get(b), idleNanos.get(a));
+            }
+          });
+      for (Worker worker : idle) {
+        if (totalKb <= budgetKb) {
+          break;
+        }
+        if (worker.evict()) {
+          totalKb -= residentKb.get(worker);
+          idleNanos.remove(worker);
+          try {
+            discard(worker.getWorkerKey(), worker);
+          } catch (Exception e) {
+            // The process is gone either way.
+          }
+        }
+      }
+    }
+
+    long idleKb = 0;
+    for (Worker worker : idleNanos.keySet()) {
+      idleKb += residentKb.get(worker);
+    }
+    ResourceManager.instance().setExternalRamUsage(idleKb / 1024.0);
+  }
+
+  /**
+   * Returns whether the worker processes use more memory than the budget. Always false if there is
+   * no budget.
+   */
+  public boolean isOverMemoryBudget() {
+    long budgetKb = memoryBudgetKb;
+    if (budgetKb <= 0) {
+      return false;
+    }
+    long totalKb = 0;
+    for (long kb : memoryReader.getResidentSetSizesKb(factory.getLiveWorkers()).values()) {
+      totalKb += kb;
+    }
+    return totalKb > budgetKb;
+  }
+
+  /**
+   * Returns one line per kind of worker, with the number of processes, their resident memory, the
+   * number of requests they served and how long they have been idle on average.
+   */
+  public ImmutableList<String> getWorkerStats() {
+    ImmutableList<Worker> workers = factory.getLiveWorkers();
+    Map<Worker, Long> residentKbByWorker = memoryReader.getResidentSetSizesKb(workers);
+    ListMultimap<WorkerKey, Worker> workersByKey =
+        MultimapBuilder.linkedHashKeys().arrayListValues().build();
+    for (Worker worker : workers) {
+      workersByKey.put(worker.getWorkerKey(), worker);
+    }
+    ImmutableList.Builder<String> stats = ImmutableList.builder();
+    for (Map.Entry<WorkerKey, Collection<Worker>> entry : workersByKey.asMap().entrySet()) {
+      long residentKb = 0;
+      int requests = 0;
+      long idleNanos = 0;
+      for (Worker worker : entry.getValue()) {
+        Long kb = residentKbByWorker.get(worker);
+        residentKb += kb == null ? 0 : kb;
+        requests += worker.getRequestsServed();
+        idleNanos += worker.getIdleNanos();
+      }
+      stats.add(
+          String.format(
+              "%s workers: %d processes, %d MB resident, %d requests served, idle %d s on average",
+              entry.getKey().getMnemonic(),
+              entry.getValue().size(),
+              residentKb / 1024,
+              requests,
+              TimeUnit.NANOSECONDS.toSeconds(idleNanos / entry.getValue().size())));
+    }
+    return stats.build();
+  }
+
+  /**
+   * Returns the multiplexer for the given key, starting a new worker process if there is none yet
+   * or if the previous one can no longer be used. The process is started without holding the lock
+   * on all multiplexers; concurrent callers for the same key wait for it, and share its failure.
+   */
+  public WorkerMultiplexer getMultiplexer(WorkerKey key)
+      throws IOException, InterruptedException {
+    while (true) {
+      SettableFuture<WorkerMultiplexer> future;
+      boolean mustCreate = false;
+      synchronized (multiplexers) {
+        future = multiplexers.get(key);
+        if (future == null) {
+          future = SettableFuture.create();
+          multiplexers.put(key, future);
+          mustCreate = true;
+        }
+      }
+      if (mustCreate) {
+        try {
+          future.set(new WorkerMultiplexer(factory.create(key)));
+        } catch (Exception e) {
+          synchronized (multiplexers) {
+            multiplexers.remove(key);
+          }
+          future.setException(e);
+        }
+      }
+      WorkerMultiplexer multiplexer;
+      try {
+        multiplexer = future.get();
+      } catch (ExecutionException e) {
+        Throwables.propagateIfPossible(e.getCause(), IOException.class);
+        throw new RuntimeException("unexpected", e.getCause());
+      }
+      if (multiplexer.isUsable()
+          && factory.validateObject(key, factory.wrap(multiplexer.getWorker()))) {
+        return multiplexer;
+      }
+      invalidateMultiplexer(key, multiplexer);
+    }
+  }
+
+  /** Kills the worker process of the given multiplexer, e.g. after it failed a request. */
+  public void invalidateMultiplexer(WorkerKey key, WorkerMultiplexer multiplexer) {
+    synchronized (multiplexers) {
+      SettableFuture<WorkerMultiplexer> future = multiplexers.get(key);
+      // Futures in the map are either pending or hold a multiplexer. If this one isn't there
+      // anymore, whoever removed it also destroys it.
+      if (future == null || !future.isDone() || Futures.getUnchecked(future) != multiplexer) {
+        return;
+      }
+      multiplexers.remove(key);
+    }
+    destroyMultiplexer(key, multiplexer);
+  }
+
+  private void destroyMultiplexer(WorkerKey key, WorkerMultiplexer multiplexer) {
+    try {
+      factory.destroyObject(key, factory.wrap(multiplexer.getWorker()));
+    } catch (Exception e) {
+      // The process is gone either way; nothing else depends on it.
+    }
+  }
+
+  @Override
+  public void close() {
+    Map<WorkerKey, SettableFuture<WorkerMultiplexer>> toDestroy;
+    synchronized (multiplexers) {
+      toDestroy = new HashMap<>(multiplexers);
+      multiplexers.clear();
+    }
+    for (Map.Entry<WorkerKey, SettableFuture<WorkerMultiplexer>> entry : toDestroy.entrySet()) {
+      if (entry.getValue().isDone()) {
+        destroyMultiplexer(entry.getKey(), Futures.getUnchecked(entry.getValue()));
+      }
+    }
+    super.close();
+    ResourceManager.instance().setExternalRamUsage(0);
+  }
 }
@@ -86,17 +86,20 @@ public final class WorkerSpawnStrategy implements SandboxedSpawnActionContext {
   private final boolean verboseFailures;
   private final Multimap<String, String> extraFlags;
   private final SpawnInputExpander spawnInputExpander;
+  private final boolean multiplex;
 
   public WorkerSpawnStrategy(
       Path execRoot,
       WorkerPool workers,
       boolean verboseFailures,
-      Multimap<String, String> extraFlags) {
+      Multimap<String, String> extraFlags,
+      boolean multiplex) {
     Preconditions.checkNotNull(workers);
     this.workers = Preconditions.checkNotNull(workers);
     this.execRoot = execRoot;
     this.verboseFailures = verboseFailures;
     this.extraFlags = extraFlags;
+    this.multiplex = multiplex;
     this.spawnInputExpander = new SpawnInputExpander(false);
   }
 
@@ -181,7 +184,12 @@ public final class WorkerSpawnStrategy implements SandboxedSpawnActionContext {
       WorkRequest workRequest =
           createWorkRequest(spawn, actionExecutionContext, flagFiles, inputFileCache);
 
-      WorkResponse response = execInWorker(key, workRequest, writeOutputFiles);
+      // Sandboxed workers need to stage the inputs of each request separately, so they always get
+      // one request at a time.
+      WorkResponse response =
+          shouldMultiplex(spawn, key)
+              ? execInMultiplexer(key, workRequest)
+              : execInWorker(key, workRequest, writeOutputFiles);
 
       FileOutErr outErr = actionExecutionContext.getFileOutErr();
       response.getOutputBytes().writeTo(outErr.getErrorStream());
@@ -284,6 +292,42 @@ public final class WorkerSpawnStrategy implements SandboxedSpawnActionContext {
     }
   }
 
+  private boolean shouldMultiplex(Spawn spawn, WorkerKey key) {
+    return multiplex
+        && !key.mustBeSandboxed()
+        && "1".equals(
+            spawn.getExecutionInfo().get(ExecutionRequirements.SUPPORTS_MULTIPLEX_WORKERS));
+  }
+
+  private WorkResponse execInMultiplexer(WorkerKey key, WorkRequest request)
+      throws InterruptedException, ExecException {
+    WorkerMultiplexer multiplexer;
+    try {
+      multiplexer = workers.getMultiplexer(key);
+    } catch (IOException e) {
+      throw new UserExecException(
+          ErrorMessage.builder()
+              .message("IOException while starting a multiplex worker:")
+              .exception(e)
+              .build()
+              .toString());
+    }
+
+    try {
+      return multiplexer.execute(request);
+    } catch (IOException e) {
+      workers.invalidateMultiplexer(key, multiplexer);
+      throw new UserExecException(
+          ErrorMessage.builder()
+              .message("Multiplex worker process failed while handling a WorkRequest:")
+              .logFile(multiplexer.getWorker().getLogFile())
+              .logSizeLimit(4096)
+              .exception(e)
+              .build()
+              .toString());
+    }
+  }
+
   private WorkResponse execInWorker(
       WorkerKey key,
       WorkRequest request,
@@ -0,0 +1,169 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Remembers how many workers of each kind were busy at the same time in previous builds, so that
+ * the next build can start them ahead of demand instead of on its critical path.
+ *
+ * <p>Also counts how often an action got a worker that was already running (warm) versus one that
+ * had to be started for it (cold). The history lives as long as the server, independently of the
+ * {@link WorkerPool}, which may be shut down between builds.
+ */
+@ThreadSafe
+final class WorkerWarmup {
+  private static final Logger LOG = Logger.getLogger(WorkerWarmup.class.getName());
+
+  @GuardedBy("this")
+  private final Map<WorkerKey, Integer> peakDemand = new HashMap<>();
+
+  @GuardedBy("this")
+  private int warmBorrows;
+
+  @GuardedBy("this")
+  private int coldBorrows;
+
+  @GuardedBy("this")
+  private int starts;
+
+  @GuardedBy("this")
+  private int prewarmed;
+
+  @GuardedBy("this")
+  private long startNanos;
+
+  /**
+   * Records that a worker for the given key was handed to an action, while {@code busy} workers of
+   * that key (including this one) were in use.
+   *
+   * @param cold whether the worker had to be started for this action
+   */
+  synchronized void recordBorrow(WorkerKey key, int busy, boolean cold) {
+    if (cold) {
+      coldBorrows++;
+    } else {
+      warmBorrows++;
+    }
+    if (key.mustBeSandboxed()) {
+      // These are set up for a single action, so there is no point in starting them early.
+      return;
+    }
+    Integer previous = peakDemand.remove(key);
+    // Always keep the latest key, so that prewarmed workers match the current worker files. The
+    // inputs and outputs are specific to the action and are dropped to save memory.
+    peakDemand.put(
+        new WorkerKey(
+            key.getArgs(),
+            key.getEnv(),
+            key.getExecRoot(),
+            key.getMnemonic(),
+            key.getWorkerFilesHash(),
+            ImmutableMap.<PathFragment, Path>of(),
+            ImmutableSet.<PathFragment>of(),
+            false),
+        previous == null ? busy : Math.max(previous, busy));
+  }
+
+  /** Records that starting a worker process took the given time. */
+  synchronized void recordStart(long nanos) {
+    starts++;
+    startNanos += nanos;
+  }
+
+  private synchronized Map<WorkerKey, Integer> getPeakDemand() {
+    return new HashMap<>(peakDemand);
+  }
+
+  /**
+   * Starts workers in the background until every key seen in previous builds has as many live
+   * workers as were busy at the same time before, but at most {@code maxPerKey}.
+   */
+  void prewarm(final WorkerPool pool, final int maxPerKey) {
+    final Map<WorkerKey, Integer> demand = getPeakDemand();
+    if (demand.isEmpty()) {
+      return;
+    }
+    Thread thread =
+        new Thread("worker-prewarm") {
+          @Override
+          public void run() {
+            for (Map.Entry<WorkerKey, Integer> entry : demand.entrySet()) {
+              WorkerKey key = entry.getKey();
+              int missing =
+                  Math.min(entry.getValue(), maxPerKey)
+                      - pool.getNumIdle(key)
+                      - pool.getNumActive(key);
+              for (int i = 0; i < missing; i++) {
+                if (pool.isOverMemoryBudget()) {
+                  return;
+                }
+                try {
+                  pool.addObject(key);
+                } catch (IllegalStateException e) {
+                  // The pool was closed, e.g. because the build was interrupted.
+                  return;
+                } catch (Exception e) {
+                  LOG.log(Level.WARNING, "Failed to prewarm " + key.getMnemonic() + " worker", e);
+                  break;
+                }
+                synchronized (WorkerWarmup.this) {
+                  prewarmed++;
+                }
+              }
+            }
+          }
+        };
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Returns a summary of the statistics since the last call, or null if no action used a pooled
+   * worker in the meantime, and resets them.
+   */
+  @Nullable
+  synchronized String reportAndReset() {
+    String report = null;
+    if (warmBorrows + coldBorrows > 0) {
+      report =
+          String.format(
+              "Workers: %d actions used a running worker, %d waited for one to start; "
+                  + "%d worker processes started (%d ahead of demand), %d ms on average",
+              warmBorrows,
+              coldBorrows,
+              starts,
+              prewarmed,
+              starts == 0 ? 0 : startNanos / starts / 1000000);
+    }
+    warmBorrows = 0;
+    coldBorrows = 0;
+    starts = 0;
+    prewarmed = 0;
+    startNanos = 0;
+    return report;
+  }
+}
@@ -65,6 +65,16 @@ static void Usage(char *program_name, const char *fmt, ...) {
           "mounted readonly.\n"
           "    The -M option specifies which directory to mount, the -m option "
           "specifies where to\n"
+          "  -O <dir>  mount an overlay on the working directory, showing the "
+          "contents of <dir>\n"
+          "    without ever modifying it. Requires -S.\n"
+          "  -S <dir>  directory with the 'upper' and 'work' directories of "
+          "the overlay (-O),\n"
+          "    the former of which receives everything written to the working "
+          "directory\n"
+          "  -C <dir>  cgroup v2 directory to run the sandbox in, so that its "
+          "limits apply to\n"
+          "    the sandboxed process and all of its children\n"
           "  -N  if set, a new network namespace will be created\n"
           "  -R  if set, make the uid/gid be root\n"
           "  -U  if set, make the uid/gid be nobody\n"
@@ -89,8 +99,8 @@ static void ParseCommandLine(unique_ptr<vector<char *>> args) {
   int c;
   bool source_specified = false;
 
-  while ((c = getopt(args->size(), args->data(), ":W:T:t:l:L:w:e:M:m:HNRUD")) !=
-         -1) {
+  while ((c = getopt(args->size(), args->data(),
+                     ":W:T:t:l:L:w:e:M:m:O:S:C:HNRUD")) != -1) {
     if (c != 'M' && c != 'm') source_specified = false;
     switch (c) {
       case 'W':
@@ -155,6 +165,34 @@ static void ParseCommandLine(unique_ptr<vector<char *>> args) {
         opt.bind_mount_targets.emplace_back(optarg);
         source_specified = false;
         break;
+      case 'O':
+        ValidateIsAbsolutePath(optarg, args->front(), static_cast<char>(c));
+        if (opt.overlay_lower_dir.empty()) {
+          opt.overlay_lower_dir.assign(optarg);
+        } else {
+          Usage(args->front(),
+                "Multiple overlays (-O) specified, expected one.");
+        }
+        break;
+      case 'S':
+        ValidateIsAbsolutePath(optarg, args->front(), static_cast<char>(c));
+        if (opt.overlay_scratch_dir.empty()) {
+          opt.overlay_scratch_dir.assign(optarg);
+        } else {
+          Usage(args->front(),
+                "Multiple overlay scratch directories (-S) specified, expected "
+                "one.");
+        }
+        break;
+      case 'C':
+        ValidateIsAbsolutePath(optarg, args->front(), static_cast<char>(c));
+        if (opt.cgroup_dir.empty()) {
+          opt.cgroup_dir.assign(optarg);
+        } else {
+          Usage(args->front(),
+                "Multiple cgroups (-C) specified, expected one.");
+        }
+        break;
       case 'H':
         opt.fake_hostname = true;
         break;
@@ -254,4 +292,8 @@ void ParseOptions(int argc, char *argv[]) {
   if (opt.working_dir.empty()) {
     opt.working_dir = getcwd(nullptr, 0);
   }
+
+  if (opt.overlay_lower_dir.empty() != opt.overlay_scratch_dir.empty()) {
+    Usage(args.front(), "The -O and -S options must be used together.");
+  }
 }
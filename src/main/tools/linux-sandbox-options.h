@@ -40,6 +40,12 @@ struct Options {
   std::vector<std::string> bind_mount_sources;
   // Target of files or directories to explicitly bind mount in the sandbox (-m)
   std::vector<std::string> bind_mount_targets;
+  // Directory to mount read-only below an overlay on the working directory (-O)
+  std::string overlay_lower_dir;
+  // Directory holding the "upper" and "work" directories of the overlay (-S)
+  std::string overlay_scratch_dir;
+  // The cgroup v2 directory to run the sandbox in (-C)
+  std::string cgroup_dir;
   // Set the hostname inside the sandbox to 'localhost' (-H)
   bool fake_hostname;
   // Create a new network namespace (-N)
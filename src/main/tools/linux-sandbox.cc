@@ -32,6 +32,8 @@
  *  - If linux-sandbox's parent dies, it will kill itself, the process and all
  *    the children.
  *  - Network access is allowed, but can be disabled via -N.
+ *  - With -C, the process and all of its children run in the given cgroup and
+ *    are subject to its limits.
  *  - The hostname and domainname will be set to "sandbox".
  *  - The process runs in its own PID namespace, so other processes on the
  *    system are invisible.
@@ -212,6 +214,10 @@ int main(int argc, char *argv[]) {
 
   CloseFds();
 
+  // Join the cgroup before cloning, so that everything inside the sandbox is
+  // subject to its limits from the start.
+  JoinCgroup(opt.cgroup_dir);
+
   if (opt.timeout_secs > 0) {
     InstallSignalHandler(SIGALRM, OnTimeout);
     SetTimeout(opt.timeout_secs);
@@ -0,0 +1,433 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+// process-launcher starts processes on behalf of the Bazel server, so that the
+// server doesn't have to fork its own, much larger process for every spawn and
+// wait for each of them in a separate thread.
+//
+// Requests are read from stdin. Each is a sequence of NUL-terminated fields:
+//
+//   spawn <id> <working dir> <stdin> <stdout> <stderr> <argc> <argv>...
+//       <envc> <env>...
+//   kill <id> <signal>
+//
+// <stdin> is the path of a FIFO, or empty for /dev/null. <stdout> and <stderr>
+// are either empty for /dev/null, or start with 'p' for a FIFO or 'a' for a
+// file to append to, followed by the path. An <envc> of -1 means that the
+// process inherits the environment of the launcher.
+//
+// The launcher opens the FIFOs in the child process in the order stdin,
+// stdout, stderr, so the server has to open its ends in the same order.
+//
+// Responses are written to stdout, one line each:
+//
+//   started <id> <pid>
+//   failed <id> <errno>
+//   exited <id> <exit value> <user usec> <system usec> <max rss kb>
+//       <block inputs> <block outputs>
+//
+// where the exit value is the exit code of the process, or 128 + the signal
+// that terminated it. The resource usage includes that of all descendants
+// that the process waited for. A process that failed to start may be reported as exited
+// as well.
+//
+// The launcher exits when stdin is closed, killing all processes it started.
+// On Linux, the processes it started directly are also killed if the launcher
+// itself dies.
+
+#include <errno.h>
+#include <fcntl.h>
+#include <pthread.h>
+#include <signal.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/resource.h>
+#include <sys/stat.h>
+#include <sys/types.h>
+#include <sys/wait.h>
+#include <unistd.h>
+#ifdef __linux__
+#include <sys/prctl.h>
+#endif
+
+#include <map>
+#include <string>
+#include <vector>
+
+#include "src/main/tools/logging.h"
+
+extern char **environ;
+
+// Guards all of the following.
+static pthread_mutex_t mutex = PTHREAD_MUTEX_INITIALIZER;
+// Signalled whenever a process was started.
+static pthread_cond_t started = PTHREAD_COND_INITIALIZER;
+// Processes that were started and not reaped yet, by pid.
+static std::map<pid_t, std::string> ids_by_pid;
+// The same processes, by id.
+static std::map<std::string, pid_t> pids_by_id;
+
+// Writes a response line to stdout, which is shared by all threads.
+static void Respond(const std::string &line) {
+  static pthread_mutex_t stdout_mutex = PTHREAD_MUTEX_INITIALIZER;
+  pthread_mutex_lock(&stdout_mutex);
+  std::string data = line + "\n";
+  const char *p = data.data();
+  size_t remaining = data.size();
+  while (remaining > 0) {
+    ssize_t written = write(STDOUT_FILENO, p, remaining);
+    if (written < 0) {
+      if (errno == EINTR) {
+        continue;
+      }
+      // The server is gone, so is our reason to live.
+      _exit(EXIT_FAILURE);
+    }
+    p += written;
+    remaining -= written;
+  }
+  pthread_mutex_unlock(&stdout_mutex);
+}
+
+// Reads the next NUL-terminated field from stdin. Returns false at EOF.
+static bool ReadField(std::string *field) {
+  field->clear();
+  while (true) {
+    int c = getchar_unlocked();
+    if (c == EOF) {
+      return false;
+    }
+    if (c == '\0') {
+      return true;
+    }
+    field->push_back(static_cast<char>(c));
+  }
+}
+
+static bool ReadInt(int *value) {
+  std::string field;
+  if (!ReadField(&field)) {
+    return false;
+  }
+  *value = atoi(field.c_str());
+  return true;
+}
+
+static bool ReadStrings(std::vector<std::string> *strings, int count) {
+  for (int i = 0; i < count; i++) {
+    std::string s;
+    if (!ReadField(&s)) {
+      return false;
+    }
+    strings->push_back(s);
+  }
+  return true;
+}
+
+// Everything a child process needs, prepared before forking, as only
+// async-signal-safe functions may be called in the child of a multi-threaded
+// process.
+struct SpawnRequest {
+  std::string id;
+  std::string working_dir;
+  std::string stdin_path;
+  std::string stdout_spec;
+  std::string stderr_spec;
+  std::vector<std::string> args;
+  std::vector<std::string> env;
+  bool inherit_env;
+  // Candidate paths of the executable, in the order in which to try them.
+  std::vector<std::string> executables;
+};
+
+// Looks up the executable like execvp() does, but in the PATH of the launcher
+// rather than that of the child, like java.lang.ProcessBuilder.
+static void FindExecutables(SpawnRequest *request) {
+  const std::string &arg0 = request->args[0];
+  if (arg0.find('/') != std::string::npos) {
+    request->executables.push_back(arg0);
+    return;
+  }
+  const char *path = getenv("PATH");
+  std::string dirs = path == nullptr ? "/bin:/usr/bin" : path;
+  size_t start = 0;
+  while (start <= dirs.size()) {
+    size_t end = dirs.find(':', start);
+    if (end == std::string::npos) {
+      end = dirs.size();
+    }
+    std::string dir = dirs.substr(start, end - start);
+    request->executables.push_back((dir.empty() ? "." : dir) + "/" + arg0);
+    start = end + 1;
+  }
+}
+
+// The descriptors are opened with O_CLOEXEC, so that only their duplicates as
+// stdin, stdout and stderr survive the exec.
+static int OpenOutput(const std::string &spec) {
+  if (spec.empty()) {
+    return open("/dev/null", O_WRONLY | O_CLOEXEC);
+  } else if (spec[0] == 'a') {
+    return open(spec.c_str() + 1, O_WRONLY | O_CREAT | O_APPEND | O_CLOEXEC,
+                0666);
+  } else {
+    return open(spec.c_str() + 1, O_WRONLY | O_CLOEXEC);
+  }
+}
+
+// Runs in the child process. Reports errors through error_fd, which is closed
+// on a successful exec.
+static void ExecChild(const SpawnRequest &request, char **argv, char **envp,
+                      int error_fd, pid_t launcher_pid) {
+#ifdef __linux__
+  // Don't outlive the launcher if it gets killed before it can kill us. This
+  // only covers the process itself, not the processes it starts.
+  if (prctl(PR_SET_PDEATHSIG, SIGKILL) < 0 || getppid() != launcher_pid) {
+    _exit(127);
+  }
+#else
+  (void)launcher_pid;
+#endif
+  int fds[3];
+  fds[0] = request.stdin_path.empty()
+               ? open("/dev/null", O_RDONLY | O_CLOEXEC)
+               : open(request.stdin_path.c_str(), O_RDONLY | O_CLOEXEC);
+  fds[1] = fds[0] < 0 ? -1 : OpenOutput(request.stdout_spec);
+  fds[2] = fds[1] < 0 ? -1 : OpenOutput(request.stderr_spec);
+  int error = 0;
+  for (int fd = 0; fd < 3 && error == 0; fd++) {
+    if (fds[fd] < 0 || dup2(fds[fd], fd) < 0) {
+      error = errno;
+    }
+  }
+  if (error == 0 && chdir(request.working_dir.c_str()) < 0) {
+    error = errno;
+  }
+  // Own process group, so that kill requests reach the whole process tree.
+  if (error == 0 && setpgid(0, 0) < 0) {
+    error = errno;
+  }
+  if (error == 0) {
+    sigset_t empty;
+    sigemptyset(&empty);
+    sigprocmask(SIG_SETMASK, &empty, nullptr);
+    signal(SIGPIPE, SIG_DFL);
+    error = ENOENT;
+    for (const std::string &executable : request.executables) {
+      execve(executable.c_str(), argv, envp);
+      // Like execvp(), remember that we found something we couldn't run.
+      if (errno != ENOENT && errno != ENOTDIR) {
+        error = errno;
+      }
+    }
+  }
+  ssize_t ignored = write(error_fd, &error, sizeof(error));
+  (void)ignored;
+  _exit(127);
+}
+
+struct Startup {
+  std::string id;
+  pid_t pid;
+  int error_fd;
+};
+
+// Waits until the child has exec'd or failed, which may take a while because
+// it blocks on opening the FIFOs until the server opens their other ends.
+static void *AwaitStartup(void *arg) {
+  Startup *startup = static_cast<Startup *>(arg);
+  int error = 0;
+  ssize_t n;
+  do {
+    n = read(startup->error_fd, &error, sizeof(error));
+  } while (n < 0 && errno == EINTR);
+  close(startup->error_fd);
+  if (n == sizeof(error)) {
+    Respond("failed " + startup->id + " " + std::to_string(error));
+  } else {
+    Respond("started " + startup->id + " " + std::to_string(startup->pid));
+  }
+  delete startup;
+  return nullptr;
+}
+
+static void Spawn(const SpawnRequest &request) {
+  std::vector<char *> argv;
+  for (const std::string &arg : request.args) {
+    argv.push_back(const_cast<char *>(arg.c_str()));
+  }
+  argv.push_back(nullptr);
+  std::vector<char *> envp;
+  for (const std::string &var : request.env) {
+    envp.push_back(const_cast<char *>(var.c_str()));
+  }
+  envp.push_back(nullptr);
+
+  // Not pipe2(), which macOS doesn't have. No other thread forks, so the
+  // descriptors can't leak into another child before they're marked.
+  int error_pipe[2];
+  if (pipe(error_pipe) < 0 || fcntl(error_pipe[0], F_SETFD, FD_CLOEXEC) < 0 ||
+      fcntl(error_pipe[1], F_SETFD, FD_CLOEXEC) < 0) {
+    Respond("failed " + request.id + " " + std::to_string(errno));
+    return;
+  }
+
+  // Hold the lock while forking, so that the reaper can't see the child exit
+  // before we know about it.
+  pthread_mutex_lock(&mutex);
+  pid_t launcher_pid = getpid();
+  pid_t pid = fork();
+  if (pid == 0) {
+    close(error_pipe[0]);
+    ExecChild(request, argv.data(),
+              request.inherit_env ? environ : envp.data(), error_pipe[1],
+              launcher_pid);
+  }
+  int fork_error = errno;
+  if (pid > 0) {
+    ids_by_pid[pid] = request.id;
+    pids_by_id[request.id] = pid;
+    pthread_cond_signal(&started);
+  }
+  pthread_mutex_unlock(&mutex);
+  close(error_pipe[1]);
+
+  if (pid < 0) {
+    close(error_pipe[0]);
+    Respond("failed " + request.id + " " + std::to_string(fork_error));
+    return;
+  }
+
+  Startup *startup = new Startup{request.id, pid, error_pipe[0]};
+  pthread_t thread;
+  pthread_attr_t attr;
+  pthread_attr_init(&attr);
+  pthread_attr_setdetachstate(&attr, PTHREAD_CREATE_DETACHED);
+  if (pthread_create(&thread, &attr, AwaitStartup, startup) != 0) {
+    AwaitStartup(startup);
+  }
+  pthread_attr_destroy(&attr);
+}
+
+// Reaps all children and reports their exit status and resource usage.
+static void *Reap(void *) {
+  while (true) {
+    pthread_mutex_lock(&mutex);
+    while (ids_by_pid.empty()) {
+      pthread_cond_wait(&started, &mutex);
+    }
+    pthread_mutex_unlock(&mutex);
+
+    int status;
+    struct rusage usage;
+    pid_t pid = wait4(-1, &status, 0, &usage);
+    if (pid < 0) {
+      if (errno != EINTR && errno != ECHILD) {
+        DIE("wait4");
+      }
+      continue;
+    }
+
+    pthread_mutex_lock(&mutex);
+    std::string id = ids_by_pid[pid];
+    ids_by_pid.erase(pid);
+    auto it = pids_by_id.find(id);
+    if (it != pids_by_id.end() && it->second == pid) {
+      pids_by_id.erase(it);
+    }
+    pthread_mutex_unlock(&mutex);
+
+    int exit_value = WIFSIGNALED(status) ? 128 + WTERMSIG(status)
+                                         : WEXITSTATUS(status);
+    long long user_usec = usage.ru_utime.tv_sec * 1000000LL +
+                          usage.ru_utime.tv_usec;
+    long long system_usec = usage.ru_stime.tv_sec * 1000000LL +
+                            usage.ru_stime.tv_usec;
+    Respond("exited " + id + " " + std::to_string(exit_value) + " " +
+            std::to_string(user_usec) + " " + std::to_string(system_usec) +
+            " " + std::to_string(usage.ru_maxrss) + " " +
+            std::to_string(usage.ru_inblock) + " " +
+            std::to_string(usage.ru_oublock));
+  }
+  return nullptr;
+}
+
+static void Kill(const std::string &id, int signum) {
+  pthread_mutex_lock(&mutex);
+  auto it = pids_by_id.find(id);
+  if (it != pids_by_id.end()) {
+    // The process group may not exist yet if the child has not called
+    // setpgid() yet, so also signal the process itself.
+    kill(-it->second, signum);
+    kill(it->second, signum);
+  }
+  pthread_mutex_unlock(&mutex);
+}
+
+int main(int argc, char *argv[]) {
+  if (argc > 1 && strcmp(argv[1], "-D") == 0) {
+    global_debug = true;
+  }
+  // A write to a FIFO whose reader is gone must fail in the child, not kill
+  // it, and a write to our stdout must fail rather than kill us.
+  signal(SIGPIPE, SIG_IGN);
+
+  pthread_t reaper;
+  if (pthread_create(&reaper, nullptr, Reap, nullptr) != 0) {
+    DIE("pthread_create");
+  }
+
+  std::string command;
+  while (ReadField(&command)) {
+    if (command == "spawn") {
+      SpawnRequest request;
+      int arg_count, env_count;
+      if (!ReadField(&request.id) || !ReadField(&request.working_dir) ||
+          !ReadField(&request.stdin_path) || !ReadField(&request.stdout_spec) ||
+          !ReadField(&request.stderr_spec) || !ReadInt(&arg_count) ||
+          !ReadStrings(&request.args, arg_count) || !ReadInt(&env_count) ||
+          !ReadStrings(&request.env, env_count < 0 ? 0 : env_count)) {
+        break;
+      }
+      request.inherit_env = env_count < 0;
+      if (request.args.empty()) {
+        Respond("failed " + request.id + " " + std::to_string(EINVAL));
+        continue;
+      }
+      PRINT_DEBUG("spawn %s: %s", request.id.c_str(), request.args[0].c_str());
+      FindExecutables(&request);
+      Spawn(request);
+    } else if (command == "kill") {
+      std::string id;
+      int signum;
+      if (!ReadField(&id) || !ReadInt(&signum)) {
+        break;
+      }
+      PRINT_DEBUG("kill %s: %d", id.c_str(), signum);
+      Kill(id, signum);
+    } else {
+      DIE("unknown request '%s'", command.c_str());
+    }
+  }
+
+  // The server went away; don't leave its processes behind.
+  pthread_mutex_lock(&mutex);
+  for (const auto &entry : ids_by_pid) {
+    kill(-entry.first, SIGKILL);
+    kill(entry.first, SIGKILL);
+  }
+  pthread_mutex_unlock(&mutex);
+  return 0;
+}
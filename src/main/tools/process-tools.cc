@@ -21,6 +21,7 @@
 #include <stdio.h>
 #include <stdlib.h>
 #include <string.h>
+#include <sys/resource.h>
 #include <sys/stat.h>
 #include <sys/time.h>
 #include <sys/types.h>
@@ -76,6 +77,24 @@ void Redirect(const std::string &target_path, int fd) {
   }
 }
 
+void JoinCgroup(const std::string &cgroup_dir) {
+  if (cgroup_dir.empty()) {
+    return;
+  }
+  std::string procs_path = cgroup_dir + "/cgroup.procs";
+  int fd = open(procs_path.c_str(), O_WRONLY);
+  if (fd < 0) {
+    DIE("open(%s)", procs_path.c_str());
+  }
+  std::string pid = std::to_string(getpid());
+  if (write(fd, pid.c_str(), pid.size()) < 0) {
+    DIE("write(%s)", procs_path.c_str());
+  }
+  if (close(fd) < 0) {
+    DIE("close");
+  }
+}
+
 void KillEverything(pid_t pgrp, bool gracefully, double graceful_kill_delay) {
   if (gracefully) {
     kill(-pgrp, SIGTERM);
@@ -170,11 +189,11 @@ void SetTimeout(double timeout_secs) {
   }
 }
 
-int WaitChild(pid_t pid) {
+int WaitChild(pid_t pid, struct rusage *rusage) {
   int err, status;
 
   do {
-    err = waitpid(pid, &status, 0);
+    err = wait4(pid, &status, 0, rusage);
   } while (err == -1 && errno == EINTR);
 
   if (err == -1) {
@@ -16,6 +16,7 @@
 #define SRC_MAIN_TOOLS_PROCESS_TOOLS_H_
 
 #include <stdbool.h>
+#include <sys/resource.h>
 #include <sys/types.h>
 #include <string>
 
@@ -31,6 +32,11 @@ int SwitchToEgid();
 // Redirect fd to the file target_path (but not if target_path is empty or "-").
 void Redirect(const std::string &target_path, int fd);
 
+// Move the calling process into the cgroup v2 directory cgroup_dir, so that it
+// and all processes it starts afterwards are subject to the limits of that
+// cgroup. Does nothing if cgroup_dir is empty.
+void JoinCgroup(const std::string &cgroup_dir);
+
 // Make sure the process group "pgrp" and all its subprocesses are killed.
 // If "gracefully" is true, sends SIGTERM first and after a timeout of
 // "graceful_kill_delay" seconds, sends SIGKILL.
@@ -56,6 +62,8 @@ void SetTimeout(double timeout_secs);
 
 // Wait for "pid" to exit and return its exit code.
 // "name" is used for the error message only.
-int WaitChild(pid_t pid);
+// If "rusage" is not null, it receives the resources that the child and the
+// descendants it waited for used.
+int WaitChild(pid_t pid, struct rusage *rusage = nullptr);
 
 #endif  // PROCESS_TOOLS_H__
@@ -17,6 +17,7 @@
 #include <signal.h>
 #include <stdio.h>
 #include <stdlib.h>
+#include <sys/resource.h>
 #include <sys/stat.h>
 #include <sys/types.h>
 #include <sys/wait.h>
@@ -67,12 +68,17 @@ void LegacyProcessWrapper::WaitForChild() {
     SetTimeout(opt.timeout_secs);
   }
 
-  int status = WaitChild(child_pid);
+  struct rusage usage;
+  int status = WaitChild(child_pid, &usage);
 
   // The child is done for, but may have grandchildren that we still have to
   // kill.
   kill(-child_pid, SIGKILL);
 
+  if (!opt.stats_path.empty()) {
+    WriteStats(usage);
+  }
+
   if (last_signal > 0) {
     // Don't trust the exit code if we got a timeout or signal.
     InstallDefaultSignalHandler(last_signal);
@@ -86,6 +92,26 @@ void LegacyProcessWrapper::WaitForChild() {
   }
 }
 
+void LegacyProcessWrapper::WriteStats(const struct rusage &usage) {
+  FILE *stats = fopen(opt.stats_path.c_str(), "w");
+  if (stats == nullptr) {
+    DIE("fopen(%s)", opt.stats_path.c_str());
+  }
+#ifdef __APPLE__
+  // In bytes rather than kilobytes.
+  long max_rss_kb = usage.ru_maxrss / 1024;
+#else
+  long max_rss_kb = usage.ru_maxrss;
+#endif
+  fprintf(stats, "%lld %lld %ld %ld %ld\n",
+          usage.ru_utime.tv_sec * 1000000LL + usage.ru_utime.tv_usec,
+          usage.ru_stime.tv_sec * 1000000LL + usage.ru_stime.tv_usec,
+          max_rss_kb, usage.ru_inblock, usage.ru_oublock);
+  if (fclose(stats) != 0) {
+    DIE("fclose(%s)", opt.stats_path.c_str());
+  }
+}
+
 // Called when timeout or signal occurs.
 void LegacyProcessWrapper::OnSignal(int sig) {
   last_signal = sig;
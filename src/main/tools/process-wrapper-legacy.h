@@ -16,6 +16,7 @@
 #define SRC_MAIN_TOOLS_PROCESS_WRAPPER_LEGACY_H_
 
 #include <signal.h>
+#include <sys/resource.h>
 #include <vector>
 
 // The process-wrapper implementation that was used until and including Bazel
@@ -40,6 +41,7 @@ class LegacyProcessWrapper {
  private:
   static void SpawnChild();
   static void WaitForChild();
+  static void WriteStats(const struct rusage &usage);
   static void OnSignal(int sig);
 
   static pid_t child_pid;
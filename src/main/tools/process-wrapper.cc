@@ -21,6 +21,17 @@
 // unless process-wrapper receives a signal. ie, on SIGTERM this program will
 // die with raise(SIGTERM) even if the child process handles SIGTERM with
 // exit(0).
+//
+// With --cgroup=<dir>, process-wrapper first moves itself into the given
+// cgroup, so that the limits of the cgroup apply to the command and everything
+// it starts.
+//
+// With --stats=<file>, process-wrapper writes what the command used to the
+// given file once it exited, as a single line:
+//
+//   <user usec> <system usec> <max rss kb> <block inputs> <block outputs>
+//
+// This includes the descendants that the command waited for.
 
 #include "src/main/tools/process-wrapper.h"
 
@@ -47,8 +58,9 @@ struct Options opt;
 // Print out a usage error and exit with EXIT_FAILURE.
 static void Usage(char *program_name) {
   fprintf(stderr,
-          "Usage: %s <timeout-secs> <kill-delay-secs> <stdout-redirect> "
-          "<stderr-redirect> <command> [args] ...\n",
+          "Usage: %s [--cgroup=<dir>] [--stats=<file>] <timeout-secs> "
+          "<kill-delay-secs> "
+          "<stdout-redirect> <stderr-redirect> <command> [args] ...\n",
           program_name);
   exit(EXIT_FAILURE);
 }
@@ -56,11 +68,21 @@ static void Usage(char *program_name) {
 // Parse the command line flags and return the result in an Options structure
 // passed as argument.
 static void ParseCommandLine(std::vector<char *> args) {
-  if (args.size() < 5) {
-    Usage(args.front());
+  static const char kCgroupFlag[] = "--cgroup=";
+  static const char kStatsFlag[] = "--stats=";
+  size_t optind = 1;
+  if (args.size() > optind &&
+      strncmp(args[optind], kCgroupFlag, sizeof(kCgroupFlag) - 1) == 0) {
+    opt.cgroup_dir.assign(args[optind++] + sizeof(kCgroupFlag) - 1);
+  }
+  if (args.size() > optind &&
+      strncmp(args[optind], kStatsFlag, sizeof(kStatsFlag) - 1) == 0) {
+    opt.stats_path.assign(args[optind++] + sizeof(kStatsFlag) - 1);
   }
 
-  int optind = 1;
+  if (args.size() < optind + 4) {
+    Usage(args.front());
+  }
 
   if (sscanf(args[optind++], "%lf", &opt.timeout_secs) != 1) {
     DIE("timeout_secs is not a real number.\n");
@@ -83,6 +105,8 @@ int main(int argc, char *argv[]) {
   SwitchToEuid();
   SwitchToEgid();
 
+  JoinCgroup(opt.cgroup_dir);
+
   Redirect(opt.stdout_path, STDOUT_FILENO);
   Redirect(opt.stderr_path, STDERR_FILENO);
 
@@ -24,6 +24,10 @@ struct Options {
   double kill_delay_secs;
   std::string stdout_path;
   std::string stderr_path;
+  // The cgroup v2 directory to run the command in, if any.
+  std::string cgroup_dir;
+  // The file to write the resource usage of the command to, if any.
+  std::string stats_path;
   std::vector<char *> args;
 };
 
@@ -0,0 +1,134 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.actions;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.packages.AspectDescriptor;
+import com.google.devtools.build.lib.shell.ResourceUsage;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+/** Tests for {@link ActionResourceHistory}. */
+@RunWith(JUnit4.class)
+public class ActionResourceHistoryTest {
+  private static final ResourceSet DECLARED = ResourceSet.create(250, 1, 0.5, 0);
+
+  private Path historyFile;
+
+  @Before
+  public final void createHistoryFile() throws Exception {
+    historyFile = new InMemoryFileSystem(BlazeClock.instance()).getPath("/output/history");
+    historyFile.getParentDirectory().createDirectory();
+  }
+
+  private static Action action(String mnemonic, String label) throws Exception {
+    Action action = Mockito.mock(Action.class);
+    when(action.getMnemonic()).thenReturn(mnemonic);
+    when(action.getOwner())
+        .thenReturn(
+            ActionOwner.create(
+                Label.parseAbsolute(label),
+                ImmutableList.<AspectDescriptor>of(),
+                null,
+                null,
+                null,
+                "config",
+                null));
+    return action;
+  }
+
+  private static ResourceUsage usage(long cpuMillis, long memoryMb) {
+    return new ResourceUsage(cpuMillis * 1000, 0, memoryMb * 1024, 2, 3);
+  }
+
+  @Test
+  public void estimateWithoutHistoryIsDeclared() throws Exception {
+    ActionResourceHistory history = new ActionResourceHistory(historyFile);
+
+    assertThat(history.get(action("Javac", "//a:a"))).isNull();
+    assertThat(history.estimate(action("Javac", "//a:a"), DECLARED)).isSameAs(DECLARED);
+  }
+
+  @Test
+  public void estimateUsesTargetHistory() throws Exception {
+    ActionResourceHistory history = new ActionResourceHistory(historyFile);
+    history.record(action("Javac", "//a:a"), 1000, usage(2000, 800));
+
+    ResourceSet estimate = history.estimate(action("Javac", "//a:a"), DECLARED);
+
+    assertThat(estimate.getMemoryMb()).isWithin(0.01).of(800);
+    assertThat(estimate.getCpuUsage()).isWithin(0.01).of(2);
+    assertThat(estimate.getIoUsage()).isWithin(0.01).of(DECLARED.getIoUsage());
+    assertThat(history.get(action("Javac", "//a:a")).getBlockOps()).isWithin(0.01).of(5);
+  }
+
+  @Test
+  public void averagesFavorRecentProcesses() throws Exception {
+    ActionResourceHistory history = new ActionResourceHistory(historyFile);
+    history.record(action("Javac", "//a:a"), 1000, usage(1000, 100));
+    history.record(action("Javac", "//a:a"), 1000, usage(1000, 200));
+
+    ActionResourceHistory.Entry entry = history.get(action("Javac", "//a:a"));
+
+    assertThat(entry.getSamples()).isEqualTo(2);
+    assertThat(entry.getMemoryMb()).isWithin(0.01).of(130);
+  }
+
+  @Test
+  public void mnemonicHistoryNeedsSeveralSamples() throws Exception {
+    ActionResourceHistory history = new ActionResourceHistory(historyFile);
+    history.record(action("Javac", "//a:a"), 1000, usage(500, 100));
+    history.record(action("Javac", "//b:b"), 1000, usage(500, 100));
+    assertThat(history.get(action("Javac", "//c:c"))).isNull();
+
+    history.record(action("Javac", "//d:d"), 1000, usage(500, 100));
+    assertThat(history.get(action("Javac", "//c:c")).getSamples()).isEqualTo(3);
+    assertThat(history.get(action("Genrule", "//c:c"))).isNull();
+  }
+
+  @Test
+  public void estimateKeepsSomeCpu() throws Exception {
+    ActionResourceHistory history = new ActionResourceHistory(historyFile);
+    history.record(action("Javac", "//a:a"), 1000, usage(0, 100));
+
+    assertThat(history.estimate(action("Javac", "//a:a"), DECLARED).getCpuUsage())
+        .isWithin(0.01)
+        .of(0.1);
+  }
+
+  @Test
+  public void historySurvivesSaveAndLoad() throws Exception {
+    ActionResourceHistory history = new ActionResourceHistory(historyFile);
+    history.record(action("Javac", "//a:a"), 1000, usage(1500, 300));
+    assertThat(history.save()).isGreaterThan(0L);
+
+    ActionResourceHistory loaded = new ActionResourceHistory(historyFile);
+    ActionResourceHistory.Entry entry = loaded.get(action("Javac", "//a:a"));
+
+    assertThat(entry.getSamples()).isEqualTo(1);
+    assertThat(entry.getMemoryMb()).isWithin(0.01).of(300);
+    assertThat(entry.getCpuUsage()).isWithin(0.01).of(1.5);
+  }
+}
@@ -14,6 +14,7 @@
 package com.google.devtools.build.lib.actions;
 
 import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.US_ASCII;
 import static org.junit.Assert.fail;
 
 import com.google.common.collect.ImmutableList;
@@ -21,6 +22,9 @@ import com.google.common.collect.ImmutableSet;
 import com.google.devtools.build.lib.actions.ResourceManager.ResourceHandle;
 import com.google.devtools.build.lib.testutil.TestThread;
 import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -192,6 +196,48 @@ public class ResourceManagerTest {
     thread1.joinAndAssertState(10000);
   }
 
+  @Test
+  public void testThatExternalRamUsageReducesAvailableRam() throws Exception {
+    rm.setExternalRamUsage(400);
+    assertThat(rm.inUse()).isFalse();
+
+    // The first request always succeeds, even if it doesn't fit next to the external usage.
+    acquire(700, 0, 0, 0);
+    assertThat(rm.isAvailable(200, 0, 0, 0)).isFalse();
+
+    rm.setExternalRamUsage(0);
+    assertThat(rm.isAvailable(200, 0, 0, 0)).isTrue();
+  }
+
+  @Test
+  public void testThatCgroupHeadroomAdmitsMoreRam() throws Exception {
+    Path cgroupRoot = new InMemoryFileSystem().getPath("/sys/fs/cgroup/blaze");
+    FileSystemUtils.createDirectoryAndParents(cgroupRoot);
+    FileSystemUtils.writeContent(
+        cgroupRoot.getRelative("cgroup.controllers"), US_ASCII, "cpu memory");
+    SpawnCgroups cgroups = SpawnCgroups.create(cgroupRoot, 2.0);
+    Path memoryCurrent = cgroupRoot.getRelative("memory.current");
+    acquire(600, 0, 0, 0);
+
+    // The estimates don't fit, and limits alone don't change admission.
+    rm.setSpawnCgroups(cgroups, /*overcommit=*/ false);
+    FileSystemUtils.writeContent(memoryCurrent, US_ASCII, Long.toString(100L << 20));
+    assertThat(rm.isAvailable(450, 0, 0, 0)).isFalse();
+
+    // With overcommitting, the actual usage leaves room for the whole estimate.
+    rm.setSpawnCgroups(cgroups, /*overcommit=*/ true);
+    assertThat(rm.isAvailable(450, 0, 0, 0)).isTrue();
+    // But the estimates still may only overlap so much.
+    assertThat(rm.isAvailable(600, 0, 0, 0)).isFalse();
+
+    // Without headroom, or if it can't be read, the estimates have to fit again.
+    FileSystemUtils.writeContent(memoryCurrent, US_ASCII, Long.toString(700L << 20));
+    assertThat(rm.isAvailable(450, 0, 0, 0)).isFalse();
+    memoryCurrent.delete();
+    assertThat(rm.isAvailable(450, 0, 0, 0)).isFalse();
+    assertThat(rm.isAvailable(400, 0, 0, 0)).isTrue();
+  }
+
   @Test
   public void testThatIOCannotBeOverallocated() throws Exception {
     assertThat(rm.inUse()).isFalse();
@@ -0,0 +1,164 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.fail;
+
+import com.google.devtools.build.lib.actions.SpawnCgroups.Cgroup;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link SpawnCgroups}. The kernel's cgroup files are simulated by plain files, so these
+ * only cover what is written to and read from them.
+ */
+@RunWith(JUnit4.class)
+public class SpawnCgroupsTest {
+  private Path root;
+
+  @Before
+  public final void createRoot() throws Exception {
+    root = new InMemoryFileSystem().getPath("/sys/fs/cgroup/blaze");
+    FileSystemUtils.createDirectoryAndParents(root);
+    write(root.getRelative("cgroup.controllers"), "cpuset cpu io memory pids\n");
+  }
+
+  @Test
+  public void createRequiresControllers() throws Exception {
+    write(root.getRelative("cgroup.controllers"), "cpuset io pids\n");
+    try {
+      SpawnCgroups.create(root, 2.0);
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasMessageThat().contains("memory and cpu controllers");
+    }
+  }
+
+  @Test
+  public void createEnablesControllersAndRemovesLeftovers() throws Exception {
+    root.getRelative("spawn-7").createDirectory();
+    root.getRelative("other").createDirectory();
+
+    SpawnCgroups.create(root, 2.0);
+
+    assertThat(read(root.getRelative("cgroup.subtree_control"))).isEqualTo("+memory +cpu");
+    assertThat(root.getRelative("spawn-7").exists()).isFalse();
+    assertThat(root.getRelative("other").exists()).isTrue();
+  }
+
+  @Test
+  public void cgroupIsLimitedByResources() throws Exception {
+    SpawnCgroups cgroups = SpawnCgroups.create(root, 1.5);
+
+    Cgroup cgroup = cgroups.createCgroup(ResourceSet.createWithRamCpuIo(100, 1.5, 0));
+
+    Path path = cgroup.getPath();
+    assertThat(path.getParentDirectory()).isEqualTo(root);
+    assertThat(read(path.getRelative("memory.high"))).isEqualTo(Long.toString(100L << 20));
+    assertThat(read(path.getRelative("memory.max"))).isEqualTo(Long.toString(150L << 20));
+    assertThat(read(path.getRelative("cpu.weight"))).isEqualTo("150");
+    // CPU is weighted, not capped, so that idle CPUs can be used beyond the estimate.
+    assertThat(path.getRelative("cpu.max").exists()).isFalse();
+  }
+
+  @Test
+  public void cpuWeightIsWithinKernelRange() throws Exception {
+    SpawnCgroups cgroups = SpawnCgroups.create(root, 2.0);
+
+    Cgroup small = cgroups.createCgroup(ResourceSet.createWithRamCpuIo(0, 0.001, 0));
+    Cgroup large = cgroups.createCgroup(ResourceSet.createWithRamCpuIo(0, 1000, 0));
+
+    assertThat(read(small.getPath().getRelative("cpu.weight"))).isEqualTo("1");
+    assertThat(read(large.getPath().getRelative("cpu.weight"))).isEqualTo("10000");
+  }
+
+  @Test
+  public void cgroupWithoutEstimatesIsUnlimited() throws Exception {
+    SpawnCgroups cgroups = SpawnCgroups.create(root, 2.0);
+
+    Cgroup cgroup = cgroups.createCgroup(ResourceSet.ZERO);
+
+    assertThat(cgroup.getPath().getRelative("memory.max").exists()).isFalse();
+    assertThat(cgroup.getPath().getRelative("cpu.weight").exists()).isFalse();
+  }
+
+  @Test
+  public void readsMemoryInUse() throws Exception {
+    SpawnCgroups cgroups = SpawnCgroups.create(root, 2.0);
+    write(root.getRelative("memory.current"), Long.toString(300L << 20) + "\n");
+
+    assertThat(cgroups.getMemoryInUseMb()).isWithin(0.001).of(300);
+  }
+
+  @Test
+  public void explainsOomKill() throws Exception {
+    Cgroup cgroup =
+        SpawnCgroups.create(root, 2.0)
+            .createCgroup(ResourceSet.createWithRamCpuIo(100, 1.0, 0));
+    write(
+        cgroup.getPath().getRelative("memory.events"),
+        "low 0\nhigh 12\nmax 3\noom 1\noom_kill 1\n");
+
+    assertThat(cgroup.readEvents().getOomKills()).isEqualTo(1);
+    assertThat(cgroup.explainFailure())
+        .isEqualTo(
+            "killed by the kernel for exceeding its memory limit of 200 MB (estimated: 100 MB)");
+  }
+
+  @Test
+  public void explainsThrottling() throws Exception {
+    Cgroup cgroup =
+        SpawnCgroups.create(root, 2.0)
+            .createCgroup(ResourceSet.createWithRamCpuIo(100, 1.0, 0));
+    write(cgroup.getPath().getRelative("memory.events"), "high 20\nmax 0\noom_kill 0\n");
+
+    assertThat(cgroup.explainFailure())
+        .isEqualTo("throttled to its estimated 100 MB of memory (0 OOM kills, throttled 20 times)");
+  }
+
+  @Test
+  public void noExplanationWithoutEvents() throws Exception {
+    Cgroup cgroup =
+        SpawnCgroups.create(root, 2.0)
+            .createCgroup(ResourceSet.createWithRamCpuIo(100, 1.0, 0));
+    write(cgroup.getPath().getRelative("memory.events"), "high 0\nmax 0\noom_kill 0\n");
+
+    assertThat(cgroup.explainFailure()).isNull();
+  }
+
+  @Test
+  public void deleteRemovesCgroup() throws Exception {
+    Cgroup cgroup = SpawnCgroups.create(root, 2.0).createCgroup(ResourceSet.ZERO);
+
+    cgroup.delete();
+
+    assertThat(cgroup.getPath().exists()).isFalse();
+  }
+
+  private static void write(Path path, String content) throws IOException {
+    FileSystemUtils.writeContent(path, US_ASCII, content);
+  }
+
+  private static String read(Path path) throws IOException {
+    return new String(FileSystemUtils.readContent(path), US_ASCII);
+  }
+}
@@ -36,6 +36,7 @@ import com.google.devtools.build.lib.exec.SpawnRunner.ProgressStatus;
 import com.google.devtools.build.lib.exec.SpawnRunner.SpawnExecutionPolicy;
 import com.google.devtools.build.lib.exec.util.SpawnBuilder;
 import com.google.devtools.build.lib.shell.JavaSubprocessFactory;
+import com.google.devtools.build.lib.shell.ResourceUsage;
 import com.google.devtools.build.lib.shell.Subprocess;
 import com.google.devtools.build.lib.shell.SubprocessBuilder;
 import com.google.devtools.build.lib.util.NetUtil;
@@ -106,6 +107,11 @@ public class LocalSpawnRunnerTest {
       // Do nothing.
     }
 
+    @Override
+    public ResourceUsage getResourceUsage() {
+      return null;
+    }
+
     @Override
     public OutputStream getOutputStream() {
       return ByteStreams.nullOutputStream();
@@ -15,11 +15,15 @@ package com.google.devtools.build.lib.packages;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.events.Location.LineAndColumn;
 import com.google.devtools.build.lib.testutil.TestRuleClassProvider;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 import org.junit.Before;
 import org.junit.Test;
@@ -74,6 +78,54 @@ public class AttributeContainerTest {
     assertThat(container.isAttributeValueExplicitlySpecified(attribute2)).isFalse();
   }
 
+  @Test
+  public void testDefaultValuesAreNotStored() throws Exception {
+    Object defaultValue = attribute2.getDefaultValue(null);
+    Object someValue = new Object();
+    container.setAttributeValue(attribute2, someValue, false);
+    assertThat(container.getAttr(attribute2.getName())).isSameAs(someValue);
+    container.setAttributeValue(attribute2, defaultValue, false);
+    assertThat(container.getAttr(attribute2.getName())).isSameAs(defaultValue);
+    assertThat(container.isAttributeValueExplicitlySpecified(attribute2)).isFalse();
+    container.setAttributeValue(attribute2, defaultValue, true);
+    assertThat(container.getAttr(attribute2.getName())).isSameAs(defaultValue);
+    assertThat(container.isAttributeValueExplicitlySpecified(attribute2)).isTrue();
+  }
+
+  @Test
+  public void testEqualListsAreShared() throws Exception {
+    ImmutableList<Label> value1 = ImmutableList.of(Label.parseAbsolute("//a:a"));
+    ImmutableList<Label> value2 = ImmutableList.of(Label.parseAbsolute("//a:a"));
+    AttributeContainer otherContainer = new AttributeContainer(ruleClass);
+    container.setAttributeValue(attribute1, value1, true);
+    otherContainer.setAttributeValue(attribute1, value2, true);
+    assertThat(otherContainer.getAttr(attribute1.getName()))
+        .isSameAs(container.getAttr(attribute1.getName()));
+
+    // Mutable lists are stored as they are.
+    List<Label> mutableValue = new ArrayList<>(value1);
+    otherContainer.setAttributeValue(attribute1, mutableValue, true);
+    assertThat(otherContainer.getAttr(attribute1.getName())).isSameAs(mutableValue);
+  }
+
+  @Test
+  public void testValuesInAnyOrder() throws Exception {
+    int n = ruleClass.getAttributeCount();
+    List<Integer> indices = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      indices.add(i);
+    }
+    Collections.shuffle(indices, new Random(42));
+    Object[] values = new Object[n];
+    for (int i : indices) {
+      values[i] = new Object();
+      container.setAttributeValue(ruleClass.getAttribute(i), values[i], false);
+    }
+    for (int i = 0; i < n; i++) {
+      assertThat(container.getAttributeValue(i)).isSameAs(values[i]);
+    }
+  }
+
   private static Location newLocation() {
     return Location.fromPathAndStartColumn(null, 0, 0, new LineAndColumn(0, 0));
   }
@@ -89,6 +141,37 @@ public class AttributeContainerTest {
     assertThat(container.getAttributeLocation("nomatch")).isNull();
   }
 
+  @Test
+  public void testSameContent() throws Exception {
+    AttributeContainer otherContainer = new AttributeContainer(ruleClass);
+    assertThat(container.hasSameContentAs(otherContainer)).isTrue();
+
+    // The order in which attributes are set doesn't matter.
+    container.setAttributeValue(attribute1, ImmutableList.of(Label.parseAbsolute("//a:a")), true);
+    container.setAttributeValue(attribute2, 42, false);
+    otherContainer.setAttributeValue(attribute2, 42, false);
+    assertThat(container.hasSameContentAs(otherContainer)).isFalse();
+    otherContainer.setAttributeValue(
+        attribute1, new ArrayList<>(ImmutableList.of(Label.parseAbsolute("//a:a"))), true);
+    assertThat(container.hasSameContentAs(otherContainer)).isTrue();
+    assertThat(otherContainer.hasSameContentAs(container)).isTrue();
+
+    // Where the attributes were set doesn't matter.
+    container.setAttributeLocation(
+        attribute1, Location.fromPathAndStartColumn(null, 10, 20, new LineAndColumn(2, 5)));
+    assertThat(container.hasSameContentAs(otherContainer)).isTrue();
+    otherContainer.setAttributeLocation(
+        attribute1, Location.fromPathAndStartColumn(null, 30, 40, new LineAndColumn(3, 5)));
+    assertThat(container.hasSameContentAs(otherContainer)).isTrue();
+
+    AttributeContainer explicitContainer = new AttributeContainer(ruleClass);
+    explicitContainer.setAttributeValue(
+        attribute1, ImmutableList.of(Label.parseAbsolute("//a:a")), true);
+    explicitContainer.setAttributeValue(attribute2, 42, true);
+    explicitContainer.setAttributeLocation(attribute1, newLocation());
+    assertThat(container.hasSameContentAs(explicitContainer)).isFalse();
+  }
+
   @Test
   public void testPackedState() throws Exception {
     Random rng = new Random();
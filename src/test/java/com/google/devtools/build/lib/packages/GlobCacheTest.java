@@ -17,6 +17,7 @@ import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.fail;
 
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.devtools.build.lib.cmdline.PackageIdentifier;
 import com.google.devtools.build.lib.packages.Globber.BadGlobException;
 import com.google.devtools.build.lib.testutil.Scratch;
@@ -29,6 +30,13 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -252,6 +260,57 @@ public class GlobCacheTest {
     assertThat(cache.globUnsorted(list("foo/first.js"), list("*/*"), false)).isEmpty();
   }
 
+  @Test
+  public void testConcurrentGlobsAreStartedOnce() throws Exception {
+    final AtomicInteger globsStarted = new AtomicInteger();
+    final GlobCache countingCache =
+        new GlobCache(
+            packageDirectory,
+            PackageIdentifier.createInMainRepo("isolated"),
+            new CachingPackageLocator() {
+              @Override
+              public Path getBuildFileForPackage(PackageIdentifier packageId) {
+                return null;
+              }
+            },
+            null,
+            TestUtils.getPool(),
+            -1) {
+          @Override
+          Future<List<Path>> safeGlobUnsorted(String pattern, boolean excludeDirs)
+              throws BadGlobException {
+            globsStarted.incrementAndGet();
+            // Gives the other threads time to ask for the same glob.
+            Uninterruptibles.sleepUninterruptibly(20, TimeUnit.MILLISECONDS);
+            return super.safeGlobUnsorted(pattern, excludeDirs);
+          }
+        };
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<List<String>>> results = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        results.add(
+            executor.submit(
+                new Callable<List<String>>() {
+                  @Override
+                  public List<String> call() throws Exception {
+                    start.await();
+                    return countingCache.globUnsorted(list("*.js", "*.txt"), NONE, false);
+                  }
+                }));
+      }
+      start.countDown();
+      for (Future<List<String>> result : results) {
+        assertThat(result.get())
+            .containsExactly("first.js", "second.js", "first.txt", "second.txt");
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertThat(globsStarted.get()).isEqualTo(2);
+  }
+
   private void assertEmpty(Collection<?> glob) {
     assertThat(glob).isEmpty();
   }
@@ -0,0 +1,168 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.packages;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.packages.util.PackageLoadingTestCase;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link ParallelBuildFileEvaluator}: each package has to be the same, and has to be
+ * loaded with the same events, whether its BUILD file is evaluated sequentially or concurrently.
+ */
+@RunWith(JUnit4.class)
+public class ParallelBuildFileEvaluatorTest extends PackageLoadingTestCase {
+
+  @Before
+  public final void writeMacros() throws Exception {
+    scratch.file("macros/BUILD");
+    scratch.file(
+        "macros/macros.bzl",
+        "def gen(name, n=3, outs_prefix=None):",
+        "  for i in range(n):",
+        "    native.genrule(",
+        "        name = '%s_%d' % (name, i),",
+        "        srcs = native.glob(['*.in']),",
+        "        outs = ['%s_%d.out' % (outs_prefix or name, i)],",
+        "        cmd = 'cat $(SRCS) > $@')",
+        "def count(name):",
+        "  native.genrule(",
+        "      name = name,",
+        "      outs = [name + '.out'],",
+        "      cmd = 'echo %d > $@' % len(native.existing_rules()))",
+        "def broken(name):",
+        "  native.genrule(name = name + '_before', outs = [name + '_before.out'], cmd = '')",
+        "  fail('broken ' + name)",
+        "def talk(name):",
+        "  print('talking to ' + name)",
+        "  native.genrule(name = name, outs = [name + '.out'], cmd = '')");
+    scratch.file("pkg/a.in");
+    scratch.file("pkg/b.in");
+    reporter.removeHandler(failFastHandler);
+  }
+
+  private String load(int threads, String... lines) throws Exception {
+    scratch.overwriteFile("pkg/BUILD", lines);
+    setPackageCacheOptions("--experimental_build_file_evaluation_threads=" + threads);
+    invalidatePackages();
+    eventCollector.clear();
+    Package pkg =
+        getPackageManager().getPackage(reporter, PackageIdentifier.createInMainRepo("pkg"));
+
+    List<String> targets = new ArrayList<>();
+    for (Target target : pkg.getTargets()) {
+      String description = target.getTargetKind() + " " + target.getName();
+      if (target instanceof Rule) {
+        Rule rule = (Rule) target;
+        description +=
+            " at " + rule.getLocation() + " cmd " + rule.getAttributeContainer().getAttr("cmd");
+        if (rule.containsErrors()) {
+          description += " with errors";
+        }
+      }
+      targets.add(description);
+    }
+    Collections.sort(targets);
+    StringBuilder result = new StringBuilder();
+    result.append(pkg.containsErrors() ? "errors\n" : "no errors\n");
+    for (String target : targets) {
+      result.append(target).append('\n');
+    }
+    for (Event event : eventCollector) {
+      result.append(event).append('\n');
+    }
+    return result.toString();
+  }
+
+  /** Checks that evaluating the BUILD file concurrently doesn't change the package. */
+  private void assertConforms(String... lines) throws Exception {
+    String sequential = load(0, lines);
+    assertThat(load(4, lines)).isEqualTo(sequential);
+    assertThat(load(1, lines)).isEqualTo(sequential);
+  }
+
+  @Test
+  public void testMacroAndRuleCalls() throws Exception {
+    List<String> lines = new ArrayList<>();
+    lines.add("load('//macros:macros.bzl', 'gen', 'talk')");
+    lines.add("N = 2");
+    for (int i = 0; i < 20; i++) {
+      lines.add("gen(name = 'g" + i + "', n = N + " + (i % 3) + ")");
+      lines.add("genrule(name = 'r" + i + "', outs = ['r" + i + ".out'], cmd = 'true')");
+      lines.add("talk(name = 't" + i + "')");
+    }
+    String[] build = lines.toArray(new String[0]);
+    assertConforms(build);
+    assertThat(load(4, build)).contains("talking to t19");
+  }
+
+  @Test
+  public void testCallsThatReadThePackage() throws Exception {
+    assertConforms(
+        "load('//macros:macros.bzl', 'count', 'gen')",
+        "gen(name = 'a')",
+        "count(name = 'c1')",
+        "gen(name = 'b')",
+        "count(name = 'c2')",
+        "gen(name = 'c')",
+        "gen(name = 'd')");
+  }
+
+  @Test
+  public void testNameConflicts() throws Exception {
+    assertConforms(
+        "load('//macros:macros.bzl', 'gen')",
+        "gen(name = 'a', n = 2)",
+        "gen(name = 'b', n = 2)",
+        "gen(name = 'a', n = 3, outs_prefix = 'x')",
+        "gen(name = 'c', outs_prefix = 'b')",
+        "gen(name = 'd')");
+  }
+
+  @Test
+  public void testErrorsInCalls() throws Exception {
+    assertConforms(
+        "load('//macros:macros.bzl', 'broken', 'gen')",
+        "gen(name = 'a')",
+        "broken(name = 'b')",
+        "gen(name = 'c', n = 'three')",
+        "genrule(name = 'd')",
+        "broken(name = 'e')",
+        "gen(name = 'f')");
+  }
+
+  @Test
+  public void testMutableArguments() throws Exception {
+    assertConforms(
+        "load('//macros:macros.bzl', 'gen')",
+        "PREFIX = ['x']",
+        "gen(name = 'a', outs_prefix = PREFIX[0])",
+        "gen(name = 'b', outs_prefix = PREFIX[0])",
+        "PREFIX.append('y')",
+        "gen(name = 'c', outs_prefix = PREFIX[1])",
+        "gen(name = 'd', outs_prefix = PREFIX[1])",
+        "licenses(['notice'])",
+        "gen(name = 'e')",
+        "gen(name = 'f')");
+  }
+}
@@ -0,0 +1,138 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link AsyncUploader}. */
+@RunWith(JUnit4.class)
+public class AsyncUploaderTest {
+
+  /** An executor that only runs tasks when asked to. */
+  private static final class ManualExecutor implements Executor {
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    @Override
+    public synchronized void execute(Runnable task) {
+      tasks.add(task);
+    }
+
+    synchronized void runNext() {
+      tasks.remove().run();
+    }
+
+    synchronized int size() {
+      return tasks.size();
+    }
+  }
+
+  private static AsyncUploader.Upload uploadOf(final long bytes) {
+    return new AsyncUploader.Upload() {
+      @Override
+      public long upload() {
+        return bytes;
+      }
+    };
+  }
+
+  @Test
+  public void drainReportsStats() throws Exception {
+    ManualExecutor executor = new ManualExecutor();
+    AsyncUploader uploader = new AsyncUploader(10, executor);
+    uploader.submit("a", uploadOf(2048));
+    uploader.submit("b", uploadOf(1024));
+    uploader.submit(
+        "c",
+        new AsyncUploader.Upload() {
+          @Override
+          public long upload() throws IOException {
+            throw new IOException("upload failed");
+          }
+        });
+    assertThat(uploader.getQueueDepth()).isEqualTo(3);
+    while (executor.size() > 0) {
+      executor.runNext();
+    }
+
+    AsyncUploader.Stats stats = uploader.drain();
+    assertThat(stats.uploads).isEqualTo(2);
+    assertThat(stats.failures).isEqualTo(1);
+    assertThat(stats.bytes).isEqualTo(3072);
+    assertThat(stats.maxQueueDepth).isEqualTo(3);
+    assertThat(uploader.getQueueDepth()).isEqualTo(0);
+
+    // Statistics are reset after draining.
+    assertThat(uploader.drain().uploads).isEqualTo(0);
+  }
+
+  @Test
+  public void submitBlocksWhenQueueIsFull() throws Exception {
+    final ManualExecutor executor = new ManualExecutor();
+    final AsyncUploader uploader = new AsyncUploader(1, executor);
+    uploader.submit("a", uploadOf(1));
+
+    final CountDownLatch submitted = new CountDownLatch(1);
+    Thread thread =
+        new Thread() {
+          @Override
+          public void run() {
+            try {
+              uploader.submit("b", uploadOf(1));
+              submitted.countDown();
+            } catch (InterruptedException e) {
+              // Test fails below.
+            }
+          }
+        };
+    thread.start();
+    assertThat(submitted.await(100, TimeUnit.MILLISECONDS)).isFalse();
+
+    executor.runNext();
+    assertThat(submitted.await(10, TimeUnit.SECONDS)).isTrue();
+    thread.join();
+    executor.runNext();
+    assertThat(uploader.drain().uploads).isEqualTo(2);
+  }
+
+  @Test
+  public void rejectedUploadIsCountedAsFailure() throws Exception {
+    Executor rejecting =
+        new Executor() {
+          @Override
+          public void execute(Runnable task) {
+            throw new RejectedExecutionException();
+          }
+        };
+    AsyncUploader uploader = new AsyncUploader(1, rejecting);
+    // Each rejected upload gives its slot back, so neither submit nor drain blocks.
+    uploader.submit("a", uploadOf(1));
+    uploader.submit("b", uploadOf(1));
+
+    AsyncUploader.Stats stats = uploader.drain();
+    assertThat(stats.uploads).isEqualTo(0);
+    assertThat(stats.failures).isEqualTo(2);
+    assertThat(uploader.getQueueDepth()).isEqualTo(0);
+  }
+}
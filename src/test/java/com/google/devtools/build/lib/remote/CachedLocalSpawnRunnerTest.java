@@ -49,8 +49,11 @@ import com.google.devtools.remoteexecution.v1test.ActionResult;
 import com.google.devtools.remoteexecution.v1test.Digest;
 import com.google.protobuf.ByteString;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Queue;
 import java.util.SortedMap;
+import java.util.concurrent.Executor;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -78,6 +81,7 @@ public class CachedLocalSpawnRunnerTest {
   @Mock private SpawnRunner delegate;
   CachedLocalSpawnRunner runner;
   private FileOutErr outErr;
+  private RemoteOptions options;
 
   private final SpawnExecutionPolicy simplePolicy =
       new SpawnExecutionPolicy() {
@@ -135,7 +139,7 @@ public class CachedLocalSpawnRunnerTest {
     FileSystemUtils.createDirectoryAndParents(stdout.getParentDirectory());
     FileSystemUtils.createDirectoryAndParents(stderr.getParentDirectory());
     outErr = new FileOutErr(stdout, stderr);
-    RemoteOptions options = Options.getDefaults(RemoteOptions.class);
+    options = Options.getDefaults(RemoteOptions.class);
     runner = new CachedLocalSpawnRunner(execRoot, options, cache, delegate);
     fakeFileCache.createScratchInput(simpleSpawn.getInputFiles().get(0), "xyz");
   }
@@ -208,6 +212,8 @@ public class CachedLocalSpawnRunnerTest {
     Digest stdOutDigest = Digests.computeDigest(cacheStdOut);
     Digest stdErrDigest = Digests.computeDigest(cacheStdErr);
     when(cache.uploadFileContents(any(Path.class))).thenReturn(stdErrDigest, stdOutDigest);
+    FileSystemUtils.writeContent(outErr.getOutputPath(), cacheStdOut);
+    FileSystemUtils.writeContent(outErr.getErrorPath(), cacheStdErr);
     SpawnResult delegateResult =
         new SpawnResult.Builder().setExitCode(0).setStatus(Status.SUCCESS).build();
     when(delegate.exec(any(Spawn.class), any(SpawnExecutionPolicy.class)))
@@ -228,4 +234,58 @@ public class CachedLocalSpawnRunnerTest {
             .build();
     verify(cache).setCachedActionResult(any(ActionKey.class), eq(actionResult));
   }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void cacheMissUploadsInBackground() throws Exception {
+    final Queue<Runnable> uploads = new ArrayDeque<>();
+    Executor executor =
+        new Executor() {
+          @Override
+          public void execute(Runnable task) {
+            uploads.add(task);
+          }
+        };
+    runner =
+        new CachedLocalSpawnRunner(
+            execRoot,
+            options,
+            cache,
+            delegate,
+            new LocalResultUploader(
+                execRoot, options, new RemoteCacheStats(), new AsyncUploader(10, executor)));
+    byte[] cacheStdOut = "stdout".getBytes(UTF_8);
+    byte[] cacheStdErr = "stderr".getBytes(UTF_8);
+    Digest stdOutDigest = Digests.computeDigest(cacheStdOut);
+    Digest stdErrDigest = Digests.computeDigest(cacheStdErr);
+    when(cache.uploadBlob(cacheStdOut)).thenReturn(stdOutDigest);
+    when(cache.uploadBlob(cacheStdErr)).thenReturn(stdErrDigest);
+    FileSystemUtils.writeContent(outErr.getOutputPath(), cacheStdOut);
+    FileSystemUtils.writeContent(outErr.getErrorPath(), cacheStdErr);
+    SpawnResult delegateResult =
+        new SpawnResult.Builder().setExitCode(0).setStatus(Status.SUCCESS).build();
+    when(delegate.exec(any(Spawn.class), any(SpawnExecutionPolicy.class)))
+        .thenReturn(delegateResult);
+
+    SpawnResult result = runner.exec(simpleSpawn, simplePolicy);
+    assertThat(result.setupSuccess()).isTrue();
+    assertThat(result.exitCode()).isEqualTo(0);
+    // The spawn completes before anything is uploaded.
+    verify(cache, Mockito.never())
+        .setCachedActionResult(any(ActionKey.class), any(ActionResult.class));
+    assertThat(uploads).hasSize(1);
+
+    // The stdout and stderr were read when the spawn completed, so that their files can be reused.
+    outErr.getOutputPath().delete();
+    outErr.getErrorPath().delete();
+    uploads.remove().run();
+    verify(cache)
+        .uploadAllResults(any(Path.class), any(Collection.class), any(ActionResult.Builder.class));
+    ActionResult actionResult =
+        ActionResult.newBuilder()
+            .setStdoutDigest(stdOutDigest)
+            .setStderrDigest(stdErrDigest)
+            .build();
+    verify(cache).setCachedActionResult(any(ActionKey.class), eq(actionResult));
+  }
 }
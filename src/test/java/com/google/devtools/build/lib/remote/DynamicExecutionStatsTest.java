@@ -0,0 +1,56 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.remote;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link DynamicExecutionStats}. */
+@RunWith(JUnit4.class)
+public class DynamicExecutionStatsTest {
+
+  @Test
+  public void countsPerMnemonic() {
+    DynamicExecutionStats stats = new DynamicExecutionStats();
+    assertThat(stats.isEmpty()).isTrue();
+
+    stats.recordLocalWin("Javac");
+    stats.recordLocalWin("Javac");
+    stats.recordRemoteWin("Javac");
+    stats.recordRemoteOnly("CppCompile");
+
+    assertThat(stats.isEmpty()).isFalse();
+    assertThat(stats.getLocalWins("Javac")).isEqualTo(2);
+    assertThat(stats.getRemoteWins("Javac")).isEqualTo(1);
+    assertThat(stats.getRemoteOnly("Javac")).isEqualTo(0);
+    assertThat(stats.getRemoteOnly("CppCompile")).isEqualTo(1);
+    assertThat(stats.getLocalWins("Genrule")).isEqualTo(0);
+  }
+
+  @Test
+  public void summaryListsMnemonicsInOrder() {
+    DynamicExecutionStats stats = new DynamicExecutionStats();
+    stats.recordRemoteWin("Javac");
+    stats.recordLocalWin("CppCompile");
+
+    assertThat(stats.toString())
+        .isEqualTo(
+            "Dynamic execution: CppCompile won 1 locally and 0 remotely, 0 remote only; "
+                + "Javac won 0 locally and 1 remotely, 0 remote only");
+  }
+}
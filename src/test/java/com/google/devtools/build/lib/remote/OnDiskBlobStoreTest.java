@@ -0,0 +1,152 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.fail;
+
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link OnDiskBlobStore} and {@link TieredBlobStore}. */
+@RunWith(JUnit4.class)
+public class OnDiskBlobStoreTest {
+  private FileSystem fs;
+  private Path cacheDir;
+
+  @Before
+  public final void setUp() throws Exception {
+    fs = new InMemoryFileSystem();
+    cacheDir = fs.getPath("/cache");
+  }
+
+  @Test
+  public void putAndGet() throws Exception {
+    OnDiskBlobStore store = new OnDiskBlobStore(cacheDir, 1024);
+    assertThat(store.containsKey("abcd")).isFalse();
+    assertThat(store.get("abcd")).isNull();
+
+    store.put("abcd", "contents".getBytes(UTF_8));
+    assertThat(store.containsKey("abcd")).isTrue();
+    assertThat(store.get("abcd")).isEqualTo("contents".getBytes(UTF_8));
+    assertThat(cacheDir.getRelative("ab/abcd").exists()).isTrue();
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() throws Exception {
+    OnDiskBlobStore store = new OnDiskBlobStore(cacheDir, 10);
+    store.put("aaaa", "1234".getBytes(UTF_8));
+    store.put("bbbb", "1234".getBytes(UTF_8));
+    // Touch the first entry, so that the second one becomes the least recently used.
+    assertThat(store.get("aaaa")).isNotNull();
+    store.put("cccc", "1234".getBytes(UTF_8));
+
+    assertThat(store.containsKey("aaaa")).isTrue();
+    assertThat(store.containsKey("bbbb")).isFalse();
+    assertThat(store.containsKey("cccc")).isTrue();
+    assertThat(cacheDir.getRelative("bb/bbbb").exists()).isFalse();
+    assertThat(store.getSizeBytes()).isEqualTo(8);
+  }
+
+  @Test
+  public void keepsBlobLargerThanBound() throws Exception {
+    OnDiskBlobStore store = new OnDiskBlobStore(cacheDir, 2);
+    store.put("aaaa", "1234".getBytes(UTF_8));
+    assertThat(store.get("aaaa")).isEqualTo("1234".getBytes(UTF_8));
+  }
+
+  @Test
+  public void contentsSurviveRestart() throws Exception {
+    OnDiskBlobStore store = new OnDiskBlobStore(cacheDir, 1024);
+    store.put("abcd", "contents".getBytes(UTF_8));
+
+    OnDiskBlobStore reloaded = new OnDiskBlobStore(cacheDir, 1024);
+    assertThat(reloaded.containsKey("abcd")).isTrue();
+    assertThat(reloaded.getSizeBytes()).isEqualTo(8);
+    assertThat(reloaded.get("abcd")).isEqualTo("contents".getBytes(UTF_8));
+  }
+
+  @Test
+  public void blobsAreReadOnly() throws Exception {
+    OnDiskBlobStore store = new OnDiskBlobStore(cacheDir, 1024);
+    store.put("abcd", "contents".getBytes(UTF_8));
+    assertThat(cacheDir.getRelative("ab/abcd").isWritable()).isFalse();
+  }
+
+  @Test
+  public void tieredStoreFetchesFromRemote() throws Exception {
+    OnDiskBlobStore local = new OnDiskBlobStore(cacheDir, 1024);
+    SimpleBlobStore remote =
+        new SimpleBlobStoreFactory.ConcurrentMapBlobStore(new ConcurrentHashMap<String, byte[]>());
+    remote.put("abcd", "contents".getBytes(UTF_8));
+    TieredBlobStore tiered = new TieredBlobStore(local, remote);
+
+    assertThat(tiered.get("abcd")).isEqualTo("contents".getBytes(UTF_8));
+    assertThat(local.containsKey("abcd")).isTrue();
+
+    tiered.put("efgh", "more".getBytes(UTF_8));
+    assertThat(local.get("efgh")).isEqualTo("more".getBytes(UTF_8));
+    assertThat(remote.get("efgh")).isEqualTo("more".getBytes(UTF_8));
+  }
+
+  @Test
+  public void tieredStoreUploadsStreamedBlobs() throws Exception {
+    // Too small for two blobs: the first one is evicted as soon as the second one is stored.
+    OnDiskBlobStore local = new OnDiskBlobStore(cacheDir, 4);
+    SimpleBlobStore remote =
+        new SimpleBlobStoreFactory.ConcurrentMapBlobStore(new ConcurrentHashMap<String, byte[]>());
+    TieredBlobStore tiered = new TieredBlobStore(local, remote);
+
+    tiered.put("aaaa", 4, new ByteArrayInputStream("1234".getBytes(UTF_8)));
+    tiered.put("bbbb", 4, new ByteArrayInputStream("5678".getBytes(UTF_8)));
+    assertThat(remote.get("aaaa")).isEqualTo("1234".getBytes(UTF_8));
+    assertThat(remote.get("bbbb")).isEqualTo("5678".getBytes(UTF_8));
+    assertThat(local.containsKey("aaaa")).isFalse();
+    assertThat(local.get("bbbb")).isEqualTo("5678".getBytes(UTF_8));
+  }
+
+  @Test
+  public void tieredStoreReportsFailedUploads() throws Exception {
+    OnDiskBlobStore local = new OnDiskBlobStore(cacheDir, 1024);
+    final IOException failure = new IOException("upload failed");
+    SimpleBlobStore remote =
+        new SimpleBlobStoreFactory.ConcurrentMapBlobStore(new ConcurrentHashMap<String, byte[]>()) {
+          @Override
+          public void put(String key, long length, InputStream in) throws IOException {
+            throw failure;
+          }
+        };
+    TieredBlobStore tiered = new TieredBlobStore(local, remote);
+
+    try {
+      tiered.put("abcd", 8, new ByteArrayInputStream("contents".getBytes(UTF_8)));
+      fail("Expected the upload to fail");
+    } catch (IOException e) {
+      assertThat(e).isSameAs(failure);
+    }
+    assertThat(local.containsKey("abcd")).isFalse();
+    assertThat(cacheDir.getRelative("tmp").getDirectoryEntries()).isEmpty();
+  }
+}
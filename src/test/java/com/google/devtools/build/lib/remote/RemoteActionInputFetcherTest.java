@@ -0,0 +1,93 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputHelper;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import com.google.devtools.remoteexecution.v1test.Digest;
+import com.google.devtools.remoteexecution.v1test.OutputFile;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link RemoteActionInputFetcher}. */
+@RunWith(JUnit4.class)
+public class RemoteActionInputFetcherTest {
+  private Path execRoot;
+  private ConcurrentMap<String, byte[]> map;
+  private RemoteActionInputFetcher fetcher;
+
+  @Before
+  public final void setUp() throws Exception {
+    FileSystem fs = new InMemoryFileSystem();
+    execRoot = fs.getPath("/exec/root");
+    FileSystemUtils.createDirectoryAndParents(execRoot);
+    map = new ConcurrentHashMap<>();
+    fetcher =
+        new RemoteActionInputFetcher(
+            execRoot,
+            new SimpleBlobStoreActionCache(new SimpleBlobStoreFactory.ConcurrentMapBlobStore(map)));
+  }
+
+  @Test
+  public void fetchesRegisteredOutputs() throws Exception {
+    Digest digest = Digests.computeDigestUtf8("contents");
+    map.put(digest.getHash(), "contents".getBytes(UTF_8));
+    fetcher.register(
+        OutputFile.newBuilder()
+            .setPath("out/foo")
+            .setDigest(digest)
+            .setIsExecutable(true)
+            .build());
+    ActionInput foo = ActionInputHelper.fromPath("out/foo");
+    ActionInput bar = ActionInputHelper.fromPath("out/bar");
+
+    fetcher.prefetchFiles(ImmutableList.of(foo, bar));
+    Path fooPath = execRoot.getRelative("out/foo");
+    assertThat(FileSystemUtils.readContent(fooPath, UTF_8)).isEqualTo("contents");
+    assertThat(fooPath.isExecutable()).isTrue();
+    assertThat(execRoot.getRelative("out/bar").exists()).isFalse();
+
+    // Once fetched, the local file is left alone.
+    map.clear();
+    FileSystemUtils.writeContent(fooPath, UTF_8, "modified");
+    fetcher.prefetchFiles(ImmutableList.of(foo));
+    assertThat(FileSystemUtils.readContent(fooPath, UTF_8)).isEqualTo("modified");
+  }
+
+  @Test
+  public void missingBlobStaysRegistered() throws Exception {
+    Digest digest = Digests.computeDigestUtf8("late");
+    fetcher.register(OutputFile.newBuilder().setPath("out/foo").setDigest(digest).build());
+    ActionInput foo = ActionInputHelper.fromPath("out/foo");
+    fetcher.prefetchFiles(ImmutableList.of(foo));
+    assertThat(execRoot.getRelative("out/foo").exists()).isFalse();
+
+    map.put(digest.getHash(), "late".getBytes(UTF_8));
+    fetcher.prefetchFiles(ImmutableList.of(foo));
+    assertThat(FileSystemUtils.readContent(execRoot.getRelative("out/foo"), UTF_8))
+        .isEqualTo("late");
+  }
+}
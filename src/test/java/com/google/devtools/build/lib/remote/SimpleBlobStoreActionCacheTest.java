@@ -0,0 +1,154 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import com.google.devtools.remoteexecution.v1test.ActionResult;
+import com.google.devtools.remoteexecution.v1test.Digest;
+import com.google.devtools.remoteexecution.v1test.OutputFile;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link SimpleBlobStoreActionCache}. */
+@RunWith(JUnit4.class)
+public class SimpleBlobStoreActionCacheTest {
+  private FileSystem fs;
+  private Path execRoot;
+  private ConcurrentMap<String, byte[]> map;
+  private SimpleBlobStoreActionCache cache;
+
+  @Before
+  public final void setUp() throws Exception {
+    fs = new InMemoryFileSystem();
+    execRoot = fs.getPath("/exec/root");
+    FileSystemUtils.createDirectoryAndParents(execRoot);
+    map = new ConcurrentHashMap<>();
+    cache = new SimpleBlobStoreActionCache(new SimpleBlobStoreFactory.ConcurrentMapBlobStore(map));
+  }
+
+  @Test
+  public void uploadAndDownloadResults() throws Exception {
+    Path foo = execRoot.getRelative("a/foo");
+    FileSystemUtils.createDirectoryAndParents(foo.getParentDirectory());
+    FileSystemUtils.writeContentAsLatin1(foo, "foo contents");
+    foo.setExecutable(true);
+
+    ActionResult.Builder result = ActionResult.newBuilder();
+    cache.uploadAllResults(execRoot, ImmutableList.of(foo), result);
+    Digest digest = Digests.computeDigest(foo);
+    assertThat(map.get(digest.getHash())).isEqualTo("foo contents".getBytes(UTF_8));
+
+    foo.delete();
+    cache.downloadAllResults(result.build(), execRoot);
+    assertThat(FileSystemUtils.readContent(foo, UTF_8)).isEqualTo("foo contents");
+    assertThat(foo.isExecutable()).isTrue();
+  }
+
+  @Test
+  public void smallResultsAreInlined() throws Exception {
+    RemoteCacheStats stats = new RemoteCacheStats();
+    cache =
+        new SimpleBlobStoreActionCache(
+            new SimpleBlobStoreFactory.ConcurrentMapBlobStore(map), 4, stats);
+    Path small = execRoot.getRelative("small");
+    FileSystemUtils.writeContentAsLatin1(small, "abc");
+    Path large = execRoot.getRelative("large");
+    FileSystemUtils.writeContentAsLatin1(large, "large contents");
+
+    ActionResult.Builder result = ActionResult.newBuilder();
+    cache.uploadAllResults(execRoot, ImmutableList.of(small, large), result);
+    assertThat(result.getOutputFiles(0).getContent().toStringUtf8()).isEqualTo("abc");
+    assertThat(map).doesNotContainKey(Digests.computeDigest(small).getHash());
+    assertThat(result.getOutputFiles(1).getContent().isEmpty()).isTrue();
+    assertThat(map).containsKey(Digests.computeDigest(large).getHash());
+    assertThat(stats.getInlinedBlobs()).isEqualTo(1);
+
+    small.delete();
+    cache.downloadAllResults(result.build(), execRoot);
+    assertThat(FileSystemUtils.readContent(small, UTF_8)).isEqualTo("abc");
+  }
+
+  @Test
+  public void modifyingDownloadedOutputLeavesLocalDiskCacheIntact() throws Exception {
+    OnDiskBlobStore store = new OnDiskBlobStore(fs.getPath("/cache"), 1024);
+    cache = new SimpleBlobStoreActionCache(store);
+    Digest digest = Digests.computeDigestUtf8("contents");
+    store.put(digest.getHash(), "contents".getBytes(UTF_8));
+    ActionResult result =
+        ActionResult.newBuilder()
+            .addOutputFiles(OutputFile.newBuilder().setPath("a/out").setDigest(digest))
+            .build();
+    cache.downloadAllResults(result, execRoot);
+
+    // What the metadata handler does to outputs, and then what a test or a user might do.
+    Path out = execRoot.getRelative("a/out");
+    out.chmod(0555);
+    out.chmod(0644);
+    FileSystemUtils.writeContentAsLatin1(out, "modified");
+
+    assertThat(store.get(digest.getHash())).isEqualTo("contents".getBytes(UTF_8));
+    Path entry =
+        fs.getPath("/cache")
+            .getRelative(digest.getHash().substring(0, 2))
+            .getRelative(digest.getHash());
+    assertThat(entry.isWritable()).isFalse();
+    assertThat(entry.isExecutable()).isFalse();
+  }
+
+  @Test
+  public void downloadEmptyFileWithoutStore() throws Exception {
+    ActionResult result =
+        ActionResult.newBuilder()
+            .addOutputFiles(
+                OutputFile.newBuilder()
+                    .setPath("a/empty")
+                    .setDigest(Digests.computeDigest(new byte[0])))
+            .build();
+    cache.downloadAllResults(result, execRoot);
+    Path empty = execRoot.getRelative("a/empty");
+    assertThat(empty.exists()).isTrue();
+    assertThat(empty.getFileSize()).isEqualTo(0);
+  }
+
+  @Test
+  public void downloadMissingBlobLeavesNoFile() throws Exception {
+    Digest digest = Digests.computeDigestUtf8("not in the store");
+    ActionResult result =
+        ActionResult.newBuilder()
+            .addOutputFiles(
+                OutputFile.newBuilder()
+                    .setPath("a/missing")
+                    .setDigest(digest))
+            .build();
+    try {
+      cache.downloadAllResults(result, execRoot);
+      fail("Expected CacheNotFoundException");
+    } catch (CacheNotFoundException e) {
+      assertThat(e.getMissingDigest()).isEqualTo(digest);
+    }
+    assertThat(execRoot.getRelative("a/missing").exists()).isFalse();
+  }
+}
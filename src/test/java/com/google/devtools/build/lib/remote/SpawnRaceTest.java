@@ -0,0 +1,276 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.remote;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputHelper;
+import com.google.devtools.build.lib.actions.ExecException;
+import com.google.devtools.build.lib.actions.UserExecException;
+import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.events.EventHandler;
+import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import com.google.devtools.remoteexecution.v1test.ActionResult;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link SpawnRace}. */
+@RunWith(JUnit4.class)
+public class SpawnRaceTest {
+
+  private static final ActionResult REMOTE_RESULT = ActionResult.getDefaultInstance();
+
+  private Path execRoot;
+  private Path output;
+  private List<ActionInput> outputs;
+  private FileOutErr outErr;
+  private ExecutorService executor;
+  private DynamicExecutionStats stats;
+  private SpawnRace race;
+  private final List<String> warnings = new CopyOnWriteArrayList<>();
+  private final CountDownLatch warned = new CountDownLatch(1);
+  private final EventHandler eventHandler =
+      new EventHandler() {
+        @Override
+        public void handle(Event event) {
+          warnings.add(event.getMessage());
+          warned.countDown();
+        }
+      };
+
+  @Before
+  public final void setUp() throws Exception {
+    InMemoryFileSystem fs = new InMemoryFileSystem();
+    execRoot = fs.getPath("/exec/root");
+    output = execRoot.getRelative("out/foo.o");
+    FileSystemUtils.createDirectoryAndParents(output.getParentDirectory());
+    outputs = ImmutableList.of(ActionInputHelper.fromPath("out/foo.o"));
+    Path logDir = fs.getPath("/logs");
+    FileSystemUtils.createDirectoryAndParents(logDir);
+    outErr = new FileOutErr(logDir.getRelative("stdout"), logDir.getRelative("stderr"));
+    executor = Executors.newCachedThreadPool();
+    stats = new DynamicExecutionStats();
+    race = new SpawnRace(execRoot, executor, stats);
+  }
+
+  @After
+  public final void tearDown() throws Exception {
+    executor.shutdownNow();
+  }
+
+  /** A local execution that writes the output and its stdout and stderr, and then may block. */
+  private final class FakeLocal implements SpawnRace.LocalExecution {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch interrupted = new CountDownLatch(1);
+    final CountDownLatch proceed = new CountDownLatch(1);
+    private final ExecException failure;
+
+    FakeLocal(ExecException failure, boolean block) {
+      this.failure = failure;
+      if (!block) {
+        proceed.countDown();
+      }
+    }
+
+    @Override
+    public void exec(FileOutErr localOutErr) throws ExecException, InterruptedException {
+      try {
+        FileSystemUtils.writeContentAsLatin1(output, "local");
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      localOutErr.printOut("local out");
+      localOutErr.printErr("local err");
+      started.countDown();
+      try {
+        proceed.await();
+      } catch (InterruptedException e) {
+        interrupted.countDown();
+        throw e;
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+  /** A remote execution that waits for the test to let it finish. */
+  private static final class FakeRemote implements Callable<ActionResult> {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch interrupted = new CountDownLatch(1);
+    private final CountDownLatch proceed;
+    private final IOException failure;
+
+    FakeRemote(CountDownLatch proceed, IOException failure) {
+      this.proceed = proceed;
+      this.failure = failure;
+    }
+
+    @Override
+    public ActionResult call() throws IOException, InterruptedException {
+      started.countDown();
+      try {
+        proceed.await();
+      } catch (InterruptedException e) {
+        interrupted.countDown();
+        throw e;
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return REMOTE_RESULT;
+    }
+  }
+
+  private ActionResult race(FakeLocal local, FakeRemote remote)
+      throws ExecException, IOException, InterruptedException {
+    return race.race("Javac", outputs, outErr, eventHandler, local, remote);
+  }
+
+  private static void await(CountDownLatch latch) throws InterruptedException {
+    assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+  }
+
+  private void assertLocalOutErrCleared() {
+    Path logDir = outErr.getOutputPath().getParentDirectory();
+    assertThat(logDir.getRelative("stdout.local").exists()).isFalse();
+    assertThat(logDir.getRelative("stderr.local").exists()).isFalse();
+  }
+
+  @Test
+  public void remoteWinCancelsLocalAndDeletesItsOutputs() throws Exception {
+    FakeLocal local = new FakeLocal(null, /*block=*/ true);
+    FakeRemote remote = new FakeRemote(local.started, null);
+
+    assertThat(race(local, remote)).isSameAs(REMOTE_RESULT);
+    await(local.interrupted);
+    assertThat(output.exists()).isFalse();
+    assertThat(outErr.hasRecordedOutput()).isFalse();
+    assertLocalOutErrCleared();
+    assertThat(stats.getRemoteWins("Javac")).isEqualTo(1);
+    assertThat(stats.getLocalWins("Javac")).isEqualTo(0);
+  }
+
+  @Test
+  public void localWinCancelsRemoteAndHandsOffItsOutErr() throws Exception {
+    FakeLocal local = new FakeLocal(null, /*block=*/ false);
+    FakeRemote remote = new FakeRemote(new CountDownLatch(1), null);
+
+    assertThat(race(local, remote)).isNull();
+    assertThat(output.exists()).isTrue();
+    assertThat(outErr.outAsLatin1()).isEqualTo("local out");
+    assertThat(outErr.errAsLatin1()).isEqualTo("local err");
+    assertLocalOutErrCleared();
+    assertThat(stats.getLocalWins("Javac")).isEqualTo(1);
+    assertThat(stats.getRemoteWins("Javac")).isEqualTo(0);
+    if (remote.started.getCount() == 0) {
+      await(remote.interrupted);
+    }
+  }
+
+  @Test
+  public void localFailureWaitsForRemote() throws Exception {
+    FakeLocal local = new FakeLocal(new UserExecException("local failure"), /*block=*/ false);
+    // The remote execution only finishes once the race noticed the local failure.
+    FakeRemote remote = new FakeRemote(warned, null);
+
+    assertThat(race(local, remote)).isSameAs(REMOTE_RESULT);
+    assertThat(warnings)
+        .containsExactly("Javac local execution failed, waiting for remote execution");
+    assertThat(output.exists()).isFalse();
+    assertThat(outErr.hasRecordedOutput()).isFalse();
+    assertLocalOutErrCleared();
+    assertThat(stats.getRemoteWins("Javac")).isEqualTo(1);
+    assertThat(stats.getLocalWins("Javac")).isEqualTo(0);
+  }
+
+  @Test
+  public void localFailureIsReportedIfRemoteFailsToo() throws Exception {
+    UserExecException failure = new UserExecException("local failure");
+    FakeLocal local = new FakeLocal(failure, /*block=*/ false);
+    FakeRemote remote = new FakeRemote(warned, new IOException("remote failure"));
+
+    try {
+      race(local, remote);
+      fail("Expected the local failure");
+    } catch (UserExecException e) {
+      assertThat(e).isSameAs(failure);
+    }
+    assertThat(outErr.outAsLatin1()).isEqualTo("local out");
+    assertThat(outErr.errAsLatin1()).isEqualTo("local err");
+    assertLocalOutErrCleared();
+  }
+
+  @Test
+  public void remoteFailureWaitsForLocal() throws Exception {
+    FakeLocal local = new FakeLocal(null, /*block=*/ true);
+    FakeRemote remote = new FakeRemote(new CountDownLatch(0), new IOException("remote failure"));
+
+    Future<ActionResult> result = runInBackground(local, remote);
+    await(warned);
+    assertThat(warnings).hasSize(1);
+    assertThat(warnings.get(0)).startsWith("Javac remote work failed, waiting for local execution");
+    local.proceed.countDown();
+
+    assertThat(result.get(10, TimeUnit.SECONDS)).isNull();
+    assertThat(output.exists()).isTrue();
+    assertThat(outErr.outAsLatin1()).isEqualTo("local out");
+    assertLocalOutErrCleared();
+    assertThat(stats.getLocalWins("Javac")).isEqualTo(1);
+  }
+
+  @Test
+  public void interruptCancelsBothBranches() throws Exception {
+    FakeLocal local = new FakeLocal(null, /*block=*/ true);
+    FakeRemote remote = new FakeRemote(new CountDownLatch(1), null);
+
+    Future<ActionResult> result = runInBackground(local, remote);
+    await(local.started);
+    await(remote.started);
+    result.cancel(true);
+
+    await(local.interrupted);
+    await(remote.interrupted);
+    assertThat(stats.isEmpty()).isTrue();
+  }
+
+  private Future<ActionResult> runInBackground(final FakeLocal local, final FakeRemote remote) {
+    return executor.submit(
+        new Callable<ActionResult>() {
+          @Override
+          public ActionResult call() throws Exception {
+            return race(local, remote);
+          }
+        });
+  }
+}
@@ -25,6 +25,8 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.devtools.build.lib.actions.Action;
+import com.google.devtools.build.lib.actions.ActionExecutedEvent;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.EventReportingArtifacts;
 import com.google.devtools.build.lib.actions.Root;
@@ -51,6 +53,7 @@ import com.google.devtools.build.lib.buildtool.buildevent.BuildCompleteEvent;
 import com.google.devtools.build.lib.collect.nestedset.NestedSet;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetView;
+import com.google.devtools.build.lib.shell.ResourceUsage;
 import com.google.devtools.build.lib.testutil.FoundationTestCase;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
@@ -547,6 +550,41 @@ public class BuildEventStreamerTest extends FoundationTestCase {
     assertThat(reportedArtifactSets.get(0)).isEqualTo(eventProtos.get(4).getId().getNamedSet());
   }
 
+  @Test
+  public void testSuccessfulActionReportedWithResourceUsage() {
+    // Verify that successful actions are only reported if they carry resource usage.
+    RecordingBuildEventTransport transport = new RecordingBuildEventTransport();
+    BuildEventStreamer streamer =
+        new BuildEventStreamer(ImmutableSet.<BuildEventTransport>of(transport), reporter);
+
+    BuildEvent startEvent =
+        new GenericBuildEvent(
+            testId("Initial"),
+            ImmutableSet.<BuildEventId>of(ProgressEvent.INITIAL_PROGRESS_UPDATE));
+    Action withoutUsage = Mockito.mock(Action.class);
+    when(withoutUsage.getPrimaryOutput()).thenReturn(makeArtifact("path/without_usage"));
+    Action withUsage = Mockito.mock(Action.class);
+    Artifact withUsageOutput = makeArtifact("path/with_usage");
+    when(withUsage.getPrimaryOutput()).thenReturn(withUsageOutput);
+
+    streamer.buildEvent(startEvent);
+    streamer.buildEvent(new ActionExecutedEvent(withoutUsage, null, null, null));
+    streamer.buildEvent(
+        new ActionExecutedEvent(
+            withUsage, null, null, null, new ResourceUsage(1000, 2000, 3, 4, 5)));
+
+    List<BuildEvent> eventsSeen = transport.getEvents();
+    assertThat(eventsSeen).hasSize(3);
+    assertThat(eventsSeen.get(0).getEventId()).isEqualTo(startEvent.getEventId());
+    assertThat(eventsSeen.get(2).getEventId())
+        .isEqualTo(BuildEventId.actionCompleted(withUsageOutput.getPath()));
+    BuildEventStreamProtos.ActionExecuted.ResourceUsage usage =
+        transport.getEventProtos().get(2).getAction().getResourceUsage();
+    assertThat(usage.getUserTimeMillis()).isEqualTo(1);
+    assertThat(usage.getSystemTimeMillis()).isEqualTo(2);
+    assertThat(usage.getMaxResidentSetKb()).isEqualTo(3);
+  }
+
   @Test
   public void testStdoutReported() {
     // Verify that stdout and stderr are reported in the build-event stream on progress
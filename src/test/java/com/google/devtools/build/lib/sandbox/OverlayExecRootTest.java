@@ -0,0 +1,186 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.sandbox;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link OverlayExecRoot}. */
+@RunWith(JUnit4.class)
+public class OverlayExecRootTest extends SandboxTestCase {
+  private Path workspaceDir;
+  private Path execRoot;
+  private Path sandboxExecRoot;
+  private Path lowerDir;
+  private Path scratchDir;
+  private Path upperDir;
+
+  @Before
+  public final void setupTestDirs() throws IOException {
+    workspaceDir = testRoot.getRelative("workspace");
+    workspaceDir.createDirectory();
+    execRoot = testRoot.getRelative("execroot");
+    execRoot.createDirectory();
+    sandboxExecRoot = testRoot.getRelative("sandbox/execroot");
+    lowerDir = testRoot.getRelative("lower");
+    scratchDir = testRoot.getRelative("sandbox/overlay");
+    upperDir = scratchDir.getRelative("upper");
+  }
+
+  /** Links the package {@code name} of the workspace into the execution root. */
+  private Path createPackage(String name) throws IOException {
+    Path packageDir = workspaceDir.getRelative(name);
+    packageDir.createDirectory();
+    execRoot.getRelative(name).createSymbolicLink(packageDir);
+    return packageDir;
+  }
+
+  private OverlayExecRoot createOverlayExecRoot() throws IOException {
+    return new OverlayExecRoot(
+        execRoot, OverlayExecRoot.LowerDir.create(execRoot, lowerDir), sandboxExecRoot, scratchDir);
+  }
+
+  @Test
+  public void lowerDirOnlyHoldsSourceRoots() throws Exception {
+    createPackage("pkg");
+    execRoot.getRelative("bazel-out").createDirectory();
+    FileSystemUtils.createEmptyFile(execRoot.getRelative("MANIFEST"));
+
+    OverlayExecRoot.LowerDir.create(execRoot, lowerDir);
+
+    assertThat(lowerDir.getRelative("pkg").resolveSymbolicLinks())
+        .isEqualTo(workspaceDir.getRelative("pkg"));
+    assertThat(lowerDir.getRelative("bazel-out").exists()).isFalse();
+    assertThat(lowerDir.getRelative("MANIFEST").exists()).isFalse();
+
+    // Actions writing into the execution root don't change the lower directory.
+    FileSystemUtils.createEmptyFile(execRoot.getRelative("bazel-out/output.txt"));
+    assertThat(lowerDir.getDirectoryEntries()).containsExactly(lowerDir.getRelative("pkg"));
+  }
+
+  @Test
+  public void createFileSystemOnlyCreatesInputsMissingFromLowerDir() throws Exception {
+    Path helloTxt = createPackage("such").getRelative("hello.txt");
+    FileSystemUtils.createEmptyFile(helloTxt);
+    Path generatedTxt = execRoot.getRelative("bazel-out/generated.txt");
+    FileSystemUtils.createDirectoryAndParents(generatedTxt.getParentDirectory());
+    FileSystemUtils.createEmptyFile(generatedTxt);
+
+    OverlayExecRoot overlayExecRoot = createOverlayExecRoot();
+    overlayExecRoot.createFileSystem(
+        ImmutableMap.of(
+            PathFragment.create("such/hello.txt"), execRoot.getRelative("such/hello.txt"),
+            PathFragment.create("bazel-out/generated.txt"), generatedTxt,
+            PathFragment.create("much/runfile.txt"), helloTxt),
+        ImmutableSet.of(PathFragment.create("very/output.txt")),
+        ImmutableSet.of(sandboxExecRoot, sandboxExecRoot.getRelative("wow/writable")));
+
+    assertThat(overlayExecRoot.getLowerDir()).isEqualTo(lowerDir);
+    assertThat(sandboxExecRoot.isDirectory()).isTrue();
+    assertThat(scratchDir.getRelative("work").isDirectory()).isTrue();
+    assertThat(upperDir.getRelative("such").exists()).isFalse();
+    assertThat(upperDir.getRelative("bazel-out/generated.txt").resolveSymbolicLinks())
+        .isEqualTo(generatedTxt);
+    assertThat(upperDir.getRelative("much/runfile.txt").resolveSymbolicLinks())
+        .isEqualTo(helloTxt);
+    assertThat(upperDir.getRelative("very").isDirectory()).isTrue();
+    assertThat(upperDir.getRelative("wow/writable").isDirectory()).isTrue();
+  }
+
+  @Test
+  public void createFileSystemHidesUndeclaredGeneratedFiles() throws Exception {
+    Path generatedDir = execRoot.getRelative("bazel-out/bin");
+    FileSystemUtils.createDirectoryAndParents(generatedDir);
+    FileSystemUtils.createEmptyFile(generatedDir.getRelative("declared.txt"));
+    FileSystemUtils.createEmptyFile(generatedDir.getRelative("undeclared.txt"));
+
+    OverlayExecRoot overlayExecRoot = createOverlayExecRoot();
+    overlayExecRoot.createFileSystem(
+        ImmutableMap.of(
+            PathFragment.create("bazel-out/bin/declared.txt"),
+            generatedDir.getRelative("declared.txt")),
+        ImmutableSet.<PathFragment>of(),
+        ImmutableSet.<Path>of());
+
+    // Neither the lower nor the upper directory has the undeclared file.
+    assertThat(upperDir.getRelative("bazel-out/bin").getDirectoryEntries())
+        .containsExactly(upperDir.getRelative("bazel-out/bin/declared.txt"));
+    assertThat(lowerDir.getRelative("bazel-out").exists()).isFalse();
+  }
+
+  @Test
+  public void createFileSystemRemovesFilesOfPreviousSpawn() throws Exception {
+    OverlayExecRoot overlayExecRoot = createOverlayExecRoot();
+    overlayExecRoot.createFileSystem(
+        ImmutableMap.<PathFragment, Path>of(),
+        ImmutableSet.<PathFragment>of(),
+        ImmutableSet.<Path>of());
+    FileSystemUtils.createEmptyFile(upperDir.getRelative("leftover.txt"));
+
+    overlayExecRoot.createFileSystem(
+        ImmutableMap.<PathFragment, Path>of(),
+        ImmutableSet.<PathFragment>of(),
+        ImmutableSet.<Path>of());
+
+    assertThat(upperDir.getRelative("leftover.txt").exists()).isFalse();
+  }
+
+  @Test
+  public void createFileSystemRefusesToHideSymlinkedDirectories() throws Exception {
+    createPackage("pkg");
+
+    OverlayExecRoot overlayExecRoot = createOverlayExecRoot();
+    try {
+      overlayExecRoot.createFileSystem(
+          ImmutableMap.<PathFragment, Path>of(),
+          ImmutableSet.of(PathFragment.create("pkg/output.txt")),
+          ImmutableSet.<Path>of());
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasMessageThat().contains("'pkg'");
+    }
+  }
+
+  @Test
+  public void copyOutputsMovesDeclaredOutputsOutOfUpperDir() throws Exception {
+    OverlayExecRoot overlayExecRoot = createOverlayExecRoot();
+    overlayExecRoot.createFileSystem(
+        ImmutableMap.<PathFragment, Path>of(),
+        ImmutableSet.of(PathFragment.create("very/output.txt")),
+        ImmutableSet.<Path>of());
+
+    // Pretend the spawn wrote through the overlay.
+    FileSystemUtils.writeContentAsLatin1(upperDir.getRelative("very/output.txt"), "output");
+    FileSystemUtils.createEmptyFile(upperDir.getRelative("very/temp.txt"));
+    execRoot.getRelative("very").createDirectory();
+
+    overlayExecRoot.copyOutputs(execRoot, ImmutableSet.of(PathFragment.create("very/output.txt")));
+
+    Path output = execRoot.getRelative("very/output.txt");
+    assertThat(new String(FileSystemUtils.readContentAsLatin1(output))).isEqualTo("output");
+    assertThat(execRoot.getRelative("very/temp.txt").exists()).isFalse();
+  }
+}
@@ -0,0 +1,179 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.sandbox;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.util.concurrent.Callables;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link SandboxTrash}. */
+@RunWith(JUnit4.class)
+public class SandboxTrashTest extends SandboxTestCase {
+  private Path sandboxBase;
+  private Path trashDir;
+
+  private ExecutorService executor;
+  private CountDownLatch unblockExecutor;
+
+  @Before
+  public final void setupTestDirs() throws IOException {
+    sandboxBase = testRoot.getRelative("sandbox");
+    sandboxBase.createDirectory();
+    trashDir = testRoot.getRelative("sandbox-trash");
+    executor = Executors.newSingleThreadExecutor();
+    unblockExecutor = new CountDownLatch(1);
+  }
+
+  @After
+  public final void shutdownExecutor() {
+    executor.shutdownNow();
+  }
+
+  /** Keeps the executor from running the tasks submitted after this until it is unblocked. */
+  private void blockExecutor() {
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              unblockExecutor.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        });
+  }
+
+  /** Waits until the executor has run all tasks submitted so far. */
+  private void awaitExecutor() throws Exception {
+    executor.submit(Callables.returning(null)).get();
+  }
+
+  private Path createSandboxDirectory(String name) throws IOException {
+    Path dir = sandboxBase.getRelative(name);
+    FileSystemUtils.createDirectoryAndParents(dir.getRelative("execroot/such/deep"));
+    FileSystemUtils.createEmptyFile(dir.getRelative("execroot/such/deep/file.txt"));
+    return dir;
+  }
+
+  @Test
+  public void deleteMovesDirectoryToTrash() throws Exception {
+    SandboxTrash trash = new SandboxTrash(trashDir);
+    trash.setMaxBacklog(10);
+    Path dir = createSandboxDirectory("1");
+
+    trash.delete(dir);
+    assertThat(dir.exists()).isFalse();
+
+    trash.shutdown();
+    assertThat(trashDir.exists()).isFalse();
+  }
+
+  @Test
+  public void deleteReturnsBeforeTreeIsRemoved() throws Exception {
+    blockExecutor();
+    SandboxTrash trash = new SandboxTrash(trashDir, executor);
+    trash.setMaxBacklog(10);
+    Path dir = createSandboxDirectory("1");
+
+    trash.delete(dir);
+
+    // The tree is only moved out of the way while the executor is blocked.
+    assertThat(dir.exists()).isFalse();
+    assertThat(trashDir.getDirectoryEntries()).hasSize(1);
+    assertThat(trash.getAndResetStats()).isNull();
+
+    unblockExecutor.countDown();
+    awaitExecutor();
+    assertThat(trashDir.getDirectoryEntries()).isEmpty();
+    assertThat(trash.getAndResetStats()).contains("deleted 1 directories in the background");
+    trash.shutdown();
+  }
+
+  @Test
+  public void deleteBeyondBacklogDeletesInline() throws Exception {
+    blockExecutor();
+    SandboxTrash trash = new SandboxTrash(trashDir, executor);
+    trash.setMaxBacklog(1);
+    Path first = createSandboxDirectory("1");
+    Path second = createSandboxDirectory("2");
+
+    trash.delete(first);
+    trash.delete(second);
+
+    assertThat(first.exists()).isFalse();
+    assertThat(second.exists()).isFalse();
+    assertThat(trashDir.getDirectoryEntries()).hasSize(1);
+    assertThat(trash.getAndResetStats()).contains("and 1 in actions");
+
+    unblockExecutor.countDown();
+    trash.shutdown();
+    assertThat(trashDir.exists()).isFalse();
+  }
+
+  @Test
+  public void deleteWithoutBacklogDeletesInline() throws Exception {
+    SandboxTrash trash = new SandboxTrash(trashDir);
+    trash.setMaxBacklog(0);
+    Path dir = createSandboxDirectory("1");
+
+    trash.delete(dir);
+
+    assertThat(dir.exists()).isFalse();
+    assertThat(trashDir.exists()).isFalse();
+    assertThat(trash.getAndResetStats()).contains("and 1 in actions");
+    assertThat(trash.getAndResetStats()).isNull();
+    trash.shutdown();
+  }
+
+  @Test
+  public void constructorEmptiesLeftoverTrash() throws Exception {
+    FileSystemUtils.createDirectoryAndParents(trashDir.getRelative("leftover/dir"));
+
+    SandboxTrash trash = new SandboxTrash(trashDir, executor);
+    awaitExecutor();
+
+    assertThat(trashDir.getRelative("leftover").exists()).isFalse();
+    trash.shutdown();
+  }
+
+  @Test
+  public void constructorOnlyEmptiesEntriesThatExistedBefore() throws Exception {
+    FileSystemUtils.createDirectoryAndParents(trashDir.getRelative("leftover/dir"));
+    blockExecutor();
+    SandboxTrash trash = new SandboxTrash(trashDir, executor);
+
+    // E.g. another server moves a directory into the trash while ours starts up.
+    Path later = trashDir.getRelative("later");
+    FileSystemUtils.createDirectoryAndParents(later);
+    unblockExecutor.countDown();
+    awaitExecutor();
+
+    assertThat(trashDir.getRelative("leftover").exists()).isFalse();
+    assertThat(later.exists()).isTrue();
+    trash.shutdown();
+  }
+}
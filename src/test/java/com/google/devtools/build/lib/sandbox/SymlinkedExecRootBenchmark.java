@@ -0,0 +1,125 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long {@link SymlinkedExecRoot} takes to set up the exec root of a large C++ compile,
+ * in a new directory and in one that a similar compile used before.
+ *
+ * <p>Usage: {@code SymlinkedExecRootBenchmark <scratch dir> [<inputs> [<iterations>]]}
+ */
+public final class SymlinkedExecRootBenchmark {
+
+  // Roughly what a translation unit pulling in a large part of a big code base looks like.
+  private static final int INPUTS_PER_DIRECTORY = 20;
+
+  private final Path workspace;
+  private final Path sandboxBase;
+  private final int inputCount;
+  private int sandboxCount;
+
+  private SymlinkedExecRootBenchmark(Path scratch, int inputCount) {
+    this.workspace = scratch.getRelative("workspace");
+    this.sandboxBase = scratch.getRelative("sandbox");
+    this.inputCount = inputCount;
+  }
+
+  public static void main(String[] args) throws IOException {
+    FileSystem fileSystem = FileSystems.getNativeFileSystem();
+    Path scratch = fileSystem.getPath(args[0]);
+    int inputCount = args.length > 1 ? Integer.parseInt(args[1]) : 30000;
+    int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    new SymlinkedExecRootBenchmark(scratch, inputCount).run(iterations);
+  }
+
+  private void run(int iterations) throws IOException {
+    FileSystemUtils.deleteTreesBelow(sandboxBase);
+    // Consecutive compiles share the headers, but not the source file.
+    Map<PathFragment, Path> first = createInputs("a");
+    Map<PathFragment, Path> second = new HashMap<>(first);
+    second.remove(PathFragment.create("src/a.cc"));
+    second.putAll(createInputs("b"));
+    Set<PathFragment> outputs = ImmutableSet.of(PathFragment.create("out/compile.o"));
+
+    long freshNanos = 0;
+    long reusedNanos = 0;
+    long invalidatedNanos = 0;
+    for (int i = 0; i < iterations; i++) {
+      SymlinkedExecRoot fresh = newExecRoot();
+      freshNanos += time(fresh, first, outputs);
+
+      reusedNanos += time(fresh, second, outputs);
+
+      fresh.invalidate();
+      invalidatedNanos += time(fresh, first, outputs);
+    }
+    report("new directory", freshNanos, iterations);
+    report("reused directory", reusedNanos, iterations);
+    report("reused directory after a failed spawn", invalidatedNanos, iterations);
+  }
+
+  /** Returns the headers plus a source file named after {@code unit}. */
+  private Map<PathFragment, Path> createInputs(String unit) throws IOException {
+    Map<PathFragment, Path> inputs = new HashMap<>();
+    for (int i = 0; i < inputCount; i++) {
+      PathFragment header =
+          PathFragment.create(
+              String.format("include/dir%d/header%d.h", i / INPUTS_PER_DIRECTORY, i));
+      inputs.put(header, createFile(header));
+    }
+    PathFragment source = PathFragment.create("src/" + unit + ".cc");
+    inputs.put(source, createFile(source));
+    return inputs;
+  }
+
+  private Path createFile(PathFragment relativePath) throws IOException {
+    Path file = workspace.getRelative(relativePath);
+    if (!file.exists()) {
+      FileSystemUtils.createDirectoryAndParents(file.getParentDirectory());
+      FileSystemUtils.createEmptyFile(file);
+    }
+    return file;
+  }
+
+  private SymlinkedExecRoot newExecRoot() {
+    return new SymlinkedExecRoot(sandboxBase.getRelative(Integer.toString(sandboxCount++)));
+  }
+
+  private static long time(
+      SymlinkedExecRoot execRoot, Map<PathFragment, Path> inputs, Set<PathFragment> outputs)
+      throws IOException {
+    long startNanos = BlazeClock.nanoTime();
+    execRoot.createFileSystem(inputs, outputs, ImmutableSet.<Path>of());
+    return BlazeClock.nanoTime() - startNanos;
+  }
+
+  private static void report(String what, long nanos, int iterations) {
+    System.out.printf(
+        "%s: %d ms per setup%n", what, TimeUnit.NANOSECONDS.toMillis(nanos / iterations));
+  }
+}
@@ -18,11 +18,16 @@ import static org.junit.Assert.fail;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.vfs.FileSystem;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.Symlinks;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -78,7 +83,8 @@ public class SymlinkedExecRootTest extends SandboxTestCase {
     FileSystemUtils.createEmptyFile(execRoot.getRelative("very/output.txt"));
     FileSystemUtils.createEmptyFile(execRoot.getRelative("wow/writable/temp.txt"));
 
-    // Reuse the same execRoot.
+    // Reuse the same execRoot, looking at everything in it.
+    symlinkedExecRoot.invalidate();
     symlinkedExecRoot.createFileSystem(
         ImmutableMap.of(PathFragment.create("such/input.txt"), helloTxt),
         ImmutableSet.of(PathFragment.create("very/output.txt")),
@@ -90,6 +96,188 @@ public class SymlinkedExecRootTest extends SandboxTestCase {
     assertThat(execRoot.getRelative("wow/writable/temp.txt").exists()).isFalse();
   }
 
+  @Test
+  public void reuseDeletesOutputsAndWritableDirContents() throws Exception {
+    Path helloTxt = workspaceDir.getRelative("hello.txt");
+    FileSystemUtils.createEmptyFile(helloTxt);
+
+    SymlinkedExecRoot symlinkedExecRoot = new SymlinkedExecRoot(execRoot);
+    symlinkedExecRoot.createFileSystem(
+        ImmutableMap.of(PathFragment.create("such/input.txt"), helloTxt),
+        ImmutableSet.of(PathFragment.create("very/output.txt")),
+        ImmutableSet.of(execRoot.getRelative("wow/writable")));
+
+    FileSystemUtils.createEmptyFile(execRoot.getRelative("very/output.txt"));
+    FileSystemUtils.createEmptyFile(execRoot.getRelative("wow/writable/temp.txt"));
+
+    symlinkedExecRoot.createFileSystem(
+        ImmutableMap.of(PathFragment.create("such/input.txt"), helloTxt),
+        ImmutableSet.of(PathFragment.create("very/output.txt")),
+        ImmutableSet.of(execRoot.getRelative("wow/writable")));
+
+    assertThat(execRoot.getRelative("such/input.txt").resolveSymbolicLinks()).isEqualTo(helloTxt);
+    assertThat(execRoot.getRelative("very/output.txt").exists()).isFalse();
+    assertThat(execRoot.getRelative("wow/writable").isDirectory()).isTrue();
+    assertThat(execRoot.getRelative("wow/writable/temp.txt").exists()).isFalse();
+  }
+
+  @Test
+  public void reuseOnlyChangesDifferingInputs() throws Exception {
+    Path helloTxt = workspaceDir.getRelative("hello.txt");
+    Path worldTxt = workspaceDir.getRelative("world.txt");
+    FileSystemUtils.createEmptyFile(helloTxt);
+    FileSystemUtils.createEmptyFile(worldTxt);
+
+    SymlinkedExecRoot symlinkedExecRoot = new SymlinkedExecRoot(execRoot);
+    symlinkedExecRoot.createFileSystem(
+        ImmutableMap.of(
+            PathFragment.create("kept/input.txt"), helloTxt,
+            PathFragment.create("changed/input.txt"), helloTxt,
+            PathFragment.create("removed/input.txt"), helloTxt),
+        ImmutableSet.<PathFragment>of(),
+        ImmutableSet.<Path>of());
+
+    symlinkedExecRoot.createFileSystem(
+        ImmutableMap.of(
+            PathFragment.create("kept/input.txt"), helloTxt,
+            PathFragment.create("changed/input.txt"), worldTxt,
+            PathFragment.create("added/input.txt"), worldTxt),
+        ImmutableSet.<PathFragment>of(),
+        ImmutableSet.<Path>of());
+
+    assertThat(execRoot.getRelative("kept/input.txt").resolveSymbolicLinks()).isEqualTo(helloTxt);
+    assertThat(execRoot.getRelative("changed/input.txt").resolveSymbolicLinks())
+        .isEqualTo(worldTxt);
+    assertThat(execRoot.getRelative("added/input.txt").resolveSymbolicLinks()).isEqualTo(worldTxt);
+    assertThat(execRoot.getRelative("removed").exists()).isFalse();
+  }
+
+  @Test
+  public void reuseDoesNotListOrReadTheExecRoot() throws Exception {
+    final AtomicInteger reads = new AtomicInteger();
+    FileSystem countingFs =
+        new InMemoryFileSystem(BlazeClock.instance()) {
+          @Override
+          protected Collection<Path> getDirectoryEntries(Path path) throws IOException {
+            reads.incrementAndGet();
+            return super.getDirectoryEntries(path);
+          }
+
+          @Override
+          protected PathFragment readSymbolicLink(Path path) throws IOException {
+            reads.incrementAndGet();
+            return super.readSymbolicLink(path);
+          }
+        };
+    Path helloTxt = countingFs.getPath("/workspace/hello.txt");
+    FileSystemUtils.createDirectoryAndParents(helloTxt.getParentDirectory());
+    FileSystemUtils.createEmptyFile(helloTxt);
+    Path sandboxExecRoot = countingFs.getPath("/sandbox/execroot");
+
+    SymlinkedExecRoot symlinkedExecRoot = new SymlinkedExecRoot(sandboxExecRoot);
+    symlinkedExecRoot.createFileSystem(
+        ImmutableMap.of(
+            PathFragment.create("such/input.txt"), helloTxt,
+            PathFragment.create("such/other.txt"), helloTxt),
+        ImmutableSet.of(PathFragment.create("very/output.txt")),
+        ImmutableSet.of(sandboxExecRoot.getRelative("wow/writable")));
+    FileSystemUtils.createEmptyFile(sandboxExecRoot.getRelative("very/output.txt"));
+    reads.set(0);
+
+    symlinkedExecRoot.createFileSystem(
+        ImmutableMap.of(PathFragment.create("such/input.txt"), helloTxt),
+        ImmutableSet.of(PathFragment.create("very/output.txt")),
+        ImmutableSet.<Path>of());
+
+    // Only the writable directory, which is still empty, had to be listed.
+    assertThat(reads.get()).isEqualTo(1);
+    assertThat(sandboxExecRoot.getRelative("such/input.txt").isSymbolicLink()).isTrue();
+    assertThat(sandboxExecRoot.getRelative("such/other.txt").exists()).isFalse();
+    assertThat(sandboxExecRoot.getRelative("very/output.txt").exists()).isFalse();
+  }
+
+  @Test
+  public void reuseReplacesFilesInTheWayOfNewInputs() throws Exception {
+    Path helloTxt = workspaceDir.getRelative("hello.txt");
+    FileSystemUtils.createEmptyFile(helloTxt);
+
+    SymlinkedExecRoot symlinkedExecRoot = new SymlinkedExecRoot(execRoot);
+    symlinkedExecRoot.createFileSystem(
+        ImmutableMap.<PathFragment, Path>of(),
+        ImmutableSet.<PathFragment>of(),
+        ImmutableSet.<Path>of());
+
+    // The spawn wrote a file it didn't declare.
+    FileSystemUtils.createDirectoryAndParents(execRoot.getRelative("such"));
+    FileSystemUtils.writeContentAsLatin1(execRoot.getRelative("such/input.txt"), "garbage");
+
+    symlinkedExecRoot.createFileSystem(
+        ImmutableMap.of(PathFragment.create("such/input.txt"), helloTxt),
+        ImmutableSet.<PathFragment>of(),
+        ImmutableSet.<Path>of());
+
+    assertThat(execRoot.getRelative("such/input.txt").resolveSymbolicLinks()).isEqualTo(helloTxt);
+  }
+
+  @Test
+  public void invalidateFixesModifiedInputs() throws Exception {
+    Path helloTxt = workspaceDir.getRelative("hello.txt");
+    Path worldTxt = workspaceDir.getRelative("world.txt");
+    FileSystemUtils.createEmptyFile(helloTxt);
+    FileSystemUtils.createEmptyFile(worldTxt);
+
+    SymlinkedExecRoot symlinkedExecRoot = new SymlinkedExecRoot(execRoot);
+    symlinkedExecRoot.createFileSystem(
+        ImmutableMap.of(
+            PathFragment.create("replaced/input.txt"), helloTxt,
+            PathFragment.create("retargeted/input.txt"), helloTxt),
+        ImmutableSet.<PathFragment>of(),
+        ImmutableSet.<Path>of());
+
+    // The spawn replaced one of its input symlinks with a regular file and another one with a
+    // symlink pointing elsewhere.
+    Path replaced = execRoot.getRelative("replaced/input.txt");
+    replaced.delete();
+    FileSystemUtils.writeContentAsLatin1(replaced, "garbage");
+    Path retargeted = execRoot.getRelative("retargeted/input.txt");
+    retargeted.delete();
+    retargeted.createSymbolicLink(worldTxt);
+
+    symlinkedExecRoot.invalidate();
+    symlinkedExecRoot.createFileSystem(
+        ImmutableMap.of(
+            PathFragment.create("replaced/input.txt"), helloTxt,
+            PathFragment.create("retargeted/input.txt"), helloTxt),
+        ImmutableSet.<PathFragment>of(),
+        ImmutableSet.<Path>of());
+
+    assertThat(replaced.isSymbolicLink()).isTrue();
+    assertThat(replaced.resolveSymbolicLinks()).isEqualTo(helloTxt);
+    assertThat(retargeted.resolveSymbolicLinks()).isEqualTo(helloTxt);
+  }
+
+  @Test
+  public void invalidateRecreatesDeletedDirectories() throws Exception {
+    Path helloTxt = workspaceDir.getRelative("hello.txt");
+    FileSystemUtils.createEmptyFile(helloTxt);
+
+    SymlinkedExecRoot symlinkedExecRoot = new SymlinkedExecRoot(execRoot);
+    symlinkedExecRoot.createFileSystem(
+        ImmutableMap.of(PathFragment.create("such/input.txt"), helloTxt),
+        ImmutableSet.<PathFragment>of(),
+        ImmutableSet.<Path>of());
+
+    FileSystemUtils.deleteTree(execRoot.getRelative("such"));
+
+    symlinkedExecRoot.invalidate();
+    symlinkedExecRoot.createFileSystem(
+        ImmutableMap.of(PathFragment.create("such/input.txt"), helloTxt),
+        ImmutableSet.<PathFragment>of(),
+        ImmutableSet.<Path>of());
+
+    assertThat(execRoot.getRelative("such/input.txt").resolveSymbolicLinks()).isEqualTo(helloTxt);
+  }
+
   @Test
   public void copyOutputs() throws Exception {
     Path outputFile = execRoot.getRelative("very/output.txt");
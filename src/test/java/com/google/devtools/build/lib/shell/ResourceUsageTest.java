@@ -0,0 +1,56 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.shell;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ResourceUsage}. */
+@RunWith(JUnit4.class)
+public class ResourceUsageTest {
+
+  @Test
+  public void testParse() throws Exception {
+    ResourceUsage usage = ResourceUsage.parse("1500 2500 1024 3 4\n");
+    assertThat(usage.getUserTimeMicros()).isEqualTo(1500);
+    assertThat(usage.getSystemTimeMicros()).isEqualTo(2500);
+    assertThat(usage.getMaxResidentSetKb()).isEqualTo(1024);
+    assertThat(usage.getBlockInputOps()).isEqualTo(3);
+    assertThat(usage.getBlockOutputOps()).isEqualTo(4);
+  }
+
+  @Test
+  public void testParseRejectsMissingFields() throws Exception {
+    try {
+      ResourceUsage.parse("1500 2500 1024");
+      fail();
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testParseRejectsGarbage() throws Exception {
+    try {
+      ResourceUsage.parse("1500 2500 lots 3 4");
+      fail();
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+}
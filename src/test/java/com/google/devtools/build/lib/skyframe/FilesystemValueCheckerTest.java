@@ -700,6 +700,80 @@ public class FilesystemValueCheckerTest {
         });
   }
 
+  @Test
+  public void testMissingRemoteOutputs() throws Exception {
+    checkMissingRemoteOutputs(null);
+  }
+
+  @Test
+  public void testMissingRemoteOutputsBatchStat() throws Exception {
+    checkMissingRemoteOutputs(
+        new BatchStat() {
+          @Override
+          public List<FileStatusWithDigest> batchStat(
+              boolean useDigest, boolean includeLinks, Iterable<PathFragment> paths)
+              throws IOException {
+            List<FileStatusWithDigest> stats = new ArrayList<>();
+            for (PathFragment pathFrag : paths) {
+              stats.add(
+                  FileStatusWithDigestAdapter.adapt(
+                      fs.getRootDirectory().getRelative(pathFrag).statIfFound(Symlinks.NOFOLLOW)));
+            }
+            return stats;
+          }
+        });
+  }
+
+  private void checkMissingRemoteOutputs(BatchStat batchStatter) throws Exception {
+    Artifact out = createDerivedArtifact("remote");
+    SkyKey actionLookupKey =
+        ActionLookupValue.key(
+            new ActionLookupKey() {
+              @Override
+              protected SkyFunctionName getType() {
+                return SkyFunctionName.FOR_TESTING;
+              }
+            });
+    SkyKey actionKey = ActionExecutionValue.key(actionLookupKey, 0);
+    differencer.inject(
+        ImmutableMap.<SkyKey, SkyValue>of(
+            actionKey,
+            new ActionExecutionValue(
+                ImmutableMap.<Artifact, FileValue>of(),
+                ImmutableMap.<Artifact, TreeArtifactValue>of(),
+                ImmutableMap.of(
+                    out, FileArtifactValue.createRemoteFile(new byte[] {1, 2, 3}, 5)))));
+    assertThat(
+            driver
+                .evaluate(ImmutableList.<SkyKey>of(), false, 1, NullEventHandler.INSTANCE)
+                .hasError())
+        .isFalse();
+
+    // The output was left in a remote cache, so the action has to run again. Its absence is not a
+    // modification, so it is checked even if it isn't known to be modified.
+    ModifiedFileSet unrelated =
+        new ModifiedFileSet.Builder().modify(PathFragment.create("unrelated")).build();
+    assertThat(
+            new FilesystemValueChecker(null, null)
+                .getDirtyActionValues(evaluator.getValues(), batchStatter, unrelated))
+        .containsExactly(actionKey);
+
+    // Once fetched, it is up to date.
+    FileSystemUtils.writeContentAsLatin1(out.getPath(), "hello");
+    assertThat(
+            new FilesystemValueChecker(null, null)
+                .getDirtyActionValues(
+                    evaluator.getValues(), batchStatter, ModifiedFileSet.EVERYTHING_MODIFIED))
+        .isEmpty();
+
+    FileSystemUtils.writeContentAsLatin1(out.getPath(), "goodbye");
+    assertThat(
+            new FilesystemValueChecker(null, null)
+                .getDirtyActionValues(
+                    evaluator.getValues(), batchStatter, ModifiedFileSet.EVERYTHING_MODIFIED))
+        .containsExactly(actionKey);
+  }
+
   // TODO(bazel-team): Add some tests for FileSystemValueChecker#changedKeys*() methods.
   // Presently these appear to be untested.
 
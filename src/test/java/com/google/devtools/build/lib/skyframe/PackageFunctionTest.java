@@ -18,9 +18,11 @@ import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.fail;
 
 import com.google.common.base.Predicates;
+import com.google.common.collect.ConcurrentHashMultiset;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
 import com.google.common.collect.Sets;
 import com.google.devtools.build.lib.analysis.util.BuildViewTestCase;
 import com.google.devtools.build.lib.cmdline.Label;
@@ -71,9 +73,13 @@ import org.junit.runners.JUnit4;
 public class PackageFunctionTest extends BuildViewTestCase {
 
   private CustomInMemoryFs fs = new CustomInMemoryFs(new ManualClock());
+  private boolean doPackageLoadingChecks = true;
 
   private void preparePackageLoading(Path... roots) {
-    PackageCacheOptions packageCacheOptions = Options.getDefaults(PackageCacheOptions.class);
+    preparePackageLoading(Options.getDefaults(PackageCacheOptions.class), roots);
+  }
+
+  private void preparePackageLoading(PackageCacheOptions packageCacheOptions, Path... roots) {
     packageCacheOptions.defaultVisibility = ConstantRuleVisibility.PUBLIC;
     packageCacheOptions.showLoadingProgress = true;
     packageCacheOptions.globbingThreads = 7;
@@ -94,6 +100,11 @@ public class PackageFunctionTest extends BuildViewTestCase {
     return fs;
   }
 
+  @Override
+  protected boolean doPackageLoadingChecks() {
+    return doPackageLoadingChecks;
+  }
+
   private PackageValue validPackage(SkyKey skyKey) throws InterruptedException {
     EvaluationResult<PackageValue> result = SkyframeExecutorTestUtils.evaluate(
         getSkyframeExecutor(), skyKey, /*keepGoing=*/false, reporter);
@@ -664,6 +675,33 @@ public class PackageFunctionTest extends BuildViewTestCase {
     }
   }
 
+  @Test
+  public void testSkyframeOnlyGlobbingListsEachDirectoryOnce() throws Exception {
+    // The package loader of the checks would list the directories again, with legacy globbing.
+    doPackageLoadingChecks = false;
+    initializeSkyframeExecutor();
+    scratch.file(
+        "foo/BUILD",
+        "sh_library(name = 'foo', srcs = glob(['**/*.txt']))",
+        "[sh_library(name = x + '-lib', srcs = [x]) for x in glob(['a/**/*.sh'])]");
+    scratch.file("foo/a/f.txt");
+    scratch.file("foo/a/b/e.sh");
+    scratch.file("foo/a/b/c/d.txt");
+    scratch.file("foo/sub/BUILD");
+    scratch.file("foo/sub/g.txt");
+    PackageCacheOptions packageCacheOptions = Options.getDefaults(PackageCacheOptions.class);
+    packageCacheOptions.skyframeOnlyGlobbing = true;
+    preparePackageLoading(packageCacheOptions, rootDirectory);
+
+    PackageValue value = validPackage(PackageValue.key(PackageIdentifier.parse("@//foo")));
+    assertSrcs(value, "foo", "//foo:a/b/c/d.txt", "//foo:a/f.txt");
+    assertSrcs(value, "a/b/e.sh-lib", "//foo:a/b/e.sh");
+    for (String dir : ImmutableList.of("foo", "foo/a", "foo/a/b", "foo/a/b/c")) {
+      assertThat(fs.getReaddirCount(rootDirectory.getRelative(dir))).named(dir).isEqualTo(1);
+    }
+    assertThat(fs.getReaddirCount(rootDirectory.getRelative("foo/sub"))).isEqualTo(0);
+  }
+
   @Test
   public void testPackageLoadingErrorOnIOExceptionReadingBuildFile() throws Exception {
     Path fooBuildFilePath = scratch.file("foo/BUILD");
@@ -718,6 +756,7 @@ public class PackageFunctionTest extends BuildViewTestCase {
     private final Map<Path, FileStatusOrException> stubbedStats = Maps.newHashMap();
     private final Set<Path> makeUnreadableAfterReaddir = Sets.newHashSet();
     private final Map<Path, IOException> pathsToErrorOnGetInputStream = Maps.newHashMap();
+    private final Multiset<Path> readdirCalls = ConcurrentHashMultiset.create();
 
     public CustomInMemoryFs(ManualClock manualClock) {
       super(manualClock);
@@ -743,8 +782,13 @@ public class PackageFunctionTest extends BuildViewTestCase {
       makeUnreadableAfterReaddir.add(path);
     }
 
+    public int getReaddirCount(Path path) {
+      return readdirCalls.count(path);
+    }
+
     @Override
     public Collection<Dirent> readdir(Path path, boolean followSymlinks) throws IOException {
+      readdirCalls.add(path);
       Collection<Dirent> result = super.readdir(path, followSymlinks);
       if (makeUnreadableAfterReaddir.contains(path)) {
         path.setReadable(false);
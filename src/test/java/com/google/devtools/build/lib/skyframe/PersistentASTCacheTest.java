@@ -0,0 +1,200 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.devtools.build.lib.events.EventCollector;
+import com.google.devtools.build.lib.events.EventKind;
+import com.google.devtools.build.lib.syntax.BuildFileAST;
+import com.google.devtools.build.lib.syntax.SkylarkSemanticsOptions;
+import com.google.devtools.build.lib.syntax.Statement;
+import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.common.options.Options;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link PersistentASTCache}. */
+@RunWith(JUnit4.class)
+public class PersistentASTCacheTest {
+
+  private static final HashCode INSTALL_MD5 = HashCode.fromInt(42);
+
+  private final Scratch scratch = new Scratch();
+  private final SkylarkSemanticsOptions semantics =
+      Options.getDefaults(SkylarkSemanticsOptions.class);
+  private Path directory;
+  private Path file;
+  private PersistentASTCache cache;
+
+  @Before
+  public final void createCache() throws Exception {
+    directory = scratch.dir("/output_base/ast_cache");
+    file = scratch.file("/workspace/pkg/ext.bzl");
+    cache = new PersistentASTCache(INSTALL_MD5);
+    cache.setDirectory(directory);
+  }
+
+  private static BuildFileAST parse(String... lines) {
+    EventCollector events = new EventCollector(EventKind.ALL_EVENTS);
+    BuildFileAST ast = BuildFileAST.parseSkylarkString(events, lines);
+    assertThat(events.count()).isEqualTo(0);
+    return ast;
+  }
+
+  private String key(String content) {
+    return cache.getSkylarkFileKey(file, content.getBytes(UTF_8), semantics);
+  }
+
+  private Path entries() {
+    return directory.getChild(INSTALL_MD5.toString());
+  }
+
+  @Test
+  public void testDisabledCache() throws Exception {
+    cache.setDirectory(null);
+    assertThat(cache.isEnabled()).isFalse();
+    cache.put(key("a"), parse("a = 1"), 1000);
+    assertThat(cache.get(key("a"))).isNull();
+    assertThat(entries().getDirectoryEntries()).isEmpty();
+  }
+
+  @Test
+  public void testASTIsReadBackAfterRestart() throws Exception {
+    BuildFileAST ast = parse("def f(x):", "  return [x]", "y = f(1)");
+    cache.put(key("a"), ast, 5000000000L);
+
+    PersistentASTCache restarted = new PersistentASTCache(INSTALL_MD5);
+    restarted.setDirectory(directory);
+    BuildFileAST cached = restarted.get(key("a"));
+    assertThat(cached).isNotNull();
+    assertThat(cached.getStatements().toString()).isEqualTo(ast.getStatements().toString());
+    assertThat(cached.getStatements().get(1).getLocation().getStartLineAndColumn())
+        .isEqualTo(ast.getStatements().get(1).getLocation().getStartLineAndColumn());
+    assertThat(restarted.getHits()).isEqualTo(1);
+    assertThat(restarted.getParseTimeSavedMillis()).isGreaterThan(4000L);
+
+    restarted.resetStatistics();
+    assertThat(restarted.getHits()).isEqualTo(0);
+    assertThat(restarted.getParseTimeSavedMillis()).isEqualTo(0L);
+  }
+
+  @Test
+  public void testMisses() throws Exception {
+    cache.put(key("a"), parse("a = 1"), 1000);
+    assertThat(cache.get(key("b"))).isNull();
+
+    SkylarkSemanticsOptions otherSemantics =
+        Options.parse(SkylarkSemanticsOptions.class, "--incompatible_disallow_set_constructor")
+            .getOptions();
+    assertThat(cache.get(cache.getSkylarkFileKey(file, "a".getBytes(UTF_8), otherSemantics)))
+        .isNull();
+
+    PersistentASTCache otherBinary = new PersistentASTCache(HashCode.fromInt(43));
+    otherBinary.setDirectory(directory);
+    String otherBinaryKey = otherBinary.getSkylarkFileKey(file, "a".getBytes(UTF_8), semantics);
+    assertThat(otherBinary.get(otherBinaryKey)).isNull();
+    assertThat(cache.getHits()).isEqualTo(0);
+  }
+
+  @Test
+  public void testBuildFileKeyDependsOnPrelude() throws Exception {
+    byte[] content = "a = 1".getBytes(UTF_8);
+    ImmutableList<Statement> prelude = parse("p = 1").getStatements();
+    ImmutableList<Statement> samePrelude = parse("p = 1").getStatements();
+    assertThat(cache.getBuildFileKey(file, content, prelude, semantics))
+        .isEqualTo(cache.getBuildFileKey(file, content, samePrelude, semantics));
+    assertThat(cache.getBuildFileKey(file, content, prelude, semantics))
+        .isNotEqualTo(
+            cache.getBuildFileKey(file, content, ImmutableList.<Statement>of(), semantics));
+    assertThat(cache.getBuildFileKey(file, content, prelude, semantics))
+        .isNotEqualTo(cache.getSkylarkFileKey(file, content, semantics));
+  }
+
+  @Test
+  public void testCorruptEntryIsAMiss() throws Exception {
+    cache.put(key("a"), parse("a = 1"), 1000);
+    FileSystemUtils.writeContent(entries().getChild(key("a")), "garbage".getBytes(UTF_8));
+    assertThat(cache.get(key("a"))).isNull();
+
+    cache.put(key("a"), parse("a = 2"), 1000);
+    assertThat(cache.get(key("a")).getStatements().toString()).isEqualTo("[a = 2\n]");
+  }
+
+  @Test
+  public void testEntriesOfOtherBinariesAreRemoved() throws Exception {
+    cache.put(key("a"), parse("a = 1"), 1000);
+
+    PersistentASTCache otherBinary = new PersistentASTCache(HashCode.fromInt(43));
+    otherBinary.setDirectory(directory);
+    assertThat(entries().exists()).isFalse();
+    assertThat(directory.getDirectoryEntries())
+        .containsExactly(directory.getChild(HashCode.fromInt(43).toString()));
+  }
+
+  @Test
+  public void testEntriesAreKeptWhileTheDirectoryIsUnchanged() throws Exception {
+    cache = new PersistentASTCache(INSTALL_MD5, /*maxEntries=*/ 1);
+    cache.setDirectory(directory);
+    cache.put(key("a"), parse("a = 1"), 1000);
+    cache.put(key("b"), parse("b = 1"), 1000);
+
+    cache.setDirectory(directory);
+    assertThat(cache.get(key("a"))).isNotNull();
+    assertThat(cache.get(key("b"))).isNotNull();
+  }
+
+  @Test
+  public void testCacheIsClearedWhenFull() throws Exception {
+    PersistentASTCache small = new PersistentASTCache(INSTALL_MD5, /*maxEntries=*/ 2);
+    cache.put(key("a"), parse("a = 1"), 1000);
+    cache.put(key("b"), parse("b = 1"), 1000);
+    small.setDirectory(directory);
+    assertThat(small.get(key("a"))).isNotNull();
+
+    cache.put(key("c"), parse("c = 1"), 1000);
+    small.setDirectory(null);
+    small.setDirectory(directory);
+    assertThat(entries().getDirectoryEntries()).isEmpty();
+    assertThat(small.isEnabled()).isTrue();
+  }
+
+  @Test
+  public void testTemporaryFileIsRemovedWhenWriteFails() throws Exception {
+    // An entry can't replace a non-empty directory.
+    FileSystemUtils.createDirectoryAndParents(entries().getRelative(key("a") + "/x"));
+    cache.put(key("a"), parse("a = 1"), 1000);
+    assertThat(cache.get(key("a"))).isNull();
+    assertThat(entries().getDirectoryEntries()).containsExactly(entries().getChild(key("a")));
+  }
+
+  @Test
+  public void testLeftoverTemporaryFilesAreRemoved() throws Exception {
+    cache.put(key("a"), parse("a = 1"), 1000);
+    Path leftover = entries().getChild(key("b") + ".tmp1");
+    FileSystemUtils.writeContent(leftover, "partial".getBytes(UTF_8));
+
+    PersistentASTCache restarted = new PersistentASTCache(INSTALL_MD5);
+    restarted.setDirectory(directory);
+    assertThat(leftover.exists()).isFalse();
+    assertThat(restarted.get(key("a"))).isNotNull();
+  }
+}
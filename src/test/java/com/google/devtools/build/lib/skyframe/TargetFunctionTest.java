@@ -0,0 +1,178 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.EventBus;
+import com.google.devtools.build.lib.analysis.ConfiguredTarget;
+import com.google.devtools.build.lib.analysis.util.BuildViewTestCase;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.skyframe.util.SkyframeExecutorTestUtils;
+import com.google.devtools.build.lib.vfs.ModifiedFileSet;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.skyframe.EvaluationResult;
+import com.google.devtools.build.skyframe.SkyKey;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link TargetFunction}: the values of the targets that didn't change when their BUILD
+ * file changes are pruned, and so are the functions that only depend on them.
+ */
+@RunWith(JUnit4.class)
+public class TargetFunctionTest extends BuildViewTestCase {
+
+  private static final String X =
+      "genrule(name = 'x', srcs = ['x.in'], outs = ['x.out'], cmd = 'cp $< $@')";
+  private static final String Y =
+      "genrule(name = 'y', srcs = ['y.in'], outs = ['y.out'], cmd = 'cp $< $@')";
+  private static final String CHANGED_Y =
+      "genrule(name = 'y', srcs = ['y.in'], outs = ['y.out'], cmd = 'cat $< > $@')";
+
+  private TargetValue evaluate(String label) throws Exception {
+    SkyKey key = TargetValue.key(Label.parseAbsolute(label));
+    EvaluationResult<TargetValue> result =
+        SkyframeExecutorTestUtils.evaluate(
+            getSkyframeExecutor(), key, /*keepGoing=*/ false, reporter);
+    assertThat(result.hasError()).isFalse();
+    return result.get(key);
+  }
+
+  /**
+   * Analyzes a package of genrules, changes the command of one of them, optionally adding a line
+   * before it, and returns the labels of the configured targets that are analyzed again.
+   */
+  private Set<Label> reanalyzeAfterOneLineEdit(int rules, boolean addLine) throws Exception {
+    String[] lines = new String[rules];
+    for (int i = 0; i < rules; i++) {
+      scratch.file("a/in" + i);
+      lines[i] =
+          String.format(
+              "genrule(name = 'r%d', srcs = ['in%d'], outs = ['out%d'], cmd = 'cp $< $@')",
+              i, i, i);
+    }
+    writeBuildFile(lines);
+    update(ImmutableList.of("//a:all"), false, LOADING_PHASE_THREADS, true, new EventBus());
+
+    lines[rules / 2] = lines[rules / 2].replace("cp $< $@", "cat $< > $@");
+    if (addLine) {
+      lines[rules / 2] = "# Concatenates instead of copying.\n" + lines[rules / 2];
+    }
+    writeBuildFile(lines);
+    update(ImmutableList.of("//a:all"), false, LOADING_PHASE_THREADS, true, new EventBus());
+    Set<Label> reanalyzed = new HashSet<>();
+    for (SkyKey key : view.getSkyframeEvaluatedTargetKeysForTesting()) {
+      reanalyzed.add(((ConfiguredTargetKey) key.argument()).getLabel());
+    }
+    return reanalyzed;
+  }
+
+  private void writeBuildFile(String... lines) throws Exception {
+    scratch.overwriteFile("a/BUILD", lines);
+    getSkyframeExecutor()
+        .invalidateFilesUnderPathForTesting(
+            reporter,
+            ModifiedFileSet.builder().modify(PathFragment.create("a/BUILD")).build(),
+            rootDirectory);
+  }
+
+  @Test
+  public void testUnchangedTargetsAreKept() throws Exception {
+    writeBuildFile(X, Y);
+    TargetValue x = evaluate("//a:x");
+    TargetValue xIn = evaluate("//a:x.in");
+    TargetValue xOut = evaluate("//a:x.out");
+    TargetValue y = evaluate("//a:y");
+
+    writeBuildFile(X, CHANGED_Y);
+    assertThat(evaluate("//a:x")).isSameAs(x);
+    assertThat(evaluate("//a:x.in")).isSameAs(xIn);
+    assertThat(evaluate("//a:x.out")).isSameAs(xOut);
+    TargetValue changedY = evaluate("//a:y");
+    assertThat(changedY).isNotEqualTo(y);
+    assertThat(changedY.getTarget().getPackage()).isNotSameAs(x.getTarget().getPackage());
+  }
+
+  @Test
+  public void testMovedTargetsAreKept() throws Exception {
+    writeBuildFile(X, Y);
+    TargetValue x = evaluate("//a:x");
+    TargetValue y = evaluate("//a:y");
+
+    // The position of a rule isn't part of its content, so a kept rule reports its old position.
+    writeBuildFile("", X, "", Y);
+    assertThat(evaluate("//a:x")).isSameAs(x);
+    assertThat(evaluate("//a:y")).isSameAs(y);
+    assertThat(evaluate("//a:y").getTarget().getLocation().getStartLineAndColumn().getLine())
+        .isEqualTo(2);
+  }
+
+  @Test
+  public void testPackageLevelChangesChangeAllTargets() throws Exception {
+    writeBuildFile(X, Y);
+    TargetValue x = evaluate("//a:x");
+
+    writeBuildFile(X, Y, "licenses(['notice'])");
+    assertThat(evaluate("//a:x")).isNotEqualTo(x);
+  }
+
+  @Test
+  public void testConfiguredTargetsOfUnchangedRulesAreKept() throws Exception {
+    setPackageCacheOptions("--experimental_rule_level_change_pruning");
+    scratch.file("a/x.in");
+    scratch.file("a/y.in");
+    writeBuildFile(X, Y);
+    ConfiguredTarget x = getConfiguredTarget("//a:x");
+    ConfiguredTarget y = getConfiguredTarget("//a:y");
+
+    writeBuildFile(X, CHANGED_Y);
+    assertThat(getConfiguredTarget("//a:x")).isSameAs(x);
+    assertThat(getConfiguredTarget("//a:y")).isNotSameAs(y);
+  }
+
+  @Test
+  public void testOneLineEditInAHugePackageOnlyReanalyzesTheEditedRule() throws Exception {
+    setPackageCacheOptions("--experimental_rule_level_change_pruning");
+    assertThat(reanalyzeAfterOneLineEdit(1000, false))
+        .containsExactly(Label.parseAbsolute("//a:r500"));
+  }
+
+  @Test
+  public void testEditAddingALineInAHugePackageOnlyReanalyzesTheEditedRule() throws Exception {
+    setPackageCacheOptions("--experimental_rule_level_change_pruning");
+    assertThat(reanalyzeAfterOneLineEdit(1000, true))
+        .containsExactly(Label.parseAbsolute("//a:r500"));
+  }
+
+  @Test
+  public void testOneLineEditInAHugePackageReanalyzesAllRulesByDefault() throws Exception {
+    assertThat(reanalyzeAfterOneLineEdit(1000, false)).hasSize(2000);
+  }
+
+  @Test
+  public void testConfiguredTargetsDependOnPackagesByDefault() throws Exception {
+    scratch.file("a/x.in");
+    scratch.file("a/y.in");
+    writeBuildFile(X, Y);
+    ConfiguredTarget x = getConfiguredTarget("//a:x");
+
+    writeBuildFile(X, CHANGED_Y);
+    assertThat(getConfiguredTarget("//a:x")).isNotSameAs(x);
+  }
+}
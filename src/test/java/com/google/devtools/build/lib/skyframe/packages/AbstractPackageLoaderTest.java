@@ -126,6 +126,33 @@ public abstract class AbstractPackageLoaderTest {
     assertNoEvents(handler.getEvents());
   }
 
+  @Test
+  public void skyframeOnlyGlobbing() throws Exception {
+    // Which globs the second line makes depends on the results of its first glob.
+    file(
+        "good/BUILD",
+        "sh_library(name = 'all', srcs = glob(['**/*.txt']))",
+        "[sh_library(name = m.split('/')[0], srcs = glob([m.split('/')[0] + '/**/*.txt']))",
+        "    for m in glob(['*/marker'])]");
+    file("good/a/marker");
+    file("good/a/x.txt");
+    file("good/a/b/y.txt");
+    file("good/c/marker");
+    file("good/c/z.txt");
+    PackageIdentifier pkgId = PackageIdentifier.createInMainRepo(PathFragment.create("good"));
+    PackageLoader skyframeOnlyPkgLoader =
+        makeFreshBuilder(pkgRoot).setSkyframeOnlyGlobbing(true).build();
+
+    Package goodPkg = skyframeOnlyPkgLoader.loadPackage(pkgId);
+
+    assertThat(goodPkg.containsErrors()).isFalse();
+    assertThat(goodPkg.getTargets().keySet())
+        .containsExactly("BUILD", "all", "a", "c", "a/x.txt", "a/b/y.txt", "c/z.txt");
+    assertThat(goodPkg.getTargets().keySet())
+        .isEqualTo(pkgLoader.loadPackage(pkgId).getTargets().keySet());
+    assertNoEvents(goodPkg.getEvents());
+  }
+
   protected Path path(String rootRelativePath) {
     return pkgRoot.getRelative(PathFragment.create(rootRelativePath));
   }
@@ -0,0 +1,144 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe.packages;
+
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.packages.Package;
+import com.google.devtools.build.lib.unix.UnixFileSystem;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.vfs.Dirent;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures how long a {@link BazelPackageLoader} takes to load a package whose BUILD file globs a
+ * deep directory tree, and how many directories it lists doing so, with legacy globbing and with
+ * Skyframe-only globbing.
+ *
+ * <p>Every load uses a fresh loader, so no glob is cached by Skyframe; the tree will be in the
+ * operating system's caches after the first load.
+ *
+ * <p>Usage: {@code GlobbingBenchmark <scratch dir> [<fanout> [<depth> [<iterations>]]]}
+ */
+public final class GlobbingBenchmark {
+
+  private static final int FILES_PER_DIRECTORY = 10;
+
+  private final CountingFileSystem fileSystem = new CountingFileSystem();
+  private final Path workspace;
+  private final PackageIdentifier pkgId =
+      PackageIdentifier.createInMainRepo(PathFragment.create("pkg"));
+
+  private GlobbingBenchmark(String scratch) {
+    this.workspace = fileSystem.getPath(scratch).getRelative("workspace");
+  }
+
+  public static void main(String[] args) throws Exception {
+    int fanout = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    int depth = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+    int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+    GlobbingBenchmark benchmark = new GlobbingBenchmark(args[0]);
+    benchmark.createPackage(fanout, depth);
+
+    // Once each to warm up.
+    benchmark.load(false);
+    benchmark.load(true);
+    benchmark.run("legacy globbing", false, iterations);
+    benchmark.run("skyframe-only globbing", true, iterations);
+  }
+
+  /**
+   * Creates a package whose BUILD file has independent globs over the whole tree, plus globs
+   * whose patterns depend on the result of another glob.
+   */
+  private void createPackage(int fanout, int depth) throws IOException {
+    Path pkg = workspace.getRelative("pkg");
+    FileSystemUtils.deleteTree(workspace);
+    FileSystemUtils.createDirectoryAndParents(pkg);
+    FileSystemUtils.createEmptyFile(workspace.getRelative("WORKSPACE"));
+    FileSystemUtils.writeIsoLatin1(
+        pkg.getRelative("BUILD"),
+        "sh_library(name = 'sh', srcs = glob(['**/*.sh']))",
+        "filegroup(name = 'txt', srcs = glob(['**/*.txt'], exclude = ['**/skip/**']))",
+        "[filegroup(name = d[:-len('/marker')], srcs = glob([d[:-len('marker')] + '*/*.sh']))",
+        "    for d in glob(['*/marker'])]");
+    for (int i = 0; i < fanout; i++) {
+      Path top = pkg.getRelative("d" + i);
+      createTree(top, fanout, depth - 1);
+      FileSystemUtils.createEmptyFile(top.getRelative("marker"));
+    }
+  }
+
+  private static void createTree(Path dir, int fanout, int depth) throws IOException {
+    FileSystemUtils.createDirectoryAndParents(dir);
+    for (int i = 0; i < FILES_PER_DIRECTORY; i++) {
+      FileSystemUtils.createEmptyFile(dir.getRelative("f" + i + (i % 2 == 0 ? ".sh" : ".txt")));
+    }
+    if (depth > 0) {
+      for (int i = 0; i < fanout; i++) {
+        createTree(dir.getRelative(i == 0 ? "skip" : "d" + i), fanout, depth - 1);
+      }
+    }
+  }
+
+  private void run(String what, boolean skyframeOnlyGlobbing, int iterations) throws Exception {
+    long nanos = 0;
+    int readdirs = 0;
+    for (int i = 0; i < iterations; i++) {
+      fileSystem.readdirs.set(0);
+      nanos += load(skyframeOnlyGlobbing);
+      readdirs += fileSystem.readdirs.get();
+    }
+    System.out.printf(
+        "%s: %d ms per load, %d directory listings per load%n",
+        what, TimeUnit.NANOSECONDS.toMillis(nanos / iterations), readdirs / iterations);
+  }
+
+  /** Loads the package with a fresh loader and returns how long it took. */
+  private long load(boolean skyframeOnlyGlobbing) throws Exception {
+    PackageLoader loader =
+        BazelPackageLoader.builder(workspace)
+            .setSkyframeOnlyGlobbing(skyframeOnlyGlobbing)
+            .build();
+    long startNanos = BlazeClock.nanoTime();
+    Package pkg = loader.loadPackage(pkgId);
+    long nanos = BlazeClock.nanoTime() - startNanos;
+    if (pkg.containsErrors()) {
+      throw new IllegalStateException(pkg.getEvents().toString());
+    }
+    return nanos;
+  }
+
+  /** Counts how many directories are listed. */
+  private static final class CountingFileSystem extends UnixFileSystem {
+    private final AtomicInteger readdirs = new AtomicInteger();
+
+    @Override
+    protected Collection<Path> getDirectoryEntries(Path path) throws IOException {
+      readdirs.incrementAndGet();
+      return super.getDirectoryEntries(path);
+    }
+
+    @Override
+    protected Collection<Dirent> readdir(Path path, boolean followSymlinks) throws IOException {
+      readdirs.incrementAndGet();
+      return super.readdir(path, followSymlinks);
+    }
+  }
+}
@@ -139,6 +139,52 @@ public class FunctionTest extends EvaluationTestCase {
     assertThat(lookup("c")).isEqualTo(2);
   }
 
+  @Test
+  public void testFunctionDefLocalVariableShadowsGlobalOnceAssigned() throws Exception {
+    eval("a = 1",
+        "def func():",
+        "  b = []",
+        "  for i in [1, 2]:",
+        "    if i == 2:",
+        "      b.append(a)",
+        "    a = 3",
+        "  return b",
+        "c = func()\n");
+    assertThat((Iterable<?>) lookup("c")).containsExactly(3);
+  }
+
+  @Test
+  public void testFunctionLocalVariablesArePerCall() throws Exception {
+    eval("def func2(a):",
+        "  b = a * 10",
+        "  return b",
+        "def func1(a):",
+        "  b = a + 1",
+        "  c = func2(b)",
+        "  return [a, b, c]",
+        "d = func1(1)",
+        "e = func1(2)\n");
+    assertThat((Iterable<?>) lookup("d")).containsExactly(1, 2, 20).inOrder();
+    assertThat((Iterable<?>) lookup("e")).containsExactly(2, 3, 30).inOrder();
+  }
+
+  @Test
+  public void testFunctionLocalVariablesWithBreakAndContinue() throws Exception {
+    eval("def func(limit):",
+        "  found = []",
+        "  for i in [1, 2, 3, 4, 5]:",
+        "    if i % 2 == 0:",
+        "      continue",
+        "    if i > limit:",
+        "      break",
+        "    found.append(i)",
+        "  return found",
+        "a = func(3)",
+        "b = func(5)\n");
+    assertThat((Iterable<?>) lookup("a")).containsExactly(1, 3).inOrder();
+    assertThat((Iterable<?>) lookup("b")).containsExactly(1, 3, 5).inOrder();
+  }
+
   @SuppressWarnings("unchecked")
   @Test
   public void testSkylarkGlobalComprehensionIsAllowed() throws Exception {
@@ -200,6 +200,20 @@ public class LexerTest {
     assertThat(values(tokens("0x12345g-"))).isEqualTo("INT(74565) IDENTIFIER(g) MINUS NEWLINE EOF");
   }
 
+  @Test
+  public void testIntegerOverflow() throws Exception {
+    assertThat(values(tokens("2147483647"))).isEqualTo("INT(2147483647) NEWLINE EOF");
+    assertThat(values(tokens("0x7fffffff"))).isEqualTo("INT(2147483647) NEWLINE EOF");
+
+    assertThat(values(tokens("2147483648"))).isEqualTo("INT(0) NEWLINE EOF");
+    assertThat(lastError.toString())
+        .isEqualTo("/some/path.txt:1: invalid base-10 integer constant: 2147483648");
+
+    assertThat(values(tokens("0x"))).isEqualTo("INT(0) NEWLINE EOF");
+    assertThat(lastError.toString())
+        .isEqualTo("/some/path.txt:1: invalid base-16 integer constant: 0x");
+  }
+
   @Test
   public void testIntegersAndDot() throws Exception {
     assertThat(values(tokens("1.2345"))).isEqualTo("INT(1) DOT INT(2345) NEWLINE EOF");
@@ -225,6 +239,34 @@ public class LexerTest {
         .isEqualTo("IDENTIFIER(foo) DOT IDENTIFIER(xyz) NEWLINE EOF");
   }
 
+  @Test
+  public void testIdentifiersAndStringsAreShared() throws Exception {
+    Token[] tokens = tokens("name = 'x'\nname = 'x' + \"x\"\n");
+    assertThat(values(tokens))
+        .isEqualTo("IDENTIFIER(name) EQUALS STRING(x) NEWLINE "
+            + "IDENTIFIER(name) EQUALS STRING(x) PLUS STRING(x) NEWLINE EOF");
+    assertThat(tokens[4].value).isSameAs(tokens[0].value);
+    assertThat(tokens[6].value).isSameAs(tokens[2].value);
+    assertThat(tokens[8].value).isSameAs(tokens[2].value);
+    // Strings are also shared between files.
+    assertThat(tokens("'x'")[0].value).isSameAs(tokens[2].value);
+  }
+
+  @Test
+  public void testManyDistinctIdentifiers() throws Exception {
+    StringBuilder input = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      input.append("a").append(i).append(" = 'a").append(i).append("'\n");
+    }
+    Token[] tokens = tokens(input.toString() + input);
+    assertThat(tokens).hasLength(8001);
+    for (int i = 0; i < 1000; i++) {
+      assertThat(tokens[4 * i].value).isEqualTo("a" + i);
+      assertThat(tokens[4 * i + 2].value).isSameAs(tokens[4 * i].value);
+      assertThat(tokens[4000 + 4 * i].value).isSameAs(tokens[4 * i].value);
+    }
+  }
+
   @Test
   public void testStringDelimiters() throws Exception {
     assertThat(values(tokens("\"foo\""))).isEqualTo("STRING(foo) NEWLINE EOF");
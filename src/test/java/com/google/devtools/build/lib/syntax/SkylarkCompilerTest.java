@@ -0,0 +1,232 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.syntax.util.EvaluationTestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Conformance tests for {@link SkylarkCompiler}: each program has to give the same result, or fail
+ * with the same error at the same location, whether its functions are interpreted or compiled.
+ */
+@RunWith(JUnit4.class)
+public class SkylarkCompilerTest extends EvaluationTestCase {
+
+  private String evaluate(int compilationThreshold, String... lines) throws Exception {
+    env =
+        newEnvironmentWithSkylarkOptions(
+            "--experimental_skylark_compilation_threshold=" + compilationThreshold);
+    try {
+      eval(lines);
+      return Printer.repr(lookup("result"));
+    } catch (EvalException e) {
+      return "error at " + e.getLocation() + ": " + e.print();
+    }
+  }
+
+  /** Checks that compiling the functions of the program doesn't change what it does. */
+  private void assertConforms(String... lines) throws Exception {
+    String interpreted = evaluate(-1, lines);
+    assertThat(evaluate(0, lines)).isEqualTo(interpreted);
+    // Functions that are compiled while they are called.
+    assertThat(evaluate(1, lines)).isEqualTo(interpreted);
+  }
+
+  @Test
+  public void testBodyIsCompiledOnceHot() throws Exception {
+    ImmutableList<Statement> statements =
+        ImmutableList.copyOf(
+            parseBuildFileASTWithoutValidation("x = 1", "return x").getStatements());
+    SkylarkCompiler compiler = new SkylarkCompiler("f", statements, 2);
+
+    assertThat(compiler.getCompiledBody()).isNull();
+    assertThat(compiler.getCompiledBody()).isNull();
+    CompiledFunctionBody body = compiler.getCompiledBody();
+    assertThat(body).isNotNull();
+    assertThat(compiler.getCompiledBody()).isSameAs(body);
+  }
+
+  @Test
+  public void testArgumentsAndLocalVariables() throws Exception {
+    assertConforms(
+        "def f(a, b=2, *args, **kwargs):",
+        "  c = a + b",
+        "  a, [b, d] = 1, [2, 3]",
+        "  a += b",
+        "  return [a, c, d, args, kwargs]",
+        "result = [f(1, 3, 4, x=5), f(2)]");
+  }
+
+  @Test
+  public void testLocalVariableShadowsGlobal() throws Exception {
+    assertConforms(
+        "y = 10",
+        "def f():",
+        "  r = []",
+        "  for i in range(2):",
+        "    if i == 1:",
+        "      r.append(y)",
+        "    y = 1",
+        "  return r",
+        "result = [f(), f()]");
+  }
+
+  @Test
+  public void testUnboundLocalVariable() throws Exception {
+    assertConforms(
+        "def f(x):",
+        "  if x:",
+        "    v = 1",
+        "  return v",
+        "result = [f(True), f(False)]");
+  }
+
+  @Test
+  public void testIfElifElse() throws Exception {
+    assertConforms(
+        "def f(x):",
+        "  if x == 1:",
+        "    return 'one'",
+        "  elif x == 2:",
+        "    return 'two'",
+        "  elif x < 0:",
+        "    pass",
+        "  else:",
+        "    return 'many'",
+        "result = [f(1), f(2), f(-5), f(9)]");
+  }
+
+  @Test
+  public void testBreakAndContinue() throws Exception {
+    assertConforms(
+        "def f(l):",
+        "  r = []",
+        "  for x in l:",
+        "    if x == 2:",
+        "      continue",
+        "    if x == 5:",
+        "      break",
+        "    for y in l:",
+        "      if y > x:",
+        "        break",
+        "      r.append(x * y)",
+        "  return r",
+        "result = [f([1, 2, 3, 4, 5, 6]), f(range(4)), f('abc')]");
+  }
+
+  @Test
+  public void testReturnFromNestedLoopsUnlocksCollections() throws Exception {
+    assertConforms(
+        "def f(l):",
+        "  for x in l:",
+        "    for y in l:",
+        "      if x * y == 2:",
+        "        return (x, y)",
+        "def g():",
+        "  l = [1, 2]",
+        "  f(l)",
+        "  l.append(3)",
+        "  return l",
+        "result = [g(), g()]");
+  }
+
+  @Test
+  public void testMutatingIteratedCollection() throws Exception {
+    assertConforms(
+        "def f(l):",
+        "  for x in l:",
+        "    l.append(x)",
+        "result = f([1])");
+  }
+
+  @Test
+  public void testIteratingNonIterable() throws Exception {
+    assertConforms(
+        "def f(x):",
+        "  for i in x:",
+        "    pass",
+        "result = [f([]), f(1)]");
+  }
+
+  @Test
+  public void testOperators() throws Exception {
+    assertConforms(
+        "def f(x):",
+        "  return [x and 1 or 2, not x, 'a' if x else 5, x in [1, 2], x not in [2], -x * 3 % 7]",
+        "result = [f(0), f(1), f(2)]");
+  }
+
+  @Test
+  public void testOperatorErrors() throws Exception {
+    assertConforms(
+        "def f(x):",
+        "  return 1 + x",
+        "def g(x):",
+        "  return f(x)",
+        "result = [g(1), g('a')]");
+    assertConforms("def f(x):", "  return x // 0", "result = f(1)");
+    assertConforms("def f(x):", "  return x < 'a'", "result = f(1)");
+  }
+
+  @Test
+  public void testShortCircuitOperators() throws Exception {
+    assertConforms(
+        "def f(x):",
+        "  return x or fail('short-circuit')",
+        "result = [f(1), f(0)]");
+  }
+
+  @Test
+  public void testAssignmentErrors() throws Exception {
+    assertConforms(
+        "def f(x):",
+        "  x[0] = 3",
+        "  return x",
+        "result = [f([1]), f({}), f(())]");
+    assertConforms(
+        "def f():",
+        "  a, b = [1, 2, 3]",
+        "result = f()");
+  }
+
+  @Test
+  public void testInterpretedStatementsAndExpressions() throws Exception {
+    assertConforms(
+        "def f(d):",
+        "  r = []",
+        "  for k in d:",
+        "    r += [k, d[k]]",
+        "  print('%s' % r)",
+        "  return [x * 2 for x in r if x != 'a'] + [r[-1:]]",
+        "result = [f({'a': 1, 'b': 2}), f({'c': 3})]");
+  }
+
+  @Test
+  public void testFailInNestedCall() throws Exception {
+    assertConforms(
+        "def f(l):",
+        "  for x in l:",
+        "    for y in l:",
+        "      if y == 2:",
+        "        fail('boom')",
+        "def g():",
+        "  f([1, 2])",
+        "result = g()");
+  }
+}
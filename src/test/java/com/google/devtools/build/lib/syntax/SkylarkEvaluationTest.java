@@ -239,6 +239,18 @@ public class SkylarkEvaluationTest extends EvaluationTest {
     public void method(String i) {}
   }
 
+  @SkylarkModule(name = "MockOverloadedClass", doc = "")
+  static final class MockOverloadedClass {
+    @SkylarkCallable(doc = "")
+    public String describe(Integer i) {
+      return "int";
+    }
+    @SkylarkCallable(doc = "")
+    public String describe(String s) {
+      return "string";
+    }
+  }
+
   @Test
   public void testSimpleIf() throws Exception {
     new SkylarkTest().setUp("def foo():",
@@ -690,6 +702,24 @@ public class SkylarkEvaluationTest extends EvaluationTest {
         .testLookup("b", Boolean.FALSE);
   }
 
+  @Test
+  public void testJavaCallsOnDifferentClassesFromSameCallSite() throws Exception {
+    new SkylarkTest()
+        .update("mock", new Mock())
+        .update("sub", new MockSubClass())
+        .setUp(
+            "def is_empty(x):",
+            "  return x.is_empty('')",
+            "b = str([is_empty(mock), is_empty(sub), is_empty(mock)])")
+        .testLookup("b", "[True, True, True]");
+    new SkylarkTest()
+        .update("mock", new Mock())
+        .update("sub", new MockSubClass())
+        .setUp("def is_empty(x):", "  return x.is_empty_interface('')", "is_empty(sub)")
+        .testIfErrorContains(
+            "type 'Mock' has no method is_empty_interface(string)", "is_empty(mock)");
+  }
+
   @Test
   public void testJavaCallsNotSkylarkCallable() throws Exception {
     new SkylarkTest()
@@ -727,6 +757,23 @@ public class SkylarkEvaluationTest extends EvaluationTest {
             "s = mock.method('string')");
   }
 
+  @Test
+  public void testJavaCallsResolveOverloadsByArgumentClassesFromSameCallSite() throws Exception {
+    new SkylarkTest()
+        .update("mock", new MockOverloadedClass())
+        .setUp(
+            "def describe(x):",
+            "  return mock.describe(x)",
+            "b = describe(1) + describe('a') + describe(2) + describe('b')")
+        .testLookup("b", "intstringintstring");
+    new SkylarkTest()
+        .update("mock", new MockMultipleMethodClass())
+        .setUp("def call(x):", "  return mock.method(x)", "call(1)")
+        .testIfErrorContains(
+            "type 'MockMultipleMethodClass' has multiple matches for function method(string)",
+            "call('string')");
+  }
+
   @Test
   public void testJavaCallWithKwargs() throws Exception {
     new SkylarkTest()
@@ -0,0 +1,100 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.devtools.build.lib.events.NullEventHandler;
+import com.google.devtools.build.lib.util.BlazeClock;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how much slower Skylark evaluation is while {@link SkylarkSamplingProfiler} runs, both
+ * for code that makes many short outermost calls, each of which registers with the profiler, and
+ * for code that spends its time in a single outermost call.
+ *
+ * <p>Usage: {@code SkylarkSamplingProfilerBenchmark [<iterations>]}
+ */
+public final class SkylarkSamplingProfilerBenchmark {
+
+  private static final String[] SHORT_CALLS = {
+    "def f(x):",
+    "  return x + 1",
+    "result = [f(i) for i in range(300000)]",
+  };
+
+  private static final String[] LONG_CALL = {
+    "def g(x):",
+    "  return str(x) + '.bzl'",
+    "def loop(n):",
+    "  t = []",
+    "  for i in range(n):",
+    "    t.append(g(i))",
+    "  return t",
+    "result = loop(300000)",
+  };
+
+  private final int iterations;
+
+  private SkylarkSamplingProfilerBenchmark(int iterations) {
+    this.iterations = iterations;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    SkylarkSamplingProfilerBenchmark benchmark = new SkylarkSamplingProfilerBenchmark(iterations);
+    // Once each to warm up.
+    benchmark.run(SHORT_CALLS, 10);
+    benchmark.run(LONG_CALL, 10);
+    for (long intervalMillis : new long[] {0, 10, 1}) {
+      benchmark.report("short calls", intervalMillis, benchmark.run(SHORT_CALLS, intervalMillis));
+      benchmark.report("long call", intervalMillis, benchmark.run(LONG_CALL, intervalMillis));
+    }
+  }
+
+  /**
+   * Evaluates {@code code} in a fresh environment for each iteration, with the profiler sampling
+   * every {@code intervalMillis} milliseconds unless that is 0, and returns how long it took.
+   */
+  private long run(String[] code, long intervalMillis) throws Exception {
+    SkylarkSamplingProfiler profiler = SkylarkSamplingProfiler.instance();
+    if (intervalMillis > 0) {
+      profiler.start(new ByteArrayOutputStream(), new ByteArrayOutputStream(), intervalMillis);
+    }
+    try {
+      long startNanos = BlazeClock.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        try (Mutability mutability = Mutability.create("benchmark")) {
+          Environment env =
+              Environment.builder(mutability)
+                  .setGlobals(Environment.SKYLARK)
+                  .setEventHandler(NullEventHandler.INSTANCE)
+                  .setSkylark()
+                  .build();
+          BuildFileAST.eval(env, code);
+        }
+      }
+      return BlazeClock.nanoTime() - startNanos;
+    } finally {
+      profiler.stop();
+    }
+  }
+
+  private void report(String what, long intervalMillis, long nanos) {
+    System.out.printf(
+        "%s, %s: %d ms per evaluation%n",
+        what,
+        intervalMillis > 0 ? "sampling every " + intervalMillis + " ms" : "profiler off",
+        TimeUnit.NANOSECONDS.toMillis(nanos / iterations));
+  }
+}
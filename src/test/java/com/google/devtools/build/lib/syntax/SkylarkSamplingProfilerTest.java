@@ -0,0 +1,110 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.syntax.util.EvaluationTestCase;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link SkylarkSamplingProfiler}. */
+@RunWith(JUnit4.class)
+public class SkylarkSamplingProfilerTest extends EvaluationTestCase {
+
+  private final ByteArrayOutputStream cpuProfile = new ByteArrayOutputStream();
+  private final ByteArrayOutputStream allocationProfile = new ByteArrayOutputStream();
+
+  @After
+  public final void stopProfiler() throws Exception {
+    SkylarkSamplingProfiler.instance().stop();
+  }
+
+  private static String toString(ByteArrayOutputStream profile) {
+    return new String(profile.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static boolean isSampling() {
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().equals("skylark-sampling-profiler")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Test
+  public void testCostIsAttributedToCallStacks() throws Exception {
+    eval(
+        "def inner():",
+        "  return [str(i) for i in range(1000)]",
+        "def outer():",
+        "  return inner()");
+    SkylarkSamplingProfiler.instance().start(cpuProfile, allocationProfile, 1);
+    long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+    while (System.nanoTime() < end) {
+      eval("outer()");
+    }
+    SkylarkSamplingProfiler.instance().stop();
+
+    // Each line is a call stack, outermost first, and its total.
+    String line = "(^|\n)([^;\n]*:)?outer;([^;\n]*:)?inner(;[^;\n ]+)* [1-9][0-9]*\n";
+    assertThat(toString(cpuProfile)).containsMatch(line);
+    assertThat(toString(allocationProfile)).containsMatch(line);
+  }
+
+  @Test
+  public void testNothingIsRecordedOutsideOfFunctions() throws Exception {
+    SkylarkSamplingProfiler.instance().start(cpuProfile, allocationProfile, 1);
+    eval("x = 1 + 2");
+    Thread.sleep(20);
+    SkylarkSamplingProfiler.instance().stop();
+
+    assertThat(toString(cpuProfile)).isEmpty();
+    assertThat(toString(allocationProfile)).isEmpty();
+  }
+
+  @Test
+  public void testProfilesAreOptional() throws Exception {
+    eval("def f():", "  return [str(i) for i in range(1000)]");
+    SkylarkSamplingProfiler.instance().start(null, allocationProfile, 1);
+    assertThat(isSampling()).isTrue();
+    long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50);
+    while (System.nanoTime() < end) {
+      eval("f()");
+    }
+    SkylarkSamplingProfiler.instance().stop();
+    assertThat(isSampling()).isFalse();
+    assertThat(toString(allocationProfile)).containsMatch("(^|\n)([^;\n]*:)?f(;[^;\n ]+)* ");
+
+    // Stopping twice does nothing.
+    SkylarkSamplingProfiler.instance().stop();
+    assertThat(isSampling()).isFalse();
+  }
+
+  @Test
+  public void testNothingIsSampledWithoutProfiles() throws Exception {
+    eval("def f():", "  return 1");
+    SkylarkSamplingProfiler.instance().start(null, null, 1);
+    assertThat(SkylarkSamplingProfiler.isRunning()).isFalse();
+    assertThat(isSampling()).isFalse();
+    eval("f()");
+    SkylarkSamplingProfiler.instance().stop();
+  }
+}
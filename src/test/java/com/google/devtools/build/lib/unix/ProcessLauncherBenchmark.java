@@ -0,0 +1,124 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.unix;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.shell.JavaSubprocessFactory;
+import com.google.devtools.build.lib.shell.Subprocess;
+import com.google.devtools.build.lib.shell.SubprocessBuilder;
+import com.google.devtools.build.lib.util.BlazeClock;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast no-op actions can be started and waited for, both by the server itself and
+ * through the process-launcher, like a build whose action graph consists only of actions that do
+ * nothing.
+ *
+ * <p>Usage: {@code ProcessLauncherBenchmark <process-launcher> <scratch dir> [<actions> [<jobs>]]}
+ */
+public final class ProcessLauncherBenchmark {
+
+  private final File scratch;
+  private final int actions;
+  private final int jobs;
+
+  private ProcessLauncherBenchmark(File scratch, int actions, int jobs) {
+    this.scratch = scratch;
+    this.actions = actions;
+    this.jobs = jobs;
+  }
+
+  public static void main(String[] args) throws Exception {
+    File launcherBinary = new File(args[0]);
+    File scratch = new File(args[1]);
+    int actions = args.length > 2 ? Integer.parseInt(args[2]) : 5000;
+    int jobs = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+    ProcessLauncherBenchmark benchmark = new ProcessLauncherBenchmark(scratch, actions, jobs);
+
+    ProcessLauncherSubprocessFactory launcher =
+        new ProcessLauncherSubprocessFactory(launcherBinary, new File(scratch, "fifos"));
+    try {
+      // Once each to warm up.
+      benchmark.run(JavaSubprocessFactory.INSTANCE);
+      benchmark.run(launcher);
+      benchmark.report("server", benchmark.run(JavaSubprocessFactory.INSTANCE));
+      benchmark.report("process-launcher", benchmark.run(launcher));
+    } finally {
+      launcher.close();
+    }
+  }
+
+  /** Runs all actions and returns how long it took. */
+  private long run(final Subprocess.Factory factory) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(jobs);
+    try {
+      List<Future<Void>> futures = new ArrayList<>();
+      long startNanos = BlazeClock.nanoTime();
+      for (int i = 0; i < actions; i++) {
+        final File log = new File(scratch, "action" + (i % jobs) + ".log");
+        futures.add(
+            executor.submit(
+                new Callable<Void>() {
+                  @Override
+                  public Void call() throws IOException, InterruptedException {
+                    runAction(factory, log);
+                    return null;
+                  }
+                }));
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+      return BlazeClock.nanoTime() - startNanos;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /** Runs an action that does nothing, with its output going to a file like that of any action. */
+  private static void runAction(Subprocess.Factory factory, File log)
+      throws IOException, InterruptedException {
+    SubprocessBuilder params =
+        new SubprocessBuilder()
+            .setArgv(ImmutableList.of("/bin/true"))
+            .setStdout(log)
+            .setStderr(log);
+    try (Subprocess process = factory.create(params)) {
+      process.getOutputStream().close();
+      process.waitFor();
+      if (process.exitValue() != 0) {
+        throw new IOException("exit code " + process.exitValue());
+      }
+    }
+  }
+
+  private void report(String what, long nanos) {
+    System.out.printf(
+        "%s: %d actions in %d ms with %d jobs, %d us per action%n",
+        what,
+        actions,
+        TimeUnit.NANOSECONDS.toMillis(nanos),
+        jobs,
+        TimeUnit.NANOSECONDS.toMicros(nanos / actions));
+  }
+}
@@ -1321,6 +1321,15 @@ public abstract class FileSystemTest {
         .isEqualTo(BaseEncoding.base16().lowerCase().encode(xFile.getMD5Digest()));
   }
 
+  @Test
+  public void testDigestOfContentIsDigestOfFile() throws Exception {
+    byte[] buffer = "some content".getBytes(UTF_8);
+    FileSystemUtils.writeContent(xFile, buffer);
+    for (FileSystem.HashFunction hashFunction : FileSystem.HashFunction.values()) {
+      assertThat(hashFunction.digest(buffer)).isEqualTo(xFile.getDigest(hashFunction));
+    }
+  }
+
   @Test
   public void testStatFailsFastOnNonExistingFiles() throws Exception {
     try {
@@ -126,6 +126,7 @@ public class ExampleWorker {
           WorkResponse.newBuilder()
               .setOutput(baos.toString())
               .setExitCode(exitCode)
+              .setRequestId(request.getRequestId())
               .build()
               .writeDelimitedTo(System.out);
         }
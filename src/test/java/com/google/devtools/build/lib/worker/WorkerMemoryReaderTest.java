@@ -0,0 +1,69 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import java.io.File;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link WorkerMemoryReader}. */
+@RunWith(JUnit4.class)
+public class WorkerMemoryReaderTest {
+
+  @Test
+  public void findsWorkerProcessesByTheirLogFile() throws Exception {
+    assumeTrue(new File("/proc/self/status").exists());
+    Path testRoot = new JavaIoFileSystem().getPath(TestUtils.tmpDir()).getRelative("reader");
+    FileSystemUtils.deleteTree(testRoot);
+    FileSystemUtils.createDirectoryAndParents(testRoot);
+    WorkerKey key =
+        new WorkerKey(
+            // Like the wrapper scripts of Java workers, the shell execs the actual worker.
+            ImmutableList.of("/bin/sh", "-c", "exec /bin/cat"),
+            ImmutableMap.<String, String>of(),
+            testRoot,
+            "Mnemonic",
+            HashCode.fromInt(0),
+            ImmutableMap.<PathFragment, Path>of(),
+            ImmutableSet.<PathFragment>of(),
+            /*mustBeSandboxed=*/ false);
+    Worker running = new Worker(key, 1, testRoot, testRoot.getRelative("worker-1.log"));
+    Worker stopped = new Worker(key, 2, testRoot, testRoot.getRelative("worker-2.log"));
+    running.createProcess();
+    stopped.createProcess();
+    stopped.destroy();
+    try {
+      Map<Worker, Long> residentKb =
+          new WorkerMemoryReader().getResidentSetSizesKb(ImmutableList.of(running, stopped));
+      assertThat(residentKb.keySet()).containsExactly(running);
+      assertThat(residentKb.get(running)).isGreaterThan(0L);
+    } finally {
+      running.destroy();
+    }
+  }
+}
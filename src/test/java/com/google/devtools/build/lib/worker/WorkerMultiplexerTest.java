@@ -0,0 +1,193 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link WorkerMultiplexer}. */
+@RunWith(JUnit4.class)
+public class WorkerMultiplexerTest {
+
+  /** A worker whose requests are recorded and whose responses are written by the test. */
+  private static final class FakeWorker extends Worker {
+    private final ByteArrayOutputStream requests = new ByteArrayOutputStream();
+    private final PipedOutputStream responses = new PipedOutputStream();
+    private final PipedInputStream stdout;
+
+    FakeWorker(WorkerKey key, Path workDir) throws IOException {
+      super(key, 1, workDir, workDir.getRelative("worker.log"));
+      stdout = new PipedInputStream(responses);
+    }
+
+    @Override
+    boolean isAlive() {
+      return true;
+    }
+
+    @Override
+    InputStream getInputStream() {
+      return stdout;
+    }
+
+    @Override
+    OutputStream getOutputStream() {
+      return requests;
+    }
+
+    /** Returns the requests sent so far, by their first argument. */
+    Map<String, Integer> getRequestIds() throws IOException {
+      Map<String, Integer> ids = new HashMap<>();
+      InputStream in = new ByteArrayInputStream(requests.toByteArray());
+      try {
+        WorkRequest request;
+        while ((request = WorkRequest.parseDelimitedFrom(in)) != null) {
+          ids.put(request.getArguments(0), request.getRequestId());
+        }
+      } catch (InvalidProtocolBufferException e) {
+        // The last request is still being written.
+      }
+      return ids;
+    }
+
+    void respond(int requestId, String output) throws IOException {
+      WorkResponse.newBuilder()
+          .setRequestId(requestId)
+          .setOutput(output)
+          .build()
+          .writeDelimitedTo(responses);
+      responses.flush();
+    }
+  }
+
+  private FakeWorker worker;
+  private WorkerMultiplexer multiplexer;
+  private ExecutorService executor;
+
+  @Before
+  public final void setUp() throws Exception {
+    Path execRoot = new InMemoryFileSystem().getPath("/exec/root");
+    WorkerKey key =
+        new WorkerKey(
+            ImmutableList.of("worker"),
+            ImmutableMap.<String, String>of(),
+            execRoot,
+            "Mnemonic",
+            HashCode.fromInt(0),
+            ImmutableMap.<PathFragment, Path>of(),
+            ImmutableSet.<PathFragment>of(),
+            /*mustBeSandboxed=*/ false);
+    worker = new FakeWorker(key, execRoot);
+    multiplexer = new WorkerMultiplexer(worker);
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public final void tearDown() throws Exception {
+    executor.shutdownNow();
+    worker.destroy();
+  }
+
+  private Future<WorkResponse> execute(final String argument) {
+    return executor.submit(
+        new Callable<WorkResponse>() {
+          @Override
+          public WorkResponse call() throws Exception {
+            return multiplexer.execute(WorkRequest.newBuilder().addArguments(argument).build());
+          }
+        });
+  }
+
+  /** Waits until the given number of requests were sent, and returns their ids. */
+  private Map<String, Integer> awaitRequests(int count) throws Exception {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (System.nanoTime() < deadline) {
+      Map<String, Integer> ids = worker.getRequestIds();
+      if (ids.size() >= count) {
+        return ids;
+      }
+      Thread.sleep(10);
+    }
+    throw new AssertionError("Requests were not sent");
+  }
+
+  @Test
+  public void responsesAreRoutedByRequestId() throws Exception {
+    Future<WorkResponse> a = execute("a");
+    Future<WorkResponse> b = execute("b");
+    Map<String, Integer> ids = awaitRequests(2);
+    assertThat(ids.get("a")).isNotEqualTo(ids.get("b"));
+
+    // Responses may arrive in any order.
+    worker.respond(ids.get("b"), "output of b");
+    assertThat(b.get(10, TimeUnit.SECONDS).getOutput()).isEqualTo("output of b");
+    assertThat(a.isDone()).isFalse();
+    worker.respond(ids.get("a"), "output of a");
+    assertThat(a.get(10, TimeUnit.SECONDS).getOutput()).isEqualTo("output of a");
+    assertThat(multiplexer.isUsable()).isTrue();
+  }
+
+  @Test
+  public void workerDyingMidRequestFailsPendingRequests() throws Exception {
+    Future<WorkResponse> a = execute("a");
+    awaitRequests(1);
+
+    // The worker process exits, which closes its stdout.
+    worker.responses.close();
+    try {
+      a.get(10, TimeUnit.SECONDS);
+      fail("Expected the request to fail");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause()).isInstanceOf(IOException.class);
+    }
+    assertThat(multiplexer.isUsable()).isFalse();
+    try {
+      multiplexer.execute(WorkRequest.newBuilder().addArguments("b").build());
+      fail("Expected the multiplexer to reject further requests");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,178 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.common.options.Options;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for the memory budget of {@link WorkerPool}. */
+@RunWith(JUnit4.class)
+public class WorkerPoolTest {
+
+  private static final long MB = 1024;
+
+  private Path execRoot;
+  private WorkerFactory factory;
+  private WorkerPool pool;
+  // The resident memory the pool sees for each worker, in KB.
+  private final Map<Worker, Long> residentKb = new HashMap<>();
+
+  @Before
+  public final void setUp() throws Exception {
+    Path testRoot = new JavaIoFileSystem().getPath(TestUtils.tmpDir()).getRelative("pool");
+    FileSystemUtils.deleteTree(testRoot);
+    execRoot = testRoot.getRelative("execroot");
+    Path workerBaseDir = testRoot.getRelative("workers");
+    FileSystemUtils.createDirectoryAndParents(execRoot);
+    FileSystemUtils.createDirectoryAndParents(workerBaseDir);
+
+    WorkerWarmup warmup = new WorkerWarmup();
+    factory =
+        new WorkerFactory(Options.getDefaults(WorkerOptions.class), workerBaseDir, warmup);
+    WorkerPoolConfig config = new WorkerPoolConfig();
+    config.setMaxTotalPerKey(2);
+    config.setMaxIdlePerKey(2);
+    config.setMaxTotal(-1);
+    config.setTestOnBorrow(true);
+    config.setTestOnReturn(true);
+    config.setTimeBetweenEvictionRunsMillis(-1);
+    pool =
+        new WorkerPool(
+            factory,
+            config,
+            warmup,
+            new WorkerMemoryReader() {
+              @Override
+              Map<Worker, Long> getResidentSetSizesKb(Collection<Worker> workers) {
+                Map<Worker, Long> sizes = new HashMap<>();
+                for (Worker worker : workers) {
+                  if (residentKb.containsKey(worker)) {
+                    sizes.put(worker, residentKb.get(worker));
+                  }
+                }
+                return sizes;
+              }
+            });
+  }
+
+  @After
+  public final void tearDown() throws Exception {
+    pool.close();
+  }
+
+  private WorkerKey createKey(String mnemonic) {
+    // The workers are never sent a request, so any process that waits for its stdin will do.
+    return new WorkerKey(
+        ImmutableList.of("/bin/cat"),
+        ImmutableMap.<String, String>of(),
+        execRoot,
+        mnemonic,
+        HashCode.fromInt(0),
+        ImmutableMap.<PathFragment, Path>of(),
+        ImmutableSet.<PathFragment>of(),
+        /*mustBeSandboxed=*/ false);
+  }
+
+  private Worker borrow(WorkerKey key, long kb) throws Exception {
+    Worker worker = pool.borrowObject(key);
+    residentKb.put(worker, kb);
+    return worker;
+  }
+
+  @Test
+  public void leastRecentlyUsedIdleWorkersAreEvicted() throws Exception {
+    WorkerKey javac = createKey("Javac");
+    WorkerKey work = createKey("Work");
+    pool.setMemoryBudgetMb(2);
+    Worker first = borrow(javac, MB);
+    Worker second = borrow(javac, MB);
+    Worker busy = borrow(work, MB);
+
+    pool.returnObject(javac, first);
+    Thread.sleep(10);
+    pool.returnObject(javac, second);
+    pool.enforceMemoryBudget();
+
+    // Evicting the worker that was idle the longest is enough to fit the budget.
+    assertThat(first.isEvicted()).isTrue();
+    assertThat(second.isEvicted()).isFalse();
+    assertThat(busy.isEvicted()).isFalse();
+    assertThat(factory.getLiveWorkers()).containsExactly(second, busy);
+    assertThat(pool.isOverMemoryBudget()).isFalse();
+    assertThat(pool.borrowObject(javac)).isSameAs(second);
+  }
+
+  @Test
+  public void busyWorkersAreNotEvicted() throws Exception {
+    WorkerKey javac = createKey("Javac");
+    pool.setMemoryBudgetMb(1);
+    Worker worker = borrow(javac, 2 * MB);
+
+    pool.enforceMemoryBudget();
+    assertThat(worker.isEvicted()).isFalse();
+    assertThat(pool.isOverMemoryBudget()).isTrue();
+
+    // As soon as the worker is idle, it is evicted.
+    pool.returnObject(javac, worker);
+    pool.enforceMemoryBudget();
+    assertThat(worker.isEvicted()).isTrue();
+    assertThat(factory.getLiveWorkers()).isEmpty();
+    assertThat(pool.isOverMemoryBudget()).isFalse();
+  }
+
+  @Test
+  public void nothingIsEvictedWithoutBudget() throws Exception {
+    WorkerKey javac = createKey("Javac");
+    pool.setMemoryBudgetMb(0);
+    Worker worker = borrow(javac, 1024 * MB);
+
+    pool.returnObject(javac, worker);
+    pool.enforceMemoryBudget();
+    assertThat(worker.isEvicted()).isFalse();
+    assertThat(pool.isOverMemoryBudget()).isFalse();
+  }
+
+  @Test
+  public void workersWithUnknownMemoryAreKept() throws Exception {
+    WorkerKey javac = createKey("Javac");
+    pool.setMemoryBudgetMb(1);
+    Worker unknown = pool.borrowObject(javac);
+    Worker large = borrow(javac, 2 * MB);
+
+    pool.returnObject(javac, unknown);
+    pool.returnObject(javac, large);
+    pool.enforceMemoryBudget();
+    assertThat(unknown.isEvicted()).isFalse();
+    assertThat(large.isEvicted()).isTrue();
+    assertThat(factory.getLiveWorkers()).containsExactly(unknown);
+  }
+}
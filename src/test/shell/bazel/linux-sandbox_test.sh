@@ -224,6 +224,24 @@ function test_dev_shm_is_writable() {
     &> $TEST_log || fail
 }
 
+function test_overlay_requires_scratch_dir() {
+  mkdir -p ${TEST_TMPDIR}/lower
+  $linux_sandbox $SANDBOX_DEFAULT_OPTS -O ${TEST_TMPDIR}/lower -- /bin/true \
+    &> $TEST_log && fail "linux-sandbox accepted -O without -S"
+  expect_log "The -O and -S options must be used together."
+}
+
+function test_overlay_keeps_lower_dir_unchanged() {
+  mkdir -p ${TEST_TMPDIR}/lower ${TEST_TMPDIR}/scratch/{upper,work}
+  echo "input" > ${TEST_TMPDIR}/lower/input.txt
+  $linux_sandbox $SANDBOX_DEFAULT_OPTS \
+    -O ${TEST_TMPDIR}/lower -S ${TEST_TMPDIR}/scratch \
+    -- /bin/bash -c "cat input.txt > output.txt" &> $TEST_log \
+    || { echo "overlay file systems are not supported here, skipping"; return 0; }
+  assert_equals "input" "$(cat ${TEST_TMPDIR}/scratch/upper/output.txt)"
+  [ ! -e ${TEST_TMPDIR}/lower/output.txt ] || fail "output.txt was written to the lower dir"
+}
+
 # The test shouldn't fail if the environment doesn't support running it.
 check_supported_platform || exit 0
 check_sandbox_allowed || exit 0
@@ -0,0 +1,123 @@
+#!/bin/bash
+#
+# Copyright 2017 The Bazel Authors. All rights reserved.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#    http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# Tests the process-launcher helper binary.
+#
+
+# Load the test setup defined in the parent directory
+CURRENT_DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")" && pwd)"
+source "${CURRENT_DIR}/../integration_test_setup.sh" \
+  || { echo "integration_test_setup.sh not found!" >&2; exit 1; }
+
+readonly OUT_DIR="${TEST_TMPDIR}/out"
+readonly OUT="${OUT_DIR}/outfile"
+readonly ERR="${OUT_DIR}/errfile"
+readonly RESPONSES="${OUT_DIR}/responses"
+
+function set_up() {
+  rm -rf $OUT_DIR
+  mkdir -p $OUT_DIR
+}
+
+# Sends the given NUL-terminated fields to the launcher and keeps its stdin open
+# until it reported that all spawned processes exited, as it kills them when
+# stdin is closed.
+function launch() {
+  local count="$1"
+  shift
+  { printf '%s\0' "$@"
+    while [[ "$(grep -s -c '^exited ' $RESPONSES)" -lt "$count" ]]; do
+      sleep 0.1
+    done
+  } | $process_launcher > $RESPONSES 2>> $TEST_log || fail "process-launcher failed"
+}
+
+function test_basic_functionality() {
+  launch 1 spawn 1 $OUT_DIR "" "a$OUT" "a$ERR" 3 /bin/echo hi there -1
+  assert_contains "^started 1 [0-9]*$" $RESPONSES
+  assert_contains "^exited 1 0 [0-9]* [0-9]* [0-9]* [0-9]* [0-9]*$" $RESPONSES
+  assert_equals "hi there" "$(cat $OUT)"
+  assert_equals "" "$(cat $ERR)"
+}
+
+function test_working_directory_and_environment() {
+  mkdir -p $OUT_DIR/dir
+  launch 1 spawn 1 $OUT_DIR/dir "" "a$OUT" "" 3 /bin/sh -c 'echo $FOO; pwd' \
+      1 FOO=bar
+  assert_equals "bar
+$OUT_DIR/dir" "$(cat $OUT)"
+}
+
+function test_path_lookup() {
+  launch 1 spawn 1 $OUT_DIR "" "a$OUT" "" 2 echo hi -1
+  assert_equals "hi" "$(cat $OUT)"
+}
+
+function test_exit_code() {
+  launch 1 spawn 1 $OUT_DIR "" "" "" 3 /bin/sh -c "exit 71" -1
+  assert_contains "^exited 1 71 " $RESPONSES
+}
+
+function test_signal_death() {
+  launch 1 spawn 1 $OUT_DIR "" "" "" 3 /bin/sh -c 'kill -ABRT $$' -1
+  assert_contains "^exited 1 134 " $RESPONSES # SIGNAL_BASE + SIGABRT = 128 + 6
+}
+
+function test_kill() {
+  launch 1 spawn 1 $OUT_DIR "" "" "" 2 /bin/sleep 100 -1 kill 1 15
+  assert_contains "^exited 1 143 " $RESPONSES # SIGNAL_BASE + SIGTERM = 128 + 15
+}
+
+function test_exec_failure() {
+  launch 1 spawn 1 $OUT_DIR "" "" "" 1 /bin/notexisting -1
+  assert_contains "^failed 1 2$" $RESPONSES # ENOENT
+}
+
+function test_concurrent_processes() {
+  launch 2 \
+      spawn 1 $OUT_DIR "" "a$OUT" "" 3 /bin/sh -c "sleep 1; echo slow" -1 \
+      spawn 2 $OUT_DIR "" "a$OUT" "" 2 /bin/echo fast -1
+  assert_equals "fast
+slow" "$(cat $OUT)"
+  assert_contains "^exited 1 0 " $RESPONSES
+  assert_contains "^exited 2 0 " $RESPONSES
+}
+
+function test_children_die_with_launcher() {
+  if [[ "${PLATFORM}" != "linux" ]]; then
+    echo "Skipping test: the launcher only kills its children on Linux." 1>&2
+    return 0
+  fi
+  $process_launcher > $RESPONSES 2>> $TEST_log < <(
+      printf '%s\0' spawn 1 $OUT_DIR "" "" "" 2 /bin/sleep 1000 -1
+      sleep 10) &
+  local launcher_pid=$!
+  local i
+  for i in $(seq 50); do
+    grep -s -q '^started 1 ' $RESPONSES && break
+    sleep 0.1
+  done
+  local child_pid="$(awk '/^started 1 /{print $3}' $RESPONSES)"
+  [[ -n "$child_pid" ]] || fail "process was not started"
+  kill -KILL $launcher_pid || fail "could not kill process-launcher"
+  for i in $(seq 50); do
+    [[ "$(ps -o stat= -p $child_pid)" =~ ^Z?$ ]] && return 0
+    sleep 0.1
+  done
+  fail "process $child_pid survived the launcher"
+}
+
+run_suite "process-launcher"
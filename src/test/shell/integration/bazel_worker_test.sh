@@ -122,13 +122,17 @@ def _impl(ctx):
     argfile_inputs.append(argfile)
     argfile_arguments.append("@" + argfile.path)
 
+  execution_requirements = {"supports-workers": "1"}
+  if ctx.attr.multiplex:
+    execution_requirements["supports-multiplex-workers"] = "1"
+
   ctx.action(
       inputs=argfile_inputs + ctx.files.srcs,
       outputs=[output],
       executable=worker,
       progress_message="Working on %s" % ctx.label.name,
       mnemonic="Work",
-      execution_requirements={"supports-workers": "1"},
+      execution_requirements=execution_requirements,
       arguments=ctx.attr.worker_args + argfile_arguments,
   )
 
@@ -140,6 +144,7 @@ work = rule(
         "args": attr.string_list(),
         "srcs": attr.label_list(allow_files=True),
         "multiflagfiles": attr.bool(default=False),
+        "multiplex": attr.bool(default=False),
     },
     outputs = {"out": "%{name}.out"},
 )
@@ -206,6 +211,61 @@ EOF
   assert_equals "hello world nice to meet you" "$(cat $BINS/multi_hello_world.out)"
 }
 
+function test_multiplex_worker_handles_all_requests() {
+  prepare_example_worker
+  cat >>BUILD <<'EOF'
+[work(
+  name = "hello_world_%s" % idx,
+  worker = ":worker",
+  args = ["--write_uuid", "--write_counter"],
+  multiplex = True,
+) for idx in range(10)]
+EOF
+
+  bazel build --worker_max_instances=4 :all &> $TEST_log \
+    || fail "build failed"
+  # All requests went to the same process, even though the pool would have allowed four.
+  uuids=$(cat $BINS/hello_world_*.out | grep UUID | sort -u | wc -l)
+  assert_equals "1" $uuids
+  work_count=$(cat $BINS/hello_world_*.out | grep COUNTER | cut -d' ' -f2 | sort -n | tail -1)
+  assert_equals "10" $work_count
+}
+
+function test_worker_start_is_reported() {
+  prepare_example_worker
+  cat >>BUILD <<'EOF'
+genrule(
+  name = "slow",
+  outs = ["slow.txt"],
+  cmd = "sleep 10 && touch $@",
+)
+
+work(
+  name = "hello_world_0",
+  worker = ":worker",
+  args = ["--write_uuid"],
+)
+
+work(
+  name = "hello_world_1",
+  worker = ":worker",
+  args = ["--write_uuid"],
+  srcs = [":slow"],
+)
+EOF
+
+  bazel build --worker_quit_after_build :hello_world_0 &> $TEST_log \
+    || fail "build failed"
+  expect_log "Workers: 0 actions used a running worker, 1 waited for one to start"
+
+  # The worker that the previous build needed is started as soon as execution begins, while the
+  # slow genrule still runs, so the worker action finds it running.
+  bazel build --worker_quit_after_build --experimental_worker_prewarm :hello_world_1 \
+      &> $TEST_log || fail "build failed"
+  expect_log "Workers: 1 actions used a running worker, 0 waited for one to start; "
+  expect_log "1 worker processes started (1 ahead of demand)"
+}
+
 function test_workers_quit_after_build() {
   prepare_example_worker
   cat >>BUILD <<'EOF'
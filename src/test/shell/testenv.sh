@@ -114,6 +114,7 @@ langtools_dir="$(dirname $(rlocation io_bazel/third_party/java/jdk/langtools/BUI
 # Sandbox tools
 process_wrapper="${BAZEL_RUNFILES}/src/main/tools/process-wrapper"
 linux_sandbox="${BAZEL_RUNFILES}/src/main/tools/linux-sandbox"
+process_launcher="${BAZEL_RUNFILES}/src/main/tools/process-launcher"
 
 # Test data
 testdata_path=${BAZEL_RUNFILES}/src/test/shell/bazel/testdata
@@ -36,13 +36,15 @@ final class BazelBuildCase implements BuildCase {
           .put("java/ManyFiles", "Java Target: Many Files")
           .put("java/LongChainedDeps", "Java Target: Long Chained Deps")
           .put("java/ParallelDeps", "Java Target: Parallel Deps")
+          .put("java/GiantPackage", "Java Target: Giant Package")
           .put("cpp/AFewFiles", "Cpp Target: A Few Files")
           .put("cpp/ManyFiles", "Cpp Target: Many Files")
           .put("cpp/LongChainedDeps", "Cpp Target: Long Chained Deps")
           .put("cpp/ParallelDeps", "Cpp Target: Parallel Deps")
+          .put("cpp/GiantPackage", "Cpp Target: Giant Package")
           .build();
   private static final ImmutableSet<String> ALL_TARGET_NAMES = ImmutableSet.<String>of(
-      "AFewFiles", "ManyFiles", "LongChainedDeps", "ParallelDeps");
+      "AFewFiles", "ManyFiles", "LongChainedDeps", "ParallelDeps", "GiantPackage");
   private static final String WORKSPACE_FILE_NAME = "WORKSPACE";
   private static final ImmutableList<BuildTargetConfig> defaultBuildTargetConfigs =
       getDefaultBuildTargetConfigs();
@@ -21,7 +21,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 
 /**
- * Abstract base class for creating 4 types of project, or modify existing ones.
+ * Abstract base class for creating 5 types of project, or modify existing ones.
  * Subclasses are for different languages.
  */
 public abstract class CodeGenerator {
@@ -30,6 +30,7 @@ public abstract class CodeGenerator {
   @VisibleForTesting static final String TARGET_MANY_FILES = "ManyFiles";
   @VisibleForTesting static final String TARGET_LONG_CHAINED_DEPS = "LongChainedDeps";
   @VisibleForTesting static final String TARGET_PARALLEL_DEPS = "ParallelDeps";
+  @VisibleForTesting static final String TARGET_GIANT_PACKAGE = "GiantPackage";
 
   public void generateNewProject(String outputDir, ImmutableSet<String> projectNames) {
     Path dir = Paths.get(outputDir);
@@ -47,6 +48,9 @@ public abstract class CodeGenerator {
         case TARGET_PARALLEL_DEPS:
           createTargetWithParallelDeps(dir.resolve(TARGET_PARALLEL_DEPS));
           break;
+        case TARGET_GIANT_PACKAGE:
+          createTargetWithGiantPackage(dir.resolve(TARGET_GIANT_PACKAGE));
+          break;
         default:
           // Do nothing
       }
@@ -69,6 +73,9 @@ public abstract class CodeGenerator {
         case TARGET_PARALLEL_DEPS:
           modifyTargetWithParallelDeps(dir.resolve(TARGET_PARALLEL_DEPS));
           break;
+        case TARGET_GIANT_PACKAGE:
+          modifyTargetWithGiantPackage(dir.resolve(TARGET_GIANT_PACKAGE));
+          break;
         default:
           // Do nothing
       }
@@ -84,9 +91,13 @@ public abstract class CodeGenerator {
   abstract void createTargetWithParallelDeps(Path projectPath);
   abstract void modifyTargetWithParallelDeps(Path projectPath);
 
+  abstract void createTargetWithGiantPackage(Path projectPath);
+  abstract void modifyTargetWithGiantPackage(Path projectPath);
+
   public abstract String getDirSuffix();
   public abstract int getSizeAFewFiles();
   public abstract int getSizeManyFiles();
   public abstract int getSizeLongChainedDeps();
   public abstract int getSizeParallelDeps();
+  public abstract int getSizeGiantPackage();
 }
\ No newline at end of file
@@ -178,6 +178,29 @@ class CppCodeGeneratorHelper {
         ")");
   }
 
+  static void writeLibrariesMacroToDir(int rulesPerCall, Path dir) throws IOException {
+    writeLinesToFile(dir.resolve("macros.bzl"),
+        "def libraries(name, count = " + rulesPerCall + "):",
+        "  for i in range(count):",
+        "    native.cc_library(",
+        "        name = '%s_%d' % (name, i),",
+        "        srcs = [ 'RandomClass0.cc', 'RandomClass0.h' ],",
+        "    )");
+  }
+
+  static void appendMacroCallsToBuildFile(int from, int count, boolean load, Path dir)
+      throws IOException {
+    String[] lines = new String[count + (load ? 1 : 0)];
+    int line = 0;
+    if (load) {
+      lines[line++] = "load(':macros.bzl', 'libraries')";
+    }
+    for (int i = from; i < from + count; ++i) {
+      lines[line++] = "libraries(name = 'Libraries" + i + "')";
+    }
+    appendLinesToFile(dir.resolve(BUILD_FILE_NAME), lines);
+  }
+
   private static void appendLinesToFile(Path filePath, String... lines) throws IOException {
     writeOrAppendLinesToFile(true, filePath, lines);
   }
@@ -45,7 +45,7 @@ public class GeneratorOptions extends OptionsBase {
       category = "generator",
       allowMultiple = true,
       help = "which project we should generate,"
-          + " available: AFewFiles, ManyFiles, LongChainedDeps, ParallelDeps"
+          + " available: AFewFiles, ManyFiles, LongChainedDeps, ParallelDeps, GiantPackage"
   )
   public List<String> projectNames;
 }
@@ -19,13 +19,15 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
-/** Create 4 types of Java project, or modify existing ones. */
+/** Create 5 types of Java project, or modify existing ones. */
 public class JavaCodeGenerator extends CodeGenerator {
 
   private static final int SIZE_A_FEW_FILES = 10;
   private static final int SIZE_MANY_FILES = 1000;
   private static final int SIZE_LONG_CHAINED_DEPS = 20;
   private static final int SIZE_PARALLEL_DEPS = 20;
+  private static final int SIZE_GIANT_PACKAGE = 2000;
+  private static final int RULES_PER_MACRO_CALL = 10;
 
   private static final String DIR_SUFFIX = "/java";
 
@@ -54,6 +56,11 @@ public class JavaCodeGenerator extends CodeGenerator {
     return SIZE_PARALLEL_DEPS;
   }
 
+  @Override
+  public int getSizeGiantPackage() {
+    return SIZE_GIANT_PACKAGE;
+  }
+
 
   /** Target type 1/2: Create targets with some files */
   @Override
@@ -196,6 +203,49 @@ public class JavaCodeGenerator extends CodeGenerator {
     }
   }
 
+  /**
+   * Target type 5: Create a giant package, in which thousands of macro calls create libraries in
+   * a loop, and a binary
+   */
+  @Override
+  void createTargetWithGiantPackage(Path projectPath) {
+    if (pathExists(projectPath)) {
+      return;
+    }
+
+    try {
+      Files.createDirectories(projectPath);
+
+      JavaCodeGeneratorHelper.writeRandomClassToDir(
+          /* addExtraMethod = */ false, "RandomClass0", "com.example.generated", projectPath);
+      JavaCodeGeneratorHelper.writeLibrariesMacroToDir(RULES_PER_MACRO_CALL, projectPath);
+      JavaCodeGeneratorHelper.buildFileWithMacroCalls(
+          0, SIZE_GIANT_PACKAGE, /* load = */ true, projectPath);
+
+      JavaCodeGeneratorHelper.writeMainClassToDir("com.example.generated", projectPath);
+      JavaCodeGeneratorHelper.buildFileWithMainClass(TARGET_GIANT_PACKAGE, "", projectPath);
+    } catch (IOException e) {
+      System.err.println("Error creating target with a giant package: " + e.getMessage());
+    }
+  }
+
+  /** Target type 5: Modify a giant package, so that it has to be loaded again */
+  @Override
+  void modifyTargetWithGiantPackage(Path projectPath) {
+    File dir = projectPath.toFile();
+    if (directoryNotExists(dir)) {
+      System.err.format(
+          "Project dir (%s) does not contain code for modification.\n", projectPath.toString());
+      return;
+    }
+    try {
+      JavaCodeGeneratorHelper.buildFileWithMacroCalls(
+          SIZE_GIANT_PACKAGE, 1, /* load = */ false, projectPath);
+    } catch (IOException e) {
+      System.err.println("Error modifying target with a giant package: " + e.getMessage());
+    }
+  }
+
   private static boolean pathExists(Path path) {
     File dir = path.toFile();
     if (dir.exists()) {
@@ -171,6 +171,46 @@ class JavaCodeGeneratorHelper {
     createAndAppendFile(buildFilePath, buildFileContent);
   }
 
+  /**
+   * Writes {@code macros.bzl} to {@code projectPath}, with a macro that creates
+   * {@code rulesPerCall} libraries in a loop.
+   */
+  static void writeLibrariesMacroToDir(int rulesPerCall, Path projectPath) throws IOException {
+    Path macroFilePath = projectPath.resolve("macros.bzl");
+
+    String macroFileContent =
+        String.format(
+            JOINER
+                .join(
+                    "def libraries(name, count = %d):",
+                    "  for i in range(count):",
+                    "    native.java_library(",
+                    "        name = '%%s_%%d' %% (name, i),",
+                    "        srcs = [ 'com/example/generated/RandomClass0.java' ],",
+                    "        visibility = [ '//visibility:public' ],",
+                    "    )",
+                    ""),
+            rulesPerCall);
+
+    createAndAppendFile(macroFilePath, macroFileContent);
+  }
+
+  /** Appends {@code count} calls of the macro of {@code macros.bzl} to the BUILD file. */
+  static void buildFileWithMacroCalls(int from, int count, boolean load, Path projectPath)
+      throws IOException {
+    Path buildFilePath = projectPath.resolve("BUILD");
+
+    StringBuilder buildFileContent = new StringBuilder();
+    if (load) {
+      buildFileContent.append("load(':macros.bzl', 'libraries')\n");
+    }
+    for (int i = from; i < from + count; ++i) {
+      buildFileContent.append(String.format("libraries(name = 'Libraries%d')\n", i));
+    }
+
+    createAndAppendFile(buildFilePath, buildFileContent.toString());
+  }
+
   private static MethodSpec genRandomMethod(String methodName) {
     return MethodSpec.methodBuilder(methodName)
         .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
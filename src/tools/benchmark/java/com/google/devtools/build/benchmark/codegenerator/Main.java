@@ -28,7 +28,8 @@ public class Main {
       CodeGenerator.TARGET_A_FEW_FILES,
       CodeGenerator.TARGET_MANY_FILES,
       CodeGenerator.TARGET_LONG_CHAINED_DEPS,
-      CodeGenerator.TARGET_PARALLEL_DEPS);
+      CodeGenerator.TARGET_PARALLEL_DEPS,
+      CodeGenerator.TARGET_GIANT_PACKAGE);
 
   private static final Logger logger = Logger.getLogger(Main.class.getName());
 
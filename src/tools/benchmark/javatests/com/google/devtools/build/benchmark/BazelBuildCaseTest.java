@@ -76,7 +76,7 @@ public class BazelBuildCaseTest {
         .containsExactly("cpp", "java", "WORKSPACE");
 
     ImmutableSet<String> targets = ImmutableSet.of(
-        "AFewFiles", "LongChainedDeps", "ManyFiles", "ParallelDeps");
+        "AFewFiles", "LongChainedDeps", "ManyFiles", "ParallelDeps", "GiantPackage");
     ImmutableSet<String> sourceCppList =
         fileArrayToImmutableSet(source.resolve("cpp").toFile().listFiles());
     ImmutableSet<String> sourceJavaList =
@@ -15,11 +15,13 @@
 package com.google.devtools.build.benchmark.codegenerator;
 
 import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.collect.ImmutableSet;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import org.junit.Rule;
 import org.junit.Test;
@@ -42,10 +44,11 @@ public class CppCodeGeneratorTest {
         CppCodeGenerator.TARGET_A_FEW_FILES,
         CppCodeGenerator.TARGET_LONG_CHAINED_DEPS,
         CppCodeGenerator.TARGET_MANY_FILES,
-        CppCodeGenerator.TARGET_PARALLEL_DEPS
+        CppCodeGenerator.TARGET_PARALLEL_DEPS,
+        CppCodeGenerator.TARGET_GIANT_PACKAGE
     ));
 
-    // Check dir contains 4 project directories
+    // Check dir contains 5 project directories
     File[] filesList = dir.toFile().listFiles();
     assertThat(filesList).isNotNull();
     ImmutableSet<String> filenames = fileArrayToImmutableSet(filesList);
@@ -53,7 +56,8 @@ public class CppCodeGeneratorTest {
         CppCodeGenerator.TARGET_A_FEW_FILES,
         CppCodeGenerator.TARGET_LONG_CHAINED_DEPS,
         CppCodeGenerator.TARGET_MANY_FILES,
-        CppCodeGenerator.TARGET_PARALLEL_DEPS);
+        CppCodeGenerator.TARGET_PARALLEL_DEPS,
+        CppCodeGenerator.TARGET_GIANT_PACKAGE);
 
     // Target 1: a few files
     checkSimpleTarget(
@@ -69,6 +73,10 @@ public class CppCodeGeneratorTest {
     // Target 4: parallel deps
     checkDepsTarget(
         dir, CppCodeGenerator.TARGET_PARALLEL_DEPS, cppCodeGenerator.getSizeParallelDeps());
+
+    // Target 5: giant package
+    checkGiantPackageTarget(
+        dir, CppCodeGenerator.TARGET_GIANT_PACKAGE, cppCodeGenerator.getSizeGiantPackage());
   }
 
   private static ImmutableSet<String> fileArrayToImmutableSet(File[] files) {
@@ -94,6 +102,20 @@ public class CppCodeGeneratorTest {
     assertThat(filenames).containsExactlyElementsIn(randomClassNames.build());
   }
 
+  private static void checkGiantPackageTarget(Path root, String targetName, int targetSize)
+      throws IOException {
+    File[] filesList = root.resolve(targetName).toFile().listFiles();
+    assertThat(filesList).isNotNull();
+    ImmutableSet<String> filenames = fileArrayToImmutableSet(filesList);
+    assertThat(filenames)
+        .containsExactly("BUILD", "macros.bzl", "Main.cc", "RandomClass0.h", "RandomClass0.cc");
+
+    String buildFile = new String(Files.readAllBytes(root.resolve(targetName + "/BUILD")), UTF_8);
+    assertThat(buildFile).startsWith("load(':macros.bzl', 'libraries')\n");
+    assertThat(buildFile).contains("libraries(name = 'Libraries" + (targetSize - 1) + "')\n");
+    assertThat(buildFile).contains("name = '" + targetName + "'");
+  }
+
   private static void checkDepsTarget(Path root, String targetName, int targetSize) {
     // Check all files including BUILD, .cc, .h
     File[] filesList =
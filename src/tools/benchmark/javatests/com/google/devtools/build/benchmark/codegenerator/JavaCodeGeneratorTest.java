@@ -15,10 +15,12 @@
 package com.google.devtools.build.benchmark.codegenerator;
 
 import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.collect.ImmutableSet;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import org.junit.Rule;
 import org.junit.Test;
@@ -41,9 +43,10 @@ public class JavaCodeGeneratorTest {
         JavaCodeGenerator.TARGET_A_FEW_FILES,
         JavaCodeGenerator.TARGET_LONG_CHAINED_DEPS,
         JavaCodeGenerator.TARGET_MANY_FILES,
-        JavaCodeGenerator.TARGET_PARALLEL_DEPS));
+        JavaCodeGenerator.TARGET_PARALLEL_DEPS,
+        JavaCodeGenerator.TARGET_GIANT_PACKAGE));
 
-    // Check dir contains 4 project directories
+    // Check dir contains 5 project directories
     File[] filesList = dir.toFile().listFiles();
     assertThat(filesList).isNotNull();
     ImmutableSet<String> filenames = fileArrayToImmutableSet(filesList);
@@ -51,7 +54,8 @@ public class JavaCodeGeneratorTest {
         JavaCodeGenerator.TARGET_A_FEW_FILES,
         JavaCodeGenerator.TARGET_LONG_CHAINED_DEPS,
         JavaCodeGenerator.TARGET_MANY_FILES,
-        JavaCodeGenerator.TARGET_PARALLEL_DEPS);
+        JavaCodeGenerator.TARGET_PARALLEL_DEPS,
+        JavaCodeGenerator.TARGET_GIANT_PACKAGE);
 
     // Target 1: a few files
     checkProjectPathContains(dir, JavaCodeGenerator.TARGET_A_FEW_FILES);
@@ -73,6 +77,27 @@ public class JavaCodeGeneratorTest {
     checkProjectPathContains(dir, JavaCodeGenerator.TARGET_PARALLEL_DEPS);
     checkDepsTarget(
         dir, JavaCodeGenerator.TARGET_PARALLEL_DEPS, javaCodeGenerator.getSizeParallelDeps());
+
+    // Target 5: giant package
+    checkGiantPackageTarget(
+        dir, JavaCodeGenerator.TARGET_GIANT_PACKAGE, javaCodeGenerator.getSizeGiantPackage());
+  }
+
+  @Test
+  public void testModifyGiantPackage() throws IOException {
+    Path dir = folder.newFolder("ModifyGiantPackage").toPath();
+    JavaCodeGenerator javaCodeGenerator = new JavaCodeGenerator();
+    ImmutableSet<String> projectNames = ImmutableSet.of(JavaCodeGenerator.TARGET_GIANT_PACKAGE);
+    javaCodeGenerator.generateNewProject(dir.toString(), projectNames);
+    javaCodeGenerator.modifyExistingProject(dir.toString(), projectNames);
+
+    int size = javaCodeGenerator.getSizeGiantPackage();
+    String buildFile =
+        new String(
+            Files.readAllBytes(dir.resolve(JavaCodeGenerator.TARGET_GIANT_PACKAGE + "/BUILD")),
+            UTF_8);
+    assertThat(buildFile).contains("libraries(name = 'Libraries" + size + "')\n");
+    assertThat(buildFile).doesNotContain("libraries(name = 'Libraries" + (size + 1) + "')");
   }
 
   private static ImmutableSet<String> fileArrayToImmutableSet(File[] files) {
@@ -97,6 +122,24 @@ public class JavaCodeGeneratorTest {
     assertThat(filenames).containsExactly("example");
   }
 
+  private static void checkGiantPackageTarget(Path root, String targetName, int targetSize)
+      throws IOException {
+    File[] filesList = root.resolve(targetName).toFile().listFiles();
+    assertThat(filesList).isNotNull();
+    ImmutableSet<String> filenames = fileArrayToImmutableSet(filesList);
+    assertThat(filenames).containsExactly("BUILD", "com", "macros.bzl");
+
+    filesList = root.resolve(targetName).resolve("com/example/generated").toFile().listFiles();
+    assertThat(filesList).isNotNull();
+    filenames = fileArrayToImmutableSet(filesList);
+    assertThat(filenames).containsExactly("Main.java", "RandomClass0.java");
+
+    String buildFile = new String(Files.readAllBytes(root.resolve(targetName + "/BUILD")), UTF_8);
+    assertThat(buildFile).startsWith("load(':macros.bzl', 'libraries')\n");
+    assertThat(buildFile).contains("libraries(name = 'Libraries" + (targetSize - 1) + "')\n");
+    assertThat(buildFile).contains("name = '" + targetName + "'");
+  }
+
   private static void checkSimpleTarget(Path root, String targetName, int targetSize) {
     // Check Java files
     File[] filesList =